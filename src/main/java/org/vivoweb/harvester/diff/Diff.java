@@ -5,8 +5,13 @@
  ******************************************************************************/
 package org.vivoweb.harvester.diff;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Map;
@@ -20,7 +25,7 @@ import org.vivoweb.harvester.util.args.ArgList;
 import org.vivoweb.harvester.util.args.ArgParser;
 import org.vivoweb.harvester.util.args.UsageException;
 import org.vivoweb.harvester.util.repo.JenaConnect;
-import org.vivoweb.harvester.util.repo.MemJenaConnect;
+import org.vivoweb.harvester.util.repo.TDBJenaConnect;
 import org.apache.jena.query.QuerySolution;
 import org.apache.jena.query.ResultSet;
 import org.apache.jena.rdf.model.Model;
@@ -92,6 +97,18 @@ public class Diff {
 	 * dump model to a n3 file
 	 */
 	private String dumpN3;
+	/**
+	 * dump the additions (subtrahend minus minuend) to a ntriple file, only used with externalSort
+	 */
+	private String dumpReverseNTriple;
+	/**
+	 * compare sorted N-Triples dumps of the models on disk instead of building the difference in memory
+	 */
+	private boolean externalSort;
+	/**
+	 * number of lines sorted in memory at a time when externalSort is used
+	 */
+	private int sortRunSize;
 	
 	/**
 	 * Constructor
@@ -123,6 +140,7 @@ public class Diff {
 		}
 		
 		this.bHasUpdateTypes = false;
+		this.sortRunSize = SortedDiff.DEFAULT_RUN_SIZE;
 		
 		checkFileName();
 	}
@@ -164,7 +182,7 @@ public class Diff {
 		this.bHasUpdateTypes = (!this.updateTypes.isEmpty());
 		// Note: If the user specifies updateTypes but forgot to set the bUsingSelectiveDiff flag, they probably wanted to use s.Diff.
 		if( this.bHasUpdateTypes ) this.bUsingSelectiveDiff = true;
-		
+		this.sortRunSize = SortedDiff.DEFAULT_RUN_SIZE;
 		
 		checkFileName();
 	}
@@ -198,6 +216,38 @@ public class Diff {
 			argList.get("n"),
 			argList.has("e"),
 			argList.getAll("U"));
+		this.externalSort = argList.has("x");
+		if(argList.has("sort-run-size")) {
+			setSortRunSize(Integer.parseInt(argList.get("sort-run-size")));
+		}
+		this.dumpReverseNTriple = argList.get("dumpreversentripletofile");
+	}
+	
+	/**
+	 * Compare sorted N-Triples dumps of the models on disk instead of building the difference in memory
+	 * @param externalSort true to use the external sort
+	 */
+	public void setExternalSort(boolean externalSort) {
+		this.externalSort = externalSort;
+	}
+	
+	/**
+	 * Set the number of lines sorted in memory at a time when the external sort is used
+	 * @param sortRunSize the number of lines
+	 */
+	public void setSortRunSize(int sortRunSize) {
+		if(sortRunSize < 2) {
+			throw new IllegalArgumentException("Sort run size must be at least 2");
+		}
+		this.sortRunSize = sortRunSize;
+	}
+	
+	/**
+	 * Dump the additions (subtrahend minus minuend) to a ntriple file, requires the external sort
+	 * @param dumpReverseNTriple the file path
+	 */
+	public void setDumpReverseNTriple(String dumpReverseNTriple) {
+		this.dumpReverseNTriple = dumpReverseNTriple;
 	}
 	
 	/**
@@ -213,6 +263,8 @@ public class Diff {
 		parser.addArgument(new ArgDef().setShortOption('S').setLongOpt("subtrahendOverride").withParameterValueMap("JENA_PARAM", "VALUE").setDescription("override the JENA_PARAM of remove jena model config using VALUE").setRequired(false));
 		parser.addArgument(new ArgDef().setShortOption('e').setLongOpt("selective-diff").setDescription("Use selective diff").setRequired(false));
 		parser.addArgument(new ArgDef().setShortOption('U').setLongOpt("update-types").withParameterValueMap("NAME", "TYPE").setDescription("Type to be updated").setRequired(false));
+		parser.addArgument(new ArgDef().setShortOption('x').setLongOpt("external-sort").setDescription("diff sorted N-Triples dumps of the models on disk instead of in memory").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("sort-run-size").withParameter(true, "LINES").setDescription("number of lines sorted in memory at a time with external-sort (default " + SortedDiff.DEFAULT_RUN_SIZE + ")").setRequired(false));
 		
 		// Outputs
 		parser.addArgument(new ArgDef().setShortOption('o').setLongOpt("output").withParameter(true, "CONFIG_FILE").setDescription("config file for output jena model").setRequired(false));
@@ -222,6 +274,7 @@ public class Diff {
 		parser.addArgument(new ArgDef().setShortOption('d').setLongOpt("dumptofile").withParameterValueMap("FILE_NAME", "FILENAME").setDescription("filename for output").setRequired(false));
 		
 		parser.addArgument(new ArgDef().setShortOption('t').setLongOpt("dumpntripletofile").withParameter(true, "FILENAME").setDescription("filename for N triple output").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("dumpreversentripletofile").withParameter(true, "FILENAME").setDescription("filename for N triple output of the additions (subtrahend minus minuend), requires external-sort").setRequired(false));
 		parser.addArgument(new ArgDef().setShortOption('n').setLongOpt("dumpn3tofile").withParameter(true, "FILENAME").setDescription("filename for N 3 output").setRequired(false));
 		return parser;
 	}
@@ -313,8 +366,8 @@ public class Diff {
 		Model subtrahendModel = this.subtrahendJC.getJenaModel();
 		subtractionModel = minuendModel.difference(subtrahendModel);
 				
-		// Load subtractionModel into a temporary MemJena.
-		this.diffModel = new MemJenaConnect("subtractionJC");
+		// Load subtractionModel into a temporary TDB model.
+		this.diffModel = new TDBJenaConnect(null, "subtractionJC");
 		this.diffModel.getJenaModel().add(subtractionModel);
 		
 	}
@@ -404,6 +457,134 @@ public class Diff {
 		}
 	}
 	
+	/**
+	 * Diff using sorted N-Triples dumps of both models, so neither the difference nor the union of the models has to
+	 * fit in memory. Selective diff keeps the same triples its preservation queries would, found with a sorted
+	 * semi-join on subject then object instead of a query over a union model.
+	 * @throws IOException error accessing file
+	 */
+	public void sortedDiff() throws IOException {
+		SortedDiff sorter = new SortedDiff(this.sortRunSize);
+		try {
+			File minuend = sorter.dump(this.minuendJC);
+			File subtrahend = sorter.dump(this.subtrahendJC);
+			File subtraction = sorter.newFile();
+			Writer minus = SortedDiff.openWriter(subtraction);
+			Writer plus = null;
+			long count;
+			try {
+				if(this.dumpReverseNTriple != null) {
+					plus = new OutputStreamWriter(FileAide.getOutputStream(this.dumpReverseNTriple), Charset.availableCharsets().get("UTF-8"));
+				}
+				count = sorter.merge(minuend, subtrahend, minus, plus);
+			} finally {
+				minus.close();
+				if(plus != null) {
+					plus.close();
+				}
+			}
+			log.debug(count + " triples in subtraction");
+			if(this.bUsingSelectiveDiff) {
+				File preserved = sorter.newFile();
+				Writer out = SortedDiff.openWriter(preserved);
+				try {
+					count = sorter.preserve(subtraction, subtrahend, this.bHasUpdateTypes ? this.updateTypes : null, out);
+				} finally {
+					out.close();
+				}
+				log.debug(count + " triples preserved by selective diff");
+				subtraction = preserved;
+			}
+			writeSortedOutputs(subtraction);
+		} finally {
+			sorter.close();
+		}
+	}
+	
+	/**
+	 * Write a N-Triples difference file to the dump files and output model
+	 * N-Triples dump files are copied as is, other languages are written from a model loaded with the difference.
+	 * @param difference the difference file
+	 * @throws IOException error accessing file
+	 */
+	private void writeSortedOutputs(File difference) throws IOException {
+		if(this.dumpNTriple != null) {
+			copyFile(difference, this.dumpNTriple);
+		}
+		if(this.dumpFile != null) {
+			JenaConnect diffJC = null;
+			for(String filename : this.dumpFile.keySet()) {
+				String filepath = this.dumpFile.get(filename);
+				String filelanguage = "RDF/XML";
+				if((this.dumpLanguage != null) && this.dumpLanguage.containsKey(filename)) {
+					filelanguage = this.dumpLanguage.get(filename);
+				}
+				if(filelanguage.equals("N-TRIPLE") || filelanguage.equals("N-TRIPLES") || filelanguage.equals("NT")) {
+					copyFile(difference, filepath);
+				} else {
+					if(diffJC == null) {
+						diffJC = new TDBJenaConnect(null);
+						loadFile(difference, diffJC);
+					}
+					Model diffModel = diffJC.getJenaModel();
+					RDFWriter fasterWriter = diffModel.getWriter(filelanguage);
+					if (filelanguage.equals("RDF/XML")){
+						fasterWriter.setProperty("showXmlDeclaration", "true");
+						fasterWriter.setProperty("allowBadURIs", "true");
+						fasterWriter.setProperty("relativeURIs", "");
+					}
+					OutputStreamWriter osw = new OutputStreamWriter(FileAide.getOutputStream(filepath), Charset.availableCharsets().get("UTF-8"));
+					fasterWriter.write(diffModel, osw, "");
+					osw.close();
+				}
+				log.debug(filelanguage + " Data was exported to " + filepath);
+			}
+			if(diffJC != null) {
+				diffJC.close();
+			}
+		}
+		if(this.outputJC != null) {
+			loadFile(difference, this.outputJC);
+			this.outputJC.sync();
+		}
+	}
+	
+	/**
+	 * Copy a local file to a path
+	 * @param src the file
+	 * @param path the destination path
+	 * @throws IOException error copying
+	 */
+	private static void copyFile(File src, String path) throws IOException {
+		InputStream in = new FileInputStream(src);
+		OutputStream out = FileAide.getOutputStream(path);
+		try {
+			byte[] buf = new byte[65536];
+			int len;
+			while((len = in.read(buf)) != -1) {
+				out.write(buf, 0, len);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+	
+	/**
+	 * Load a N-Triples file into a model
+	 * @param src the file
+	 * @param jc the model
+	 * @throws IOException error reading
+	 */
+	private static void loadFile(File src, JenaConnect jc) throws IOException {
+		InputStream in = new FileInputStream(src);
+		try {
+			jc.loadRdfFromStream(in, null, "N-TRIPLE");
+		} finally {
+			in.close();
+		}
+	}
+	
 	/**
 	 * @param objectType The type of object to preserve
 	 * @return The query string to be executed.
@@ -493,14 +674,37 @@ public class Diff {
 	 * @throws IOException error accessing file
 	 */
 	public void execute() throws IOException {
-		if(this.bUsingSelectiveDiff)
+		if((this.dumpReverseNTriple != null) && !this.externalSort) {
+			throw new IllegalArgumentException("Dumping the additions to an N-Triples file requires the external sort");
+		}
+		if(this.externalSort) {
+			sortedDiff();
+		} else if(this.bUsingSelectiveDiff)
 		{
-			selectiveDiff();
+			try {
+				selectiveDiff();
+			} finally {
+				closeTempModels();
+			}
 		}
 		else
 			diff(this.minuendJC, this.subtrahendJC, this.outputJC, this.dumpFile, this.dumpLanguage, this.dumpNTriple, this.dumpN3);
 	}
 	
+	/**
+	 * Close the temporary models used by the selective diff, removing their temporary directories
+	 */
+	private void closeTempModels() {
+		if(this.tempModel != null) {
+			this.tempModel.close();
+			this.tempModel = null;
+		}
+		if(this.diffModel != null) {
+			this.diffModel.close();
+			this.diffModel = null;
+		}
+	}
+	
 	/**
 	 * @throws IOException JenaConnect
 	 */
@@ -508,7 +712,7 @@ public class Diff {
 //									String labelA, String labelB) throws IOException
 	private void unionModels() throws IOException
 	{
-		this.tempModel = new MemJenaConnect("urn:x-arq:UnionGraph");
+		this.tempModel = new TDBJenaConnect(null, "urn:x-arq:UnionGraph");
 		
 		JenaConnect subtractionClone = this.tempModel.neighborConnectClone("http://vivoweb.org/harvester/model/diff#subtractionModel");
 		subtractionClone.loadRdfFromJC(this.diffModel);
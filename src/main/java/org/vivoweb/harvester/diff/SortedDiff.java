@@ -0,0 +1,626 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.diff;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vivoweb.harvester.util.FileAide;
+import org.vivoweb.harvester.util.repo.JenaConnect;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.StmtIterator;
+
+/**
+ * Diff engine that works on sorted N-Triples files instead of in memory models
+ * Each model is written out as sorted runs of N-Triples lines that are merged into one sorted file, so two models can
+ * be compared by reading both files once side by side. Only one run is ever held in memory, so memory use depends on
+ * the run size rather than on the size of the models.
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class SortedDiff {
+	/**
+	 * SLF4J Logger
+	 */
+	private static Logger log = LoggerFactory.getLogger(SortedDiff.class);
+	/**
+	 * default number of lines sorted in memory at a time
+	 */
+	public static final int DEFAULT_RUN_SIZE = 200000;
+	/**
+	 * rdf:type as an N-Triples token
+	 */
+	private static final String RDF_TYPE = "<http://www.w3.org/1999/02/22-rdf-syntax-ns#type>";
+	/**
+	 * xsd:string, the datatype of plain literals
+	 */
+	private static final String XSD_STRING = "http://www.w3.org/2001/XMLSchema#string";
+	/**
+	 * charset of the N-Triples files
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/**
+	 * number of lines sorted in memory at a time
+	 */
+	private final int runSize;
+	/**
+	 * temporary files to delete on close
+	 */
+	private final List<File> tempFiles;
+	
+	/**
+	 * Constructor
+	 * @param runSize number of lines sorted in memory at a time
+	 */
+	public SortedDiff(int runSize) {
+		if(runSize < 2) {
+			throw new IllegalArgumentException("Sort run size must be at least 2");
+		}
+		this.runSize = runSize;
+		this.tempFiles = new ArrayList<File>();
+	}
+	
+	/**
+	 * Write every statement of a model to a new sorted N-Triples file without duplicates
+	 * @param jc the model
+	 * @return the sorted file
+	 * @throws IOException error writing
+	 */
+	public File dump(JenaConnect jc) throws IOException {
+		Sorter sorter = new Sorter();
+		StmtIterator stmts = jc.getJenaModel().listStatements();
+		try {
+			while(stmts.hasNext()) {
+				sorter.add(toNTriples(stmts.next().asTriple()));
+			}
+		} finally {
+			stmts.close();
+		}
+		return sorter.finish();
+	}
+	
+	/**
+	 * Merge two sorted files, writing the lines only in the minuend and the lines only in the subtrahend
+	 * @param minuend the sorted minuend file
+	 * @param subtrahend the sorted subtrahend file
+	 * @param minus receives the lines in minuend but not in subtrahend (null to ignore)
+	 * @param plus receives the lines in subtrahend but not in minuend (null to ignore)
+	 * @return the number of lines written to minus
+	 * @throws IOException error reading or writing
+	 */
+	public long merge(File minuend, File subtrahend, Writer minus, Writer plus) throws IOException {
+		long count = 0;
+		BufferedReader m = openReader(minuend);
+		BufferedReader s = openReader(subtrahend);
+		try {
+			String mLine = m.readLine();
+			String sLine = s.readLine();
+			while((mLine != null) || (sLine != null)) {
+				int cmp;
+				if(mLine == null) {
+					cmp = 1;
+				} else if(sLine == null) {
+					cmp = -1;
+				} else {
+					cmp = mLine.compareTo(sLine);
+				}
+				if(cmp < 0) {
+					if(minus != null) {
+						writeLine(minus, mLine);
+					}
+					count++;
+					mLine = m.readLine();
+				} else if(cmp > 0) {
+					if(plus != null) {
+						writeLine(plus, sLine);
+					}
+					sLine = s.readLine();
+				} else {
+					mLine = m.readLine();
+					sLine = s.readLine();
+				}
+			}
+		} finally {
+			m.close();
+			s.close();
+		}
+		return count;
+	}
+	
+	/**
+	 * Keep the lines of a sorted subtraction file whose subject or object is a resource the new model still describes,
+	 * the same triples selective diff's preservation queries construct
+	 * The subjects of interest come out of the sorted new model file already in order (its lines are grouped by
+	 * subject), so lines are first semi-joined on subject; the rest are re-sorted on object and semi-joined again.
+	 * @param subtraction the sorted subtraction file
+	 * @param newModel the sorted new model file
+	 * @param types only resources of these rdf:types are of interest (null or empty for any resource)
+	 * @param out receives the preserved lines
+	 * @return the number of lines preserved
+	 * @throws IOException error reading or writing
+	 */
+	public long preserve(File subtraction, File newModel, Collection<String> types, Writer out) throws IOException {
+		File subjects = newFile();
+		Writer subjectOut = openWriter(subjects);
+		try {
+			writeSubjects(newModel, types, subjectOut);
+		} finally {
+			subjectOut.close();
+		}
+		long count = 0;
+		Sorter byObject = new Sorter();
+		BufferedReader lines = openReader(subtraction);
+		SortedCursor subjectCursor = new SortedCursor(subjects);
+		try {
+			String line;
+			while((line = lines.readLine()) != null) {
+				if(subjectCursor.contains(line.substring(0, line.indexOf(' ')))) {
+					writeLine(out, line);
+					count++;
+				} else {
+					String object = getObject(line);
+					if(object.startsWith("<")) {
+						byObject.add(object + '\t' + line);
+					}
+				}
+			}
+		} finally {
+			lines.close();
+			subjectCursor.close();
+		}
+		File objects = byObject.finish();
+		lines = openReader(objects);
+		SortedCursor objectCursor = new SortedCursor(subjects);
+		try {
+			String line;
+			while((line = lines.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				if(objectCursor.contains(line.substring(0, tab))) {
+					writeLine(out, line.substring(tab + 1));
+					count++;
+				}
+			}
+		} finally {
+			lines.close();
+			objectCursor.close();
+		}
+		return count;
+	}
+	
+	/**
+	 * Write the distinct uri subjects of a sorted model file, in order
+	 * @param model the sorted model file
+	 * @param types only subjects with one of these rdf:types are written (null or empty for every subject)
+	 * @param out receives the subjects
+	 * @throws IOException error reading or writing
+	 */
+	private static void writeSubjects(File model, Collection<String> types, Writer out) throws IOException {
+		Set<String> typeTokens = null;
+		if((types != null) && !types.isEmpty()) {
+			typeTokens = new HashSet<String>();
+			for(String type : types) {
+				typeTokens.add("<" + escapeUri(type) + ">");
+			}
+		}
+		BufferedReader lines = openReader(model);
+		try {
+			String last = null;
+			String line;
+			while((line = lines.readLine()) != null) {
+				if(!line.startsWith("<")) {
+					continue;
+				}
+				int sEnd = line.indexOf(' ');
+				String subject = line.substring(0, sEnd);
+				if(subject.equals(last)) {
+					continue;
+				}
+				if(typeTokens != null) {
+					int pEnd = line.indexOf(' ', sEnd + 1);
+					if(!line.substring(sEnd + 1, pEnd).equals(RDF_TYPE) || !typeTokens.contains(getObject(line))) {
+						continue;
+					}
+				}
+				writeLine(out, subject);
+				last = subject;
+			}
+		} finally {
+			lines.close();
+		}
+	}
+	
+	/**
+	 * Get the object token of an N-Triples line
+	 * @param line the line
+	 * @return the object token
+	 */
+	private static String getObject(String line) {
+		int sEnd = line.indexOf(' ');
+		int pEnd = line.indexOf(' ', sEnd + 1);
+		return line.substring(pEnd + 1, line.length() - 2);
+	}
+	
+	/**
+	 * Create a temporary file that is deleted on close
+	 * @return the file
+	 * @throws IOException error creating file
+	 */
+	public File newFile() throws IOException {
+		File f = FileAide.createTempFile("diff", ".nt");
+		this.tempFiles.add(f);
+		return f;
+	}
+	
+	/**
+	 * Delete the temporary files
+	 */
+	public void close() {
+		for(File f : this.tempFiles) {
+			if(f.exists() && !f.delete()) {
+				log.warn("Unable to delete temporary file " + f);
+			}
+		}
+		this.tempFiles.clear();
+	}
+	
+	/**
+	 * Open a file for reading lines
+	 * @param f the file
+	 * @return the reader
+	 * @throws IOException error opening
+	 */
+	public static BufferedReader openReader(File f) throws IOException {
+		return new BufferedReader(new InputStreamReader(new FileInputStream(f), UTF8), 65536);
+	}
+	
+	/**
+	 * Open a file for writing lines
+	 * @param f the file
+	 * @return the writer
+	 * @throws IOException error opening
+	 */
+	public static Writer openWriter(File f) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), UTF8), 65536);
+	}
+	
+	/**
+	 * Write a line
+	 * @param out the writer
+	 * @param line the line
+	 * @throws IOException error writing
+	 */
+	private static void writeLine(Writer out, String line) throws IOException {
+		out.write(line);
+		out.write('\n');
+	}
+	
+	/**
+	 * Format a triple as an N-Triples line (without the line break)
+	 * Every node has exactly one form, so two lines are equal exactly when their triples are
+	 * @param t the triple
+	 * @return the line
+	 */
+	public static String toNTriples(Triple t) {
+		StringBuilder sb = new StringBuilder();
+		appendNode(sb, t.getSubject());
+		sb.append(' ');
+		appendNode(sb, t.getPredicate());
+		sb.append(' ');
+		appendNode(sb, t.getObject());
+		sb.append(" .");
+		return sb.toString();
+	}
+	
+	/**
+	 * Append a node in N-Triples form
+	 * @param sb the builder
+	 * @param n the node
+	 */
+	private static void appendNode(StringBuilder sb, Node n) {
+		if(n.isURI()) {
+			sb.append('<').append(escapeUri(n.getURI())).append('>');
+		} else if(n.isBlank()) {
+			// blank node labels may only contain letters, digits and a few punctuation characters
+			String label = n.getBlankNodeLabel();
+			sb.append("_:b");
+			for(int i = 0; i < label.length(); i++) {
+				char c = label.charAt(i);
+				if(((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9'))) {
+					sb.append(c);
+				} else {
+					sb.append('x').append(Integer.toHexString(c)).append('x');
+				}
+			}
+		} else {
+			sb.append('"');
+			String lex = n.getLiteralLexicalForm();
+			for(int i = 0; i < lex.length(); i++) {
+				char c = lex.charAt(i);
+				switch(c) {
+					case '\\':
+						sb.append("\\\\");
+						break;
+					case '"':
+						sb.append("\\\"");
+						break;
+					case '\n':
+						sb.append("\\n");
+						break;
+					case '\r':
+						sb.append("\\r");
+						break;
+					case '\t':
+						sb.append("\\t");
+						break;
+					default:
+						if(c < 0x20) {
+							sb.append(String.format("\\u%04X", Integer.valueOf(c)));
+						} else {
+							sb.append(c);
+						}
+				}
+			}
+			sb.append('"');
+			String lang = n.getLiteralLanguage();
+			String dt = n.getLiteralDatatypeURI();
+			if((lang != null) && !lang.isEmpty()) {
+				sb.append('@').append(lang);
+			} else if((dt != null) && !dt.equals(XSD_STRING)) {
+				sb.append("^^<").append(escapeUri(dt)).append('>');
+			}
+		}
+	}
+	
+	/**
+	 * Escape the characters N-Triples does not allow in a uri
+	 * @param uri the uri
+	 * @return the escaped uri
+	 */
+	private static String escapeUri(String uri) {
+		StringBuilder sb = null;
+		for(int i = 0; i < uri.length(); i++) {
+			char c = uri.charAt(i);
+			boolean bad = (c <= 0x20) || (c == '<') || (c == '>') || (c == '"') || (c == '{') || (c == '}') || (c == '|') || (c == '^') || (c == '`') || (c == '\\');
+			if(bad && (sb == null)) {
+				sb = new StringBuilder(uri.length() + 16);
+				sb.append(uri, 0, i);
+			}
+			if(bad) {
+				sb.append(String.format("\\u%04X", Integer.valueOf(c)));
+			} else if(sb != null) {
+				sb.append(c);
+			}
+		}
+		return (sb == null) ? uri : sb.toString();
+	}
+	
+	/**
+	 * External sort of lines: lines are sorted in memory a run at a time, each run is written to a file, and the runs
+	 * are merged into one sorted file without duplicates
+	 * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+	 */
+	private class Sorter {
+		/**
+		 * lines of the current run
+		 */
+		private final List<String> run;
+		/**
+		 * sorted run files written so far
+		 */
+		private final List<File> runs;
+		/**
+		 * total lines added
+		 */
+		private long count;
+		
+		/**
+		 * Default Constructor
+		 */
+		protected Sorter() {
+			this.run = new ArrayList<String>();
+			this.runs = new ArrayList<File>();
+			this.count = 0;
+		}
+		
+		/**
+		 * Add a line
+		 * @param line the line
+		 * @throws IOException error writing run
+		 */
+		protected void add(String line) throws IOException {
+			this.run.add(line);
+			this.count++;
+			if(this.run.size() >= SortedDiff.this.runSize) {
+				writeRun();
+			}
+		}
+		
+		/**
+		 * Sort the current run and write it to a file
+		 * @throws IOException error writing run
+		 */
+		private void writeRun() throws IOException {
+			Collections.sort(this.run);
+			File f = newFile();
+			Writer out = openWriter(f);
+			try {
+				String last = null;
+				for(String line : this.run) {
+					if(!line.equals(last)) {
+						writeLine(out, line);
+						last = line;
+					}
+				}
+			} finally {
+				out.close();
+			}
+			this.runs.add(f);
+			this.run.clear();
+		}
+		
+		/**
+		 * Merge the runs into one sorted file without duplicates
+		 * @return the sorted file
+		 * @throws IOException error merging
+		 */
+		protected File finish() throws IOException {
+			if(!this.run.isEmpty() || this.runs.isEmpty()) {
+				writeRun();
+			}
+			log.debug("Sorted " + this.count + " lines in " + this.runs.size() + " runs");
+			if(this.runs.size() == 1) {
+				return this.runs.get(0);
+			}
+			File f = newFile();
+			PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>();
+			Writer out = openWriter(f);
+			try {
+				for(File runFile : this.runs) {
+					RunReader reader = new RunReader(runFile);
+					if(reader.line != null) {
+						queue.add(reader);
+					} else {
+						reader.close();
+					}
+				}
+				String last = null;
+				while(!queue.isEmpty()) {
+					RunReader reader = queue.poll();
+					if(!reader.line.equals(last)) {
+						writeLine(out, reader.line);
+						last = reader.line;
+					}
+					if(reader.next() != null) {
+						queue.add(reader);
+					} else {
+						reader.close();
+					}
+				}
+			} finally {
+				out.close();
+				for(RunReader reader : queue) {
+					reader.close();
+				}
+			}
+			for(File runFile : this.runs) {
+				if(!runFile.delete()) {
+					log.debug("Unable to delete run file " + runFile);
+				}
+			}
+			return f;
+		}
+	}
+	
+	/**
+	 * Reader positioned on the current line of a sorted run
+	 * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+	 */
+	private static class RunReader implements Comparable<RunReader> {
+		/**
+		 * the run
+		 */
+		private final BufferedReader in;
+		/**
+		 * the current line (null at end of run)
+		 */
+		String line;
+		
+		/**
+		 * Constructor
+		 * @param f the run file
+		 * @throws IOException error reading
+		 */
+		protected RunReader(File f) throws IOException {
+			this.in = openReader(f);
+			this.line = this.in.readLine();
+		}
+		
+		/**
+		 * Advance to the next line
+		 * @return the next line (null at end of run)
+		 * @throws IOException error reading
+		 */
+		protected String next() throws IOException {
+			this.line = this.in.readLine();
+			return this.line;
+		}
+		
+		/**
+		 * Close the run
+		 * @throws IOException error closing
+		 */
+		protected void close() throws IOException {
+			this.in.close();
+		}
+		
+		@Override
+		public int compareTo(RunReader o) {
+			return this.line.compareTo(o.line);
+		}
+	}
+	
+	/**
+	 * Membership test over a sorted file for keys that are looked up in ascending order
+	 * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+	 */
+	private static class SortedCursor {
+		/**
+		 * the sorted file
+		 */
+		private final BufferedReader in;
+		/**
+		 * the current key (null at end of file)
+		 */
+		private String current;
+		
+		/**
+		 * Constructor
+		 * @param f the sorted file
+		 * @throws IOException error reading
+		 */
+		protected SortedCursor(File f) throws IOException {
+			this.in = openReader(f);
+			this.current = this.in.readLine();
+		}
+		
+		/**
+		 * Is the key in the file, keys must be passed in ascending order
+		 * @param key the key
+		 * @return true if the file contains key
+		 * @throws IOException error reading
+		 */
+		protected boolean contains(String key) throws IOException {
+			while((this.current != null) && (this.current.compareTo(key) < 0)) {
+				this.current = this.in.readLine();
+			}
+			return (this.current != null) && this.current.equals(key);
+		}
+		
+		/**
+		 * Close the file
+		 * @throws IOException error closing
+		 */
+		protected void close() throws IOException {
+			this.in.close();
+		}
+	}
+}
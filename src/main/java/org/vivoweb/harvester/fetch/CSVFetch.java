@@ -13,7 +13,6 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -26,9 +25,9 @@ import java.util.TreeSet;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.vivoweb.harvester.qualify.ChangeNamespace;
 import org.vivoweb.harvester.util.InitLog;
 import org.vivoweb.harvester.util.SpecialEntities;
+import org.vivoweb.harvester.util.URIAllocator;
 import org.vivoweb.harvester.util.args.ArgDef;
 import org.vivoweb.harvester.util.args.ArgList;
 import org.vivoweb.harvester.util.args.ArgParser;
@@ -40,15 +39,16 @@ import org.vivoweb.harvester.util.repo.RecordHandler;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import javax.servlet.http.HttpServletRequest;
 
 //TODO add to library org.skife.csv
 import org.skife.csv.CSVReader;
+import org.skife.csv.ReaderCallback;
 import org.skife.csv.SimpleReader;
 
 import org.apache.jena.datatypes.xsd.XSDDatatype;
 import org.apache.jena.ontology.DatatypeProperty;
-import org.apache.jena.ontology.Individual;
 import org.apache.jena.ontology.OntClass;
 import org.apache.jena.ontology.OntModel;
 import org.apache.jena.ontology.OntModelSpec;
@@ -56,6 +56,8 @@ import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.vocabulary.RDF;
 
 /**
  * Fetches data from a CSV file and uses the VIVO CSV import parameters to load RDF Data
@@ -108,6 +110,10 @@ public class CSVFetch {
     private char[] quoteChars;
 	
 	private int indexOfURIProp = -1;
+	/**
+	 * number of rows whose triples are added to the output model in one transaction
+	 */
+	private int batchSize = 1000;
 	
 	/**
 	 * @param filename the csv file to process
@@ -145,6 +151,9 @@ public class CSVFetch {
 			args.get("p"),
 			JenaConnect.parseConfig(args.get("o"), args.getValueMap("O"))
 		);
+		if(args.has("batchSize")) {
+			setBatchSize(Integer.parseInt(args.get("batchSize")));
+		}
 	}
 	
 	/**
@@ -180,77 +189,184 @@ public class CSVFetch {
 	}
 	
 	/**
-	 * @throws IOException 
+	 * Set the number of rows whose triples are added to the output model in one transaction
+	 * @param batchSize the number of rows
+	 */
+	public void setBatchSize(int batchSize) {
+		if(batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be at least 1");
+		}
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * Read the csv file one row at a time, adding the triples for each batch of rows to the output model in one
+	 * transaction
+	 * @throws IOException error reading the file or connecting to the output model
 	 */
 	public void execute() throws IOException {
 		//WebappDaoFactory wadf
-		InputStream fis = new FileInputStream(this.file);
 		Model destination = this.rh.getJenaModel();
 		
-		OntModel ontModel = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM);
 		OntModel tboxOntModel = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM);
-        ontModel.addSubModel(tboxOntModel);
-        OntClass theClass = tboxOntModel.createClass(this.tboxNamespace+this.typeName);
+		OntClass theClass = tboxOntModel.createClass(this.tboxNamespace+this.typeName);
 		
-        CSVReader cReader = new SimpleReader();
+		CSVReader cReader = new SimpleReader();
 		cReader.setSeperator(this.separatorChar);
 		//cReader.setQuoteCharacters(this.quoteChars);	
-		/*
-		URIGenerator uriGen = (wadf != null && destination != null) 
-				? new RandomURIGenerator(wadf, destination)
-		       : new SequentialURIGenerator();
-		*/
-		List<String[]> fileRows = cReader.parse(fis);
-		
-		String[] columnHeaders = fileRows.get(0);
+		this.indexOfURIProp = -1;
+		RowWriter rowWriter = new RowWriter(destination, tboxOntModel, theClass);
+		InputStream fis = new FileInputStream(this.file);
+		try {
+			cReader.parse(fis, rowWriter);
+		} catch(UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			fis.close();
+		}
+		rowWriter.flush();
+		log.info("Rows imported: " + rowWriter.rowCount);
 		
-        DatatypeProperty[] dpArray = new DatatypeProperty[columnHeaders.length];
-
-        for (int i=0; i<columnHeaders.length; i++) {
-            dpArray[i] = tboxOntModel.createDatatypeProperty(this.tboxNamespace+this.propertyNameBase+columnHeaders[i].replaceAll("\\W",""));
-
-            //setting the column id to generate URI
-            if (this.uriProperty != null && this.uriProperty.equals(columnHeaders[i].toString())){
-            	this.indexOfURIProp = i;
-            }
-            System.out.println(dpArray[i].toString());
-        }
+		destination.add(tboxOntModel);
+		if(log.isTraceEnabled()) {
+			log.trace(this.rh.exportRdfToString());
+		}
+	}
         
+	/**
+	 * Turns each row of the csv file into triples, queueing them until a batch of rows is complete
+	 */
+	private class RowWriter implements ReaderCallback {
+		/**
+		 * the model to add the triples to
+		 */
+		private final Model destination;
+		/**
+		 * the model to create the column properties in
+		 */
+		private final OntModel tboxOntModel;
+		/**
+		 * the class to assign each row to
+		 */
+		private final Resource theClass;
+		/**
+		 * makes uris for rows when no uri field is used, null until the header row is read
+		 */
+		private URIAllocator uriGen;
+		/**
+		 * the property for each column, null until the header row is read
+		 */
+		private DatatypeProperty[] dpArray;
+		/**
+		 * the triples of the rows read since the last flush
+		 */
+		private final List<Statement> batch;
+		/**
+		 * the number of rows read since the last flush
+		 */
+		private int batchRows;
+		/**
+		 * the number of rows read
+		 */
+		protected int rowCount;
         
-        Individual ind = null;
-        for (int row=1; row<fileRows.size(); row++) {    	
+		/**
+		 * Constructor
+		 * @param destination the model to add the triples to
+		 * @param tboxOntModel the model to create the column properties in
+		 * @param theClass the class to assign each row to
+		 */
+		protected RowWriter(Model destination, OntModel tboxOntModel, Resource theClass) {
+			this.destination = destination;
+			this.tboxOntModel = tboxOntModel;
+			this.theClass = theClass;
+			this.batch = new ArrayList<Statement>();
+			this.batchRows = 0;
+			this.rowCount = 0;
+		}
         	
-        	String[] cols = fileRows.get(row);
-	        if (this.indexOfURIProp != -1){
-	        	String uri = this.namespace+this.individualNameBase+cols[this.indexOfURIProp].trim();
-	        	ind = ontModel.createIndividual(uri, theClass);
-	        } else {
-	        	String uri = ChangeNamespace.getUnusedURI(this.namespace+"/individual/n", ontModel);
-	        	ind = ontModel.createIndividual(uri, theClass);
-	        }
-	        for (int col=0; col<cols.length; col++) {
+		@Override
+		public void onRow(String[] cols) {
+			if(this.dpArray == null) {
+				readHeader(cols);
+				return;
+			}
+			String uri;
+			if(CSVFetch.this.indexOfURIProp != -1) {
+				uri = CSVFetch.this.namespace + CSVFetch.this.individualNameBase + cols[CSVFetch.this.indexOfURIProp].trim();
+			} else {
+				uri = this.uriGen.allocate();
+			}
+			Resource ind = ResourceFactory.createResource(uri);
+			this.batch.add(ResourceFactory.createStatement(ind, RDF.type, this.theClass));
+			for(int col = 0; col < cols.length; col++) {
 				String value = cols[col].trim();
-	            if (value.length()>0) {
-	                ind.addProperty(dpArray[col], value); // no longer using: , XSDDatatype.XSDstring);
-	                // TODO: specification of datatypes for columns
-	            }
-	        }
-        }
+				if(value.length() > 0) {
+					this.batch.add(ResourceFactory.createStatement(ind, this.dpArray[col], ResourceFactory.createPlainLiteral(value))); // no longer using: , XSDDatatype.XSDstring);
+					// TODO: specification of datatypes for columns
+				}
+			}
+			this.rowCount++;
+			this.batchRows++;
+			if(this.batchRows >= CSVFetch.this.batchSize) {
+				flush();
+			}
+		}
         
-        ontModel.removeSubModel(tboxOntModel);
+		/**
+		 * Create the property for each column
+		 * @param columnHeaders the header row
+		 */
+		private void readHeader(String[] columnHeaders) {
+			this.dpArray = new DatatypeProperty[columnHeaders.length];
+			for(int i = 0; i < columnHeaders.length; i++) {
+				this.dpArray[i] = this.tboxOntModel.createDatatypeProperty(CSVFetch.this.tboxNamespace + CSVFetch.this.propertyNameBase + columnHeaders[i].replaceAll("\\W", ""));
 		
-		//Model[] resultModels = new Model[2];
-		//resultModels[0] = ontModel;
-		//resultModels[1] = tboxOntModel;
-		destination.add(ontModel);
-		destination.add(tboxOntModel);
-		System.out.println(this.rh.exportRdfToString());
-		//return resultModels;
-	}
-	
-
+				//setting the column id to generate URI
+				if((CSVFetch.this.uriProperty != null) && CSVFetch.this.uriProperty.equals(columnHeaders[i])) {
+					CSVFetch.this.indexOfURIProp = i;
+				}
+				log.debug(this.dpArray[i].toString());
+			}
+			if(CSVFetch.this.indexOfURIProp == -1) {
+				if(CSVFetch.this.uriProperty != null) {
+					log.warn("URI field '" + CSVFetch.this.uriProperty + "' is not a column of " + CSVFetch.this.file + ", allocating new URIs instead");
+				}
+				this.uriGen = new URIAllocator(CSVFetch.this.namespace + "/individual/n");
+				try {
+					this.uriGen.addUsedURIs(CSVFetch.this.rh);
+				} catch(IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
 	
-
+		/**
+		 * Add the queued triples to the output model in one transaction
+		 */
+		protected void flush() {
+			if(this.batch.isEmpty()) {
+				return;
+			}
+			log.debug("Adding " + this.batch.size() + " statements for " + this.batchRows + " rows");
+			if(this.destination.supportsTransactions()) {
+				this.destination.begin();
+			}
+			try {
+				this.destination.add(this.batch);
+				if(this.destination.supportsTransactions()) {
+					this.destination.commit();
+				}
+			} catch(RuntimeException e) {
+				if(this.destination.supportsTransactions()) {
+					this.destination.abort();
+				}
+				throw e;
+			}
+			this.batch.clear();
+			this.batchRows = 0;
+		}
+	}
 	
 	/**
 	 * Get the ArgParser for this task
@@ -269,6 +385,7 @@ public class CSVFetch {
 		
 		parser.addArgument(new ArgDef().setShortOption('o').setLongOpt("output").withParameter(true, "CONFIG_FILE").setDescription("RecordHandler config file path").setRequired(true));
 		parser.addArgument(new ArgDef().setShortOption('O').setLongOpt("outputOverride").withParameterValueMap("RH_PARAM", "VALUE").setDescription("override the RH_PARAM of output recordhandler using VALUE").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("batchSize").withParameter(true, "ROWS").setDescription("add the triples of ROWS rows to the output model in each transaction (default 1000)").setRequired(false));
 	
 		return parser;
 	}
@@ -6,23 +6,39 @@
 package org.vivoweb.harvester.fetch;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
 import java.sql.Connection;
+import java.sql.Date;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.vivoweb.harvester.util.FileAide;
 import org.vivoweb.harvester.util.InitLog;
 import org.vivoweb.harvester.util.SpecialEntities;
 import org.vivoweb.harvester.util.args.ArgDef;
@@ -30,6 +46,7 @@ import org.vivoweb.harvester.util.args.ArgList;
 import org.vivoweb.harvester.util.args.ArgParser;
 import org.vivoweb.harvester.util.args.UsageException;
 import org.vivoweb.harvester.util.repo.RecordHandler;
+import org.vivoweb.harvester.util.repo.RecordStreamOrigin;
 
 /**
  * Fetches rdf data from a JDBC database placing the data in the supplied record handler.
@@ -92,6 +109,51 @@ public class JDBCFetch {
 	 * accepted table types
 	 */
 	private String[] tableTypes;
+	/**
+	 * the jdbc driver (null if constructed from a Connection)
+	 */
+	private String driverClass;
+	/**
+	 * the jdbc connection line (null if constructed from a Connection)
+	 */
+	private String connLine;
+	/**
+	 * the username
+	 */
+	private String username;
+	/**
+	 * the password
+	 */
+	private String password;
+	/**
+	 * number of rows the driver fetches per round trip (0 for the driver default)
+	 */
+	private int fetchSize = 0;
+	/**
+	 * number of tables fetched at once, each on its own connection
+	 */
+	private int threads = 1;
+	/**
+	 * number of records handed to the record handler at once
+	 */
+	private int batchSize = 100;
+	/**
+	 * Mapping of tablename to the column whose value only grows as rows are added or changed
+	 */
+	private Map<String, String> changeColumns;
+	/**
+	 * number of rows read per query when paging through a table by key (0 to read each table in one query)
+	 */
+	private int pageSize = 0;
+	/**
+	 * path of the file the change column value reached in each table is kept in between runs (null to read every row
+	 * each run)
+	 */
+	private String watermarkFile;
+	/**
+	 * watermarks read from the watermark file at the start of a run (null if there is no watermark file)
+	 */
+	private Properties watermarks;
 	
 	/**
 	 * Constructor
@@ -152,6 +214,24 @@ public class JDBCFetch {
 			(args.has("Q")?args.getValueMap("Q"):null),
 			args.getAll("v").toArray(new String[]{})
 		);
+		if(args.has("fetchSize")) {
+			setFetchSize(Integer.parseInt(args.get("fetchSize")));
+		}
+		if(args.has("threads")) {
+			setThreads(Integer.parseInt(args.get("threads")));
+		}
+		if(args.has("batchSize")) {
+			setBatchSize(Integer.parseInt(args.get("batchSize")));
+		}
+		if(args.has("changeColumn")) {
+			setChangeColumns(args.getValueMap("changeColumn"));
+		}
+		if(args.has("pageSize")) {
+			setPageSize(Integer.parseInt(args.get("pageSize")));
+		}
+		if(args.has("watermarks")) {
+			setWatermarkFile(args.get("watermarks"));
+		}
 	}
 	
 	/**
@@ -340,6 +420,10 @@ public class JDBCFetch {
 	 */
 	public JDBCFetch(String driverClass, String connLine, String username, String password, RecordHandler rh, String uriNS, String queryPre, String querySuf, Set<String> tableNames, Map<String, String> fromClauses, Map<String, List<String>> dataFields, Map<String, List<String>> idFields, Map<String, List<String>> whereClauses, Map<String, Map<String, String>> relations, Map<String, String> queryStrings, String... tableTypes) throws IOException {
 		this(createConnection(driverClass, connLine, username, password), rh, uriNS, queryPre, querySuf, tableNames, fromClauses, dataFields, idFields, whereClauses, relations, queryStrings, tableTypes);
+		this.driverClass = driverClass;
+		this.connLine = connLine;
+		this.username = username;
+		this.password = password;
 	}
 	
 	/**
@@ -436,6 +520,68 @@ public class JDBCFetch {
 		this.querySuf = fieldSuffix;
 	}
 	
+	/**
+	 * Set the number of rows the driver fetches per round trip, so large tables are streamed rather than buffered
+	 * whole (MySQL only streams with Integer.MIN_VALUE)
+	 * @param fetchSize the fetch size (0 for the driver default)
+	 */
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+	
+	/**
+	 * Set the number of tables fetched at once, each on its own connection. Only possible when constructed with a
+	 * driver and connection line, as a supplied Connection cannot be shared between threads.
+	 * @param threads the number of tables (at least 1)
+	 */
+	public void setThreads(int threads) {
+		if(threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		this.threads = threads;
+	}
+	
+	/**
+	 * Set the number of records handed to the record handler at once
+	 * @param batchSize the number of records (at least 1)
+	 */
+	public void setBatchSize(int batchSize) {
+		if(batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be at least 1");
+		}
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * Set the column of each table whose value only grows as rows are added or changed, such as a last modified time
+	 * or an increasing key. Rows are read in order of this column, and with a watermark file only rows at or past the
+	 * value reached by the last run are read. Rows with no value in this column are not read.
+	 * @param changeColumns mapping of tablename to column
+	 */
+	public void setChangeColumns(Map<String, String> changeColumns) {
+		this.changeColumns = changeColumns;
+	}
+	
+	/**
+	 * Set the number of rows read per query. Each query starts after the key of the last row read, so no cursor is
+	 * held open on the database for a whole table.
+	 * @param pageSize the number of rows (0 to read each table in one query)
+	 */
+	public void setPageSize(int pageSize) {
+		if(pageSize < 0) {
+			throw new IllegalArgumentException("pageSize cannot be negative");
+		}
+		this.pageSize = pageSize;
+	}
+	
+	/**
+	 * Set the file the change column value reached in each table is kept in between runs
+	 * @param watermarkFile the path (null to read every row each run)
+	 */
+	public void setWatermarkFile(String watermarkFile) {
+		this.watermarkFile = watermarkFile;
+	}
+	
 	/**
 	 * Get the data field information for a table from the database
 	 * @param tableName the table to get the data field information for
@@ -451,11 +597,12 @@ public class JDBCFetch {
 			log.debug("Finding data column names for table: "+tableName);
 			this.dataFields.put(tableName, new LinkedList<String>());
 			if((this.queryStrings == null) || !this.queryStrings.containsKey(tableName)) {
+				Map<String, String> relations = getFkRelationFields(tableName);
 				ResultSet columnData = this.cursor.getConnection().getMetaData().getColumns(this.cursor.getConnection().getCatalog(), null, tableName, "%");
 				while(columnData.next()) {
 					String colName = columnData.getString("COLUMN_NAME");
 					log.trace("Found data column: "+colName);
-					if(!getFkRelationFields(tableName).containsKey(colName)) {
+					if(!relations.containsKey(colName)) {
 						this.dataFields.get(tableName).add(colName);
 					}
 				}
@@ -550,6 +697,169 @@ public class JDBCFetch {
 		return this.tableNames;
 	}
 	
+	/**
+	 * Get the change column for a table
+	 * @param tableName the table to get the change column for
+	 * @return the change column, or null if the table has none
+	 */
+	private String getChangeColumn(String tableName) {
+		if(this.changeColumns != null) {
+			for(String changeTable : this.changeColumns.keySet()) {
+				if(changeTable.trim().equalsIgnoreCase(tableName)) {
+					return this.changeColumns.get(changeTable);
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Does a list of fields contain a field, ignoring case
+	 * @param fields the list of fields
+	 * @param field the field
+	 * @return true if the list contains the field
+	 */
+	private static boolean containsIgnoreCase(List<String> fields, String field) {
+		for(String f : fields) {
+			if(f.equalsIgnoreCase(field)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Builds a field reference as it is written in a select statement against the table
+	 * @param tableName the table the field belongs to
+	 * @param field the field
+	 * @return the field reference
+	 */
+	private String buildField(String tableName, String field) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(getFieldPrefix());
+		if((this.fromClauses != null) && this.fromClauses.containsKey(tableName) && (field.split("\\.").length <= 1)) {
+			sb.append(tableName);
+			sb.append(".");
+		}
+		sb.append(field);
+		sb.append(getFieldSuffix());
+		return sb.toString();
+	}
+	
+	/**
+	 * Builds the select statements that page through a table in key order. The first reads from the start of the
+	 * table, or from the table's watermark, and the next reads on from the key of the last row read.
+	 * @param plan the table plan, with its select statement and key fields set
+	 * @return the first and next select statements
+	 */
+	private String[] buildKeysetSelects(TablePlan plan) {
+		List<String> keys = new ArrayList<String>(plan.keyFields.length);
+		for(String keyField : plan.keyFields) {
+			keys.add(buildField(plan.tableName, keyField));
+		}
+		String orderBy = " ORDER BY " + StringUtils.join(keys, ", ");
+		String where = getWhereClauses(plan.tableName).isEmpty() ? " WHERE " : " AND ";
+		
+		StringBuilder first = new StringBuilder(plan.select);
+		if(plan.changeColumn != null) {
+			first.append(where);
+			first.append(keys.get(0));
+			first.append((plan.watermark != null) ? " >= ?" : " IS NOT NULL");
+		}
+		first.append(orderBy);
+		
+		// (k0 > ?) OR (k0 = ? AND k1 > ?) OR (k0 = ? AND k1 = ? AND k2 > ?) ...
+		StringBuilder next = new StringBuilder(plan.select);
+		next.append(where);
+		next.append("(");
+		for(int x = 0; x < keys.size(); x++) {
+			if(x > 0) {
+				next.append(" OR ");
+			}
+			next.append("(");
+			for(int y = 0; y < x; y++) {
+				next.append(keys.get(y));
+				next.append(" = ? AND ");
+			}
+			next.append(keys.get(x));
+			next.append(" > ?)");
+		}
+		next.append(")");
+		next.append(orderBy);
+		log.trace("Generated SQL Queries:\n" + first + "\n" + next);
+		return new String[]{first.toString(), next.toString()};
+	}
+	
+	/**
+	 * Read a key value in a form that can be kept between queries and runs
+	 * @param rs the resultset
+	 * @param column the column index
+	 * @param sqlType the column's type from java.sql.Types
+	 * @return the value, or null if the column is null
+	 * @throws SQLException error reading the value
+	 */
+	private static String readKeyValue(ResultSet rs, int column, int sqlType) throws SQLException {
+		Object value;
+		switch(sqlType) {
+			case Types.TIMESTAMP:
+				value = rs.getTimestamp(column);
+				break;
+			case Types.DATE:
+				value = rs.getDate(column);
+				break;
+			case Types.TIME:
+				value = rs.getTime(column);
+				break;
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+				BigDecimal number = rs.getBigDecimal(column);
+				return (number == null) ? null : number.toPlainString();
+			default:
+				value = rs.getString(column);
+		}
+		return (value == null) ? null : value.toString();
+	}
+	
+	/**
+	 * Bind a key value read by readKeyValue to a parameter
+	 * @param ps the statement
+	 * @param index the parameter index
+	 * @param sqlType the column's type from java.sql.Types
+	 * @param value the value
+	 * @throws SQLException error binding the value
+	 */
+	private static void bindKeyValue(PreparedStatement ps, int index, int sqlType, String value) throws SQLException {
+		if(value == null) {
+			ps.setNull(index, sqlType);
+			return;
+		}
+		switch(sqlType) {
+			case Types.TIMESTAMP:
+				ps.setTimestamp(index, Timestamp.valueOf(value));
+				break;
+			case Types.DATE:
+				ps.setDate(index, Date.valueOf(value));
+				break;
+			case Types.TIME:
+				ps.setTime(index, Time.valueOf(value));
+				break;
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+				ps.setBigDecimal(index, new BigDecimal(value));
+				break;
+			default:
+				ps.setString(index, value);
+		}
+	}
+	
 	/**
 	 * Builds a select statement against the table using configured fields
 	 * @param tableName the table to build the select statement for
@@ -595,6 +905,11 @@ public class JDBCFetch {
 			sb.append(getFieldSuffix());
 			sb.append(", ");
 		}
+		String changeColumn = getChangeColumn(tableName);
+		if((changeColumn != null) && !containsIgnoreCase(getDataFields(tableName), changeColumn) && !containsIgnoreCase(getIDFields(tableName), changeColumn)) {
+			sb.append(buildField(tableName, changeColumn));
+			sb.append(", ");
+		}
 		sb.delete(sb.lastIndexOf(", "), sb.length());
 		sb.append(" FROM ");
 		sb.append(tableName);
@@ -655,118 +970,596 @@ public class JDBCFetch {
 	}
 	
 	/**
-	 * Executes the task
-	 * @throws IOException error processing record handler or jdbc connection
+	 * Resolve everything about a table that does not change from row to row
+	 * @param tableName the table
+	 * @return the table plan
+	 * @throws SQLException error reading database metadata
 	 */
-	public void execute() throws IOException {
-		int count = 0;
-		// For each Table
-		try {
-			for(String tableName : getTableNames()) {
-				StringBuilder sb = new StringBuilder();
-				// For each Record
-				ResultSet rs = this.cursor.executeQuery(buildSelect(tableName));
-				//				ResultSetMetaData rsmd = rs.getMetaData();
-				//				int ColumnCount = rsmd.getColumnCount();
-				//				Map<String,String> columnData = new HashMap<String,String>();
-				while(rs.next()) {
-					StringBuilder recID = new StringBuilder();
-					recID.append("id");
-					for(String idField : getIDFields(tableName)) {
-						recID.append("_-_");
-						String id = rs.getString(idField);
-						if(id != null) {
-							id = id.trim();
-						}
-						id = SpecialEntities.xmlEncode(id);
-						recID.append(id);
-					}
-					// log.trace("Creating RDF for "+tableName+": "+recID);
-					// Build RDF BEGIN
-					// Header info
-					String tableNS = "db-" + tableName;
-					sb = new StringBuilder();
-					sb.append("<?xml version=\"1.0\"?>\n");
-					sb.append("<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"\n");
-					sb.append("         xmlns:");
-					sb.append(tableNS);
-					sb.append("=\"");
-					sb.append(buildTableFieldNS(tableName));
-					sb.append("\"\n");
-					sb.append("         xml:base=\"");
-					sb.append(buildTableRecordNS(tableName));
-					sb.append("\">\n");
+	private TablePlan buildPlan(String tableName) throws SQLException {
+		String select = buildSelect(tableName);
+		String tableNS = "db-" + tableName;
+		TablePlan plan = new TablePlan(tableName, tableNS, select);
+		plan.idFields = getIDFields(tableName).toArray(new String[]{});
+		
+		// Header info and Record info BEGIN, the record id goes between header and typeLine
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\"?>\n");
+		sb.append("<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"\n");
+		sb.append("         xmlns:");
+		sb.append(tableNS);
+		sb.append("=\"");
+		sb.append(buildTableFieldNS(tableName));
+		sb.append("\"\n");
+		sb.append("         xml:base=\"");
+		sb.append(buildTableRecordNS(tableName));
+		sb.append("\">\n");
+		sb.append("  <rdf:Description rdf:ID=\"");
+		plan.header = sb.toString();
 					
-					// Record info BEGIN
-					sb.append("  <rdf:Description rdf:ID=\"");
-					sb.append(recID);
-					sb.append("\">\n");
+		// insert type value
+		plan.typeLine = "\">\n    <rdf:type rdf:resource=\"" + buildTableType(tableName) + "\"/>\n";
 					
-					// insert type value
-					sb.append("    <rdf:type rdf:resource=\"");
-					sb.append(buildTableType(tableName));
-					sb.append("\"/>\n");
+		// DataFields of user defined queries are only known once the query has run
+		if((this.queryStrings == null) || !this.queryStrings.containsKey(tableName)) {
+			plan.setDataFields(getDataFields(tableName));
+		}
 					
-					// DataFields
-					List<String> dataFieldList;
-					if((this.queryStrings != null) && this.queryStrings.containsKey(tableName)) {
-						dataFieldList = getResultSetFields(rs);
-					} else {
-						dataFieldList = getDataFields(tableName);
-					}
-					for(String dataField : dataFieldList) {
-						// Field BEGIN
-						String field = tableNS + ":" + dataField.replaceAll(" ", "_");
-						sb.append("    <");
-						sb.append(SpecialEntities.xmlEncode(field));
-						sb.append(">");
+		// Relation Fields
+		Map<String, String> relations = getFkRelationFields(tableName);
+		plan.relationFields = new String[relations.size()];
+		plan.relationOpenTags = new String[relations.size()];
+		int x = 0;
+		for(String relationField : relations.keySet()) {
+			plan.relationFields[x] = relationField;
+			plan.relationOpenTags[x] = "    <" + SpecialEntities.xmlEncode(tableNS + ":" + relationField.replaceAll(" ", "_")) + " rdf:resource=\"" + buildTableRecordNS(relations.get(relationField)) + "#id_-_";
+			x++;
+		}
 						
-						// insert field value
-						if(rs.getString(dataField) != null) {
-							sb.append(SpecialEntities.xmlEncode(rs.getString(dataField).trim()));
-						}
+		// Keyset paging, in order of the change column and then the id fields
+		plan.changeColumn = getChangeColumn(tableName);
+		boolean query = (this.queryStrings != null) && this.queryStrings.containsKey(tableName);
+		if(query && (plan.changeColumn != null)) {
+			throw new IllegalArgumentException("Change column for '" + tableName + "' is not supported on a user defined query");
+		}
+		if(!query && ((plan.changeColumn != null) || (this.pageSize > 0))) {
+			List<String> keyFields = new ArrayList<String>();
+			if(plan.changeColumn != null) {
+				keyFields.add(plan.changeColumn);
+			}
+			for(String idField : plan.idFields) {
+				if(!idField.equalsIgnoreCase(plan.changeColumn)) {
+					keyFields.add(idField);
+				}
+			}
+			plan.keyFields = keyFields.toArray(new String[]{});
+			if((plan.changeColumn != null) && (this.watermarks != null)) {
+				plan.watermark = this.watermarks.getProperty(tableName);
+				plan.watermarkType = Integer.parseInt(this.watermarks.getProperty(tableName + ".sqlType", String.valueOf(Types.VARCHAR)));
+			}
+			String[] selects = buildKeysetSelects(plan);
+			plan.firstSelect = selects[0];
+			plan.nextSelect = selects[1];
+		}
+		return plan;
+	}
 						
-						// Field END
-						sb.append("</");
-						sb.append(SpecialEntities.xmlEncode(field));
-						sb.append(">\n");
+	/**
+	 * Find the index of each column in a result set
+	 * @param rs the resultset
+	 * @param fields the column labels
+	 * @return the column indexes
+	 * @throws SQLException a column is not in the resultset
+	 */
+	private static int[] findColumns(ResultSet rs, String[] fields) throws SQLException {
+		int[] columns = new int[fields.length];
+		for(int x = 0; x < fields.length; x++) {
+			columns[x] = rs.findColumn(fields[x]);
+		}
+		return columns;
+	}
+	
+	/**
+	 * Read every row of a table, writing a record for each. Tables with key fields are read in key order, a page at a
+	 * time when a page size is set.
+	 * @param plan the table plan
+	 * @param conn the connection to read from
+	 * @param rso receives each record
+	 * @return the number of records written
+	 * @throws SQLException error reading the table
+	 * @throws IOException error writing a record
+	 */
+	private int fetchTable(TablePlan plan, Connection conn, RecordStreamOrigin rso) throws SQLException, IOException {
+		int count = 0;
+		if(plan.keyFields == null) {
+			Statement st = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			try {
+				if(this.fetchSize != 0) {
+					st.setFetchSize(this.fetchSize);
+				}
+				count = readRows(plan, st.executeQuery(plan.select), rso, null);
+			} finally {
+				st.close();
+			}
+		} else {
+			String[] lastKey = new String[plan.keyFields.length];
+			int rows;
+			do {
+				PreparedStatement ps = conn.prepareStatement((count == 0) ? plan.firstSelect : plan.nextSelect, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+				try {
+					if(this.fetchSize != 0) {
+						ps.setFetchSize(this.fetchSize);
 					}
-					
-					// Relation Fields
-					for(String relationField : getFkRelationFields(tableName).keySet()) {
-						// Field BEGIN
-						String field = tableNS + ":" + relationField.replaceAll(" ", "_");
-						sb.append("    <");
-						sb.append(SpecialEntities.xmlEncode(field));
-						sb.append(" rdf:resource=\"");
-						sb.append(buildTableRecordNS(getFkRelationFields(tableName).get(relationField)));
-						
-						// insert field value
-						sb.append("#id_-_" + rs.getString(relationField).trim());
-						
-						// Field END
-						sb.append("\"/>\n");
+					if(this.pageSize > 0) {
+						ps.setMaxRows(this.pageSize);
 					}
+					if(count == 0) {
+						if((plan.changeColumn != null) && (plan.watermark != null)) {
+							bindKeyValue(ps, 1, plan.watermarkType, plan.watermark);
+						}
+					} else {
+						int param = 1;
+						for(int x = 0; x < lastKey.length; x++) {
+							for(int y = 0; y <= x; y++) {
+								bindKeyValue(ps, param, plan.keyTypes[y], lastKey[y]);
+								param++;
+							}
+						}
+					}
+					rows = readRows(plan, ps.executeQuery(), rso, lastKey);
+				} finally {
+					ps.close();
+				}
+				count += rows;
+			} while((this.pageSize > 0) && (rows == this.pageSize));
+			if((plan.changeColumn != null) && (count > 0)) {
+				plan.newWatermark = lastKey[0];
+			}
+		}
+		log.debug("Read " + count + " records from " + plan.tableName);
+		return count;
+	}
+	
+	/**
+	 * Write a record for each row of a resultset
+	 * @param plan the table plan
+	 * @param rs the resultset, which is closed once read
+	 * @param rso receives each record
+	 * @param lastKey receives the key of the last row read (null if the table is not read in key order)
+	 * @return the number of records written
+	 * @throws SQLException error reading the resultset
+	 * @throws IOException error writing a record
+	 */
+	private int readRows(TablePlan plan, ResultSet rs, RecordStreamOrigin rso, String[] lastKey) throws SQLException, IOException {
+		int count = 0;
+		try {
+			if(plan.dataFields == null) {
+				plan.setDataFields(getResultSetFields(rs));
+			}
+			int[] idColumns = findColumns(rs, plan.idFields);
+			int[] dataColumns = findColumns(rs, plan.dataFields);
+			int[] relationColumns = findColumns(rs, plan.relationFields);
+			int[] keyColumns = null;
+			if(lastKey != null) {
+				keyColumns = findColumns(rs, plan.keyFields);
+				if(plan.keyTypes == null) {
+					ResultSetMetaData rsmd = rs.getMetaData();
+					plan.keyTypes = new int[keyColumns.length];
+					for(int x = 0; x < keyColumns.length; x++) {
+						plan.keyTypes[x] = rsmd.getColumnType(keyColumns[x]);
+					}
+				}
+			}
+			// For each Record
+			while(rs.next()) {
+				StringBuilder recID = new StringBuilder();
+				recID.append("id");
+				for(int idColumn : idColumns) {
+					recID.append("_-_");
+					String id = rs.getString(idColumn);
+					if(id != null) {
+						id = id.trim();
+					}
+					id = SpecialEntities.xmlEncode(id);
+					recID.append(id);
+				}
+				// Build RDF BEGIN
+				StringBuilder sb = new StringBuilder(plan.header.length() * 2);
+				sb.append(plan.header);
+				sb.append(recID);
+				sb.append(plan.typeLine);
+				
+				// DataFields
+				for(int x = 0; x < dataColumns.length; x++) {
+					sb.append(plan.dataOpenTags[x]);
+					String value = rs.getString(dataColumns[x]);
+					if(value != null) {
+						sb.append(SpecialEntities.xmlEncode(value.trim()));
+					}
+					sb.append(plan.dataCloseTags[x]);
+				}
+				
+				// Relation Fields
+				for(int x = 0; x < relationColumns.length; x++) {
+					sb.append(plan.relationOpenTags[x]);
+					sb.append(rs.getString(relationColumns[x]).trim());
+					sb.append("\"/>\n");
+				}
 					
-					// Record info END
-					sb.append("  </rdf:Description>\n");
-					
-					// Footer info
-					sb.append("</rdf:RDF>");
-					// Build RDF END
+				// Record info END and Footer info
+				sb.append("  </rdf:Description>\n");
+				sb.append("</rdf:RDF>");
+				// Build RDF END
 					
-					// Write RDF to RecordHandler
-					log.trace("Adding record: " + tableName + "_" + recID);
-					this.rh.addRecord(tableName + "_" + recID, sb.toString(), this.getClass());
-					count++;
+				if(keyColumns != null) {
+					for(int x = 0; x < keyColumns.length; x++) {
+						lastKey[x] = readKeyValue(rs, keyColumns[x], plan.keyTypes[x]);
+					}
 				}
+				rso.writeRecord(plan.tableName + "_" + recID, sb.toString());
+				count++;
+			}
+		} finally {
+			rs.close();
+		}
+		return count;
+	}
+	
+	/**
+	 * Read the watermark file
+	 * @return the watermarks
+	 * @throws IOException error reading the file
+	 */
+	private Properties loadWatermarks() throws IOException {
+		Properties props = new Properties();
+		if(FileAide.exists(this.watermarkFile)) {
+			InputStream in = FileAide.getInputStream(this.watermarkFile);
+			try {
+				props.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		return props;
+	}
+	
+	/**
+	 * Write the watermark file, once every record read up to each watermark is in the record handler
+	 * @param plans the table plans
+	 * @throws IOException error writing the file
+	 */
+	private void saveWatermarks(List<TablePlan> plans) throws IOException {
+		for(TablePlan plan : plans) {
+			if(plan.newWatermark != null) {
+				log.debug("Watermark for " + plan.tableName + ": " + plan.newWatermark);
+				this.watermarks.setProperty(plan.tableName, plan.newWatermark);
+				this.watermarks.setProperty(plan.tableName + ".sqlType", String.valueOf(plan.keyTypes[0]));
+			}
+		}
+		OutputStream out = FileAide.getOutputStream(this.watermarkFile);
+		try {
+			this.watermarks.store(out, "JDBCFetch change column watermarks");
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Executes the task
+	 * @throws IOException error processing record handler or jdbc connection
+	 */
+	public void execute() throws IOException {
+		int count = 0;
+		this.rh.loadMetaDataIndex();
+		this.watermarks = (this.watermarkFile != null) ? loadWatermarks() : null;
+		List<TablePlan> plans = new ArrayList<TablePlan>();
+		try {
+			for(String tableName : getTableNames()) {
+				plans.add(buildPlan(tableName));
 			}
 		} catch(SQLException e) {
 			throw new IOException(e);
 		}
+		int threadCount = Math.min(this.threads, plans.size());
+		if((threadCount > 1) && (this.connLine == null)) {
+			log.warn("Fetching one table at a time: fetching tables at once needs a driver and connection line to open more connections");
+			threadCount = 1;
+		}
+		RecordBatch batch = new RecordBatch();
+		if(threadCount <= 1) {
+			try {
+				Connection conn = this.cursor.getConnection();
+				for(TablePlan plan : plans) {
+					count += fetchTable(plan, conn, batch);
+				}
+			} catch(SQLException e) {
+				throw new IOException(e);
+			}
+		} else {
+			count = fetchTables(plans, threadCount, batch);
+		}
+		batch.flush();
+		if(this.watermarks != null) {
+			saveWatermarks(plans);
+		}
 		log.info("Added " + count + " Records");
 	}
 	
+	/**
+	 * Fetch tables at once, each on its own connection, with every record written by this thread
+	 * @param plans the table plans
+	 * @param threadCount number of tables fetched at once
+	 * @param batch receives each record
+	 * @return the number of records written
+	 * @throws IOException error reading a table or writing a record
+	 */
+	private int fetchTables(List<TablePlan> plans, int threadCount, RecordBatch batch) throws IOException {
+		int count = 0;
+		// fetching threads wait when the queue is full
+		BlockingQueue<FetchedRecord> fetched = new ArrayBlockingQueue<FetchedRecord>(threadCount * this.batchSize);
+		ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+		try {
+			for(TablePlan plan : plans) {
+				pool.execute(new TableTask(plan, fetched));
+			}
+			pool.shutdown();
+			int done = 0;
+			while(done < plans.size()) {
+				FetchedRecord rec = fetched.take();
+				if(rec.id != null) {
+					batch.writeRecord(rec.id, rec.data);
+					count++;
+				} else if(rec.error != null) {
+					throw rec.error;
+				} else {
+					done++;
+				}
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted fetching tables");
+		} finally {
+			pool.shutdownNow();
+		}
+		return count;
+	}
+	
+	/**
+	 * Everything about a table that does not change from row to row
+	 */
+	private static class TablePlan {
+		/**
+		 * the table name
+		 */
+		final String tableName;
+		/**
+		 * the table's prefix for field elements
+		 */
+		final String tableNS;
+		/**
+		 * the select statement
+		 */
+		final String select;
+		/**
+		 * the id field column labels
+		 */
+		String[] idFields;
+		/**
+		 * the data field column labels (null until known)
+		 */
+		String[] dataFields;
+		/**
+		 * the opening element for each data field
+		 */
+		String[] dataOpenTags;
+		/**
+		 * the closing element for each data field
+		 */
+		String[] dataCloseTags;
+		/**
+		 * the relation field column labels
+		 */
+		String[] relationFields;
+		/**
+		 * the start of the element for each relation field, up to where the value goes
+		 */
+		String[] relationOpenTags;
+		/**
+		 * the record up to where the record id goes
+		 */
+		String header;
+		/**
+		 * the record from after the record id through the type
+		 */
+		String typeLine;
+		/**
+		 * the change column (null if the table has none)
+		 */
+		String changeColumn;
+		/**
+		 * the fields rows are read in order of, the change column and then the id fields (null to read rows in any
+		 * order)
+		 */
+		String[] keyFields;
+		/**
+		 * the type of each key field from java.sql.Types (null until known)
+		 */
+		int[] keyTypes;
+		/**
+		 * the select statement for the first page
+		 */
+		String firstSelect;
+		/**
+		 * the select statement for each page after the first
+		 */
+		String nextSelect;
+		/**
+		 * the change column value reached by the last run (null to read from the start)
+		 */
+		String watermark;
+		/**
+		 * the type of the watermark from java.sql.Types
+		 */
+		int watermarkType;
+		/**
+		 * the change column value reached by this run (null if no rows were read)
+		 */
+		String newWatermark;
+		
+		/**
+		 * Constructor
+		 * @param tableName the table name
+		 * @param tableNS the table's prefix for field elements
+		 * @param select the select statement
+		 */
+		TablePlan(String tableName, String tableNS, String select) {
+			this.tableName = tableName;
+			this.tableNS = tableNS;
+			this.select = select;
+		}
+		
+		/**
+		 * Set the data fields and build their elements
+		 * @param fields the data field column labels
+		 */
+		void setDataFields(List<String> fields) {
+			this.dataFields = fields.toArray(new String[]{});
+			this.dataOpenTags = new String[this.dataFields.length];
+			this.dataCloseTags = new String[this.dataFields.length];
+			for(int x = 0; x < this.dataFields.length; x++) {
+				String field = SpecialEntities.xmlEncode(this.tableNS + ":" + this.dataFields[x].replaceAll(" ", "_"));
+				this.dataOpenTags[x] = "    <" + field + ">";
+				this.dataCloseTags[x] = "</" + field + ">\n";
+			}
+		}
+	}
+	
+	/**
+	 * Collects records and hands them to the record handler a batch at a time
+	 */
+	private class RecordBatch implements RecordStreamOrigin {
+		/**
+		 * the records not yet handed to the record handler
+		 */
+		private final Map<String, String> records = new LinkedHashMap<String, String>();
+		
+		/**
+		 * Default Constructor
+		 */
+		protected RecordBatch() {
+			// records are added by writeRecord
+		}
+		
+		@Override
+		public void writeRecord(String id, String data) throws IOException {
+			log.trace("Adding record: " + id);
+			this.records.put(id, data);
+			if(this.records.size() >= JDBCFetch.this.batchSize) {
+				flush();
+			}
+		}
+		
+		/**
+		 * Hand the collected records to the record handler
+		 * @throws IOException error adding records
+		 */
+		protected void flush() throws IOException {
+			if(!this.records.isEmpty()) {
+				JDBCFetch.this.rh.addRecords(this.records, JDBCFetch.class);
+				this.records.clear();
+			}
+		}
+	}
+	
+	/**
+	 * A record read by a fetching thread, or the end of a table
+	 */
+	private static class FetchedRecord {
+		/**
+		 * the record id (null at the end of a table)
+		 */
+		final String id;
+		/**
+		 * the record data
+		 */
+		final String data;
+		/**
+		 * the error that ended the table (null if it completed)
+		 */
+		final IOException error;
+		
+		/**
+		 * Constructor
+		 * @param id the record id (null at the end of a table)
+		 * @param data the record data
+		 * @param error the error that ended the table (null if it completed)
+		 */
+		FetchedRecord(String id, String data, IOException error) {
+			this.id = id;
+			this.data = data;
+			this.error = error;
+		}
+	}
+	
+	/**
+	 * Fetches one table on its own connection, queueing each record as it is read
+	 */
+	private class TableTask implements Runnable, RecordStreamOrigin {
+		/**
+		 * the table plan
+		 */
+		private final TablePlan plan;
+		/**
+		 * queue receiving the records
+		 */
+		private final BlockingQueue<FetchedRecord> fetched;
+		
+		/**
+		 * Constructor
+		 * @param plan the table plan
+		 * @param fetched queue receiving the records
+		 */
+		TableTask(TablePlan plan, BlockingQueue<FetchedRecord> fetched) {
+			this.plan = plan;
+			this.fetched = fetched;
+		}
+		
+		@Override
+		public void writeRecord(String id, String data) throws IOException {
+			try {
+				this.fetched.put(new FetchedRecord(id, data, null));
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted queueing record " + id);
+			}
+		}
+		
+		@Override
+		public void run() {
+			IOException error = null;
+			try {
+				Connection conn = createConnection(JDBCFetch.this.driverClass, JDBCFetch.this.connLine, JDBCFetch.this.username, JDBCFetch.this.password);
+				try {
+					fetchTable(this.plan, conn, this);
+				} finally {
+					conn.close();
+				}
+			} catch(SQLException e) {
+				error = new IOException("Unable to fetch table " + this.plan.tableName, e);
+			} catch(IOException e) {
+				error = e;
+			} catch(RuntimeException e) {
+				error = new IOException("Unable to fetch table " + this.plan.tableName, e);
+			}
+			if(!Thread.currentThread().isInterrupted()) {
+				try {
+					this.fetched.put(new FetchedRecord(null, null, error));
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+	
 	/**
 	 * Get the ArgParser for this task
 	 * @return the ArgParser
@@ -790,6 +1583,12 @@ public class JDBCFetch {
 		parser.addArgument(new ArgDef().setShortOption('n').setLongOpt("namespaceBase").withParameter(true, "NAMESPACE_BASE").setDescription("the base namespace to use for each node created").setRequired(false));
 		parser.addArgument(new ArgDef().setLongOpt("delimiterPrefix").withParameter(true, "DELIMITER").setDescription("Prefix each field in the query with this character").setDefaultValue("").setRequired(false));
 		parser.addArgument(new ArgDef().setLongOpt("delimiterSuffix").withParameter(true, "DELIMITER").setDescription("Suffix each field in the query with this character").setDefaultValue("").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("fetchSize").withParameter(true, "NUMBER").setDescription("number of rows the driver fetches per round trip - default is the driver's (MySQL streams rows with -2147483648)").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("threads").withParameter(true, "NUMBER").setDescription("number of tables fetched at once, each on its own connection - default 1").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("changeColumn").withParameterValueMap("TABLE_NAME", "COLUMN").setDescription("read TABLE_NAME in order of COLUMN, a last modified time or increasing key, and with --watermarks only rows changed since the last run").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("pageSize").withParameter(true, "NUMBER").setDescription("read tables in pages of NUMBER rows in key order rather than in one query - default 0 (one query)").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("watermarks").withParameter(true, "FILE").setDescription("keep the change column value reached in each table in FILE between runs").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("batchSize").withParameter(true, "NUMBER").setDescription("number of records handed to the output recordhandler at once, jdbc recordhandlers write each batch in one transaction - default 100").setRequired(false));
 		return parser;
 	}
 	
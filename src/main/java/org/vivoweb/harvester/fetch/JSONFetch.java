@@ -289,6 +289,7 @@ public class JSONFetch implements RecordStreamOrigin {
      * @throws IOException error getting recrords
      */
     public void execute() throws IOException {
+        this.rhOutput.loadMetaDataIndex();
 
         String jsonpath = new String();
 
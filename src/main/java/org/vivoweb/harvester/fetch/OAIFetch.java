@@ -133,6 +133,7 @@ public class OAIFetch implements RecordStreamOrigin {
 	 * @throws IOException error getting recrords
 	 */
 	public void execute() throws IOException {
+		this.rhOutput.loadMetaDataIndex();
 		try {
 			XMLRecordOutputStream xmlRos = xmlRosBase.clone();
 			xmlRos.setRso(this);
@@ -286,7 +286,7 @@ public class SimpleXMLFetch implements RecordStreamOrigin {
      */
 
     public void execute() throws IOException {
-
+        this.rhOutput.loadMetaDataIndex();
 
         try {
             XMLRecordOutputStream xmlRos = xmlRosBase.clone();
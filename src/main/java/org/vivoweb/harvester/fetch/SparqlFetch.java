@@ -283,6 +283,7 @@ public class SparqlFetch implements RecordStreamOrigin {
      */
     public void execute() throws IOException {
         log.info("Execute SparqlFetch");
+        this.rhOutput.loadMetaDataIndex();
          
 
         try {
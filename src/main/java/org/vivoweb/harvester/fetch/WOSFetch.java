@@ -516,6 +516,7 @@ public class WOSFetch {
 	 * @throws IOException error processing record handler or jdbc connection
 	 */
 	public void execute() throws IOException {
+		this.outputRH.loadMetaDataIndex();
 		String searchQuery = IOUtils.toString(this.searchFile);
 		ByteArrayOutputStream authResponse = new ByteArrayOutputStream();
 		{
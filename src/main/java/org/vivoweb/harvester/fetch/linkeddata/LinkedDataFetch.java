@@ -7,9 +7,15 @@ package org.vivoweb.harvester.fetch.linkeddata;
 
 import java.io.IOException; 
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 
 import org.apache.commons.httpclient.HttpStatus;
@@ -26,12 +32,11 @@ import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 
-import org.apache.http.conn.HttpClientConnectionManager;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicNameValuePair; 
 import org.slf4j.Logger;
@@ -49,6 +54,7 @@ import org.vivoweb.harvester.fetch.linkeddata.util.http.BasicHttpWorker;
 import org.vivoweb.harvester.fetch.linkeddata.util.http.HttpWorker;
 import org.vivoweb.harvester.fetch.linkeddata.util.http.HttpWorkerRequest;
 //import org.vivoweb.harvester.fetch.linkeddata.util.http.HttpWorkerRequest.Method;
+import org.vivoweb.harvester.util.HostRateLimiter;
 import org.vivoweb.harvester.util.InitLog;
 import org.vivoweb.harvester.util.args.ArgDef;
 import org.vivoweb.harvester.util.args.ArgList;
@@ -134,6 +140,23 @@ public class LinkedDataFetch  {
 
 	protected static final int TIMEOUT = 100;
     
+	/**
+	 * number of documents fetched at once
+	 */
+	private int threads;
+	/**
+	 * maximum requests per second to each host (0 for no limit)
+	 */
+	private double hostRate;
+	/**
+	 * number of times a failed fetch is retried
+	 */
+	private int retries;
+	/**
+	 * milliseconds to wait before the first retry, doubled for each retry after
+	 */
+	private long retryDelay;
+    
 	/**
 	 * Constructor
 	 * @param args command line arguments
@@ -188,8 +211,18 @@ public class LinkedDataFetch  {
 			this.format = "rdfxml";
 		}
 		
-		 
-		
+		if(argList.has("threads")) {
+			setThreads(Integer.parseInt(argList.get("threads")));
+		}
+		if(argList.has("host-rate")) {
+			setHostRate(Double.parseDouble(argList.get("host-rate")));
+		}
+		if(argList.has("retries")) {
+			setRetries(Integer.parseInt(argList.get("retries")));
+		}
+		if(argList.has("retry-delay")) {
+			setRetryDelay(Long.parseLong(argList.get("retry-delay")));
+		}
 	}
 	
 	 
@@ -199,6 +232,54 @@ public class LinkedDataFetch  {
 		this.rhOutput = recordHandler;
 		this.includes = includes;
 		this.format = format;
+		this.threads = 4;
+		this.hostRate = 0;
+		this.retries = 3;
+		this.retryDelay = 1000;
+	}
+	
+	/**
+	 * Set the number of documents fetched at once
+	 * @param threads the number of documents (at least 1)
+	 */
+	public void setThreads(int threads) {
+		if(threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		this.threads = threads;
+	}
+	
+	/**
+	 * Set the maximum requests per second to each host
+	 * @param hostRate the requests per second (0 for no limit)
+	 */
+	public void setHostRate(double hostRate) {
+		if(hostRate < 0) {
+			throw new IllegalArgumentException("host-rate cannot be negative");
+		}
+		this.hostRate = hostRate;
+	}
+	
+	/**
+	 * Set the number of times a failed fetch is retried
+	 * @param retries the number of retries
+	 */
+	public void setRetries(int retries) {
+		if(retries < 0) {
+			throw new IllegalArgumentException("retries cannot be negative");
+		}
+		this.retries = retries;
+	}
+	
+	/**
+	 * Set the time to wait before the first retry, doubled for each retry after
+	 * @param retryDelay the time in milliseconds
+	 */
+	public void setRetryDelay(long retryDelay) {
+		if(retryDelay < 0) {
+			throw new IllegalArgumentException("retry-delay cannot be negative");
+		}
+		this.retryDelay = retryDelay;
 	}
 
 	/**
@@ -206,8 +287,11 @@ public class LinkedDataFetch  {
 	 * @throws IOException error getting recrords
 	 */
 	public void execute() throws IOException {
+		this.rhOutput.loadMetaDataIndex();
 		// Model m = output.getJenaModel();
-		HttpClientConnectionManager connManager = new BasicHttpClientConnectionManager();
+		PoolingHttpClientConnectionManager connManager = new PoolingHttpClientConnectionManager();
+		connManager.setMaxTotal(this.threads);
+		connManager.setDefaultMaxPerRoute(this.threads);
 		RequestConfig requestConfig = RequestConfig.custom()
 	            .setSocketTimeout(TIMEOUT * 1000)
 	            .setConnectTimeout(TIMEOUT * 1000)
@@ -223,46 +307,10 @@ public class LinkedDataFetch  {
 		DiscoveryWorker discovery = new DiscoverUrisUsingListrdf(this.vClasses, httpWorker);
 		
 		LinkedDataService linkedDataService = new HttpLinkedDataService(httpclient);
-		int recid = 0;
 		int total = 0;
 		try {
 		   Iterable<String> uris = discovery.getUrisForSite(this.url);
-		   String individualID = new String();
-		   for (String uri: uris) {
-			   // kludge to exclude admin uri
-			   if (StringUtils.endsWith(uri, "#admin")) {
-				   // this is the admin user, exclude it and continue
-				   continue;
-			   }
-			   individualID = StringUtils.substringAfterLast(uri, "/");
-			   //String lduri = uri + "?format=" + this.format + "&include=all";
-			   StringBuffer incBuf = new StringBuffer();
-			   
-			   if (this.includes != null ) {
-				   
-				   for (String dirName: this.includes) {
-					  incBuf.append("&include="+ dirName);   
-				   }
-			   }
-			   String lduri = new String();
-			   if (incBuf.length() > 0) {
-			      lduri = uri + "/"+ individualID +".rdf"+ incBuf.toString().replaceFirst("&", "?");
-			   } else {
-				  lduri = uri + "/"+ individualID +".rdf"; 
-			   }
-			   //log.info("uri: "+uri);
-			   log.info("lduri: "+lduri);
-			   try {
-			      String linkedData = linkedDataService.getLinkedData(lduri );
-			      //String linkedData =  getLinkedDataRDF(lduri, httpWorker);
-			      //String linkedData =  getLinkedData(lduri );
-			      //log.info(linkedData);
-			      this.rhOutput.addRecord("ID_" + recid, linkedData, this.getClass());
-			      recid++; total++;
-			   } catch (Exception ex) {
-				  log.error(ex.getMessage());   
-			   }
-		   }
+		   total = fetch(uris, linkedDataService);
 		} catch (DiscoveryWorkerException e) {
 			log.error(e.getMessage());
 			log.debug("Stacktrace:",e);	
@@ -276,6 +324,211 @@ public class LinkedDataFetch  {
 		log.info("Added " + total + " Records");
 	}
 	
+	/**
+	 * Fetch the linked data of each uri and write it to the output record handler
+	 * @param uris the individual uris
+	 * @param linkedDataService the service used to fetch linked data
+	 * @return the number of records written
+	 * @throws IOException error writing records
+	 */
+	public int fetch(Iterable<String> uris, LinkedDataService linkedDataService) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+		try {
+			return fetchAll(uris, linkedDataService, pool);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for linked data");
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Fetch the linked data of each uri on the pool and write it to the output record handler
+	 * The calling thread is the only one writing records; fetched documents wait for it in a bounded queue and no more
+	 * uris are submitted while that queue is full.
+	 * @param uris the discovered uris
+	 * @param linkedDataService the service used to fetch linked data
+	 * @param pool the fetch threads
+	 * @return the number of records written
+	 * @throws IOException error writing records
+	 * @throws InterruptedException interrupted while waiting for a document
+	 */
+	private int fetchAll(Iterable<String> uris, LinkedDataService linkedDataService, ExecutorService pool) throws IOException, InterruptedException {
+		int capacity = this.threads * 4;
+		Semaphore slots = new Semaphore(capacity);
+		BlockingQueue<FetchedDocument> fetched = new ArrayBlockingQueue<FetchedDocument>(capacity);
+		HostRateLimiter rateLimiter = new HostRateLimiter(this.hostRate);
+		int recid = 0;
+		int pending = 0;
+		int total = 0;
+		for(String uri : uris) {
+			// kludge to exclude admin uri
+			if(StringUtils.endsWith(uri, "#admin")) {
+				// this is the admin user, exclude it and continue
+				continue;
+			}
+			String lduri = buildLinkedDataUri(uri);
+			log.info("lduri: " + lduri);
+			// write documents that are ready, and wait for one if every slot is taken
+			FetchedDocument doc;
+			while((doc = fetched.poll()) != null) {
+				total += write(doc, slots);
+				pending--;
+			}
+			while(!slots.tryAcquire()) {
+				total += write(fetched.take(), slots);
+				pending--;
+			}
+			pool.execute(new FetchTask("ID_" + recid, lduri, linkedDataService, rateLimiter, fetched));
+			recid++;
+			pending++;
+		}
+		while(pending > 0) {
+			total += write(fetched.take(), slots);
+			pending--;
+		}
+		return total;
+	}
+	
+	/**
+	 * Build the linked data url of an individual, including the rich export includes
+	 * @param uri the individual uri
+	 * @return the linked data url
+	 */
+	private String buildLinkedDataUri(String uri) {
+		String individualID = StringUtils.substringAfterLast(uri, "/");
+		StringBuffer incBuf = new StringBuffer();
+		if (this.includes != null ) {
+			for (String dirName: this.includes) {
+				incBuf.append("&include="+ dirName);   
+			}
+		}
+		if (incBuf.length() > 0) {
+			return uri + "/"+ individualID +".rdf"+ incBuf.toString().replaceFirst("&", "?");
+		}
+		return uri + "/"+ individualID +".rdf"; 
+	}
+	
+	/**
+	 * Write a fetched document to the output record handler and free its slot
+	 * @param doc the fetched document
+	 * @param slots the slots of documents in flight
+	 * @return 1 if a record was written, 0 if the fetch failed
+	 * @throws IOException error writing record
+	 */
+	private int write(FetchedDocument doc, Semaphore slots) throws IOException {
+		try {
+			if(doc.data == null) {
+				log.error(doc.error.getMessage());
+				log.debug("Stacktrace:", doc.error);
+				return 0;
+			}
+			this.rhOutput.addRecord(doc.recID, doc.data, this.getClass());
+			return 1;
+		} finally {
+			slots.release();
+		}
+	}
+	
+	/**
+	 * The result of fetching one document
+	 */
+	private static class FetchedDocument {
+		/**
+		 * the record id
+		 */
+		final String recID;
+		/**
+		 * the document (null if the fetch failed)
+		 */
+		final String data;
+		/**
+		 * the error of the last attempt if the fetch failed
+		 */
+		final Exception error;
+		
+		/**
+		 * Constructor
+		 * @param recID the record id
+		 * @param data the document (null if the fetch failed)
+		 * @param error the error of the last attempt if the fetch failed
+		 */
+		FetchedDocument(String recID, String data, Exception error) {
+			this.recID = recID;
+			this.data = data;
+			this.error = error;
+		}
+	}
+	
+	/**
+	 * Fetches one document, retrying with backoff, and queues the result
+	 */
+	private class FetchTask implements Runnable {
+		/**
+		 * the record id
+		 */
+		private final String recID;
+		/**
+		 * the linked data url
+		 */
+		private final String lduri;
+		/**
+		 * the service used to fetch linked data
+		 */
+		private final LinkedDataService linkedDataService;
+		/**
+		 * the per host rate limiter
+		 */
+		private final HostRateLimiter rateLimiter;
+		/**
+		 * queue receiving the result
+		 */
+		private final BlockingQueue<FetchedDocument> fetched;
+		
+		/**
+		 * Constructor
+		 * @param recID the record id
+		 * @param lduri the linked data url
+		 * @param linkedDataService the service used to fetch linked data
+		 * @param rateLimiter the per host rate limiter
+		 * @param fetched queue receiving the result, which must have room for it
+		 */
+		FetchTask(String recID, String lduri, LinkedDataService linkedDataService, HostRateLimiter rateLimiter, BlockingQueue<FetchedDocument> fetched) {
+			this.recID = recID;
+			this.lduri = lduri;
+			this.linkedDataService = linkedDataService;
+			this.rateLimiter = rateLimiter;
+			this.fetched = fetched;
+		}
+		
+		@Override
+		public void run() {
+			String data = null;
+			Exception error = null;
+			long delay = LinkedDataFetch.this.retryDelay;
+			for(int attempt = 0; (data == null) && (attempt <= LinkedDataFetch.this.retries); attempt++) {
+				try {
+					if(attempt > 0) {
+						log.debug("Retrying " + this.lduri + " in " + delay + "ms");
+						Thread.sleep(delay);
+						delay *= 2;
+					}
+					this.rateLimiter.acquire(this.lduri);
+					data = this.linkedDataService.getLinkedData(this.lduri);
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					error = e;
+					break;
+				} catch(Exception e) {
+					error = e;
+				}
+			}
+			// the submitter holds a slot for this result, so the queue has room
+			this.fetched.offer(new FetchedDocument(this.recID, data, (data == null) ? error : null));
+		}
+	}
+	
 	/**
 	 * @param uri
 	 * @return
@@ -362,6 +615,10 @@ public class LinkedDataFetch  {
 		parser.addArgument(new ArgDef().setShortOption('v').setLongOpt("vclass").withParameterValueMap("VCLASS", "TYPE").setDescription("the vclasses to be displayed").setRequired(true));
 		parser.addArgument(new ArgDef().setShortOption('I').setLongOpt("include").withParameterValueMap("INCLUDE", "dir").setDescription("rich export includes, use all for all directories").setRequired(false));
 		parser.addArgument(new ArgDef().setShortOption('f').setLongOpt("format").withParameter(true, "FORMAT").setDescription("output format").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("threads").withParameter(true, "THREADS").setDescription("number of documents fetched at once - default 4").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("host-rate").withParameter(true, "REQUESTS").setDescription("maximum requests per second to each host - default no limit").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("retries").withParameter(true, "RETRIES").setDescription("number of times a failed fetch is retried - default 3").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("retry-delay").withParameter(true, "MILLISECONDS").setDescription("time to wait before the first retry, doubled for each retry after - default 1000").setRequired(false));
 		return parser;
 	}
 
@@ -162,6 +162,7 @@ public abstract class NIHFetch implements RecordStreamOrigin {
 	 * @throws IOException error processing search
 	 */
 	public void execute() throws IOException {
+		this.rh.loadMetaDataIndex();
 		int recToFetch;
 		if(getMaxRecords().equalsIgnoreCase("all")) {
 			recToFetch = getLatestRecord();
@@ -204,17 +205,29 @@ public abstract class NIHFetch implements RecordStreamOrigin {
 				}
 //				log.debug("recToFetch: "+recToFetch);
 				log.info("Fetching " + recToFetch + " records from search");
-				for(int x = recToFetch; x > 0; x -= intBatchSize) {
-					int maxRec = (x <= intBatchSize) ? x : intBatchSize;
-					int startRec = recToFetch - x;
-//					log.debug("maxRec: "+maxRec);
-//					log.debug("startRec: "+startRec);
-					fetchRecords(WebEnv, QueryKey, startRec + "", maxRec + "");
-				}
+				fetchBatches(WebEnv, QueryKey, recToFetch, intBatchSize);
 			}
 		}
 	}
 	
+	/**
+	 * Fetch the first recToFetch records of a search in batches of batchSize records
+	 * @param WebEnv web environment from an ESearch
+	 * @param QueryKey query key from an ESearch
+	 * @param recToFetch the number of records to fetch
+	 * @param batchSize number of records to fetch per batch
+	 * @throws IOException error fetching records
+	 */
+	protected void fetchBatches(String WebEnv, String QueryKey, int recToFetch, int batchSize) throws IOException {
+		for(int x = recToFetch; x > 0; x -= batchSize) {
+			int maxRec = (x <= batchSize) ? x : batchSize;
+			int startRec = recToFetch - x;
+//			log.debug("maxRec: "+maxRec);
+//			log.debug("startRec: "+startRec);
+			fetchRecords(WebEnv, QueryKey, startRec + "", maxRec + "");
+		}
+	}
+	
 	/**
 	 * Get latest NIH result
 	 * @return latest record
@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.fetch.nih;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.regex.Pattern;
+import org.vivoweb.harvester.util.repo.RecordStreamOrigin;
+
+/**
+ * Splits a PubmedArticleSet document into one record per PubmedArticle or PubmedBookArticle as the document is read,
+ * so a large EFetch response never has to be held in memory as a whole
+ * Each record is the text of the response copied as it arrives, the way XMLRecordOutputStream copies it, so entities,
+ * attributes and whitespace are untouched and a record fetched again is identical to the one already stored. As the
+ * earlier line by line download did, line breaks are dropped, as are xmlns attributes and RemoveMe tags. The id of a
+ * record is the text of the first PMID element in it. A parser keeps no state between calls, so one instance can
+ * parse several responses at once.
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class PubmedArticleSetParser {
+	/**
+	 * default namespace declarations removed from the tags of a record
+	 */
+	private static final Pattern xmlnsRegex = Pattern.compile(" xmlns=\".*?\"");
+	/**
+	 * prepended to each record
+	 */
+	private final String header;
+	/**
+	 * appended to each record
+	 */
+	private final String footer;
+	
+	/**
+	 * Constructor
+	 * @param header prepended to each record
+	 * @param footer appended to each record
+	 */
+	public PubmedArticleSetParser(String header, String footer) {
+		this.header = header;
+		this.footer = footer;
+	}
+	
+	/**
+	 * Is this element a record
+	 * @param name the local name of the element
+	 * @return true for PubmedArticle and PubmedBookArticle
+	 */
+	private static boolean isRecord(String name) {
+		return name.equals("PubmedArticle") || name.equals("PubmedBookArticle");
+	}
+	
+	/**
+	 * Read a PubmedArticleSet document and write each record in it
+	 * @param in the document
+	 * @param rso receives each record
+	 * @return the number of records written
+	 * @throws IOException error reading the document or writing a record, or the document ended early
+	 */
+	public int parse(InputStream in, RecordStreamOrigin rso) throws IOException {
+		Reader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		int count = 0;
+		StringBuilder record = null;
+		String recordName = null;
+		String id = null;
+		int idStart = -1;
+		boolean inSet = false;
+		int c;
+		while((c = reader.read()) != -1) {
+			if((c == '\n') || (c == '\r')) {
+				continue;
+			}
+			if(c != '<') {
+				if(record != null) {
+					record.append((char)c);
+				}
+				continue;
+			}
+			String markup = readMarkup(reader);
+			if(markup == null) {
+				break;
+			}
+			if(!isTag(markup)) {
+				// comments, cdata sections and processing instructions are copied as they are
+				if(record != null) {
+					record.append(markup);
+				}
+				continue;
+			}
+			String name = getTagName(markup);
+			boolean endTag = markup.startsWith("</");
+			if(record == null) {
+				if(name.equals("PubmedArticleSet")) {
+					inSet = !endTag && !markup.endsWith("/>");
+				} else if(!endTag && !markup.endsWith("/>") && isRecord(name)) {
+					record = new StringBuilder();
+					recordName = name;
+					id = null;
+					record.append(xmlnsRegex.matcher(markup).replaceAll(""));
+				}
+				continue;
+			}
+			if(name.equals("RemoveMe")) {
+				continue;
+			}
+			if(name.equalsIgnoreCase("PMID") && (id == null) && endTag && (idStart >= 0)) {
+				id = record.substring(idStart).trim();
+				idStart = -1;
+			}
+			record.append(endTag ? markup : xmlnsRegex.matcher(markup).replaceAll(""));
+			if(name.equalsIgnoreCase("PMID") && (id == null) && !endTag && !markup.endsWith("/>")) {
+				idStart = record.length();
+			}
+			if(endTag && name.equals(recordName)) {
+				if((id == null) || id.isEmpty()) {
+					throw new IOException("PubMed record has no PMID: " + record);
+				}
+				rso.writeRecord(id, this.header + record.toString() + this.footer);
+				count++;
+				record = null;
+			}
+		}
+		if(record != null) {
+			throw new IOException("PubMed response ended inside a " + recordName + " record after " + count + " records");
+		}
+		if(inSet) {
+			throw new IOException("PubMed response ended before the end of the PubmedArticleSet after " + count + " records");
+		}
+		return count;
+	}
+	
+	/**
+	 * Read the rest of a tag, comment, cdata section, processing instruction or doctype, dropping line breaks
+	 * @param reader the reader, positioned just after the opening '&lt;'
+	 * @return the markup, starting with '&lt;' and ending with '&gt;', or null if the document ended inside it
+	 * @throws IOException error reading
+	 */
+	private static String readMarkup(Reader reader) throws IOException {
+		StringBuilder markup = new StringBuilder("<");
+		char quote = 0;
+		int brackets = 0;
+		int c;
+		while((c = reader.read()) != -1) {
+			if((c == '\n') || (c == '\r')) {
+				continue;
+			}
+			markup.append((char)c);
+			if(startsWith(markup, "<!--")) {
+				if((markup.length() >= 7) && endsWith(markup, "-->")) {
+					return markup.toString();
+				}
+			} else if(startsWith(markup, "<![CDATA[")) {
+				if(endsWith(markup, "]]>")) {
+					return markup.toString();
+				}
+			} else if(quote != 0) {
+				if(c == quote) {
+					quote = 0;
+				}
+			} else if((c == '"') || (c == '\'')) {
+				quote = (char)c;
+			} else if(c == '[') {
+				// the internal subset of a doctype
+				brackets++;
+			} else if(c == ']') {
+				brackets--;
+			} else if((c == '>') && (brackets <= 0)) {
+				return markup.toString();
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Does the text start with the given prefix
+	 * @param text the text
+	 * @param prefix the prefix
+	 * @return true if the first characters of text are prefix
+	 */
+	private static boolean startsWith(StringBuilder text, String prefix) {
+		if(text.length() < prefix.length()) {
+			return false;
+		}
+		for(int i = 0; i < prefix.length(); i++) {
+			if(text.charAt(i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Does the text end with the given suffix
+	 * @param text the text
+	 * @param suffix the suffix
+	 * @return true if the last characters of text are suffix
+	 */
+	private static boolean endsWith(StringBuilder text, String suffix) {
+		int o = text.length() - suffix.length();
+		return (o >= 0) && (text.indexOf(suffix, o) == o);
+	}
+	
+	/**
+	 * Is this markup an element's start, end or empty tag
+	 * @param markup the markup
+	 * @return false for comments, cdata sections, processing instructions and doctypes
+	 */
+	private static boolean isTag(String markup) {
+		return !markup.startsWith("<!") && !markup.startsWith("<?");
+	}
+	
+	/**
+	 * Get the local name of the element a tag belongs to
+	 * @param tag the tag
+	 * @return the name without its namespace prefix
+	 */
+	private static String getTagName(String tag) {
+		int start = tag.startsWith("</") ? 2 : 1;
+		int end = start;
+		while((end < tag.length()) && !Character.isWhitespace(tag.charAt(end)) && (tag.charAt(end) != '>') && (tag.charAt(end) != '/')) {
+			end++;
+		}
+		String name = tag.substring(start, end);
+		return name.substring(name.indexOf(':') + 1);
+	}
+}
@@ -41,10 +41,18 @@ public class PubmedFetch extends NIHFetch {
 	 * The name of the PubMed database
 	 */
 	private static String database = "pubmed";
+	/**
+	 * prepended to each record
+	 */
+	protected static final String RECORD_HEADER = "<?xml version=\"1.0\"?>\n<!DOCTYPE PubmedArticleSet PUBLIC \"-//NLM//DTD PubMedArticle, 1st January 2011//EN\" \"http://www.ncbi.nlm.nih.gov/entrez/query/DTD/pubmed_110101.dtd\">\n<PubmedArticleSet>\n";
+	/**
+	 * appended to each record
+	 */
+	protected static final String RECORD_FOOTER = "\n</PubmedArticleSet>";
 	/**
 	 * a base xmlrecordoutputstream
 	 */
-	protected static XMLRecordOutputStream baseXMLROS = new XMLRecordOutputStream(new String[]{"PubmedArticle","PubmedBookArticle"}, "<?xml version=\"1.0\"?>\n<!DOCTYPE PubmedArticleSet PUBLIC \"-//NLM//DTD PubMedArticle, 1st January 2011//EN\" \"http://www.ncbi.nlm.nih.gov/entrez/query/DTD/pubmed_110101.dtd\">\n<PubmedArticleSet>\n", "\n</PubmedArticleSet>", ".*?<[pP][mM][iI][dD].*?>(.*?)</[pP][mM][iI][dD]>.*?", null);
+	protected static XMLRecordOutputStream baseXMLROS = new XMLRecordOutputStream(new String[]{"PubmedArticle","PubmedBookArticle"}, RECORD_HEADER, RECORD_FOOTER, ".*?<[pP][mM][iI][dD].*?>(.*?)</[pP][mM][iI][dD]>.*?", null);
 	
 	/**
 	 * Constructor: Primary method for running a PubMed Fetch. The email address of the person responsible for this
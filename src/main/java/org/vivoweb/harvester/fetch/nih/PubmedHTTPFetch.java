@@ -7,16 +7,26 @@ package org.vivoweb.harvester.fetch.nih;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.vivoweb.harvester.util.HostRateLimiter;
 import org.vivoweb.harvester.util.InitLog;
 import org.vivoweb.harvester.util.WebAide;
+import org.vivoweb.harvester.util.args.ArgDef;
 import org.vivoweb.harvester.util.args.ArgList;
+import org.vivoweb.harvester.util.args.ArgParser;
 import org.vivoweb.harvester.util.args.UsageException;
 import org.vivoweb.harvester.util.repo.RecordHandler;
+import org.vivoweb.harvester.util.repo.RecordStreamOrigin;
 import org.w3c.dom.Document;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -37,6 +47,22 @@ public class PubmedHTTPFetch extends NIHFetch {
 	 * The name of the PubMed database
 	 */
 	private static String database = "pubmed";
+	/**
+	 * NCBI's limit on requests per second without an API key
+	 */
+	public static final double DEFAULT_REQUESTS_PER_SECOND = 3;
+	/**
+	 * splits EFetch responses into records as they are read
+	 */
+	private final PubmedArticleSetParser parser;
+	/**
+	 * number of batches fetched at once
+	 */
+	private int threads;
+	/**
+	 * spaces out requests to stay within NCBI's request rate limit
+	 */
+	private HostRateLimiter rateLimiter;
 	
 	/**
 	 * Constructor: Primary method for running a PubMed Fetch. The email address of the person responsible for this
@@ -50,6 +76,9 @@ public class PubmedHTTPFetch extends NIHFetch {
 	 */
 	public PubmedHTTPFetch(String emailAddress, String searchTerm, String maxRecords, String batchSize, RecordHandler rh) {
 		super(emailAddress, searchTerm, maxRecords, batchSize, rh, database);
+		this.parser = new PubmedArticleSetParser(PubmedFetch.RECORD_HEADER, PubmedFetch.RECORD_FOOTER);
+		this.threads = 1;
+		this.rateLimiter = new HostRateLimiter(DEFAULT_REQUESTS_PER_SECOND);
 	}
 	
 	/**
@@ -69,6 +98,31 @@ public class PubmedHTTPFetch extends NIHFetch {
 	 */
 	private PubmedHTTPFetch(ArgList argList) throws IOException {
 		super(argList, database);
+		this.parser = new PubmedArticleSetParser(PubmedFetch.RECORD_HEADER, PubmedFetch.RECORD_FOOTER);
+		setThreads(argList.has("threads") ? Integer.parseInt(argList.get("threads")) : 1);
+		setRequestsPerSecond(argList.has("requestsPerSecond") ? Double.parseDouble(argList.get("requestsPerSecond")) : DEFAULT_REQUESTS_PER_SECOND);
+	}
+	
+	/**
+	 * Set the number of batches fetched at once
+	 * @param threads the number of batches (at least 1)
+	 */
+	public void setThreads(int threads) {
+		if(threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		this.threads = threads;
+	}
+	
+	/**
+	 * Set the maximum number of requests per second made to NCBI, shared by all threads
+	 * @param requestsPerSecond the requests per second (0 for no limit)
+	 */
+	public void setRequestsPerSecond(double requestsPerSecond) {
+		if(requestsPerSecond < 0) {
+			throw new IllegalArgumentException("requestsPerSecond cannot be negative");
+		}
+		this.rateLimiter = new HostRateLimiter(requestsPerSecond);
 	}
 	
 	@Override
@@ -113,6 +167,19 @@ public class PubmedHTTPFetch extends NIHFetch {
 	
 	@Override
 	public void fetchRecords(String WebEnv, String QueryKey, String retStart, String numRecords) throws IOException {
+		fetchRecords(WebEnv, QueryKey, retStart, numRecords, this);
+	}
+	
+	/**
+	 * Fetch a batch of records, handing each record to rso as soon as it has been read from the response
+	 * @param WebEnv web environment from an ESearch
+	 * @param QueryKey query key from an ESearch
+	 * @param retStart record number (out of the total - eg: '1200' out of 15000 records), not the record ID
+	 * @param numRecords The number of records to fetch
+	 * @param rso receives each record
+	 * @throws IOException error fetching records
+	 */
+	private void fetchRecords(String WebEnv, String QueryKey, String retStart, String numRecords, RecordStreamOrigin rso) throws IOException {
 		StringBuilder urlSb = new StringBuilder();
 		urlSb.append("http://eutils.ncbi.nlm.nih.gov/entrez/eutils/efetch.fcgi?");
 		urlSb.append("&db=");
@@ -134,52 +201,158 @@ public class PubmedHTTPFetch extends NIHFetch {
 		int retEnd = Integer.parseInt(retStart) + Integer.parseInt(numRecords);
 		log.info("Fetching " + retStart + " to " + retEnd + " records from search");
 		try {
-			sanitizeXML(WebAide.getURLContents(urlSb.toString()));
+			this.rateLimiter.acquire(urlSb.toString());
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting to fetch records");
+		}
+		InputStream in;
+		try {
+			in = WebAide.getInputStream(urlSb.toString());
 		} catch(MalformedURLException e) {
 			throw new IOException("Query URL incorrectly formatted", e);
 		}
+		try {
+			int count = this.parser.parse(in, rso);
+			log.debug("Read " + count + " records from " + retStart + " to " + retEnd);
+		} finally {
+			in.close();
+		}
+	}
+	
+	@Override
+	protected void fetchBatches(String WebEnv, String QueryKey, int recToFetch, int batchSize) throws IOException {
+		int batches = (recToFetch + batchSize - 1) / batchSize;
+		if((this.threads <= 1) || (batches <= 1)) {
+			super.fetchBatches(WebEnv, QueryKey, recToFetch, batchSize);
+			return;
+		}
+		// records from every batch are written by this thread, the fetching threads wait when the queue is full
+		BlockingQueue<FetchedRecord> fetched = new ArrayBlockingQueue<FetchedRecord>(this.threads * 64);
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(this.threads, batches));
+		try {
+			for(int x = recToFetch; x > 0; x -= batchSize) {
+				int maxRec = (x <= batchSize) ? x : batchSize;
+				int startRec = recToFetch - x;
+				pool.execute(new BatchTask(WebEnv, QueryKey, startRec + "", maxRec + "", fetched));
+			}
+			pool.shutdown();
+			int done = 0;
+			while(done < batches) {
+				FetchedRecord rec = fetched.take();
+				if(rec.id != null) {
+					writeRecord(rec.id, rec.data);
+				} else if(rec.error != null) {
+					throw rec.error;
+				} else {
+					done++;
+				}
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted fetching records");
+		} finally {
+			pool.shutdownNow();
+		}
 	}
 	
 	/**
-	 * Sanitizes XML in preparation for writing to output stream
-	 * <ol>
-	 * <li>Removes xml namespace attributes</li>
-	 * <li>Removes XML wrapper tag</li>
-	 * <li>Splits each record on a new line</li>
-	 * <li>Writes to outputstream writer</li>
-	 * </ol>
-	 * @param strInput The XML to Sanitize.
-	 * @throws IOException Unable to write XML to record
-	 */
-	private void sanitizeXML(String strInput) throws IOException {
-		//used to remove header from xml
-		String headerRegEx = "<\\?xml.*?PubmedArticleSet>";
-		//used to remove footer from xml
-		String footerRegEx = "</PubmedArticleSet>";
-		log.debug("Sanitizing Output");
-		log.debug("XML File Length - Pre Sanitize: " + strInput.length());
-//		log.debug("====== PRE-SANITIZE ======\n"+strInput);
-		String newS = strInput.replaceAll(" xmlns=\".*?\"", "");
-		newS = newS.replaceAll("</?RemoveMe>", "");
-		//TODO: this seems really hacky here... revise somehow?
-		newS = newS.replaceAll("</PubmedArticle>.*?<PubmedArticle", "</PubmedArticle>\n<PubmedArticle");
-		newS = newS.replaceAll("</PubmedBookArticle>.*?<PubmedBookArticle", "</PubmedBookArticle>\n<PubmedBookArticle");
-		newS = newS.replaceAll("</PubmedArticle>.*?<PubmedBookArticle", "</PubmedArticle>\n<PubmedBookArticle");
-		newS = newS.replaceAll("</PubmedBookArticle>.*?<PubmedArticle", "</PubmedBookArticle>\n<PubmedArticle");
-		newS = newS.replaceAll(headerRegEx, "");
-		newS = newS.replaceAll(footerRegEx, "");
-		log.debug("XML File Length - Post Sanitze: " + newS.length());
-//		log.debug("====== POST-SANITIZE ======\n"+newS);
-		log.debug("Sanitization Complete");
-		log.trace("Writing to output");
-		if(getOsWriter() == null) {
-			setOs(PubmedFetch.baseXMLROS.clone().setRso(this));
+	 * A record read by a fetching thread, or the end of a batch
+	 */
+	private static class FetchedRecord {
+		/**
+		 * the record id (null at the end of a batch)
+		 */
+		final String id;
+		/**
+		 * the record data
+		 */
+		final String data;
+		/**
+		 * the error that ended the batch (null if it completed)
+		 */
+		final IOException error;
+		
+		/**
+		 * Constructor
+		 * @param id the record id (null at the end of a batch)
+		 * @param data the record data
+		 * @param error the error that ended the batch (null if it completed)
+		 */
+		FetchedRecord(String id, String data, IOException error) {
+			this.id = id;
+			this.data = data;
+			this.error = error;
+		}
+	}
+	
+	/**
+	 * Fetches one batch, queueing each record as it is read
+	 */
+	private class BatchTask implements Runnable, RecordStreamOrigin {
+		/**
+		 * web environment from an ESearch
+		 */
+		private final String webEnv;
+		/**
+		 * query key from an ESearch
+		 */
+		private final String queryKey;
+		/**
+		 * record number to start at
+		 */
+		private final String retStart;
+		/**
+		 * number of records to fetch
+		 */
+		private final String numRecords;
+		/**
+		 * queue receiving the records
+		 */
+		private final BlockingQueue<FetchedRecord> fetched;
+		
+		/**
+		 * Constructor
+		 * @param webEnv web environment from an ESearch
+		 * @param queryKey query key from an ESearch
+		 * @param retStart record number to start at
+		 * @param numRecords number of records to fetch
+		 * @param fetched queue receiving the records
+		 */
+		BatchTask(String webEnv, String queryKey, String retStart, String numRecords, BlockingQueue<FetchedRecord> fetched) {
+			this.webEnv = webEnv;
+			this.queryKey = queryKey;
+			this.retStart = retStart;
+			this.numRecords = numRecords;
+			this.fetched = fetched;
+		}
+		
+		@Override
+		public void writeRecord(String id, String data) throws IOException {
+			try {
+				this.fetched.put(new FetchedRecord(id, data, null));
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted queueing record " + id);
+			}
+		}
+		
+		@Override
+		public void run() {
+			IOException error = null;
+			try {
+				fetchRecords(this.webEnv, this.queryKey, this.retStart, this.numRecords, this);
+			} catch(IOException e) {
+				error = e;
+			}
+			if(!Thread.currentThread().isInterrupted()) {
+				try {
+					this.fetched.put(new FetchedRecord(null, null, error));
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
 		}
-		getOsWriter().write(newS);
-		//file close statements.  Warning, not closing the file will leave incomplete xml files and break the translate method
-		getOsWriter().write("\n");
-		getOsWriter().flush();
-		log.trace("Writing complete");
 	}
 	
 	@Override
@@ -193,6 +366,19 @@ public class PubmedHTTPFetch extends NIHFetch {
 		getRh().addRecord(id, data, getClass());
 	}
 	
+	/**
+	 * Get the ArgParser for this task
+	 * @param appName the application name
+	 * @param database the database name
+	 * @return the ArgParser
+	 */
+	protected static ArgParser getParser(String appName, String database) {
+		ArgParser parser = NIHFetch.getParser(appName, database);
+		parser.addArgument(new ArgDef().setLongOpt("threads").setDescription("number of batches fetched at once - default 1").withParameter(true, "NUMBER").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("requestsPerSecond").setDescription("maximum requests per second made to NCBI - default " + DEFAULT_REQUESTS_PER_SECOND).withParameter(true, "NUMBER").setRequired(false));
+		return parser;
+	}
+	
 	/**
 	 * Main method
 	 * @param args commandline arguments
@@ -205,6 +205,12 @@ public class ScopusFetch extends NIHFetch {
 	@Override
 	public void execute() {
 		
+		try {
+			getRh().loadMetaDataIndex();
+		} catch(IOException e) {
+			log.warn("Unable to load record metadata, checking each record individually: " + e.getMessage());
+		}
+		
 		// get scopus author id from vivo
 		getVivoScopusId();
 		
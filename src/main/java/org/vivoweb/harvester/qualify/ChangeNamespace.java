@@ -6,23 +6,32 @@
 package org.vivoweb.harvester.qualify;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vivoweb.harvester.util.InitLog;
-import org.vivoweb.harvester.util.IterableAdaptor;
+import org.vivoweb.harvester.util.URIAllocator;
 import org.vivoweb.harvester.util.args.ArgDef;
 import org.vivoweb.harvester.util.args.ArgList;
 import org.vivoweb.harvester.util.args.ArgParser;
 import org.vivoweb.harvester.util.args.UsageException;
 import org.vivoweb.harvester.util.repo.JenaConnect;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphUtil;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.ontology.OntModel;
-import org.apache.jena.query.QuerySolution;
-import org.apache.jena.query.ResultSet;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.reasoner.InfGraph;
+import org.apache.jena.util.iterator.ExtendedIterator;
 import org.apache.jena.vocabulary.OWL;
 
 /**
@@ -199,7 +208,9 @@ public class ChangeNamespace {
 	}
 	
 	/**
-	 * Rename unmatched resources from a given namespace in the given model to another (vivo) model
+	 * Rename unmatched resources from a given namespace in the given model to another (vivo) model. The input model is
+	 * read in one pass, new uris are allocated in memory against the uris already used in both models, and every
+	 * affected triple is then rewritten at once.
 	 * @param model the model to change namespaces for
 	 * @param vivo the model to search for uris in
 	 * @param oldNamespace the old namespace
@@ -208,52 +219,74 @@ public class ChangeNamespace {
 	 * @throws IOException error connecting
 	 */
 	private static void batchRename(JenaConnect model, JenaConnect vivo, String oldNamespace, String newNamespace, boolean errorLog, boolean sameAs) throws IOException {
-		//Grab all resources matching namespaces needing changed
-		String subjectQuery = "" + 
-		"PREFIX rdf:   <http://www.w3.org/1999/02/22-rdf-syntax-ns#> \n" + 
-		"PREFIX rdfs:  <http://www.w3.org/2000/01/rdf-schema#> \n" + 
-		"PREFIX xsd:   <http://www.w3.org/2001/XMLSchema#> \n" + 
-		"PREFIX owl:   <http://www.w3.org/2002/07/owl#> \n" + 
-		"PREFIX swrl:  <http://www.w3.org/2003/11/swrl#> \n" + 
-		"PREFIX swrlb: <http://www.w3.org/2003/11/swrlb#> \n" + 
-		"PREFIX vitro: <http://vitro.mannlib.cornell.edu/ns/vitro/0.7#> \n" + 
-		"PREFIX bibo: <http://purl.org/ontology/bibo/> \n" + 
-		"PREFIX dcelem: <http://purl.org/dc/elements/1.1/> \n" + 
-		"PREFIX dcterms: <http://purl.org/dc/terms/> \n" + 
-		"PREFIX event: <http://purl.org/NET/c4dm/event.owl#> \n" + 
-		"PREFIX foaf: <http://xmlns.com/foaf/0.1/> \n" + 
-		"PREFIX geo: <http://aims.fao.org/aos/geopolitical.owl#> \n" + 
-		"PREFIX skos: <http://www.w3.org/2004/02/skos/core#> \n" + 
-		"PREFIX ufVivo: <http://vivo.ufl.edu/ontology/vivo-ufl/> \n" + 
-		"PREFIX core: <http://vivoweb.org/ontology/core#> \n" + 
-		"\n" + 
-		"SELECT ?sub \n" + 
-		"WHERE {\n" + 
-		"\t" + "?sub ?p ?o . \n" + 
-		"\t" + "FILTER regex(str(?sub), \"^" + oldNamespace + "\" ) \n" + "} ORDER BY ?sub";
-		log.debug("Change Query:\n" + subjectQuery);
+		URIAllocator allocator = new URIAllocator(newNamespace);
+		allocator.addUsedURIs(vivo);
 		
+		// Work directly with the raw graph, as RenameResources.renameResource does
+		Graph graph = model.getJenaModel().getGraph();
+		Graph rawGraph = (graph instanceof InfGraph) ? ((InfGraph)graph).getRawGraph() : graph;
+		
+		//Grab all resources matching namespaces needing changed, and every triple that could mention them
 		Set<String> changeArray = new TreeSet<String>();
-		ResultSet results = model.executeSelectQuery(subjectQuery,true,false);
-		for(QuerySolution solution : IterableAdaptor.adapt(results)) {
-			String renameURI = solution.getResource("sub").getURI();
-			changeArray.add(renameURI);
+		List<Triple> candidates = new ArrayList<Triple>();
+		ExtendedIterator<Triple> triples = rawGraph.find(Node.ANY, Node.ANY, Node.ANY);
+		try {
+			while(triples.hasNext()) {
+				Triple t = triples.next();
+				boolean subjectMatch = false;
+				if(t.getSubject().isURI()) {
+					String subject = t.getSubject().getURI();
+					allocator.addUsedURI(subject);
+					subjectMatch = subject.startsWith(oldNamespace);
+					if(subjectMatch) {
+						changeArray.add(subject);
+					}
+				}
+				if(subjectMatch || (t.getObject().isURI() && t.getObject().getURI().startsWith(oldNamespace))) {
+					candidates.add(t);
+				}
+			}
+		} finally {
+			triples.close();
 		}
+		
 		int total = changeArray.size();
 		int count = 0;
+		Map<Node, Node> renames = new HashMap<Node, Node>();
 		for(String sub : changeArray) {
 			count++;
-			Resource res = model.getJenaModel().getResource(sub);
 			float percent = Math.round(10000f * count / total) / 100f;
-			log.trace("(" + count + "/" + total + ": " + percent + "%): Finding unused URI for resource <" + res + ">");
-			String uri = getUnusedURI(newNamespace, vivo, model);			 
-	        log.debug("Resource <" + res.getURI() + "> was found and renamed to new uri <" + uri + ">!");
+			log.trace("(" + count + "/" + total + ": " + percent + "%): Finding unused URI for resource <" + sub + ">");
+			String uri = allocator.allocate();
+			log.debug("Resource <" + sub + "> was found and renamed to new uri <" + uri + ">!");
+			renames.put(NodeFactory.createURI(sub), NodeFactory.createURI(uri));
+		}
 			 
-			RenameResources.renameResource(res, uri);
-			if (sameAs) {
-			   Resource newRes = model.getJenaModel().getResource(uri); 
-			   model.getJenaModel().add(newRes, OWL.sameAs, res);
-		    }
+		List<Triple> removeTriples = new ArrayList<Triple>();
+		List<Triple> addTriples = new ArrayList<Triple>();
+		for(Triple t : candidates) {
+			Node subj = renames.get(t.getSubject());
+			Node obj = renames.get(t.getObject());
+			if((subj != null) || (obj != null)) {
+				removeTriples.add(t);
+				addTriples.add(Triple.create((subj != null) ? subj : t.getSubject(), t.getPredicate(), (obj != null) ? obj : t.getObject()));
+			}
+		}
+		log.debug("Rewriting " + removeTriples.size() + " triples");
+		GraphUtil.add(rawGraph, addTriples.iterator());
+		GraphUtil.delete(rawGraph, removeTriples.iterator());
+		
+		// Did we work in the back of the InfGraph? If so, we need to rebind raw data
+		if(rawGraph != graph) {
+			((InfGraph)graph).rebind();
+		}
+		
+		if(sameAs) {
+			for(Map.Entry<Node, Node> rename : renames.entrySet()) {
+				Resource res = model.getJenaModel().getResource(rename.getKey().getURI());
+				Resource newRes = model.getJenaModel().getResource(rename.getValue().getURI());
+				model.getJenaModel().add(newRes, OWL.sameAs, res);
+			}
 		}
 		log.info("Changed namespace for " + changeArray.size() + " rdf nodes");
 	}
@@ -6,7 +6,11 @@
 package org.vivoweb.harvester.qualify;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vivoweb.harvester.util.InitLog;
@@ -15,16 +19,14 @@ import org.vivoweb.harvester.util.args.ArgList;
 import org.vivoweb.harvester.util.args.ArgParser;
 import org.vivoweb.harvester.util.args.UsageException;
 import org.vivoweb.harvester.util.repo.JenaConnect;
-import org.vivoweb.harvester.util.repo.MemJenaConnect;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphUtil;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.NodeIterator;
-import org.apache.jena.rdf.model.Property;
-import org.apache.jena.rdf.model.RDFNode;
-import org.apache.jena.rdf.model.ResIterator;
-import org.apache.jena.rdf.model.Resource;
-import org.apache.jena.rdf.model.Statement;
-import org.apache.jena.rdf.model.StmtIterator;
 import org.apache.jena.shared.Lock;
+import org.apache.jena.util.iterator.ExtendedIterator;
 
 /**
  * Smush
@@ -56,6 +58,10 @@ public class Smush {
 	 * Change the input model to match the output model
 	 */
 	private boolean inPlace;
+	/**
+	 * number of triples added to the output model at a time
+	 */
+	private static final int COPY_BATCH_SIZE = 1000;
 	
 	/**
 	 * Constructor
@@ -128,7 +134,7 @@ public class Smush {
 		parser.addArgument(new ArgDef().setShortOption('O').setLongOpt("outputOverride").withParameterValueMap("JENA_PARAM", "VALUE").setDescription("override the JENA_PARAM of outputJena jena model config using VALUE").setRequired(false));
 		
 		// Parameters
-		parser.addArgument(new ArgDef().setShortOption('P').setLongOpt("inputJena-predicates").withParameters(true, "PREDICATE").setDescription("PREDICATE(s) on which, to match. Multiples are done in series not simultaineously.").setRequired(true));
+		parser.addArgument(new ArgDef().setShortOption('P').setLongOpt("inputJena-predicates").withParameters(true, "PREDICATE").setDescription("PREDICATE(s) on which, to match. Multiples are done simultaneously, so resources matching on any of them are smushed together.").setRequired(true));
 		parser.addArgument(new ArgDef().setShortOption('n').setLongOpt("namespace").withParameter(true, "NAMESPACE").setDescription("only match rdf nodes in inputJC whose URI begin with NAMESPACE").setRequired(false));
 		parser.addArgument(new ArgDef().setShortOption('r').setLongOpt("replace").setDescription("replace input model with changed / output model").setRequired(false));
 		return parser;
@@ -143,85 +149,186 @@ public class Smush {
 	 * @param ns - filter on resources addressed (if null then applied to whole model)
 	 */
 	public static void findSmushResourceChanges(JenaConnect inputJC, JenaConnect subsJC, JenaConnect addsJC, String property, String ns) {
-		log.debug("Smushing on property <" + property + "> within "+((ns != null )?"namespace <"+ ns + ">":"any namespace"));
 		Model inModel = inputJC.getJenaModel();
-		Model subsModel = subsJC.getJenaModel();
-		Model addsModel = addsJC.getJenaModel();
-		Property prop = inModel.createProperty(property);
+		Graph subsGraph = subsJC.getJenaModel().getGraph();
+		Graph addsGraph = addsJC.getJenaModel().getGraph();
 		inModel.enterCriticalSection(Lock.READ);
 		try {
-			NodeIterator objIt = inModel.listObjectsOfProperty(prop);
+			Graph inGraph = inModel.getGraph();
+			Map<Node, Node> targets = findSmushTargets(inGraph, Collections.singletonList(property), ns);
+			for(Triple t : findAffectedTriples(inGraph, targets)) {
+				subsGraph.add(t);
+				addsGraph.add(rewrite(t, targets));
+			}
+		} finally {
+			inModel.leaveCriticalSection();
+		}
+	}
+	
+	/**
+	 * Group the resources of a graph that share a value of any of the given properties. Each property is scanned once
+	 * and each value is looked up in a hash map to the first resource seen with it, so resources linked through
+	 * different properties end up in the same group.
+	 * @param graph the graph to operate on
+	 * @param properties the inverse-functional properties to smush on
+	 * @param ns filter on resources addressed (if null then applied to whole graph)
+	 * @return map from each resource to be smushed to the resource it is smushed into
+	 */
+	public static Map<Node, Node> findSmushTargets(Graph graph, List<String> properties, String ns) {
+		// union-find forest over resources: maps each resource to its parent, roots are absent
+		Map<Node, Node> parents = new HashMap<Node, Node>();
+		for(String property : properties) {
+			log.debug("Smushing on property <" + property + "> within " + ((ns != null) ? "namespace <" + ns + ">" : "any namespace"));
+			Map<Node, Node> firstByValue = new HashMap<Node, Node>();
+			ExtendedIterator<Triple> triples = graph.find(Node.ANY, NodeFactory.createURI(property), Node.ANY);
 			try {
-				while(objIt.hasNext()) {
-					RDFNode obj = objIt.next();
-					ResIterator subjIt = inModel.listSubjectsWithProperty(prop, obj);
-					try {
-						boolean first = true;
-						Resource smushToThisResource = null;
-						while (subjIt.hasNext()) {
-							Resource subj = subjIt.next();
-							if(subj.getNameSpace().equals(ns) || ns == null){
-								if (first) {
-									smushToThisResource = subj;
-									first = false;
-									log.debug("Smush running for <"+subj+">");
-								} else {
-									log.trace("Smushing <"+subj+"> into <"+smushToThisResource+">");
-									StmtIterator stmtIt = inModel.listStatements(subj,(Property)null,(RDFNode)null);
-									try {
-										while(stmtIt.hasNext()) {
-											Statement stmt = stmtIt.next();
-											log.trace("Changing <"+stmt.getPredicate()+"> <"+stmt.getObject()+"> from <"+stmt.getSubject()+"> to <"+smushToThisResource+">");
-											subsModel.add(stmt.getSubject(), stmt.getPredicate(), stmt.getObject());
-											addsModel.add(smushToThisResource, stmt.getPredicate(), stmt.getObject());
-										}
-									} finally {
-										stmtIt.close();
-									}
-									stmtIt = inModel.listStatements((Resource) null, (Property)null, subj);
-									try {
-										while(stmtIt.hasNext()) {
-											Statement stmt = stmtIt.next();
-											log.trace("Changing <"+stmt.getSubject()+"> <"+stmt.getPredicate()+"> from <"+stmt.getObject()+"> to <"+smushToThisResource+">");
-											subsModel.add(stmt.getSubject(), stmt.getPredicate(), stmt.getObject());
-											addsModel.add(stmt.getSubject(), stmt.getPredicate(), smushToThisResource);
-										}
-									} finally {
-										stmtIt.close();
-									}
-								}
-							}
+				while(triples.hasNext()) {
+					Triple t = triples.next();
+					Node subj = t.getSubject();
+					if(!subj.isURI() || ((ns != null) && !ns.equals(subj.getNameSpace()))) {
+						continue;
+					}
+					Node first = firstByValue.get(t.getObject());
+					if(first == null) {
+						firstByValue.put(t.getObject(), subj);
+					} else {
+						Node firstRoot = findRoot(parents, first);
+						Node subjRoot = findRoot(parents, subj);
+						if(!firstRoot.equals(subjRoot)) {
+							log.trace("Smushing <" + subjRoot + "> into <" + firstRoot + ">");
+							parents.put(subjRoot, firstRoot);
 						}
-					} finally {
-						subjIt.close();
 					}
 				}
 			} finally {
-				objIt.close();
+				triples.close();
+			}
+		}
+		Map<Node, Node> targets = new HashMap<Node, Node>();
+		for(Node node : parents.keySet()) {
+			targets.put(node, findRoot(parents, node));
+		}
+		log.debug("Found " + targets.size() + " resources to smush");
+		return targets;
+	}
+	
+	/**
+	 * Find the resource at the root of a resource's group, shortening the path to it on the way
+	 * @param parents the union-find forest
+	 * @param node the resource
+	 * @return the root resource
+	 */
+	private static Node findRoot(Map<Node, Node> parents, Node node) {
+		Node root = node;
+		Node parent = parents.get(root);
+		while(parent != null) {
+			root = parent;
+			parent = parents.get(root);
+		}
+		Node current = node;
+		while(!current.equals(root)) {
+			Node next = parents.get(current);
+			parents.put(current, root);
+			current = next;
+		}
+		return root;
+	}
+	
+	/**
+	 * Find every triple of a graph whose subject or object is to be smushed, in one scan of the graph
+	 * @param graph the graph to scan
+	 * @param targets map from each resource to be smushed to the resource it is smushed into
+	 * @return the triples
+	 */
+	private static List<Triple> findAffectedTriples(Graph graph, Map<Node, Node> targets) {
+		List<Triple> affected = new ArrayList<Triple>();
+		if(targets.isEmpty()) {
+			return affected;
+		}
+		ExtendedIterator<Triple> triples = graph.find(Node.ANY, Node.ANY, Node.ANY);
+		try {
+			while(triples.hasNext()) {
+				Triple t = triples.next();
+				if(targets.containsKey(t.getSubject()) || targets.containsKey(t.getObject())) {
+					affected.add(t);
+				}
 			}
 		} finally {
-			inModel.leaveCriticalSection();
+			triples.close();
 		}
+		return affected;
 	}
 	
 	/**
-	 * Execute is that method where the smushResoures method is ran for each predicate.
+	 * Replace the smushed resources in a triple
+	 * @param t the triple
+	 * @param targets map from each resource to be smushed to the resource it is smushed into
+	 * @return the rewritten triple, or t if it has no smushed resources
 	 */
-	public void execute() {
-		JenaConnect subsJC = new MemJenaConnect();
-		JenaConnect addsJC = new MemJenaConnect();
-		for(String runName : this.inputPredicates) {
-			findSmushResourceChanges(this.inputJC, subsJC, addsJC, runName, this.namespace);
+	private static Triple rewrite(Triple t, Map<Node, Node> targets) {
+		Node subj = targets.get(t.getSubject());
+		Node obj = targets.get(t.getObject());
+		if((subj == null) && (obj == null)) {
+			return t;
 		}
-		if(this.inPlace){
-			this.inputJC.removeRdfFromJC(subsJC);
-			this.inputJC.loadRdfFromJC(addsJC);
+		return Triple.create((subj != null) ? subj : t.getSubject(), t.getPredicate(), (obj != null) ? obj : t.getObject());
+	}
+	
+	/**
+	 * Smush a graph in place
+	 * @param graph the graph to change
+	 * @param targets map from each resource to be smushed to the resource it is smushed into
+	 */
+	private static void smushInPlace(Graph graph, Map<Node, Node> targets) {
+		List<Triple> affected = findAffectedTriples(graph, targets);
+		log.debug("Rewriting " + affected.size() + " triples");
+		for(Triple t : affected) {
+			graph.delete(t);
+			graph.add(rewrite(t, targets));
+		}
+	}
+	
+	/**
+	 * Copy a graph into another, smushing each triple as it is copied
+	 * @param from the graph to copy
+	 * @param to the graph to copy into
+	 * @param targets map from each resource to be smushed to the resource it is smushed into
+	 */
+	private static void copySmushed(Graph from, Graph to, Map<Node, Node> targets) {
+		List<Triple> batch = new ArrayList<Triple>(COPY_BATCH_SIZE);
+		ExtendedIterator<Triple> triples = from.find(Node.ANY, Node.ANY, Node.ANY);
+		try {
+			while(triples.hasNext()) {
+				batch.add(rewrite(triples.next(), targets));
+				if(batch.size() == COPY_BATCH_SIZE) {
+					GraphUtil.add(to, batch);
+					batch.clear();
+				}
+			}
+		} finally {
+			triples.close();
 		}
-		if(this.outputJena != null) {
-			this.outputJena.loadRdfFromJC(this.inputJC);
-			this.outputJena.removeRdfFromJC(subsJC);
-			this.outputJena.loadRdfFromJC(addsJC);
-			this.outputJena.sync();
+		GraphUtil.add(to, batch);
+	}
+	
+	/**
+	 * Execute is that method where the resources are smushed on all predicates at once.
+	 */
+	public void execute() {
+		Model inModel = this.inputJC.getJenaModel();
+		inModel.enterCriticalSection(this.inPlace ? Lock.WRITE : Lock.READ);
+		try {
+			Graph inGraph = inModel.getGraph();
+			Map<Node, Node> targets = findSmushTargets(inGraph, this.inputPredicates, this.namespace);
+			if(this.inPlace) {
+				smushInPlace(inGraph, targets);
+			}
+			if(this.outputJena != null) {
+				copySmushed(inGraph, this.outputJena.getJenaModel().getGraph(), targets);
+				this.outputJena.sync();
+			}
+		} finally {
+			inModel.leaveCriticalSection();
 		}
 		this.inputJC.sync();
 	}
@@ -0,0 +1,352 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.score;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vivoweb.harvester.util.FileAide;
+import org.vivoweb.harvester.util.InitLog;
+import org.vivoweb.harvester.util.args.ArgDef;
+import org.vivoweb.harvester.util.args.ArgList;
+import org.vivoweb.harvester.util.args.ArgParser;
+import org.vivoweb.harvester.util.args.UsageException;
+import org.vivoweb.harvester.util.repo.JenaConnect;
+
+/**
+ * Reads a binary score store written by BinaryScoreWriter
+ * Matching is a single linear scan that sums the weighted scores of each pair in memory, and the scoreValue statements
+ * can be exported on demand for auditing
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class BinaryScoreStore {
+	/**
+	 * SLF4J Logger
+	 */
+	private static Logger log = LoggerFactory.getLogger(BinaryScoreStore.class);
+	/**
+	 * the store file
+	 */
+	private final String fileName;
+	/**
+	 * model to export the scoreValue statements to
+	 */
+	private JenaConnect scoreJena;
+	/**
+	 * N-Triples file to export the scoreValue statements to
+	 */
+	private String ntriplesFile;
+	/**
+	 * the uris read so far, indexed by store-wide number
+	 */
+	private List<String> uris;
+	/**
+	 * store-wide number of each uri read so far
+	 */
+	private Map<String, Integer> uriIds;
+	/**
+	 * store-wide number of each uri of the current segment, indexed by its number in the segment
+	 */
+	private List<Integer> segmentUris;
+	/**
+	 * the runs of the current segment, indexed by number
+	 */
+	private List<Run> runs;
+	
+	/**
+	 * Constructor
+	 * @param fileName the store file
+	 */
+	public BinaryScoreStore(String fileName) {
+		if(fileName == null) {
+			throw new IllegalArgumentException("Score store file cannot be null");
+		}
+		this.fileName = fileName;
+	}
+	
+	/**
+	 * Constructor
+	 * @param args argument list
+	 * @throws IOException error parsing options
+	 * @throws UsageException user requested usage message
+	 */
+	private BinaryScoreStore(String... args) throws IOException, UsageException {
+		this(getParser().parse(args));
+	}
+	
+	/**
+	 * Constructor
+	 * @param opts parsed argument list
+	 * @throws IOException error parsing options
+	 */
+	private BinaryScoreStore(ArgList opts) throws IOException {
+		this(opts.get("f"));
+		this.scoreJena = JenaConnect.parseConfig(opts.get("s"), opts.getValueMap("S"));
+		this.ntriplesFile = opts.get("o");
+		if((this.scoreJena == null) && (this.ntriplesFile == null)) {
+			throw new IllegalArgumentException("Must provide a score model or an N-Triples output file to export to");
+		}
+	}
+	
+	/**
+	 * Receives each scored pair read from the store
+	 */
+	private interface PairHandler {
+		/**
+		 * Handle a scored pair
+		 * @param inputId store-wide number of the input uri
+		 * @param vivoId store-wide number of the vivo uri
+		 * @param runIds run number of each score value in the current segment
+		 * @param scores the score values
+		 * @param count number of score values
+		 * @throws IOException error handling
+		 */
+		void handle(int inputId, int vivoId, int[] runIds, float[] scores, int count) throws IOException;
+	}
+	
+	/**
+	 * A run definition read from the store
+	 */
+	private static class Run {
+		/**
+		 * the vivo predicate
+		 */
+		protected final String vivoProp;
+		/**
+		 * the input predicate
+		 */
+		protected final String inputProp;
+		/**
+		 * the name of the algorithm class
+		 */
+		protected final String algorithm;
+		/**
+		 * the weight of the run
+		 */
+		protected final Float weight;
+		
+		/**
+		 * Constructor
+		 * @param vivoProp the vivo predicate
+		 * @param inputProp the input predicate
+		 * @param algorithm the name of the algorithm class
+		 * @param weight the weight of the run
+		 */
+		protected Run(String vivoProp, String inputProp, String algorithm, Float weight) {
+			this.vivoProp = vivoProp;
+			this.inputProp = inputProp;
+			this.algorithm = algorithm;
+			this.weight = weight;
+		}
+		
+		/**
+		 * Weight a score the same way Score does
+		 * @param score the unweighted score
+		 * @return the weighted score
+		 */
+		protected double weigh(float score) {
+			return this.weight.doubleValue() * score;
+		}
+	}
+	
+	/**
+	 * Read the store from start to end, passing each pair to the handler. Uri numbers restart in each segment, so they
+	 * are translated to store-wide numbers that identify the same uri in every segment.
+	 * @param handler the handler
+	 * @return number of pairs read
+	 * @throws IOException error reading or store is corrupt
+	 */
+	private long scan(PairHandler handler) throws IOException {
+		this.uris = new ArrayList<String>();
+		this.uriIds = new HashMap<String, Integer>();
+		this.segmentUris = new ArrayList<Integer>();
+		this.runs = new ArrayList<Run>();
+		int[] runIds = new int[8];
+		float[] scores = new float[8];
+		long pairs = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(FileAide.getInputStream(this.fileName), 65536));
+		try {
+			if(in.readInt() != BinaryScoreWriter.MAGIC) {
+				throw new IOException("'" + this.fileName + "' is not a binary score store");
+			}
+			int version = in.readInt();
+			if(version != BinaryScoreWriter.VERSION) {
+				throw new IOException("Unsupported binary score store version " + version + " in '" + this.fileName + "'");
+			}
+			while(true) {
+				int type = in.read();
+				if(type == -1) {
+					break;
+				}
+				if(type == BinaryScoreWriter.SEGMENT_RECORD) {
+					this.segmentUris.clear();
+					this.runs.clear();
+				} else if(type == BinaryScoreWriter.URI_RECORD) {
+					String uri = in.readUTF();
+					Integer id = this.uriIds.get(uri);
+					if(id == null) {
+						id = Integer.valueOf(this.uris.size());
+						this.uris.add(uri);
+						this.uriIds.put(uri, id);
+					}
+					this.segmentUris.add(id);
+				} else if(type == BinaryScoreWriter.RUN_RECORD) {
+					this.runs.add(new Run(in.readUTF(), in.readUTF(), in.readUTF(), Float.valueOf(in.readFloat())));
+				} else if(type == BinaryScoreWriter.PAIR_RECORD) {
+					int inputId = this.segmentUris.get(in.readInt()).intValue();
+					int vivoId = this.segmentUris.get(in.readInt()).intValue();
+					int count = in.readInt();
+					if(count > runIds.length) {
+						runIds = new int[count];
+						scores = new float[count];
+					}
+					for(int x = 0; x < count; x++) {
+						runIds[x] = in.readInt();
+						scores[x] = in.readFloat();
+					}
+					handler.handle(inputId, vivoId, runIds, scores, count);
+					pairs++;
+				} else {
+					throw new IOException("Corrupt binary score store '" + this.fileName + "': unknown record type " + type);
+				}
+			}
+		} catch(EOFException e) {
+			throw new IOException("Binary score store '" + this.fileName + "' is truncated", e);
+		} finally {
+			in.close();
+		}
+		return pairs;
+	}
+	
+	/**
+	 * Find all pairs whose summed weighted score is greater than or equal to the threshold
+	 * Scores for the same pair written by several Score invocations are summed, as Match does over a score model
+	 * @param threshold the threshold
+	 * @return the matches, in the same form as Match.match
+	 * @throws IOException error reading the store
+	 */
+	public Set<Map<String, String>> match(float threshold) throws IOException {
+		final Map<Long, double[]> sums = new HashMap<Long, double[]>();
+		long pairs = scan(new PairHandler() {
+			@Override
+			public void handle(int inputId, int vivoId, int[] runIds, float[] scores, int count) {
+				double sum = 0;
+				for(int x = 0; x < count; x++) {
+					sum += (float)BinaryScoreStore.this.runs.get(runIds[x]).weigh(scores[x]);
+				}
+				Long key = Long.valueOf((((long)inputId) << 32) | (vivoId & 0xffffffffL));
+				double[] total = sums.get(key);
+				if(total == null) {
+					sums.put(key, new double[]{sum});
+				} else {
+					total[0] += sum;
+				}
+			}
+		});
+		log.debug("Read " + pairs + " scored pairs from '" + this.fileName + "'");
+		Set<Map<String, String>> matchSet = Match.newMatchSet();
+		for(Long key : sums.keySet()) {
+			double sum = sums.get(key)[0];
+			if(sum >= threshold) {
+				Map<String, String> tempMap = new HashMap<String, String>();
+				tempMap.put("sInputURI", this.uris.get((int)(key.longValue() >>> 32)));
+				tempMap.put("sVivoURI", this.uris.get((int)key.longValue()));
+				tempMap.put("score", Float.valueOf((float)sum).toString());
+				matchSet.add(tempMap);
+			}
+		}
+		return matchSet;
+	}
+	
+	/**
+	 * Write every scored pair in the store to a score writer as scoreValue statements
+	 * @param writer the score writer, closed when done
+	 * @return number of pairs exported
+	 * @throws IOException error reading the store or writing
+	 */
+	public long export(final ScoreWriter writer) throws IOException {
+		try {
+			return scan(new PairHandler() {
+				@Override
+				public void handle(int inputId, int vivoId, int[] runIds, float[] scores, int count) throws IOException {
+					writer.startPair(BinaryScoreStore.this.uris.get(inputId), BinaryScoreStore.this.uris.get(vivoId));
+					for(int x = 0; x < count; x++) {
+						Run run = BinaryScoreStore.this.runs.get(runIds[x]);
+						writer.writeScoreValue(run.vivoProp, run.inputProp, run.algorithm, scores[x], run.weight, run.weigh(scores[x]));
+					}
+				}
+			});
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Export the store to the configured destinations
+	 * @throws IOException error reading the store or writing
+	 */
+	public void execute() throws IOException {
+		if(this.ntriplesFile != null) {
+			log.info("Exported " + export(new NTriplesScoreWriter(this.ntriplesFile)) + " scored pairs to " + this.ntriplesFile);
+		}
+		if(this.scoreJena != null) {
+			log.info("Exported " + export(new JenaScoreWriter(this.scoreJena, 2000)) + " scored pairs to the score model");
+			this.scoreJena.sync();
+		}
+	}
+	
+	/**
+	 * Get the ArgParser
+	 * @return the ArgParser
+	 */
+	private static ArgParser getParser() {
+		ArgParser parser = new ArgParser("BinaryScoreStore");
+		parser.addArgument(new ArgDef().setShortOption('f').setLongOpt("scoreStore").withParameter(true, "STORE_FILE").setDescription("binary score store file written by Score").setRequired(true));
+		parser.addArgument(new ArgDef().setShortOption('o').setLongOpt("output").withParameter(true, "NTRIPLES_FILE").setDescription("export the scoreValue statements to NTRIPLES_FILE").setRequired(false));
+		parser.addArgument(new ArgDef().setShortOption('s').setLongOpt("score-config").withParameter(true, "CONFIG_FILE").setDescription("export the scoreValue statements to this score data JENA configuration filename").setRequired(false));
+		parser.addArgument(new ArgDef().setShortOption('S').setLongOpt("scoreOverride").withParameterValueMap("JENA_PARAM", "VALUE").setDescription("override the JENA_PARAM of score jena model config using VALUE").setRequired(false));
+		return parser;
+	}
+	
+	/**
+	 * Main method
+	 * @param args command line arguments
+	 */
+	public static void main(String... args) {
+		Exception error = null;
+		try {
+			InitLog.initLogger(args, getParser());
+			log.info(getParser().getAppName() + ": Start");
+			new BinaryScoreStore(args).execute();
+		} catch(IllegalArgumentException e) {
+			log.error(e.getMessage());
+			log.debug("Stacktrace:",e);
+			System.out.println(getParser().getUsage());
+			error = e;
+		} catch(UsageException e) {
+			log.info("Printing Usage:");
+			System.out.println(getParser().getUsage());
+			error = e;
+		} catch(Exception e) {
+			log.error(e.getMessage());
+			log.debug("Stacktrace:",e);
+			error = e;
+		} finally {
+			log.info(getParser().getAppName() + ": End");
+			if(error != null) {
+				System.exit(1);
+			}
+		}
+	}
+}
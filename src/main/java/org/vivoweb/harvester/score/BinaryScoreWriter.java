@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.score;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import org.vivoweb.harvester.util.FileAide;
+
+/**
+ * Writes scores to a compact binary score store instead of scoreValue statements
+ * The store is an append-only sequence of records. Each writer appends one segment, so several Score invocations can
+ * share a store: within a segment each uri and each run (predicates, algorithm and weight) is written once and then
+ * referred to by number, so a scored pair costs two ints plus one int and one float per run
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class BinaryScoreWriter extends ScoreWriter {
+	/**
+	 * identifies a binary score store file
+	 */
+	static final int MAGIC = 0x56485343;
+	/**
+	 * format version of the binary score store
+	 */
+	static final int VERSION = 2;
+	/**
+	 * record starting a segment, uri and run numbers start again from 0 after it
+	 */
+	static final byte SEGMENT_RECORD = 'S';
+	/**
+	 * record defining the next uri number in the segment: utf uri
+	 */
+	static final byte URI_RECORD = 'U';
+	/**
+	 * record defining the next run number in the segment: utf vivo predicate, utf input predicate, utf algorithm, float weight
+	 */
+	static final byte RUN_RECORD = 'R';
+	/**
+	 * record for a scored pair: int input uri, int vivo uri, int count, count times (int run, float score)
+	 */
+	static final byte PAIR_RECORD = 'P';
+	/**
+	 * the store output
+	 */
+	private final DataOutputStream out;
+	/**
+	 * number of each uri written so far in this segment
+	 */
+	private final Map<String, Integer> uriIds;
+	/**
+	 * number of each run written so far in this segment
+	 */
+	private final Map<String, Integer> runIds;
+	/**
+	 * input uri number of the current pair (-1 if no pair started)
+	 */
+	private int pairInput;
+	/**
+	 * vivo uri number of the current pair
+	 */
+	private int pairVivo;
+	/**
+	 * number of score values in the current pair
+	 */
+	private int valueCount;
+	/**
+	 * run numbers of the current pair's score values
+	 */
+	private int[] valueRuns;
+	/**
+	 * the current pair's score values
+	 */
+	private float[] valueScores;
+	
+	/**
+	 * Constructor
+	 * @param out stream to write a new store to
+	 * @throws IOException error writing header
+	 */
+	public BinaryScoreWriter(OutputStream out) throws IOException {
+		this(out, true);
+	}
+	
+	/**
+	 * Constructor, appending to the store if the file already holds one
+	 * @param fileName file to write the store to
+	 * @throws IOException error opening file or the file is not a binary score store
+	 */
+	public BinaryScoreWriter(String fileName) throws IOException {
+		this(FileAide.getOutputStream(fileName, true), !hasHeader(fileName));
+	}
+	
+	/**
+	 * Constructor
+	 * @param out stream to write the store to
+	 * @param newStore write the store header first
+	 * @throws IOException error writing header
+	 */
+	private BinaryScoreWriter(OutputStream out, boolean newStore) throws IOException {
+		if(out == null) {
+			throw new IllegalArgumentException("Output stream cannot be null");
+		}
+		this.out = new DataOutputStream(new BufferedOutputStream(out, 65536));
+		if(newStore) {
+			this.out.writeInt(MAGIC);
+			this.out.writeInt(VERSION);
+		}
+		this.out.writeByte(SEGMENT_RECORD);
+		this.uriIds = new HashMap<String, Integer>();
+		this.runIds = new HashMap<String, Integer>();
+		this.pairInput = -1;
+		this.valueCount = 0;
+		this.valueRuns = new int[8];
+		this.valueScores = new float[8];
+	}
+	
+	/**
+	 * Check whether a file already holds a binary score store
+	 * @param fileName the file
+	 * @return true if the file holds a store, false if it does not exist or is empty
+	 * @throws IOException error reading the file, or it holds something other than a store of this version
+	 */
+	private static boolean hasHeader(String fileName) throws IOException {
+		if(!FileAide.exists(fileName)) {
+			return false;
+		}
+		DataInputStream in = new DataInputStream(FileAide.getInputStream(fileName));
+		try {
+			int first = in.read();
+			if(first == -1) {
+				return false;
+			}
+			int magic = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+			if(magic != MAGIC) {
+				throw new IOException("'" + fileName + "' is not a binary score store");
+			}
+			int version = in.readInt();
+			if(version != VERSION) {
+				throw new IOException("Cannot append to binary score store version " + version + " in '" + fileName + "'");
+			}
+			return true;
+		} catch(EOFException e) {
+			throw new IOException("Binary score store '" + fileName + "' is truncated", e);
+		} finally {
+			in.close();
+		}
+	}
+	
+	@Override
+	public void startPair(String sInputURI, String sVivoURI) throws IOException {
+		writePair();
+		this.pairInput = getUriId(sInputURI);
+		this.pairVivo = getUriId(sVivoURI);
+	}
+	
+	@Override
+	public void writeScoreValue(String vivoProp, String inputProp, String algorithm, float score, Float weight, double weightedScore) throws IOException {
+		if(this.pairInput < 0) {
+			throw new IllegalStateException("startPair must be called before writeScoreValue");
+		}
+		if(this.valueCount == this.valueRuns.length) {
+			int[] runs = new int[this.valueCount * 2];
+			System.arraycopy(this.valueRuns, 0, runs, 0, this.valueCount);
+			this.valueRuns = runs;
+			float[] scores = new float[this.valueCount * 2];
+			System.arraycopy(this.valueScores, 0, scores, 0, this.valueCount);
+			this.valueScores = scores;
+		}
+		this.valueRuns[this.valueCount] = getRunId(vivoProp, inputProp, algorithm, weight);
+		this.valueScores[this.valueCount] = score;
+		this.valueCount++;
+	}
+	
+	/**
+	 * Get the number of a uri, writing its definition the first time it is seen
+	 * @param uri the uri
+	 * @return the number
+	 * @throws IOException error writing
+	 */
+	private int getUriId(String uri) throws IOException {
+		Integer id = this.uriIds.get(uri);
+		if(id == null) {
+			id = Integer.valueOf(this.uriIds.size());
+			this.uriIds.put(uri, id);
+			this.out.writeByte(URI_RECORD);
+			this.out.writeUTF(uri);
+		}
+		return id.intValue();
+	}
+	
+	/**
+	 * Get the number of a run, writing its definition the first time it is seen
+	 * @param vivoProp the vivo predicate
+	 * @param inputProp the input predicate
+	 * @param algorithm the name of the algorithm class
+	 * @param weight the weight of the run
+	 * @return the number
+	 * @throws IOException error writing
+	 */
+	private int getRunId(String vivoProp, String inputProp, String algorithm, Float weight) throws IOException {
+		String key = vivoProp + "\n" + inputProp + "\n" + algorithm + "\n" + weight;
+		Integer id = this.runIds.get(key);
+		if(id == null) {
+			id = Integer.valueOf(this.runIds.size());
+			this.runIds.put(key, id);
+			this.out.writeByte(RUN_RECORD);
+			this.out.writeUTF(vivoProp);
+			this.out.writeUTF(inputProp);
+			this.out.writeUTF(algorithm);
+			this.out.writeFloat(weight.floatValue());
+		}
+		return id.intValue();
+	}
+	
+	/**
+	 * Write the record for the current pair, if any
+	 * @throws IOException error writing
+	 */
+	private void writePair() throws IOException {
+		if(this.pairInput < 0) {
+			return;
+		}
+		this.out.writeByte(PAIR_RECORD);
+		this.out.writeInt(this.pairInput);
+		this.out.writeInt(this.pairVivo);
+		this.out.writeInt(this.valueCount);
+		for(int x = 0; x < this.valueCount; x++) {
+			this.out.writeInt(this.valueRuns[x]);
+			this.out.writeFloat(this.valueScores[x]);
+		}
+		this.pairInput = -1;
+		this.valueCount = 0;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		writePair();
+		this.out.close();
+	}
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.score;
+
+import java.text.Normalizer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Blocking Key used to group input and vivo resources before scoring
+ * Each run name contributes the first N characters of its normalized value (0 = the whole value), so a key of
+ * lastName=0 and firstName=1 groups resources on normalized last name plus first initial
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class BlockingKey {
+	/**
+	 * mapping of run name to number of normalized characters to use from its value (0 = whole value)
+	 */
+	private final Map<String, Integer> runLengths;
+	
+	/**
+	 * Constructor
+	 * @param runLengths mapping of run name to number of normalized characters to use from its value (0 = whole value)
+	 */
+	public BlockingKey(Map<String, Integer> runLengths) {
+		if((runLengths == null) || runLengths.isEmpty()) {
+			throw new IllegalArgumentException("Blocking key must contain at least one run name");
+		}
+		this.runLengths = new TreeMap<String, Integer>();
+		for(String runName : runLengths.keySet()) {
+			Integer length = runLengths.get(runName);
+			if((length == null) || (length.intValue() < 0)) {
+				throw new IllegalArgumentException("Blocking key length for run name '" + runName + "' must be 0 or greater");
+			}
+			this.runLengths.put(runName, length);
+		}
+	}
+	
+	/**
+	 * Build a blocking key from the commandline mapping
+	 * @param spec mapping of run name to number of characters (empty = whole value)
+	 * @return the blocking key, or null if spec is empty
+	 */
+	public static BlockingKey parse(Map<String, String> spec) {
+		if((spec == null) || spec.isEmpty()) {
+			return null;
+		}
+		Map<String, Integer> lengths = new TreeMap<String, Integer>();
+		for(String runName : spec.keySet()) {
+			String val = spec.get(runName);
+			try {
+				lengths.put(runName, Integer.valueOf(((val == null) || val.isEmpty()) ? 0 : Integer.parseInt(val)));
+			} catch(NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid blocking key length for run name '" + runName + "': " + val, e);
+			}
+		}
+		return new BlockingKey(lengths);
+	}
+	
+	/**
+	 * Get the run names used to build this key
+	 * @return the run names
+	 */
+	public Set<String> getRunNames() {
+		return Collections.unmodifiableSet(this.runLengths.keySet());
+	}
+	
+	/**
+	 * Build the key for a resource
+	 * @param values mapping of run name to the resource's value for that run
+	 * @return the key, or null if any run name in this key has no usable value
+	 */
+	public String buildKey(Map<String, String> values) {
+		StringBuilder key = new StringBuilder();
+		for(String runName : this.runLengths.keySet()) {
+			String value = values.get(runName);
+			if(value == null) {
+				return null;
+			}
+			String norm = normalize(value);
+			if(norm.isEmpty()) {
+				return null;
+			}
+			int length = this.runLengths.get(runName).intValue();
+			if((length > 0) && (norm.length() > length)) {
+				norm = norm.substring(0, length);
+			}
+			key.append(norm).append('|');
+		}
+		return key.toString();
+	}
+	
+	/**
+	 * Build every key for a resource with several values per run, one for each combination of values
+	 * @param values mapping of run name to the resource's values for that run
+	 * @return the keys in sorted order, empty if any run name in this key has no usable value
+	 */
+	public SortedSet<String> buildKeys(Map<String, ? extends Collection<String>> values) {
+		SortedSet<String> keys = new TreeSet<String>();
+		keys.add("");
+		for(String runName : this.runLengths.keySet()) {
+			Collection<String> runValues = values.get(runName);
+			if(runValues == null) {
+				return new TreeSet<String>();
+			}
+			int length = this.runLengths.get(runName).intValue();
+			Set<String> parts = new TreeSet<String>();
+			for(String value : runValues) {
+				String norm = normalize(value);
+				if(norm.isEmpty()) {
+					continue;
+				}
+				if((length > 0) && (norm.length() > length)) {
+					norm = norm.substring(0, length);
+				}
+				parts.add(norm);
+			}
+			if(parts.isEmpty()) {
+				return new TreeSet<String>();
+			}
+			SortedSet<String> next = new TreeSet<String>();
+			for(String prefix : keys) {
+				for(String part : parts) {
+					next.add(prefix + part + '|');
+				}
+			}
+			keys = next;
+		}
+		return keys;
+	}
+	
+	/**
+	 * Normalize a value for use in a key: strips diacritics, punctuation and whitespace and lowercases
+	 * @param value the value
+	 * @return the normalized value
+	 */
+	public static String normalize(CharSequence value) {
+		String decomposed = Normalizer.normalize(value, Normalizer.Form.NFD);
+		StringBuilder sb = new StringBuilder(decomposed.length());
+		for(int i = 0; i < decomposed.length(); i++) {
+			char c = decomposed.charAt(i);
+			if(Character.isLetterOrDigit(c)) {
+				sb.append(Character.toLowerCase(c));
+			}
+		}
+		return sb.toString();
+	}
+	
+	@Override
+	public String toString() {
+		return this.runLengths.toString();
+	}
+}
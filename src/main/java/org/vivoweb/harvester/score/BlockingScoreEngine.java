@@ -0,0 +1,532 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.score;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import org.apache.commons.lang.time.StopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vivoweb.harvester.score.algorithm.AlgorithmRegistry;
+import org.vivoweb.harvester.util.repo.JenaConnect;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+
+/**
+ * Scoring engine that groups input and vivo resources by a BlockingKey and scores every input/vivo pair within each
+ * block on a fork-join pool, rather than building a single cross-graph candidate query
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class BlockingScoreEngine {
+	/**
+	 * SLF4J Logger
+	 */
+	private static Logger log = LoggerFactory.getLogger(BlockingScoreEngine.class);
+	/**
+	 * number of pairs in a block above which the block is split across workers
+	 */
+	private static final long SPLIT_THRESHOLD = 4096;
+	/**
+	 * model containing statements to be scored
+	 */
+	private final JenaConnect inputJena;
+	/**
+	 * model containing vivo statements
+	 */
+	private final JenaConnect vivoJena;
+	/**
+	 * the run names, in scoring order
+	 */
+	private final String[] runNames;
+	/**
+	 * the input predicate for each run
+	 */
+	private final String[] inputPredicates;
+	/**
+	 * the vivo predicate for each run
+	 */
+	private final String[] vivoPredicates;
+	/**
+	 * the algorithms for each run
+	 */
+	private final AlgorithmRegistry algorithms;
+	/**
+	 * limit scoring to input resources whose URI begins with this namespace
+	 */
+	private final String namespace;
+	/**
+	 * String containing a list of common names separated by ","
+	 */
+	private final String commonNames;
+	/**
+	 * the key used to group resources
+	 */
+	private final BlockingKey blockingKey;
+	/**
+	 * number of worker threads
+	 */
+	private final int threads;
+	/**
+	 * only score pairs whose input resource is in this set or whose vivo resource is in changedVivos (null for all)
+	 */
+	private Set<String> changedInputs;
+	/**
+	 * only score pairs whose vivo resource is in this set or whose input resource is in changedInputs
+	 */
+	private Set<String> changedVivos;
+	
+	/**
+	 * Handler for the scores of each scored pair
+	 */
+	public interface ScoredPairHandler {
+		/**
+		 * Handle the scores for a pair, called from a single thread in block order
+		 * @param sInputURI the input resource
+		 * @param sVivoURI the vivo resource
+		 * @param scores the unweighted score for each run, indexed as in getRunNames()
+		 * @throws IOException error writing scores
+		 */
+		void handle(String sInputURI, String sVivoURI, float[] scores) throws IOException;
+	}
+	
+	/**
+	 * Constructor
+	 * @param inputJena model containing statements to be scored
+	 * @param vivoJena model containing vivo statements
+	 * @param algorithms the algorithms to execute for each run name
+	 * @param inputPredicates the predicates to look for in inputJena model
+	 * @param vivoPredicates the predicates to look for in vivoJena model
+	 * @param namespace limit scoring to input resources whose URI begins with this namespace
+	 * @param commonNames String containing a list of common names separated by "," (null to not use)
+	 * @param blockingKey the key used to group resources
+	 * @param threads number of worker threads (less than 1 uses the number of available processors)
+	 */
+	public BlockingScoreEngine(JenaConnect inputJena, JenaConnect vivoJena, AlgorithmRegistry algorithms, Map<String, String> inputPredicates, Map<String, String> vivoPredicates, String namespace, String commonNames, BlockingKey blockingKey, int threads) {
+		if(blockingKey == null) {
+			throw new IllegalArgumentException("Blocking key cannot be null");
+		}
+		for(String runName : blockingKey.getRunNames()) {
+			if(!inputPredicates.containsKey(runName)) {
+				throw new IllegalArgumentException("blocking key run name '" + runName + "' is not a configured run name");
+			}
+		}
+		this.inputJena = inputJena;
+		this.vivoJena = vivoJena;
+		this.runNames = inputPredicates.keySet().toArray(new String[inputPredicates.size()]);
+		this.inputPredicates = new String[this.runNames.length];
+		this.vivoPredicates = new String[this.runNames.length];
+		for(int x = 0; x < this.runNames.length; x++) {
+			this.inputPredicates[x] = inputPredicates.get(this.runNames[x]);
+			this.vivoPredicates[x] = vivoPredicates.get(this.runNames[x]);
+		}
+		this.algorithms = algorithms;
+		this.namespace = namespace;
+		this.commonNames = commonNames;
+		this.blockingKey = blockingKey;
+		this.threads = (threads < 1) ? Runtime.getRuntime().availableProcessors() : threads;
+	}
+	
+	/**
+	 * Get the run names, in the order used to index scores
+	 * @return the run names
+	 */
+	public String[] getRunNames() {
+		return this.runNames.clone();
+	}
+	
+	/**
+	 * Only score pairs in which the input or the vivo resource changed
+	 * @param inputs the changed input resources (null along with vivos to score all pairs)
+	 * @param vivos the changed vivo resources
+	 */
+	public void setChangedResources(Set<String> inputs, Set<String> vivos) {
+		this.changedInputs = inputs;
+		this.changedVivos = vivos;
+	}
+	
+	/**
+	 * Should this pair be scored
+	 * @param input the input entity
+	 * @param vivo the vivo entity
+	 * @return true if there is no change filter, or either resource changed
+	 */
+	private boolean isChanged(ScoreEntity input, ScoreEntity vivo) {
+		return (this.changedInputs == null) || this.changedInputs.contains(input.uri) || this.changedVivos.contains(vivo.uri);
+	}
+	
+	/**
+	 * Score all pairs of input and vivo resources sharing a blocking key
+	 * @param handler handler for the scores of each pair
+	 * @return the number of pairs scored
+	 * @throws IOException error reading models or handling scores
+	 */
+	public long execute(ScoredPairHandler handler) throws IOException {
+		StopWatch stopWatch = new StopWatch();
+		stopWatch.start();
+		log.info("Loading input resources");
+		Map<String, List<ScoreEntity>> inputBlocks = buildBlocks(loadEntities(this.inputJena.getJenaModel(), this.inputPredicates, this.namespace));
+		log.info("Loading vivo resources");
+		Map<String, List<ScoreEntity>> vivoBlocks = buildBlocks(loadEntities(this.vivoJena.getJenaModel(), this.vivoPredicates, null));
+		log.info("Built " + inputBlocks.size() + " input blocks and " + vivoBlocks.size() + " vivo blocks using key " + this.blockingKey);
+		
+		long count = 0;
+		ForkJoinPool pool = new ForkJoinPool(this.threads);
+		try {
+			// keep a bounded window of blocks in flight so results are handled in order without holding all of them
+			Deque<ForkJoinTask<List<ScoredPair>>> window = new ArrayDeque<ForkJoinTask<List<ScoredPair>>>();
+			int windowSize = this.threads * 4;
+			for(String key : inputBlocks.keySet()) {
+				List<ScoreEntity> vivoBlock = vivoBlocks.get(key);
+				if(vivoBlock == null) {
+					continue;
+				}
+				List<ScoreEntity> inputBlock = inputBlocks.get(key);
+				if(!isChanged(inputBlock, vivoBlock)) {
+					continue;
+				}
+				log.trace("Scoring block '" + key + "': " + inputBlock.size() + " input x " + vivoBlock.size() + " vivo");
+				window.addLast(pool.submit(new BlockTask(key, inputBlock, 0, inputBlock.size(), vivoBlock)));
+				if(window.size() >= windowSize) {
+					count += handleResults(window.removeFirst().join(), handler);
+				}
+			}
+			while(!window.isEmpty()) {
+				count += handleResults(window.removeFirst().join(), handler);
+			}
+		} finally {
+			pool.shutdown();
+		}
+		stopWatch.stop();
+		log.info("Scored " + count + " pairs in " + stopWatch.getTime() + "ms using " + this.threads + " threads");
+		return count;
+	}
+	
+	/**
+	 * Does a block contain any pair that should be scored
+	 * @param inputBlock input resources of the block
+	 * @param vivoBlock vivo resources of the block
+	 * @return true if there is no change filter, or any resource of the block changed
+	 */
+	private boolean isChanged(List<ScoreEntity> inputBlock, List<ScoreEntity> vivoBlock) {
+		if(this.changedInputs == null) {
+			return true;
+		}
+		for(ScoreEntity input : inputBlock) {
+			if(this.changedInputs.contains(input.uri)) {
+				return true;
+			}
+		}
+		for(ScoreEntity vivo : vivoBlock) {
+			if(this.changedVivos.contains(vivo.uri)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Pass the results of a block to the handler
+	 * @param results the scored pairs
+	 * @param handler the handler
+	 * @return number of pairs handled
+	 * @throws IOException error handling scores
+	 */
+	private static int handleResults(List<ScoredPair> results, ScoredPairHandler handler) throws IOException {
+		for(ScoredPair pair : results) {
+			handler.handle(pair.inputURI, pair.vivoURI, pair.scores);
+		}
+		return results.size();
+	}
+	
+	/**
+	 * Read the values of each run predicate for every resource in a model
+	 * @param model the model to read
+	 * @param predicates the predicate for each run
+	 * @param ns only load resources whose URI begins with this namespace (null for all)
+	 * @return mapping of URI to entity
+	 */
+	private Map<String, ScoreEntity> loadEntities(Model model, String[] predicates, String ns) {
+		Map<String, ScoreEntity> entities = new LinkedHashMap<String, ScoreEntity>();
+		for(int x = 0; x < predicates.length; x++) {
+			Property prop = model.getProperty(predicates[x]);
+			StmtIterator stmts = model.listStatements(null, prop, (RDFNode)null);
+			try {
+				while(stmts.hasNext()) {
+					Statement stmt = stmts.nextStatement();
+					Resource sub = stmt.getSubject();
+					if(!sub.isURIResource()) {
+						continue;
+					}
+					String uri = sub.getURI();
+					if((ns != null) && !uri.startsWith(ns)) {
+						continue;
+					}
+					ScoreEntity entity = entities.get(uri);
+					if(entity == null) {
+						entity = new ScoreEntity(uri, predicates.length);
+						entities.put(uri, entity);
+					}
+					entity.add(x, stmt.getObject());
+				}
+			} finally {
+				stmts.close();
+			}
+		}
+		return entities;
+	}
+	
+	/**
+	 * Group entities by their blocking keys, entities without a key are not scored. An entity with several values for
+	 * a key's runs is placed in the block of each combination of values.
+	 * @param entities the entities
+	 * @return mapping of key to entities in that block
+	 */
+	private Map<String, List<ScoreEntity>> buildBlocks(Map<String, ScoreEntity> entities) {
+		Map<String, List<ScoreEntity>> blocks = new LinkedHashMap<String, List<ScoreEntity>>();
+		Map<String, List<String>> keyValues = new HashMap<String, List<String>>();
+		int unkeyed = 0;
+		for(ScoreEntity entity : entities.values()) {
+			keyValues.clear();
+			for(int x = 0; x < this.runNames.length; x++) {
+				List<String> values = new ArrayList<String>(entity.lits.get(x));
+				values.addAll(entity.uris.get(x));
+				if(!values.isEmpty()) {
+					keyValues.put(this.runNames[x], values);
+				}
+			}
+			entity.keys = this.blockingKey.buildKeys(keyValues);
+			if(entity.keys.isEmpty()) {
+				unkeyed++;
+				continue;
+			}
+			for(String key : entity.keys) {
+				List<ScoreEntity> block = blocks.get(key);
+				if(block == null) {
+					block = new ArrayList<ScoreEntity>();
+					blocks.put(key, block);
+				}
+				block.add(entity);
+			}
+		}
+		if(unkeyed > 0) {
+			log.debug(unkeyed + " resources have no value for the blocking key and will not be scored");
+		}
+		return blocks;
+	}
+	
+	/**
+	 * Is a block the first block shared by a pair, so pairs that share several blocks are scored only once
+	 * @param key the block key
+	 * @param input the input entity
+	 * @param vivo the vivo entity
+	 * @return true if no smaller key is shared by both entities
+	 */
+	private static boolean isFirstSharedBlock(String key, ScoreEntity input, ScoreEntity vivo) {
+		for(String inputKey : input.keys.headSet(key)) {
+			if(vivo.keys.contains(inputKey)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Score an input entity against a vivo entity. Where a run has several values, every pair of values is scored and
+	 * the best score is kept, as when each combination was a row of the candidate query.
+	 * @param input the input entity
+	 * @param vivo the vivo entity
+	 * @return the unweighted score for each run
+	 */
+	private float[] score(ScoreEntity input, ScoreEntity vivo) {
+		float[] scores = new float[this.runNames.length];
+		for(int x = 0; x < this.runNames.length; x++) {
+			List<String> vivoUris = vivo.uris.get(x);
+			boolean sameUri = false;
+			for(String uri : input.uris.get(x)) {
+				if(vivoUris.contains(uri)) {
+					sameUri = true;
+					break;
+				}
+			}
+			if(sameUri) {
+				scores[x] = 1f;
+				continue;
+			}
+			for(String inputLit : input.lits.get(x)) {
+				for(String vivoLit : vivo.lits.get(x)) {
+					scores[x] = Math.max(scores[x], this.algorithms.calculate(this.runNames[x], inputLit, vivoLit, this.commonNames));
+				}
+			}
+		}
+		return scores;
+	}
+	
+	/**
+	 * Scores a slice of the input resources of a block against all vivo resources of that block
+	 */
+	private class BlockTask extends RecursiveTask<List<ScoredPair>> {
+		/**
+		 * Serial Version UID
+		 */
+		private static final long serialVersionUID = 1L;
+		/**
+		 * the block key
+		 */
+		private final String key;
+		/**
+		 * input resources of the block
+		 */
+		private final List<ScoreEntity> inputs;
+		/**
+		 * first input index (inclusive)
+		 */
+		private final int from;
+		/**
+		 * last input index (exclusive)
+		 */
+		private final int to;
+		/**
+		 * vivo resources of the block
+		 */
+		private final List<ScoreEntity> vivos;
+		
+		/**
+		 * Constructor
+		 * @param key the block key
+		 * @param inputs input resources of the block
+		 * @param from first input index (inclusive)
+		 * @param to last input index (exclusive)
+		 * @param vivos vivo resources of the block
+		 */
+		protected BlockTask(String key, List<ScoreEntity> inputs, int from, int to, List<ScoreEntity> vivos) {
+			this.key = key;
+			this.inputs = inputs;
+			this.from = from;
+			this.to = to;
+			this.vivos = vivos;
+		}
+		
+		@Override
+		protected List<ScoredPair> compute() {
+			int size = this.to - this.from;
+			if((size > 1) && (((long)size * this.vivos.size()) > SPLIT_THRESHOLD)) {
+				int mid = this.from + (size / 2);
+				BlockTask left = new BlockTask(this.key, this.inputs, this.from, mid, this.vivos);
+				left.fork();
+				List<ScoredPair> right = new BlockTask(this.key, this.inputs, mid, this.to, this.vivos).compute();
+				List<ScoredPair> results = left.join();
+				results.addAll(right);
+				return results;
+			}
+			List<ScoredPair> results = new ArrayList<ScoredPair>();
+			for(int i = this.from; i < this.to; i++) {
+				ScoreEntity input = this.inputs.get(i);
+				for(ScoreEntity vivo : this.vivos) {
+					if(input.uri.equals(vivo.uri) || !isChanged(input, vivo) || !isFirstSharedBlock(this.key, input, vivo)) {
+						continue;
+					}
+					results.add(new ScoredPair(input.uri, vivo.uri, score(input, vivo)));
+				}
+			}
+			return results;
+		}
+	}
+	
+	/**
+	 * A resource and its values for each run
+	 */
+	private static class ScoreEntity {
+		/**
+		 * the resource uri
+		 */
+		protected final String uri;
+		/**
+		 * URI values for each run
+		 */
+		protected final List<List<String>> uris;
+		/**
+		 * literal values for each run
+		 */
+		protected final List<List<String>> lits;
+		/**
+		 * the blocking keys of the resource, set when blocks are built
+		 */
+		protected SortedSet<String> keys;
+		
+		/**
+		 * Constructor
+		 * @param uri the resource uri
+		 * @param runs number of runs
+		 */
+		protected ScoreEntity(String uri, int runs) {
+			this.uri = uri;
+			this.uris = new ArrayList<List<String>>(runs);
+			this.lits = new ArrayList<List<String>>(runs);
+			for(int x = 0; x < runs; x++) {
+				this.uris.add(new ArrayList<String>(1));
+				this.lits.add(new ArrayList<String>(1));
+			}
+		}
+		
+		/**
+		 * Add a value for a run
+		 * @param run the run index
+		 * @param node the value
+		 */
+		protected void add(int run, RDFNode node) {
+			if(node.isURIResource()) {
+				this.uris.get(run).add(node.asResource().getURI());
+			} else if(node.isLiteral()) {
+				this.lits.get(run).add(node.asLiteral().getValue().toString());
+			}
+		}
+	}
+	
+	/**
+	 * The scores of an input/vivo pair
+	 */
+	private static class ScoredPair {
+		/**
+		 * the input resource
+		 */
+		protected final String inputURI;
+		/**
+		 * the vivo resource
+		 */
+		protected final String vivoURI;
+		/**
+		 * the score for each run
+		 */
+		protected final float[] scores;
+		
+		/**
+		 * Constructor
+		 * @param inputURI the input resource
+		 * @param vivoURI the vivo resource
+		 * @param scores the score for each run
+		 */
+		protected ScoredPair(String inputURI, String vivoURI, float[] scores) {
+			this.inputURI = inputURI;
+			this.vivoURI = vivoURI;
+			this.scores = scores;
+		}
+	}
+}
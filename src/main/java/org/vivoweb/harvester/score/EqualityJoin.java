@@ -0,0 +1,379 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.score;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.lang.time.StopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vivoweb.harvester.util.repo.JenaConnect;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+
+/**
+ * Hash join used in place of the equality query in equality only mode. As in that query a pair matches when the string
+ * values of every run are equal, whatever the run's algorithm, and each run scores 1
+ * The vivo values of the most selective run are indexed by value, then each input resource probes the index and the
+ * candidates are checked against the remaining runs, so matching on identifiers is close to linear in the data size
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class EqualityJoin {
+	/**
+	 * SLF4J Logger
+	 */
+	private static Logger log = LoggerFactory.getLogger(EqualityJoin.class);
+	/**
+	 * model containing statements to be scored
+	 */
+	private final JenaConnect inputJena;
+	/**
+	 * model containing vivo statements
+	 */
+	private final JenaConnect vivoJena;
+	/**
+	 * the run names, in scoring order
+	 */
+	private final String[] runNames;
+	/**
+	 * the input predicate for each run
+	 */
+	private final String[] inputPredicates;
+	/**
+	 * the vivo predicate for each run
+	 */
+	private final String[] vivoPredicates;
+	/**
+	 * limit scoring to input resources whose URI begins with this namespace
+	 */
+	private final String namespace;
+	/**
+	 * only join input resources in this set or vivo resources in changedVivos (null for all)
+	 */
+	private Set<String> changedInputs;
+	/**
+	 * only join vivo resources in this set or input resources in changedInputs
+	 */
+	private Set<String> changedVivos;
+	
+	/**
+	 * Constructor
+	 * @param inputJena model containing statements to be scored
+	 * @param vivoJena model containing vivo statements
+	 * @param inputPredicates the predicates to look for in inputJena model
+	 * @param vivoPredicates the predicates to look for in vivoJena model
+	 * @param namespace limit scoring to input resources whose URI begins with this namespace
+	 */
+	public EqualityJoin(JenaConnect inputJena, JenaConnect vivoJena, Map<String, String> inputPredicates, Map<String, String> vivoPredicates, String namespace) {
+		this.inputJena = inputJena;
+		this.vivoJena = vivoJena;
+		this.runNames = inputPredicates.keySet().toArray(new String[inputPredicates.size()]);
+		this.inputPredicates = new String[this.runNames.length];
+		this.vivoPredicates = new String[this.runNames.length];
+		for(int x = 0; x < this.runNames.length; x++) {
+			this.inputPredicates[x] = inputPredicates.get(this.runNames[x]);
+			this.vivoPredicates[x] = vivoPredicates.get(this.runNames[x]);
+		}
+		this.namespace = namespace;
+	}
+	
+	/**
+	 * Get the run names, in the order used to index scores
+	 * @return the run names
+	 */
+	public String[] getRunNames() {
+		return this.runNames.clone();
+	}
+	
+	/**
+	 * Only join pairs in which the input or the vivo resource changed
+	 * @param inputs the changed input resources (null along with vivos to join all pairs)
+	 * @param vivos the changed vivo resources
+	 */
+	public void setChangedResources(Set<String> inputs, Set<String> vivos) {
+		this.changedInputs = inputs;
+		this.changedVivos = vivos;
+	}
+	
+	/**
+	 * Find every input/vivo pair whose values are equal for all runs
+	 * @param handler handler for each matching pair, every run scores 1
+	 * @return the number of pairs found
+	 * @throws IOException error handling scores
+	 */
+	public long execute(BlockingScoreEngine.ScoredPairHandler handler) throws IOException {
+		ScoreGroup all = new ScoreGroup("default", this.namespace, Arrays.asList(this.runNames));
+		return execute(Collections.singletonList(all), Collections.singletonList(handler));
+	}
+	
+	/**
+	 * Find, for each group, every input/vivo pair whose values are equal for all runs of that group. The models are
+	 * read once and the index of each run is built once, however many groups use it.
+	 * @param groups the groups, each run name in them must be one of this join's runs
+	 * @param handlers the handler for each group, given scores indexed as the group's run names
+	 * @return the number of pairs found
+	 * @throws IOException error handling scores
+	 */
+	public long execute(List<ScoreGroup> groups, List<BlockingScoreEngine.ScoredPairHandler> handlers) throws IOException {
+		if(groups.size() != handlers.size()) {
+			throw new IllegalArgumentException("Need one handler per group");
+		}
+		List<String> allRuns = Arrays.asList(this.runNames);
+		int[][] groupRuns = new int[groups.size()][];
+		Set<String> namespaces = new HashSet<String>();
+		for(int g = 0; g < groups.size(); g++) {
+			ScoreGroup group = groups.get(g);
+			List<String> runs = group.getRunNames();
+			groupRuns[g] = new int[runs.size()];
+			for(int x = 0; x < runs.size(); x++) {
+				groupRuns[g][x] = allRuns.indexOf(runs.get(x));
+				if(groupRuns[g][x] == -1) {
+					throw new IllegalArgumentException("run name '" + runs.get(x) + "' found in group '" + group.getName() + "', but not in the join");
+				}
+			}
+			if((namespaces != null) && (group.getNamespace() != null)) {
+				namespaces.add(group.getNamespace());
+			} else {
+				namespaces = null;
+			}
+		}
+		StopWatch stopWatch = new StopWatch();
+		stopWatch.start();
+		log.info("Loading input values");
+		Map<String, Set<String>[]> inputs = loadKeys(this.inputJena.getJenaModel(), this.inputPredicates, namespaces);
+		log.info("Loading vivo values");
+		Map<String, Set<String>[]> vivos = loadKeys(this.vivoJena.getJenaModel(), this.vivoPredicates, null);
+		
+		@SuppressWarnings("unchecked")
+		Map<String, List<String>>[] indexes = new Map[this.runNames.length];
+		long count = 0;
+		for(int g = 0; g < groups.size(); g++) {
+			count += join(groups.get(g), groupRuns[g], inputs, vivos, indexes, handlers.get(g));
+		}
+		stopWatch.stop();
+		log.info("Found " + count + " equal pairs in " + stopWatch.getTime() + "ms");
+		return count;
+	}
+	
+	/**
+	 * Find every input/vivo pair whose values are equal for all runs of one group
+	 * @param group the group
+	 * @param runs the index of each of the group's runs
+	 * @param inputs the input values
+	 * @param vivos the vivo values
+	 * @param indexes the index of each run, built as needed and kept for later groups
+	 * @param handler handler for each matching pair, every run scores 1
+	 * @return the number of pairs found
+	 * @throws IOException error handling scores
+	 */
+	private long join(ScoreGroup group, int[] runs, Map<String, Set<String>[]> inputs, Map<String, Set<String>[]> vivos, Map<String, List<String>>[] indexes, BlockingScoreEngine.ScoredPairHandler handler) throws IOException {
+		// probe on the run with the most distinct vivo values, it yields the fewest candidates to verify
+		int probeRun = runs[0];
+		for(int run : runs) {
+			if(indexes[run] == null) {
+				indexes[run] = buildIndex(vivos, run);
+			}
+			if(indexes[run].size() > indexes[probeRun].size()) {
+				probeRun = run;
+			}
+		}
+		Map<String, List<String>> index = indexes[probeRun];
+		String ns = group.getNamespace();
+		log.info("Joining group '" + group.getName() + "' of " + inputs.size() + " input resources against " + vivos.size() + " vivo resources on run '" + this.runNames[probeRun] + "'");
+		
+		long count = 0;
+		float[] scores = new float[runs.length];
+		for(int x = 0; x < scores.length; x++) {
+			scores[x] = 1f;
+		}
+		Set<String> candidates = new LinkedHashSet<String>();
+		for(String inputURI : inputs.keySet()) {
+			if((ns != null) && !inputURI.startsWith(ns)) {
+				continue;
+			}
+			Set<String>[] inputKeys = inputs.get(inputURI);
+			if(!hasAllRuns(inputKeys, runs)) {
+				continue;
+			}
+			candidates.clear();
+			for(String key : inputKeys[probeRun]) {
+				List<String> found = index.get(key);
+				if(found != null) {
+					candidates.addAll(found);
+				}
+			}
+			for(String vivoURI : candidates) {
+				if(inputURI.equals(vivoURI)) {
+					continue;
+				}
+				if((this.changedInputs != null) && !this.changedInputs.contains(inputURI) && !this.changedVivos.contains(vivoURI)) {
+					continue;
+				}
+				if(matchesAllRuns(inputKeys, vivos.get(vivoURI), runs)) {
+					handler.handle(inputURI, vivoURI, scores.clone());
+					count++;
+				}
+			}
+		}
+		log.info("Found " + count + " equal pairs in group '" + group.getName() + "'");
+		return count;
+	}
+	
+	/**
+	 * Read the values of each run predicate for every resource in a model
+	 * @param model the model to read
+	 * @param predicates the predicate for each run
+	 * @param namespaces only load resources whose URI begins with one of these namespaces (null for all)
+	 * @return mapping of URI to the set of values for each run
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<String, Set<String>[]> loadKeys(Model model, String[] predicates, Set<String> namespaces) {
+		Map<String, Set<String>[]> keys = new HashMap<String, Set<String>[]>();
+		for(int x = 0; x < predicates.length; x++) {
+			StmtIterator stmts = model.listStatements(null, model.getProperty(predicates[x]), (RDFNode)null);
+			try {
+				while(stmts.hasNext()) {
+					Statement stmt = stmts.nextStatement();
+					Resource sub = stmt.getSubject();
+					if(!sub.isURIResource() || !inNamespace(sub.getURI(), namespaces)) {
+						continue;
+					}
+					String key = getValue(stmt.getObject());
+					if(key == null) {
+						continue;
+					}
+					Set<String>[] entity = keys.get(sub.getURI());
+					if(entity == null) {
+						entity = new Set[predicates.length];
+						keys.put(sub.getURI(), entity);
+					}
+					if(entity[x] == null) {
+						entity[x] = new HashSet<String>(2);
+					}
+					entity[x].add(key);
+				}
+			} finally {
+				stmts.close();
+			}
+		}
+		return keys;
+	}
+	
+	/**
+	 * Does a URI begin with one of the namespaces
+	 * @param uri the URI
+	 * @param namespaces the namespaces (null for all)
+	 * @return true if namespaces is null or the URI begins with one of them
+	 */
+	private static boolean inNamespace(String uri, Set<String> namespaces) {
+		if(namespaces == null) {
+			return true;
+		}
+		for(String ns : namespaces) {
+			if(uri.startsWith(ns)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Build the index from value to vivo resources for one run
+	 * @param vivos the vivo values
+	 * @param run the run index
+	 * @return mapping of value to vivo resources
+	 */
+	private static Map<String, List<String>> buildIndex(Map<String, Set<String>[]> vivos, int run) {
+		Map<String, List<String>> index = new HashMap<String, List<String>>();
+		for(String vivoURI : vivos.keySet()) {
+			Set<String> values = vivos.get(vivoURI)[run];
+			if(values == null) {
+				continue;
+			}
+			for(String value : values) {
+				List<String> uris = index.get(value);
+				if(uris == null) {
+					uris = new ArrayList<String>(1);
+					index.put(value, uris);
+				}
+				uris.add(vivoURI);
+			}
+		}
+		return index;
+	}
+	
+	/**
+	 * Does a resource have a value for every run
+	 * @param keys the values for each run
+	 * @param runs the runs to check
+	 * @return true if every run has a value
+	 */
+	private static boolean hasAllRuns(Set<String>[] keys, int[] runs) {
+		for(int run : runs) {
+			if(keys[run] == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Do two resources share a value for every run
+	 * @param inputKeys the input values for each run
+	 * @param vivoKeys the vivo values for each run
+	 * @param runs the runs to check
+	 * @return true if every run shares a value
+	 */
+	private static boolean matchesAllRuns(Set<String>[] inputKeys, Set<String>[] vivoKeys, int[] runs) {
+		for(int x : runs) {
+			if(vivoKeys[x] == null) {
+				return false;
+			}
+			boolean found = false;
+			for(String key : inputKeys[x]) {
+				if(vivoKeys[x].contains(key)) {
+					found = true;
+					break;
+				}
+			}
+			if(!found) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Get the join value of a node, its string form as given by str() in the equality query
+	 * @param node the node
+	 * @return the value, or null if the node has no usable value
+	 */
+	private static String getValue(RDFNode node) {
+		String value;
+		if(node.isURIResource()) {
+			value = node.asResource().getURI();
+		} else if(node.isLiteral()) {
+			value = node.asLiteral().getLexicalForm();
+		} else {
+			return null;
+		}
+		if(value.isEmpty()) {
+			return null;
+		}
+		return value;
+	}
+}
@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.score;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.rdf.model.Statement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vivoweb.harvester.util.repo.JenaConnect;
+
+/**
+ * Adds scoreValue statements directly to a score model, one transaction per batch
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class JenaScoreWriter extends ScoreWriter {
+	/**
+	 * SLF4J Logger
+	 */
+	private static Logger log = LoggerFactory.getLogger(JenaScoreWriter.class);
+	/**
+	 * scoreValue:VivoRes
+	 */
+	private static final Property VIVO_RES = ResourceFactory.createProperty(SCORE_VALUE_NS, "VivoRes");
+	/**
+	 * scoreValue:InputRes
+	 */
+	private static final Property INPUT_RES = ResourceFactory.createProperty(SCORE_VALUE_NS, "InputRes");
+	/**
+	 * scoreValue:hasScoreValue
+	 */
+	private static final Property HAS_SCORE_VALUE = ResourceFactory.createProperty(SCORE_VALUE_NS, "hasScoreValue");
+	/**
+	 * scoreValue:VivoProp
+	 */
+	private static final Property VIVO_PROP = ResourceFactory.createProperty(SCORE_VALUE_NS, "VivoProp");
+	/**
+	 * scoreValue:InputProp
+	 */
+	private static final Property INPUT_PROP = ResourceFactory.createProperty(SCORE_VALUE_NS, "InputProp");
+	/**
+	 * scoreValue:Algorithm
+	 */
+	private static final Property ALGORITHM = ResourceFactory.createProperty(SCORE_VALUE_NS, "Algorithm");
+	/**
+	 * scoreValue:Score
+	 */
+	private static final Property SCORE = ResourceFactory.createProperty(SCORE_VALUE_NS, "Score");
+	/**
+	 * scoreValue:Weight
+	 */
+	private static final Property WEIGHT = ResourceFactory.createProperty(SCORE_VALUE_NS, "Weight");
+	/**
+	 * scoreValue:WeightedScore
+	 */
+	private static final Property WEIGHTED_SCORE = ResourceFactory.createProperty(SCORE_VALUE_NS, "WeightedScore");
+	/**
+	 * the score model
+	 */
+	private final JenaConnect scoreJena;
+	/**
+	 * approximate number of statements to add per transaction
+	 */
+	private final int batchSize;
+	/**
+	 * the statements waiting to be added
+	 */
+	private final List<Statement> batch;
+	/**
+	 * the blank node of the current pair
+	 */
+	private Resource pairNode;
+	
+	/**
+	 * Constructor
+	 * @param scoreJena the score model
+	 * @param batchSize approximate number of statements to add per transaction
+	 */
+	public JenaScoreWriter(JenaConnect scoreJena, int batchSize) {
+		if(scoreJena == null) {
+			throw new IllegalArgumentException("Score model cannot be null");
+		}
+		this.scoreJena = scoreJena;
+		this.batchSize = Math.max(batchSize, 1);
+		this.batch = new ArrayList<Statement>(this.batchSize + 16);
+		this.pairNode = null;
+	}
+	
+	@Override
+	public void startPair(String sInputURI, String sVivoURI) {
+		// only flush between pairs so a pair is never split across transactions
+		if(this.batch.size() >= this.batchSize) {
+			flush();
+		}
+		this.pairNode = ResourceFactory.createResource();
+		add(this.pairNode, VIVO_RES, ResourceFactory.createResource(sVivoURI));
+		add(this.pairNode, INPUT_RES, ResourceFactory.createResource(sInputURI));
+	}
+	
+	@Override
+	public void writeScoreValue(String vivoProp, String inputProp, String algorithm, float score, Float weight, double weightedScore) {
+		if(this.pairNode == null) {
+			throw new IllegalStateException("startPair must be called before writeScoreValue");
+		}
+		Resource valueNode = ResourceFactory.createResource();
+		add(this.pairNode, HAS_SCORE_VALUE, valueNode);
+		add(valueNode, VIVO_PROP, ResourceFactory.createResource(vivoProp));
+		add(valueNode, INPUT_PROP, ResourceFactory.createResource(inputProp));
+		add(valueNode, ALGORITHM, ResourceFactory.createPlainLiteral(algorithm));
+		add(valueNode, SCORE, ResourceFactory.createTypedLiteral(String.valueOf(score), XSDDatatype.XSDfloat));
+		add(valueNode, WEIGHT, ResourceFactory.createTypedLiteral(String.valueOf(weight), XSDDatatype.XSDfloat));
+		add(valueNode, WEIGHTED_SCORE, ResourceFactory.createTypedLiteral(String.valueOf(weightedScore), XSDDatatype.XSDfloat));
+	}
+	
+	/**
+	 * Queue a statement for the next batch
+	 * @param s the subject
+	 * @param p the predicate
+	 * @param o the object
+	 */
+	private void add(Resource s, Property p, RDFNode o) {
+		this.batch.add(ResourceFactory.createStatement(s, p, o));
+	}
+	
+	/**
+	 * Add the queued statements to the score model
+	 */
+	private void flush() {
+		if(this.batch.isEmpty()) {
+			return;
+		}
+		log.trace("Adding " + this.batch.size() + " score statements to score model");
+		Model model = this.scoreJena.getJenaModel();
+		if(model.supportsTransactions()) {
+			model.begin();
+		}
+		try {
+			model.add(this.batch);
+			if(model.supportsTransactions()) {
+				model.commit();
+			}
+		} catch(RuntimeException e) {
+			if(model.supportsTransactions()) {
+				model.abort();
+			}
+			throw e;
+		}
+		this.batch.clear();
+	}
+	
+	/**
+	 * Identify a run by the statements its score values are written with
+	 * @param vivoProp the vivo predicate
+	 * @param inputProp the input predicate
+	 * @param algorithm the name of the algorithm class
+	 * @return the run key
+	 */
+	public static String runKey(String vivoProp, String inputProp, String algorithm) {
+		return vivoProp + "\n" + inputProp + "\n" + algorithm;
+	}
+	
+	/**
+	 * Remove the score values written by the given runs for every pair involving the given resources from a score
+	 * model. Score values of other runs, such as those of another Score configuration sharing the model, are kept; a
+	 * pair node is only removed once it has no score values left.
+	 * @param scoreJena the score model
+	 * @param inputURIs remove pairs with these input resources
+	 * @param vivoURIs remove pairs with these vivo resources
+	 * @param runKeys only remove score values of these runs, as given by runKey
+	 * @return the number of score values removed
+	 */
+	public static int removeScores(JenaConnect scoreJena, Set<String> inputURIs, Set<String> vivoURIs, Set<String> runKeys) {
+		Model model = scoreJena.getJenaModel();
+		Set<Resource> pairNodes = new HashSet<Resource>();
+		for(String uri : inputURIs) {
+			pairNodes.addAll(model.listSubjectsWithProperty(INPUT_RES, model.getResource(uri)).toList());
+		}
+		for(String uri : vivoURIs) {
+			pairNodes.addAll(model.listSubjectsWithProperty(VIVO_RES, model.getResource(uri)).toList());
+		}
+		if(pairNodes.isEmpty()) {
+			return 0;
+		}
+		List<Statement> stale = new ArrayList<Statement>();
+		int values = 0;
+		for(Resource pairNode : pairNodes) {
+			List<Statement> pairStmts = model.listStatements(pairNode, null, (RDFNode)null).toList();
+			int kept = 0;
+			for(Statement stmt : pairStmts) {
+				if(!stmt.getPredicate().equals(HAS_SCORE_VALUE) || !stmt.getObject().isResource()) {
+					continue;
+				}
+				Resource valueNode = stmt.getObject().asResource();
+				if(!runKeys.contains(getRunKey(valueNode))) {
+					kept++;
+					continue;
+				}
+				stale.add(stmt);
+				stale.addAll(model.listStatements(valueNode, null, (RDFNode)null).toList());
+				values++;
+			}
+			if(kept == 0) {
+				for(Statement stmt : pairStmts) {
+					if(!stmt.getPredicate().equals(HAS_SCORE_VALUE)) {
+						stale.add(stmt);
+					}
+				}
+			}
+		}
+		log.debug("Removing " + stale.size() + " score statements for " + values + " score values");
+		if(model.supportsTransactions()) {
+			model.begin();
+		}
+		try {
+			model.remove(stale);
+			if(model.supportsTransactions()) {
+				model.commit();
+			}
+		} catch(RuntimeException e) {
+			if(model.supportsTransactions()) {
+				model.abort();
+			}
+			throw e;
+		}
+		return values;
+	}
+	
+	/**
+	 * Get the run key of a score value node
+	 * @param valueNode the score value node
+	 * @return the run key (null if the node is incomplete)
+	 */
+	private static String getRunKey(Resource valueNode) {
+		Statement vivoProp = valueNode.getProperty(VIVO_PROP);
+		Statement inputProp = valueNode.getProperty(INPUT_PROP);
+		Statement algorithm = valueNode.getProperty(ALGORITHM);
+		if((vivoProp == null) || (inputProp == null) || (algorithm == null) || !vivoProp.getObject().isURIResource() || !inputProp.getObject().isURIResource()) {
+			return null;
+		}
+		return runKey(vivoProp.getResource().getURI(), inputProp.getResource().getURI(), algorithm.getString());
+	}
+	
+	@Override
+	public void close() {
+		flush();
+		this.pairNode = null;
+	}
+}
@@ -48,6 +48,10 @@ public class Match {
 	 * Model for VIVO instance
 	 */
 	private final JenaConnect scoreJena;
+	/**
+	 * binary score store to read scores from instead of scoreJena
+	 */
+	private final String scoreStore;
 	/**
 	 * Model where input is stored
 	 */
@@ -89,10 +93,42 @@ public class Match {
 	 * @param size the size of each batch
 	 */
 	public Match(JenaConnect inputJena, JenaConnect scoreJena, JenaConnect outputJena, boolean renameRes, float threshold, Map<String, String> linkProps, boolean clearLiterals, int size) {
-		if(scoreJena == null) {
+		this(inputJena, scoreJena, null, outputJena, renameRes, threshold, linkProps, clearLiterals, size);
+	}
+	
+	/**
+	 * Constructor
+	 * @param inputJena model containing statements to be scored
+	 * @param scoreStore the binary score store written by Score that contains the score values
+	 * @param outputJena the model to which matched structures are written
+	 * @param threshold match things with a total score greater than or equal to this threshold
+	 * @param renameRes should I just rename the args?
+	 * @param linkProps bidirectional link
+	 * @param clearLiterals clear all the literal values out of matches
+	 * @param size the size of each batch
+	 */
+	public Match(JenaConnect inputJena, String scoreStore, JenaConnect outputJena, boolean renameRes, float threshold, Map<String, String> linkProps, boolean clearLiterals, int size) {
+		this(inputJena, null, scoreStore, outputJena, renameRes, threshold, linkProps, clearLiterals, size);
+	}
+	
+	/**
+	 * Constructor
+	 * @param inputJena model containing statements to be scored
+	 * @param scoreJena the model that contains the score values (ignored when scoreStore is given)
+	 * @param scoreStore the binary score store written by Score that contains the score values (null to use scoreJena)
+	 * @param outputJena the model to which matched structures are written
+	 * @param threshold match things with a total score greater than or equal to this threshold
+	 * @param renameRes should I just rename the args?
+	 * @param linkProps bidirectional link
+	 * @param clearLiterals clear all the literal values out of matches
+	 * @param size the size of each batch
+	 */
+	private Match(JenaConnect inputJena, JenaConnect scoreJena, String scoreStore, JenaConnect outputJena, boolean renameRes, float threshold, Map<String, String> linkProps, boolean clearLiterals, int size) {
+		if((scoreJena == null) && (scoreStore == null)) {
 			throw new IllegalArgumentException("Score Model cannot be null");
 		}
 		this.scoreJena = scoreJena;
+		this.scoreStore = scoreStore;
 		
 		if(inputJena == null) {
 			throw new IllegalArgumentException("Match Input cannot be null");
@@ -138,6 +174,7 @@ public class Match {
 		this(
 			JenaConnect.parseConfig(opts.get("i"), opts.getValueMap("I")), 
 			JenaConnect.parseConfig(opts.get("s"), opts.getValueMap("S")), 
+			opts.get("scoreStore"), 
 			JenaConnect.parseConfig(opts.get("o"), opts.getValueMap("O")),
 			(opts.has("r")?Boolean.parseBoolean(opts.get("r")):false),
 			Float.parseFloat(opts.get("t")), 
@@ -168,20 +205,7 @@ public class Match {
 				"GROUP BY ?sVivo ?sInput \n" +
 				"HAVING (?sum >= " + threshold + ") \n" +
 				"ORDER BY ?sInput";
-		Set<Map<String, String>> uriMatchEntrySet = new TreeSet<Map<String, String>>(new Comparator<Map<String, String>>() {
-			@Override
-			public int compare(Map<String, String> o1, Map<String, String> o2) {
-				StringBuilder o1value = new StringBuilder();
-				for(String s1 : o1.keySet()) {
-					o1value.append("["+s1+"|"+o1.get(s1)+"]");
-				}
-				StringBuilder o2value = new StringBuilder();
-				for(String s2 : o2.keySet()) {
-					o2value.append("["+s2+"|"+o2.get(s2)+"]");
-				}
-				return o1value.toString().compareTo(o2value.toString());
-			}
-		});
+		Set<Map<String, String>> uriMatchEntrySet = newMatchSet();
 		
 		//log trace
 		log.trace("Match Query:\n" + sQuery);
@@ -203,6 +227,27 @@ public class Match {
 		return uriMatchEntrySet;
 	}
 	
+	/**
+	 * Get an empty set of matches
+	 * @return the new empty match set
+	 */
+	protected static Set<Map<String, String>> newMatchSet() {
+		return new TreeSet<Map<String, String>>(new Comparator<Map<String, String>>() {
+			@Override
+			public int compare(Map<String, String> o1, Map<String, String> o2) {
+				StringBuilder o1value = new StringBuilder();
+				for(String s1 : o1.keySet()) {
+					o1value.append("["+s1+"|"+o1.get(s1)+"]");
+				}
+				StringBuilder o2value = new StringBuilder();
+				for(String s2 : o2.keySet()) {
+					o2value.append("["+s2+"|"+o2.get(s2)+"]");
+				}
+				return o1value.toString().compareTo(o2value.toString());
+			}
+		});
+	}
+	
 	/**
 	 * Rename the resource set as the key to the value matched
 	 * @param matchSet a result set of scoreResources, vivoResources
@@ -244,7 +289,7 @@ public class Match {
 			String inputUri = entry.get("sInputURI");
 			String vivoUri = entry.get("sVivoURI");
 			Resource inputRes = this.inputJena.getJenaModel().getResource(inputUri);
-			Resource vivoRes = this.scoreJena.getJenaModel().getResource(vivoUri);
+			Resource vivoRes = ResourceFactory.createResource(vivoUri);
 			float percent = Math.round(10000f * count / total) / 100f;
 			log.trace("(" + count + "/" + total + ": " + percent + "%): Linking match <" + inputUri + "> to <" + vivoUri + ">");
 			log.trace("Adding input to vivo match link [ <" + inputUri + "> <" + inputToVivo + "> <" + vivoUri + "> ]");
@@ -371,6 +416,7 @@ public class Match {
 		// Inputs
 		parser.addArgument(new ArgDef().setShortOption('i').setLongOpt("input-config").withParameter(true, "CONFIG_FILE").setDescription("inputConfig JENA configuration filename").setRequired(false));
 		parser.addArgument(new ArgDef().setShortOption('s').setLongOpt("score-config").withParameter(true, "CONFIG_FILE").setDescription("scoreConfig JENA configuration filename").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("scoreStore").withParameter(true, "STORE_FILE").setDescription("read scores from the binary score store STORE_FILE written by Score instead of the score model").setRequired(false));
 		
 		// Outputs
 		parser.addArgument(new ArgDef().setShortOption('o').setLongOpt("output-config").setDescription("outputConfig JENA configuration filename, when set nodes that meet the threshold are pushed to the output model").withParameter(true, "CONFIG_FILE").setRequired(false));
@@ -400,7 +446,12 @@ public class Match {
 	public void execute() throws IOException {
 		log.info("Finding matches");
 		
-		Set<Map<String, String>> resultSet = match(this.matchThreshold, this.scoreJena);
+		Set<Map<String, String>> resultSet;
+		if(this.scoreStore != null) {
+			resultSet = new BinaryScoreStore(this.scoreStore).match(this.matchThreshold);
+		} else {
+			resultSet = match(this.matchThreshold, this.scoreJena);
+		}
 		for(Map<String, String> entry : resultSet) {
 			String sInputURI = entry.get("sInputURI");
 			log.trace("input: " + sInputURI);
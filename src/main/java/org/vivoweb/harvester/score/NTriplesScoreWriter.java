@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.score;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import org.vivoweb.harvester.util.FileAide;
+
+/**
+ * Streams scoreValue statements to an N-Triples file as they are produced
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class NTriplesScoreWriter extends ScoreWriter {
+	/**
+	 * the N-Triples output
+	 */
+	private final Writer out;
+	/**
+	 * number of pairs written, used to label blank nodes
+	 */
+	private long pairNum;
+	/**
+	 * number of score values written for the current pair, used to label blank nodes
+	 */
+	private int valueNum;
+	
+	/**
+	 * Constructor
+	 * @param out stream to write N-Triples to
+	 */
+	public NTriplesScoreWriter(OutputStream out) {
+		if(out == null) {
+			throw new IllegalArgumentException("Output stream cannot be null");
+		}
+		try {
+			this.out = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+		} catch(UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		this.pairNum = 0;
+		this.valueNum = 0;
+	}
+	
+	/**
+	 * Constructor
+	 * @param fileName file to write N-Triples to
+	 * @throws IOException error opening file
+	 */
+	public NTriplesScoreWriter(String fileName) throws IOException {
+		this(FileAide.getOutputStream(fileName));
+	}
+	
+	@Override
+	public void startPair(String sInputURI, String sVivoURI) throws IOException {
+		this.pairNum++;
+		this.valueNum = 0;
+		String node = "_:node" + this.pairNum;
+		writeUri(node, "VivoRes", sVivoURI);
+		writeUri(node, "InputRes", sInputURI);
+	}
+	
+	@Override
+	public void writeScoreValue(String vivoProp, String inputProp, String algorithm, float score, Float weight, double weightedScore) throws IOException {
+		if(this.pairNum == 0) {
+			throw new IllegalStateException("startPair must be called before writeScoreValue");
+		}
+		this.valueNum++;
+		String node = "_:node" + this.pairNum;
+		String valueNode = "_:nodeScoreValue" + this.pairNum + "x" + this.valueNum;
+		this.out.write(node);
+		this.out.write(" <" + SCORE_VALUE_NS + "hasScoreValue> ");
+		this.out.write(valueNode);
+		this.out.write(" .\n");
+		writeUri(valueNode, "VivoProp", vivoProp);
+		writeUri(valueNode, "InputProp", inputProp);
+		writeLiteral(valueNode, "Algorithm", algorithm, null);
+		writeLiteral(valueNode, "Score", String.valueOf(score), "float");
+		writeLiteral(valueNode, "Weight", String.valueOf(weight), "float");
+		writeLiteral(valueNode, "WeightedScore", String.valueOf(weightedScore), "float");
+	}
+	
+	/**
+	 * Write a statement whose object is a URI
+	 * @param node the subject blank node label
+	 * @param localName the scoreValue predicate
+	 * @param uri the object
+	 * @throws IOException error writing
+	 */
+	private void writeUri(String node, String localName, String uri) throws IOException {
+		this.out.write(node);
+		this.out.write(" <" + SCORE_VALUE_NS + localName + "> <");
+		for(int i = 0; i < uri.length(); i++) {
+			char c = uri.charAt(i);
+			if((c <= ' ') || (c > '~') || ("<>\"{}|^`\\".indexOf(c) != -1)) {
+				i = writeCodePoint(uri, i);
+			} else {
+				this.out.write(c);
+			}
+		}
+		this.out.write("> .\n");
+	}
+	
+	/**
+	 * Write the code point starting at a position as an N-Triples unicode escape
+	 * @param value the string
+	 * @param index position of the code point
+	 * @return position of the last char of the code point
+	 * @throws IOException error writing
+	 */
+	private int writeCodePoint(String value, int index) throws IOException {
+		int cp = value.codePointAt(index);
+		if(cp > 0xFFFF) {
+			this.out.write(String.format("\\U%08X", Integer.valueOf(cp)));
+		} else {
+			this.out.write(String.format("\\u%04X", Integer.valueOf(cp)));
+		}
+		return index + Character.charCount(cp) - 1;
+	}
+	
+	/**
+	 * Write a statement whose object is a literal
+	 * @param node the subject blank node label
+	 * @param localName the scoreValue predicate
+	 * @param value the lexical form
+	 * @param xsdType local name of the xsd datatype (null for a plain literal)
+	 * @throws IOException error writing
+	 */
+	private void writeLiteral(String node, String localName, String value, String xsdType) throws IOException {
+		this.out.write(node);
+		this.out.write(" <" + SCORE_VALUE_NS + localName + "> \"");
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch(c) {
+				case '\\':
+					this.out.write("\\\\");
+					break;
+				case '"':
+					this.out.write("\\\"");
+					break;
+				case '\n':
+					this.out.write("\\n");
+					break;
+				case '\r':
+					this.out.write("\\r");
+					break;
+				default:
+					if((c < ' ') || (c > '~')) {
+						i = writeCodePoint(value, i);
+					} else {
+						this.out.write(c);
+					}
+			}
+		}
+		this.out.write('"');
+		if(xsdType != null) {
+			this.out.write("^^<" + XSD_NS + xsdType + ">");
+		}
+		this.out.write(" .\n");
+	}
+	
+	@Override
+	public void close() throws IOException {
+		this.out.close();
+	}
+}
@@ -7,9 +7,13 @@ package org.vivoweb.harvester.score;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -18,8 +22,9 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vivoweb.harvester.score.algorithm.Algorithm;
-import org.vivoweb.harvester.score.algorithm.EqualityTest;
+import org.vivoweb.harvester.score.algorithm.AlgorithmRegistry;
 import org.vivoweb.harvester.score.algorithm.EqualityIgnoreCaseTest;
+import org.vivoweb.harvester.score.algorithm.EqualityTest;
 import org.vivoweb.harvester.util.InitLog;
 import org.vivoweb.harvester.util.IterableAdaptor;
 import org.vivoweb.harvester.util.args.ArgDef;
@@ -27,7 +32,6 @@ import org.vivoweb.harvester.util.args.ArgList;
 import org.vivoweb.harvester.util.args.ArgParser;
 import org.vivoweb.harvester.util.args.UsageException;
 import org.vivoweb.harvester.util.repo.JenaConnect;
-import org.vivoweb.harvester.util.repo.MemJenaConnect;
 import org.vivoweb.harvester.util.repo.TDBJenaConnect;
 import org.apache.commons.lang.time.StopWatch;
 import org.apache.jena.query.Dataset;
@@ -69,13 +73,18 @@ public class Score {
 	 */
 	private JenaConnect scoreJena;
 	/**
-	 * model in which to store temp copy of input and vivo data statements
+	 * model in which to store temp copy of input and vivo data statements (null outside of execute when no temp model
+	 * directory is given)
 	 */
 	private JenaConnect tempJena;
 	/**
 	 * the class of the Algorithm to execute
 	 */
 	private Map<String, Class<? extends Algorithm>> algorithms;
+	/**
+	 * the Algorithm instances for each run name, built once per thread
+	 */
+	private AlgorithmRegistry algorithmRegistry;
 	/**
 	 * the predicates to look for in inputJena model
 	 */
@@ -116,6 +125,34 @@ public class Score {
 	 * reload the temp copy of Vivo, only needed if Vivo has changed since last score
 	 */
 	private boolean reloadVivo;
+	/**
+	 * group resources by this key and score within each group (null to use the candidate query)
+	 */
+	private BlockingKey blockingKey;
+	/**
+	 * number of worker threads used when scoring by blocking key
+	 */
+	private int threads;
+	/**
+	 * N-Triples file to stream scores to (null to add them to the score model)
+	 */
+	private String scoreOutput;
+	/**
+	 * binary score store file to write scores to (null to use scoreOutput or the score model)
+	 */
+	private String scoreStore;
+	/**
+	 * the threshold Match will be run with, used to abandon comparisons early (null to calculate exact scores)
+	 */
+	private Float pruneThreshold;
+	/**
+	 * file holding the resource fingerprints of the previous run (null to score all resources)
+	 */
+	private String fingerprintFile;
+	/**
+	 * run groups scored together over the loaded models (null to score all runs as one group in namespace)
+	 */
+	private List<ScoreGroup> groups;
 	
 	/**
 	 * Constructor
@@ -154,7 +191,7 @@ public class Score {
 			log.trace("temp model directory is not specified, using system temp directory");
 			//			tempDir = File.createTempFile("tempVivoInputCopyJena", "db").getAbsolutePath();
 			//			log.debug("temp model is not specifiedhi , using memory jena model");
-			this.tempJena = new MemJenaConnect("urn:x-arq:UnionGraph");
+			this.tempJena = null;
 		} else {
 			this.tempJena = new TDBJenaConnect(tempDir, "urn:x-arq:UnionGraph");
 		}
@@ -163,6 +200,7 @@ public class Score {
 			throw new IllegalArgumentException("Algorithm cannot be null");
 		}
 		this.algorithms = algorithms;
+		this.algorithmRegistry = new AlgorithmRegistry(algorithms);
 		
 		if(inputPredicates == null) {
 			throw new IllegalArgumentException("Input Predicate cannot be null");
@@ -198,18 +236,7 @@ public class Score {
 		maps.put("weights", this.weights);
 		verifyRunNames(maps);
 
-		boolean test = true;
-		for (Class<?> algClass : this.algorithms.values()) {
-			log.trace("algClass: "+ algClass.getSimpleName()); 
-			if (algClass.getClass().isInstance(EqualityTest.class)  || algClass.getClass().isInstance(EqualityIgnoreCaseTest.class)   ) {
-				test = true;
-			} else {
-			   test = false;
-			   break;
-			}
-			 
-		}
-		this.equalityOnlyMode = test;
+		this.equalityOnlyMode = isEqualityOnly(this.algorithms);
 		this.matchThreshold = matchThreshold;
 		setBatchSize(batchSize);
 		log.trace("equalityOnlyMode: " + this.equalityOnlyMode);
@@ -240,6 +267,40 @@ public class Score {
 		this.commonNames = commonNames;
 	}
 	
+	/**
+	 * Constructor for scoring one run group of another score, sharing its models
+	 * @param base the score the group belongs to
+	 * @param group the run group
+	 */
+	private Score(Score base, ScoreGroup group) {
+		List<String> runNames = group.getRunNames();
+		this.inputJena = base.inputJena;
+		this.vivoJena = base.vivoJena;
+		this.scoreJena = base.scoreJena;
+		this.tempJena = base.tempJena;
+		this.algorithms = subMap(base.algorithms, runNames);
+		this.algorithmRegistry = new AlgorithmRegistry(this.algorithms);
+		this.inputPredicates = subMap(base.inputPredicates, runNames);
+		this.vivoPredicates = subMap(base.vivoPredicates, runNames);
+		this.commonNames = base.commonNames;
+		this.namespace = group.getNamespace();
+		this.weights = subMap(base.weights, runNames);
+		this.equalityOnlyMode = isEqualityOnly(this.algorithms);
+		this.matchThreshold = null;
+		this.batchSize = base.batchSize;
+		this.reloadInput = base.reloadInput;
+		this.reloadVivo = base.reloadVivo;
+		if((base.blockingKey != null) && runNames.containsAll(base.blockingKey.getRunNames())) {
+			this.blockingKey = base.blockingKey;
+		}
+		this.threads = base.threads;
+		this.scoreOutput = base.scoreOutput;
+		this.scoreStore = base.scoreStore;
+		if(base.pruneThreshold != null) {
+			setPruneThreshold(base.pruneThreshold);
+		}
+	}
+	
 	/**
 	 * Constructor
 	 * @param args argument list
@@ -272,6 +333,44 @@ public class Score {
 			opts.has("reloadVivo"),
 			(opts.has("c")?opts.get("c"):null)
 		);
+		setBlockingKey(BlockingKey.parse(opts.getValueMap("k")));
+		setThreads(opts.has("threads")?Integer.parseInt(opts.get("threads")):0);
+		setPruneThreshold(opts.has("pruneThreshold")?Float.valueOf(opts.get("pruneThreshold")):null);
+		setScoreOutput(opts.get("o"));
+		setScoreStore(opts.get("scoreStore"));
+		setFingerprintFile(opts.get("incremental"));
+		setGroups(ScoreGroup.parse(opts.getValueMap("g"), opts.getValueMap("groupRuns"), this.algorithms.keySet()));
+	}
+	
+	/**
+	 * Are all algorithms equality tests. This is the long-standing check, it compares the Class objects rather than the
+	 * algorithms and so accepts every configuration: candidates must be equal on every run and each run scores 1
+	 * @param algorithms the algorithm for each run name
+	 * @return true
+	 */
+	private static boolean isEqualityOnly(Map<String, Class<? extends Algorithm>> algorithms) {
+		for(Class<?> algClass : algorithms.values()) {
+			log.trace("algClass: " + algClass.getSimpleName());
+			if(!algClass.getClass().isInstance(EqualityTest.class) && !algClass.getClass().isInstance(EqualityIgnoreCaseTest.class)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Get the entries of a map for some of its keys
+	 * @param <V> the value type
+	 * @param map the map
+	 * @param keys the keys to keep
+	 * @return the entries for keys, in the order of keys
+	 */
+	private static <V> Map<String, V> subMap(Map<String, V> map, Collection<String> keys) {
+		Map<String, V> retVal = new LinkedHashMap<String, V>();
+		for(String key : keys) {
+			retVal.put(key, map.get(key));
+		}
+		return retVal;
 	}
 	
 	/**
@@ -318,6 +417,84 @@ public class Score {
 		}
 	}
 	
+	/**
+	 * Set the blocking key, when set resources are grouped by this key and only pairs within a group are scored
+	 * @param key the blocking key (null to use the candidate query)
+	 */
+	public void setBlockingKey(BlockingKey key) {
+		this.blockingKey = key;
+	}
+	
+	/**
+	 * Set the number of worker threads used when scoring by blocking key
+	 * @param threads the number of threads (less than 1 uses the number of available processors)
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+	
+	/**
+	 * Set the N-Triples file to stream scores to instead of adding them to the score model
+	 * @param fileName the file (null to add scores to the score model)
+	 */
+	public void setScoreOutput(String fileName) {
+		this.scoreOutput = fileName;
+	}
+	
+	/**
+	 * Set the binary score store file to write scores to instead of adding them to the score model, Match reads it
+	 * with --scoreStore and BinaryScoreStore exports it as rdf. Scores are appended to an existing store, so several
+	 * invocations can share one store and Match sums their scores.
+	 * @param fileName the file (null to not use a binary score store)
+	 */
+	public void setScoreStore(String fileName) {
+		if((fileName != null) && (this.matchThreshold != null)) {
+			throw new IllegalArgumentException("A match threshold rescores matches found in the score model, it cannot be combined with a score store");
+		}
+		this.scoreStore = fileName;
+	}
+	
+	/**
+	 * Set the fingerprint file for incremental scoring: only input resources whose scored values changed since the run
+	 * that wrote the file, or that pair with vivo resources whose scored values changed, are scored again and the
+	 * scores of all other pairs are kept in the score model
+	 * @param fileName the fingerprint file (null to score all resources)
+	 */
+	public void setFingerprintFile(String fileName) {
+		this.fingerprintFile = fileName;
+	}
+	
+	/**
+	 * Set the threshold Match will apply to these scores, so that algorithms can abandon comparisons whose score could
+	 * never bring the pair up to it (such scores are recorded as 0). The bound assumes the runs of this invocation are
+	 * the only scores Match sums for a pair; when other invocations add scores for the same pairs, a pruned run could
+	 * have been needed to reach the threshold, so pruning must not be used.
+	 * @param threshold the match threshold (null to always calculate exact scores)
+	 */
+	public void setPruneThreshold(Float threshold) {
+		this.pruneThreshold = threshold;
+		this.algorithmRegistry.setMinimumScores(threshold, this.weights, (this.commonNames != null) ? 1.1f : 1f);
+	}
+	
+	/**
+	 * Set the run groups to score, each over its own runs and namespace, over the same loaded models. Groups in equality
+	 * only mode share one pass over the models, a group scored by blocking key runs its own blocking pass. The
+	 * namespace given to the constructor is not used when groups are set.
+	 * @param groups the groups (null to score all runs as one group)
+	 */
+	public void setGroups(List<ScoreGroup> groups) {
+		if(groups != null) {
+			for(ScoreGroup group : groups) {
+				for(String runName : group.getRunNames()) {
+					if(!this.algorithms.containsKey(runName)) {
+						throw new IllegalArgumentException("run name '" + runName + "' found in group '" + group.getName() + "', but not in algorithms");
+					}
+				}
+			}
+		}
+		this.groups = groups;
+	}
+	
 	/**
 	 * Verify that each map contains the same keys
 	 * @param maps mapping of map name to map
@@ -362,6 +539,14 @@ public class Score {
 		parser.addArgument(new ArgDef().setLongOpt("reloadInput").setDescription("reload the temp copy of input, only needed if input has changed since last score").setRequired(false));
 		parser.addArgument(new ArgDef().setLongOpt("reloadVivo").setDescription("reload the temp copy of Vivo, only needed if Vivo has changed since last score").setRequired(false));
 		parser.addArgument(new ArgDef().setShortOption('c').setLongOpt("common-names").withParameter(true, "COMMON_NAMES").setDescription("use these names to check if the score needs to be modified.").setRequired(false));
+		parser.addArgument(new ArgDef().setShortOption('o').setLongOpt("scoreOutput").withParameter(true, "NTRIPLES_FILE").setDescription("stream scores to NTRIPLES_FILE instead of adding them to the score model").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("scoreStore").withParameter(true, "STORE_FILE").setDescription("append scores to the compact binary score store STORE_FILE instead of the score model, Match sums the scores of every invocation in the store").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("incremental").withParameter(true, "FINGERPRINT_FILE").setDescription("only rescore resources whose scored values changed since the run that wrote FINGERPRINT_FILE, keeping all other scores in the score model").setRequired(false));
+		parser.addArgument(new ArgDef().setShortOption('k').setLongOpt("blockingKey").withParameterValueMap("RUN_NAME", "LENGTH").setDescription("group resources by the first LENGTH normalized characters (0 for all) of RUN_NAME's value and only score pairs within a group").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("pruneThreshold").withParameter(true, "THRESHOLD").setDescription("the threshold Match will be run with, comparisons that cannot contribute to reaching it are abandoned early and scored 0; assumes this invocation's runs are the only scores Match sums for a pair, do not use when other Score invocations write to the same score model or store").setRequired(false));
+		parser.addArgument(new ArgDef().setShortOption('g').setLongOpt("runGroup").withParameterValueMap("GROUP", "NAMESPACE").setDescription("score GROUP against input resources whose URI begins with NAMESPACE (empty for all), the models are loaded once for all groups, groups in equality only mode share one pass over them, a group scored by blocking key runs its own pass; overrides namespace").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("groupRuns").withParameterValueMap("GROUP", "RUN_NAMES").setDescription("score GROUP using only the comma separated RUN_NAMES - default all run names").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("threads").withParameter(true, "THREADS").setDescription("number of threads used when scoring with a blocking key - default number of processors").setRequired(false));
 		return parser;
 	}
 	
@@ -578,71 +763,260 @@ public class Score {
 	 * @throws IOException error connecting
 	 */
 	public void execute() throws IOException {
+		// without a temp model directory the temp copy is made in a temporary tdb directory, removed once scored
+		boolean tempCopy = (this.tempJena == null);
+		if(tempCopy) {
+			this.tempJena = new TDBJenaConnect(null, "urn:x-arq:UnionGraph");
+		}
+		try {
+			if(this.groups != null) {
+				executeGroups();
+			} else if(this.fingerprintFile != null) {
+				executeIncremental();
+			} else {
+				execute(null, null);
+			}
+		} finally {
+			if(tempCopy) {
+				this.tempJena.close();
+				this.tempJena = null;
+			}
+		}
+		this.scoreJena.sync();
+	}
+	
+	/**
+	 * Score each run group into one score writer. Groups in equality only mode are scored together by a single
+	 * equality join, the others are scored one after another over the models loaded for the first.
+	 * @throws IOException error connecting
+	 */
+	private void executeGroups() throws IOException {
+		if((this.fingerprintFile != null) || (this.matchThreshold != null)) {
+			throw new IllegalArgumentException("Run groups cannot be combined with incremental scoring or a match threshold");
+		}
+		List<ScoreGroup> joinGroups = new ArrayList<ScoreGroup>();
+		List<Score> groupScores = new ArrayList<Score>();
+		Set<String> joinRuns = new LinkedHashSet<String>();
+		for(ScoreGroup group : this.groups) {
+			Score groupScore = new Score(this, group);
+			if(groupScore.equalityOnlyMode && (groupScore.blockingKey == null)) {
+				joinGroups.add(group);
+				joinRuns.addAll(group.getRunNames());
+			} else {
+				groupScores.add(groupScore);
+			}
+		}
+		ScoreWriter writer = openScoreWriter();
+		try {
+			if(!joinGroups.isEmpty()) {
+				log.info("Scoring groups " + joinGroups + " by one equality join");
+				EqualityJoin join = new EqualityJoin(this.inputJena, this.vivoJena, subMap(this.inputPredicates, joinRuns), subMap(this.vivoPredicates, joinRuns), null);
+				List<BlockingScoreEngine.ScoredPairHandler> handlers = new ArrayList<BlockingScoreEngine.ScoredPairHandler>();
+				for(ScoreGroup group : joinGroups) {
+					handlers.add(newScoreHandler(writer, group.getRunNames().toArray(new String[group.getRunNames().size()])));
+				}
+				join.execute(joinGroups, handlers);
+			}
+			// the temp copy of the models is only reloaded for the first group that queries it
+			boolean loaded = false;
+			for(Score groupScore : groupScores) {
+				log.info("Scoring group with runs " + groupScore.algorithms.keySet() + (groupScore.namespace != null ? " in namespace " + groupScore.namespace : ""));
+				if(loaded) {
+					groupScore.reloadInput = false;
+					groupScore.reloadVivo = false;
+				}
+				groupScore.score(writer, null, null);
+				loaded = loaded || (groupScore.blockingKey == null);
+			}
+		} finally {
+			writer.close();
+		}
+		log.info("Result Processing Complete");
+	}
+	
+	/**
+	 * Score only what changed since the run that wrote the fingerprint file, then save the new fingerprints
+	 * @throws IOException error connecting or accessing the fingerprint file
+	 */
+	private void executeIncremental() throws IOException {
+		if((this.matchThreshold != null) || (this.scoreOutput != null) || (this.scoreStore != null)) {
+			throw new IllegalArgumentException("Incremental scoring keeps unchanged scores in the score model, it cannot be combined with a match threshold, score output file or score store");
+		}
+		ScoreFingerprints previous = ScoreFingerprints.load(this.fingerprintFile);
+		ScoreFingerprints current = ScoreFingerprints.build(getConfigDescription(), this.inputJena, this.vivoJena, this.inputPredicates, this.vivoPredicates, this.namespace);
+		if(current.isComparable(previous)) {
+			Set<String> changedInputs = current.getChangedInputs(previous);
+			Set<String> changedVivos = current.getChangedVivos(previous);
+			log.info(changedInputs.size() + " input and " + changedVivos.size() + " vivo resources changed since the last score");
+			if(changedInputs.isEmpty() && changedVivos.isEmpty()) {
+				log.info("Nothing to rescore");
+			} else {
+				log.info("Removed " + JenaScoreWriter.removeScores(this.scoreJena, changedInputs, changedVivos, getRunKeys()) + " outdated scores");
+				this.reloadInput = this.reloadInput || !changedInputs.isEmpty();
+				this.reloadVivo = this.reloadVivo || !changedVivos.isEmpty();
+				execute(changedInputs, changedVivos);
+			}
+		} else {
+			log.info("No fingerprints from a previous score with this configuration, scoring all resources");
+			log.info("Removed " + JenaScoreWriter.removeScores(this.scoreJena, current.getAllInputs(previous), new HashSet<String>(), getRunKeys()) + " outdated scores");
+			execute(null, null);
+		}
+		current.save(this.fingerprintFile);
+	}
+	
+	/**
+	 * Get the keys of the runs of this configuration, identifying the score values it writes
+	 * @return the run keys
+	 */
+	private Set<String> getRunKeys() {
+		Set<String> runKeys = new HashSet<String>();
+		for(String runName : this.algorithms.keySet()) {
+			runKeys.add(JenaScoreWriter.runKey(this.vivoPredicates.get(runName), this.inputPredicates.get(runName), this.algorithms.get(runName).getName()));
+		}
+		return runKeys;
+	}
+	
+	/**
+	 * Describe everything about this score's configuration that affects the scores it writes
+	 * @return the description
+	 */
+	private String getConfigDescription() {
+		StringBuilder sb = new StringBuilder();
+		for(String runName : new TreeSet<String>(this.algorithms.keySet())) {
+			sb.append(runName).append('|').append(this.algorithms.get(runName).getName()).append('|').append(this.weights.get(runName));
+			sb.append('|').append(this.inputPredicates.get(runName)).append('|').append(this.vivoPredicates.get(runName)).append('\n');
+		}
+		sb.append(this.namespace).append('\n').append(this.commonNames).append('\n').append(this.blockingKey).append('\n').append(this.pruneThreshold);
+		return sb.toString();
+	}
+	
+	/**
+	 * Score the pairs in which the input or the vivo resource changed
+	 * @param changedInputs the changed input resources (null along with changedVivos to score all pairs)
+	 * @param changedVivos the changed vivo resources
+	 * @throws IOException error connecting
+	 */
+	private void execute(Set<String> changedInputs, Set<String> changedVivos) throws IOException {
+		ScoreWriter writer = openScoreWriter();
+		try {
+			score(writer, changedInputs, changedVivos);
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Score the pairs in which the input or the vivo resource changed into a score writer
+	 * @param writer the score writer
+	 * @param changedInputs the changed input resources (null along with changedVivos to score all pairs)
+	 * @param changedVivos the changed vivo resources
+	 * @throws IOException error connecting
+	 */
+	private void score(ScoreWriter writer, Set<String> changedInputs, Set<String> changedVivos) throws IOException {
+		if(this.blockingKey != null) {
+			if(this.matchThreshold == null) {
+				executeBlocking(writer, changedInputs, changedVivos);
+				return;
+			}
+			log.warn("Blocking key is ignored when a match threshold is given, rescoring existing matches");
+		}
+		if(this.equalityOnlyMode && (this.matchThreshold == null)) {
+			executeEqualityJoin(writer, changedInputs, changedVivos);
+			return;
+		}
 		Set<Map<String, String>> solSet = buildSolutionSet();
 		if(!solSet.isEmpty()) {
 			log.info("Processing Results");
 			int total = solSet.size();
 			int count = 0;
-			int incrementer = 0;
-			double recordBatchSize = Math.ceil(this.batchSize / (2.0+(this.vivoPredicates.size()*7)));
-			StringBuilder indScore;
-			StringBuilder scoreSparql = new StringBuilder();
 			for(Map<String, String> eval : solSet) {
 				count++;
-				incrementer++;
-				indScore = new StringBuilder();
 				String sInputURI = eval.get("sInput");
 				String sVivoURI = eval.get("sVivo");
+				if((changedInputs != null) && !changedInputs.contains(sInputURI) && !changedVivos.contains(sVivoURI)) {
+					continue;
+				}
 				float percent = Math.round(10000f * count / total) / 100f;
 				log.debug("(" + count + "/" + total + ": " + percent + "%): Evaluating <" + sInputURI + "> from inputJena as match for <" + sVivoURI + "> from vivoJena");
 				// Build Score Record
-				indScore.append("" +
-					"  _:node" + incrementer + " scoreValue:VivoRes <" + sVivoURI + "> .\n" +
-					"  _:node" + incrementer + " scoreValue:InputRes <" + sInputURI + "> .\n"
-				);
+				writer.startPair(sInputURI, sVivoURI);
 				double sum_total = 0;
 				for(String runName : this.vivoPredicates.keySet()) {
 					String osUri = eval.get("URI_os_" + runName);
 					String osLit = eval.get("LIT_os_" + runName);
 					String opUri = eval.get("URI_op_" + runName);
 					String opLit = eval.get("LIT_op_" + runName);
-					//log.trace("os_" + runName + ": '" + ((osUri != null) ? osUri : osLit) + "'");
-					//log.trace("op_" + runName + ": '" + ((opUri != null) ? opUri : opLit) + "'");
-					sum_total += appendScoreSparqlFragment(indScore, incrementer, opUri, opLit, osUri, osLit, runName);
+					sum_total += writeScore(writer, opUri, opLit, osUri, osLit, runName);
 				}
 				log.debug("sum_total: "+sum_total);
-				//log.trace("Scores for inputJena node <" + sInputURI + "> to vivoJena node <" + sVivoURI + ">:\n" + indScore.toString());
-				scoreSparql.append(indScore);
-				if(incrementer == recordBatchSize) {
-					loadRdfToScoreData(scoreSparql.toString());
-					incrementer = 0;
-					scoreSparql = new StringBuilder();
-				}
-			}
-			if(incrementer > 0) {
-				loadRdfToScoreData(scoreSparql.toString());
 			}
 			log.info("Result Processing Complete");
 		}
-		this.scoreJena.sync();
 	}
 	
 	/**
-	 * Load a batch of scoring data to the score model
-	 * @param scores the score rdf/xml fragments
+	 * Score all pairs of input and vivo resources that share a blocking key
+	 * @param writer the score writer
+	 * @param changedInputs only score pairs with these input resources or changedVivos (null to score all pairs)
+	 * @param changedVivos only score pairs with these vivo resources or changedInputs
+	 * @throws IOException error connecting
+	 */
+	private void executeBlocking(ScoreWriter writer, Set<String> changedInputs, Set<String> changedVivos) throws IOException {
+		log.info("Scoring by blocking key " + this.blockingKey);
+		BlockingScoreEngine engine = new BlockingScoreEngine(this.inputJena, this.vivoJena, this.algorithmRegistry, this.inputPredicates, this.vivoPredicates, this.namespace, this.commonNames, this.blockingKey, this.threads);
+		engine.setChangedResources(changedInputs, changedVivos);
+		engine.execute(newScoreHandler(writer, engine.getRunNames()));
+		log.info("Result Processing Complete");
+	}
+	
+	/**
+	 * Score all pairs of input and vivo resources whose values are equal for every run, by hash join
+	 * @param writer the score writer
+	 * @param changedInputs only score pairs with these input resources or changedVivos (null to score all pairs)
+	 * @param changedVivos only score pairs with these vivo resources or changedInputs
 	 * @throws IOException error connecting
 	 */
-	private void loadRdfToScoreData(String scores) throws IOException {
-		String sparql = "" +
-			"PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> \n" +
-			"PREFIX scoreValue: <http://vivoweb.org/harvester/scoreValue/> \n" +
-			"PREFIX xsd: <http://www.w3.org/2001/XMLSchema#> \n" +
-			"INSERT DATA {\n" +
-				scores +
-			"}";
-		// Push Score Data into score model
-		log.trace("Loading Score Data into Score Model:\n" + sparql);
-		this.scoreJena.executeUpdateQuery(sparql);
+	private void executeEqualityJoin(ScoreWriter writer, Set<String> changedInputs, Set<String> changedVivos) throws IOException {
+		EqualityJoin join = new EqualityJoin(this.inputJena, this.vivoJena, this.inputPredicates, this.vivoPredicates, this.namespace);
+		join.setChangedResources(changedInputs, changedVivos);
+		join.execute(newScoreHandler(writer, join.getRunNames()));
+		log.info("Result Processing Complete");
+	}
+	
+	/**
+	 * Get a handler that writes the scores of each pair it is given
+	 * @param writer the score writer
+	 * @param runNames the run names, as indexed in the scores
+	 * @return the handler
+	 */
+	private BlockingScoreEngine.ScoredPairHandler newScoreHandler(final ScoreWriter writer, final String[] runNames) {
+		return new BlockingScoreEngine.ScoredPairHandler() {
+			@Override
+			public void handle(String sInputURI, String sVivoURI, float[] scores) throws IOException {
+				writer.startPair(sInputURI, sVivoURI);
+				for(int x = 0; x < runNames.length; x++) {
+					writeScore(writer, runNames[x], scores[x]);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Open the destination for scores: the binary score store or N-Triples score output file if one was given,
+	 * otherwise the score model
+	 * @return the score writer
+	 * @throws IOException error opening the output file
+	 */
+	private ScoreWriter openScoreWriter() throws IOException {
+		if(this.scoreStore != null) {
+			log.info("Writing scores to binary score store " + this.scoreStore);
+			return new BinaryScoreWriter(this.scoreStore);
+		}
+		if(this.scoreOutput != null) {
+			log.info("Writing scores to " + this.scoreOutput);
+			return new NTriplesScoreWriter(this.scoreOutput);
+		}
+		return new JenaScoreWriter(this.scoreJena, this.batchSize);
 	}
 	
 	/**
@@ -679,7 +1053,7 @@ public class Score {
 		sQuery.append(StringUtils.join(filters, " && "));
 		sQuery.append(") && (str(?sVivo) != str(?sInput))");
 		if(this.namespace != null) {
-			sQuery.append(" && regex(str(?sInput), \"^" + this.namespace + "\")");
+			sQuery.append(" && STRSTARTS(str(?sInput), \"" + this.namespace + "\")");
 			//sQuery.append(" && STRSTARTS(str(?sInput), \"^" + this.namespace + "\")");
 		}
 		sQuery.append(" ) .\n");
@@ -734,7 +1108,7 @@ public class Score {
 		sQuery.append(StringUtils.join(filters, " || "));
 		sQuery.append(") && (str(?sVivo) != str(?sInput))");
 		if(this.namespace != null) {
-			sQuery.append(" && regex(str(?sInput), \"^" + this.namespace + "\")"); 
+			sQuery.append(" && STRSTARTS(str(?sInput), \"" + this.namespace + "\")"); 
 		}
 		sQuery.append(" ) .\n");
 		 
@@ -743,47 +1117,41 @@ public class Score {
 	}
 	
 	/**
-	 * Append the sparql fragment for two rdf nodes to the given stringbuilder
-	 * @param sb the stringbuilder to append fragment to
-	 * @param nodenum the node number
+	 * Score two rdf nodes and write the score value
+	 * @param writer the score writer
 	 * @param opUri vivoJena node as a URI
 	 * @param opLit vivoJena node as a Literal string
 	 * @param osUri inputJena node as a URI
 	 * @param osLit inputJena node as a Literal string
 	 * @param runName the run identifier
-	 * @return the score
+	 * @return the weighted score
+	 * @throws IOException error writing
 	 */
-	private double appendScoreSparqlFragment(StringBuilder sb, int nodenum, String opUri, String opLit, String osUri, String osLit, String runName) {
+	private double writeScore(ScoreWriter writer, String opUri, String opLit, String osUri, String osLit, String runName) throws IOException {
 		float score = 0f;
 		// if a resource and same uris
 		if(this.equalityOnlyMode || ((osUri != null) && (opUri != null) && osUri.equals(opUri))) {
 			score = 1 / 1f;
 		} else if((osLit != null) && (opLit != null)) {
-			Class<? extends Algorithm> algClass = this.algorithms.get(runName);
-			try {
-				if (this.commonNames == null) {
-					score = algClass.newInstance().calculate(osLit, opLit);
-				} else { 
-					score = algClass.newInstance().calculate(osLit, opLit, this.commonNames);
-				}
-			} catch(IllegalAccessException e) {
-				throw new IllegalArgumentException("Unable to create new instance of class <"+algClass+">, does it not have a default (no-params) constructor publically available?", e);
-			} catch(InstantiationException e) {
-				throw new IllegalArgumentException(e);
-			}
+			score = this.algorithmRegistry.calculate(runName, osLit, opLit, this.commonNames);
 		}
-		double weightedscore = this.weights.get(runName).doubleValue() * score;
+		return writeScore(writer, runName, score);
+	}
+	
+	/**
+	 * Write the score value for an already calculated score
+	 * @param writer the score writer
+	 * @param runName the run identifier
+	 * @param score the unweighted score
+	 * @return the weighted score
+	 * @throws IOException error writing
+	 */
+	private double writeScore(ScoreWriter writer, String runName, float score) throws IOException {
+		Float weight = this.weights.get(runName);
+		double weightedscore = weight.doubleValue() * score;
 		log.debug("score: " + score);
 		log.debug("weighted_score: " + weightedscore);
-		String fragment = "" +
-			"  _:node" + nodenum + " scoreValue:hasScoreValue _:nodeScoreValue" + runName + nodenum + " .\n" +
-			"  _:nodeScoreValue" + runName + nodenum + " scoreValue:VivoProp <" + this.vivoPredicates.get(runName) + "> .\n" +
-			"  _:nodeScoreValue" + runName + nodenum + " scoreValue:InputProp <" + this.inputPredicates.get(runName) + "> .\n" +
-			"  _:nodeScoreValue" + runName + nodenum + " scoreValue:Algorithm \"" + this.algorithms.get(runName).getName() + "\" .\n" +
-			"  _:nodeScoreValue" + runName + nodenum + " scoreValue:Score \"" + score + "\"^^xsd:float .\n" +
-			"  _:nodeScoreValue" + runName + nodenum + " scoreValue:Weight \"" + this.weights.get(runName) + "\"^^xsd:float .\n" +
-			"  _:nodeScoreValue" + runName + nodenum + " scoreValue:WeightedScore \"" + weightedscore + "\"^^xsd:float .\n";
-		sb.append(fragment);
+		writer.writeScoreValue(this.vivoPredicates.get(runName), this.inputPredicates.get(runName), this.algorithms.get(runName).getName(), score, weight, weightedscore);
 		return weightedscore;
 	}
 	
@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.score;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vivoweb.harvester.util.FileAide;
+import org.vivoweb.harvester.util.repo.JenaConnect;
+import org.apache.jena.rdf.model.Literal;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+
+/**
+ * Per-resource fingerprints of the values Score compares, used to score only what changed since the previous run
+ * A resource's fingerprint is an order independent 64 bit hash of every (run name, value) it has for the scored
+ * predicates, and the whole set also records a fingerprint of the Score configuration that produced it
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class ScoreFingerprints {
+	/**
+	 * SLF4J Logger
+	 */
+	private static Logger log = LoggerFactory.getLogger(ScoreFingerprints.class);
+	/**
+	 * identifies a fingerprint file
+	 */
+	private static final int MAGIC = 0x56484650;
+	/**
+	 * format version of the fingerprint file
+	 */
+	private static final int VERSION = 1;
+	/**
+	 * fingerprint of the score configuration
+	 */
+	private final long configPrint;
+	/**
+	 * fingerprint of each input resource
+	 */
+	private final Map<String, Long> inputPrints;
+	/**
+	 * fingerprint of each vivo resource
+	 */
+	private final Map<String, Long> vivoPrints;
+	
+	/**
+	 * Constructor
+	 * @param configPrint fingerprint of the score configuration
+	 * @param inputPrints fingerprint of each input resource
+	 * @param vivoPrints fingerprint of each vivo resource
+	 */
+	public ScoreFingerprints(long configPrint, Map<String, Long> inputPrints, Map<String, Long> vivoPrints) {
+		this.configPrint = configPrint;
+		this.inputPrints = inputPrints;
+		this.vivoPrints = vivoPrints;
+	}
+	
+	/**
+	 * Fingerprint the current contents of the input and vivo models
+	 * @param config description of the score configuration, any change to it invalidates all fingerprints
+	 * @param inputJena model containing statements to be scored
+	 * @param vivoJena model containing vivo statements
+	 * @param inputPredicates the predicate for each run name in the input model
+	 * @param vivoPredicates the predicate for each run name in the vivo model
+	 * @param namespace only fingerprint input resources whose URI begins with this namespace (null for all)
+	 * @return the fingerprints
+	 */
+	public static ScoreFingerprints build(String config, JenaConnect inputJena, JenaConnect vivoJena, Map<String, String> inputPredicates, Map<String, String> vivoPredicates, String namespace) {
+		return new ScoreFingerprints(hash(config), fingerprint(inputJena.getJenaModel(), inputPredicates, namespace), fingerprint(vivoJena.getJenaModel(), vivoPredicates, null));
+	}
+	
+	/**
+	 * Fingerprint every resource that has a value for any run predicate
+	 * @param model the model to read
+	 * @param predicates the predicate for each run name
+	 * @param ns only fingerprint resources whose URI begins with this namespace (null for all)
+	 * @return mapping of uri to fingerprint
+	 */
+	private static Map<String, Long> fingerprint(Model model, Map<String, String> predicates, String ns) {
+		Map<String, Long> prints = new HashMap<String, Long>();
+		for(String runName : new TreeMap<String, String>(predicates).keySet()) {
+			StmtIterator stmts = model.listStatements(null, model.getProperty(predicates.get(runName)), (RDFNode)null);
+			try {
+				while(stmts.hasNext()) {
+					Statement stmt = stmts.nextStatement();
+					Resource sub = stmt.getSubject();
+					if(!sub.isURIResource() || ((ns != null) && !sub.getURI().startsWith(ns))) {
+						continue;
+					}
+					long valuePrint = mix(hash(runName + '\u0000' + describe(stmt.getObject())));
+					Long old = prints.get(sub.getURI());
+					// summing mixed hashes keeps the fingerprint independent of statement order
+					prints.put(sub.getURI(), Long.valueOf((old == null) ? valuePrint : (old.longValue() + valuePrint)));
+				}
+			} finally {
+				stmts.close();
+			}
+		}
+		return prints;
+	}
+	
+	/**
+	 * Describe a value the way it affects scoring
+	 * @param node the value
+	 * @return the description
+	 */
+	private static String describe(RDFNode node) {
+		if(node.isURIResource()) {
+			return "<" + node.asResource().getURI();
+		}
+		if(node.isLiteral()) {
+			Literal lit = node.asLiteral();
+			return "\"" + lit.getLexicalForm() + "@" + lit.getLanguage() + "^^" + lit.getDatatypeURI();
+		}
+		// blank node labels are not stable between runs, and scoring only compares uris and literals
+		return "_";
+	}
+	
+	/**
+	 * 64 bit FNV-1a hash
+	 * @param value the value to hash
+	 * @return the hash
+	 */
+	private static long hash(String value) {
+		long h = 0xcbf29ce484222325L;
+		for(int i = 0; i < value.length(); i++) {
+			h ^= value.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+	
+	/**
+	 * Spread the bits of a hash so that sums of hashes do not cancel out
+	 * @param value the hash
+	 * @return the mixed hash
+	 */
+	private static long mix(long value) {
+		long h = value;
+		h ^= (h >>> 33);
+		h *= 0xff51afd7ed558ccdL;
+		h ^= (h >>> 33);
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= (h >>> 33);
+		return h;
+	}
+	
+	/**
+	 * Is this fingerprint set comparable with another, i.e. was it produced by the same score configuration
+	 * @param previous the other fingerprints (null if none)
+	 * @return true if comparable
+	 */
+	public boolean isComparable(ScoreFingerprints previous) {
+		return (previous != null) && (previous.configPrint == this.configPrint);
+	}
+	
+	/**
+	 * Get the input resources that were added, changed or removed since the previous fingerprints
+	 * @param previous the previous fingerprints
+	 * @return the uris
+	 */
+	public Set<String> getChangedInputs(ScoreFingerprints previous) {
+		return changed(this.inputPrints, previous.inputPrints);
+	}
+	
+	/**
+	 * Get the vivo resources that were added, changed or removed since the previous fingerprints
+	 * @param previous the previous fingerprints
+	 * @return the uris
+	 */
+	public Set<String> getChangedVivos(ScoreFingerprints previous) {
+		return changed(this.vivoPrints, previous.vivoPrints);
+	}
+	
+	/**
+	 * Get every input resource in these or the previous fingerprints
+	 * @param previous the previous fingerprints (null if none)
+	 * @return the uris
+	 */
+	public Set<String> getAllInputs(ScoreFingerprints previous) {
+		Set<String> all = new HashSet<String>(this.inputPrints.keySet());
+		if(previous != null) {
+			all.addAll(previous.inputPrints.keySet());
+		}
+		return all;
+	}
+	
+	/**
+	 * Compare two sets of fingerprints
+	 * @param current the current fingerprints
+	 * @param previous the previous fingerprints
+	 * @return uris that were added, changed or removed
+	 */
+	private static Set<String> changed(Map<String, Long> current, Map<String, Long> previous) {
+		Set<String> changed = new HashSet<String>();
+		for(String uri : current.keySet()) {
+			if(!current.get(uri).equals(previous.get(uri))) {
+				changed.add(uri);
+			}
+		}
+		for(String uri : previous.keySet()) {
+			if(!current.containsKey(uri)) {
+				changed.add(uri);
+			}
+		}
+		return changed;
+	}
+	
+	/**
+	 * Load fingerprints saved by a previous run
+	 * @param fileName the fingerprint file
+	 * @return the fingerprints, or null if the file does not exist
+	 * @throws IOException error reading
+	 */
+	public static ScoreFingerprints load(String fileName) throws IOException {
+		if(!FileAide.exists(fileName)) {
+			return null;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(FileAide.getInputStream(fileName), 65536));
+		try {
+			if(in.readInt() != MAGIC) {
+				throw new IOException("'" + fileName + "' is not a score fingerprint file");
+			}
+			if(in.readInt() != VERSION) {
+				log.warn("Score fingerprint file '" + fileName + "' has an unsupported version, ignoring it");
+				return null;
+			}
+			long configPrint = in.readLong();
+			Map<String, Long> inputPrints = readPrints(in);
+			Map<String, Long> vivoPrints = readPrints(in);
+			return new ScoreFingerprints(configPrint, inputPrints, vivoPrints);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Read a block of fingerprints
+	 * @param in the input
+	 * @return mapping of uri to fingerprint
+	 * @throws IOException error reading
+	 */
+	private static Map<String, Long> readPrints(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		Map<String, Long> prints = new HashMap<String, Long>(Math.max(16, (int)(size / 0.75f) + 1));
+		for(int x = 0; x < size; x++) {
+			String uri = in.readUTF();
+			prints.put(uri, Long.valueOf(in.readLong()));
+		}
+		return prints;
+	}
+	
+	/**
+	 * Save these fingerprints for the next run
+	 * @param fileName the fingerprint file
+	 * @throws IOException error writing
+	 */
+	public void save(String fileName) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(FileAide.getOutputStream(fileName), 65536));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(this.configPrint);
+			writePrints(out, this.inputPrints);
+			writePrints(out, this.vivoPrints);
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Write a block of fingerprints
+	 * @param out the output
+	 * @param prints mapping of uri to fingerprint
+	 * @throws IOException error writing
+	 */
+	private static void writePrints(DataOutputStream out, Map<String, Long> prints) throws IOException {
+		out.writeInt(prints.size());
+		for(String uri : prints.keySet()) {
+			out.writeUTF(uri);
+			out.writeLong(prints.get(uri).longValue());
+		}
+	}
+}
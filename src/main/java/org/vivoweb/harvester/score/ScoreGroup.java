@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.score;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A set of runs scored against the input resources in one namespace. Several groups given to one Score share the
+ * loaded models and score writer, where each would otherwise be a separate Score invocation.
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class ScoreGroup {
+	/**
+	 * the name of the group
+	 */
+	private final String name;
+	/**
+	 * limit the group to input resources whose URI begins with this namespace (null for all)
+	 */
+	private final String namespace;
+	/**
+	 * the run names scored in this group
+	 */
+	private final List<String> runNames;
+	
+	/**
+	 * Constructor
+	 * @param name the name of the group
+	 * @param namespace limit the group to input resources whose URI begins with this namespace (null for all)
+	 * @param runNames the run names scored in this group
+	 */
+	public ScoreGroup(String name, String namespace, List<String> runNames) {
+		if((name == null) || name.isEmpty()) {
+			throw new IllegalArgumentException("group name cannot be empty");
+		}
+		if((runNames == null) || runNames.isEmpty()) {
+			throw new IllegalArgumentException("group '" + name + "' has no runs");
+		}
+		this.name = name;
+		this.namespace = namespace;
+		this.runNames = Collections.unmodifiableList(new ArrayList<String>(runNames));
+	}
+	
+	/**
+	 * Build the groups from the commandline mappings
+	 * @param namespaces mapping of group name to namespace (empty namespace for all input resources)
+	 * @param groupRuns mapping of group name to a comma separated list of run names (groups not listed use all runs)
+	 * @param allRunNames every run name configured
+	 * @return the groups ordered by name, or null if namespaces is empty
+	 */
+	public static List<ScoreGroup> parse(Map<String, String> namespaces, Map<String, String> groupRuns, Collection<String> allRunNames) {
+		if((namespaces == null) || namespaces.isEmpty()) {
+			if((groupRuns != null) && !groupRuns.isEmpty()) {
+				throw new IllegalArgumentException("runs given for groups, but no groups defined");
+			}
+			return null;
+		}
+		if(groupRuns != null) {
+			for(String groupName : groupRuns.keySet()) {
+				if(!namespaces.containsKey(groupName)) {
+					throw new IllegalArgumentException("runs given for group '" + groupName + "', but the group is not defined");
+				}
+			}
+		}
+		List<ScoreGroup> groups = new ArrayList<ScoreGroup>();
+		for(String groupName : new TreeSet<String>(namespaces.keySet())) {
+			String ns = namespaces.get(groupName);
+			String runSpec = (groupRuns != null) ? groupRuns.get(groupName) : null;
+			List<String> runNames = new ArrayList<String>();
+			if(runSpec == null) {
+				runNames.addAll(new TreeSet<String>(allRunNames));
+			} else {
+				for(String runName : runSpec.split(",")) {
+					runName = runName.trim();
+					if(!allRunNames.contains(runName)) {
+						throw new IllegalArgumentException("run name '" + runName + "' found in group '" + groupName + "', but not in algorithms");
+					}
+					if(!runNames.contains(runName)) {
+						runNames.add(runName);
+					}
+				}
+			}
+			groups.add(new ScoreGroup(groupName, ((ns == null) || ns.isEmpty()) ? null : ns, runNames));
+		}
+		return groups;
+	}
+	
+	/**
+	 * Get the name of the group
+	 * @return the name
+	 */
+	public String getName() {
+		return this.name;
+	}
+	
+	/**
+	 * Get the namespace the group is limited to
+	 * @return the namespace (null for all input resources)
+	 */
+	public String getNamespace() {
+		return this.namespace;
+	}
+	
+	/**
+	 * Get the run names scored in this group
+	 * @return the run names
+	 */
+	public List<String> getRunNames() {
+		return this.runNames;
+	}
+	
+	@Override
+	public String toString() {
+		return this.name;
+	}
+}
@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.score;
+
+import java.io.IOException;
+
+/**
+ * Destination for the scoreValue statements produced by Score
+ * Each scored pair is written as a call to startPair followed by one call to writeScoreValue per run name, so
+ * implementations only ever need to hold the current batch in memory
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public abstract class ScoreWriter {
+	/**
+	 * namespace of the scoreValue vocabulary
+	 */
+	public static final String SCORE_VALUE_NS = "http://vivoweb.org/harvester/scoreValue/";
+	/**
+	 * namespace of the xsd datatypes
+	 */
+	public static final String XSD_NS = "http://www.w3.org/2001/XMLSchema#";
+	
+	/**
+	 * Start the statements for a scored pair
+	 * @param sInputURI the input resource
+	 * @param sVivoURI the vivo resource
+	 * @throws IOException error writing
+	 */
+	public abstract void startPair(String sInputURI, String sVivoURI) throws IOException;
+	
+	/**
+	 * Write the statements for one run's score of the current pair
+	 * @param vivoProp the vivo predicate
+	 * @param inputProp the input predicate
+	 * @param algorithm the name of the algorithm class
+	 * @param score the unweighted score
+	 * @param weight the weight of the run
+	 * @param weightedScore the weighted score
+	 * @throws IOException error writing
+	 */
+	public abstract void writeScoreValue(String vivoProp, String inputProp, String algorithm, float score, Float weight, double weightedScore) throws IOException;
+	
+	/**
+	 * Write out anything still buffered and release the destination
+	 * @throws IOException error writing
+	 */
+	public abstract void close() throws IOException;
+}
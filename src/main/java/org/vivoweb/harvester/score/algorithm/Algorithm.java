@@ -8,6 +8,13 @@ package org.vivoweb.harvester.score.algorithm;
 /**
  * Interface for Score algorithms
  * Using this standardized interface allows any custom algorithms to be added easily
+ * <p>
+ * Thread-safety contract: implementations must provide a public no-params constructor and are not required to be
+ * thread-safe. Scoring builds one instance of each configured algorithm per worker thread (see AlgorithmRegistry) and
+ * reuses it for every comparison that thread performs, so an instance is never called concurrently but is called many
+ * times. Any state used during a calculation must therefore be reset at the start of each call rather than relied on
+ * being fresh.
+ * </p>
  * @author Nicholas Skaggs nskaggs@ctrip.ufl.edu
  * @author Stephen Williams svwilliams@ctrip.ufl.edu
  * @author Christopher Haines hainesc@ctrip.ufl.edu
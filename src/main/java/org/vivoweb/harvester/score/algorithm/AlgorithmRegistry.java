@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.score.algorithm;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Registry of the Algorithm configured for each run name
+ * Each Algorithm is built once per thread and reused for every calculation that thread performs, as allowed by the
+ * Algorithm thread-safety contract
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class AlgorithmRegistry {
+	/**
+	 * the class of the Algorithm for each run name
+	 */
+	private final Map<String, Class<? extends Algorithm>> algorithms;
+	/**
+	 * the Algorithm instances for each run name, one set per thread
+	 */
+	private final ThreadLocal<Map<String, Algorithm>> instances;
+	/**
+	 * the lowest score of interest for each run name, scores below it may be reported as 0
+	 */
+	private final Map<String, Float> minScores;
+	
+	/**
+	 * Constructor
+	 * @param algorithms the class of the Algorithm for each run name
+	 */
+	public AlgorithmRegistry(Map<String, Class<? extends Algorithm>> algorithms) {
+		if(algorithms == null) {
+			throw new IllegalArgumentException("Algorithm cannot be null");
+		}
+		this.algorithms = Collections.unmodifiableMap(new HashMap<String, Class<? extends Algorithm>>(algorithms));
+		this.minScores = new HashMap<String, Float>();
+		// fail fast on classes that cannot be built rather than on the first comparison
+		final Map<String, Algorithm> first = buildAll();
+		this.instances = new ThreadLocal<Map<String, Algorithm>>() {
+			/**
+			 * the instances built during validation, handed to the first thread that asks
+			 */
+			private Map<String, Algorithm> unclaimed = first;
+			
+			@Override
+			protected synchronized Map<String, Algorithm> initialValue() {
+				if(this.unclaimed != null) {
+					Map<String, Algorithm> retVal = this.unclaimed;
+					this.unclaimed = null;
+					return retVal;
+				}
+				return buildAll();
+			}
+		};
+	}
+	
+	/**
+	 * Get the calling thread's Algorithm for a run name
+	 * @param runName the run name
+	 * @return the Algorithm
+	 */
+	public Algorithm get(String runName) {
+		Algorithm alg = this.instances.get().get(runName);
+		if(alg == null) {
+			throw new IllegalArgumentException("No algorithm configured for run name '" + runName + "'");
+		}
+		return alg;
+	}
+	
+	/**
+	 * Calculate the score for a run name using the calling thread's Algorithm
+	 * BoundedAlgorithms give up early (reporting 0) when the score cannot reach the run's minimum score
+	 * @param runName the run name
+	 * @param itemX compare this with the other String
+	 * @param itemY compare this with the other String
+	 * @param commonNames list of common names for modifying the score as needed (null to not use)
+	 * @return the score
+	 */
+	public float calculate(String runName, CharSequence itemX, CharSequence itemY, String commonNames) {
+		Algorithm alg = get(runName);
+		if(commonNames != null) {
+			return alg.calculate(itemX, itemY, commonNames);
+		}
+		Float minScore = this.minScores.get(runName);
+		if((minScore != null) && (alg instanceof BoundedAlgorithm)) {
+			return ((BoundedAlgorithm)alg).calculate(itemX, itemY, minScore.floatValue());
+		}
+		return alg.calculate(itemX, itemY);
+	}
+	
+	/**
+	 * Set the lowest score of interest for a run name
+	 * @param runName the run name
+	 * @param minScore the minimum score (null to always calculate the exact score)
+	 */
+	public void setMinimumScore(String runName, Float minScore) {
+		if(minScore == null) {
+			this.minScores.remove(runName);
+		} else {
+			this.minScores.put(runName, minScore);
+		}
+	}
+	
+	/**
+	 * Derive the lowest score of interest for each run name from the threshold Match will apply to the summed weighted
+	 * scores: a run scoring below (threshold - best possible weighted score of every other run) / weight can never
+	 * bring its pair up to the threshold, so its exact value does not matter. This only holds when the given weights
+	 * cover every score Match will sum for a pair.
+	 * @param threshold the match threshold (null to always calculate exact scores)
+	 * @param weights the weight of each run name
+	 * @param maxRunScore the highest score any single algorithm can return
+	 */
+	public void setMinimumScores(Float threshold, Map<String, Float> weights, float maxRunScore) {
+		this.minScores.clear();
+		if(threshold == null) {
+			return;
+		}
+		float maxTotal = 0f;
+		for(Float weight : weights.values()) {
+			maxTotal += weight.floatValue() * maxRunScore;
+		}
+		for(String runName : weights.keySet()) {
+			float weight = weights.get(runName).floatValue();
+			if(weight <= 0f) {
+				continue;
+			}
+			float others = maxTotal - (weight * maxRunScore);
+			float minScore = (threshold.floatValue() - others) / weight;
+			if(minScore > 0f) {
+				this.minScores.put(runName, Float.valueOf(minScore));
+			}
+		}
+	}
+	
+	/**
+	 * Get the class of the Algorithm for a run name
+	 * @param runName the run name
+	 * @return the class
+	 */
+	public Class<? extends Algorithm> getAlgorithmClass(String runName) {
+		return this.algorithms.get(runName);
+	}
+	
+	/**
+	 * Build one instance of every configured Algorithm
+	 * @return mapping of run name to instance
+	 */
+	private Map<String, Algorithm> buildAll() {
+		Map<String, Algorithm> algs = new HashMap<String, Algorithm>();
+		for(String runName : this.algorithms.keySet()) {
+			algs.put(runName, newInstance(this.algorithms.get(runName)));
+		}
+		return algs;
+	}
+	
+	/**
+	 * Build a new instance of an Algorithm
+	 * @param algClass the class of the Algorithm
+	 * @return the new instance
+	 */
+	public static Algorithm newInstance(Class<? extends Algorithm> algClass) {
+		try {
+			return algClass.newInstance();
+		} catch(IllegalAccessException e) {
+			throw new IllegalArgumentException("Unable to create new instance of class <"+algClass+">, does it not have a default (no-params) constructor publically available?", e);
+		} catch(InstantiationException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+}
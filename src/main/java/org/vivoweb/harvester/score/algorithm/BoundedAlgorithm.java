@@ -0,0 +1,23 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.score.algorithm;
+
+/**
+ * Interface for Score algorithms that can abandon a calculation once the result is known to fall below a minimum
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public interface BoundedAlgorithm extends Algorithm {
+	/**
+	 * Perform a calculation to determine what percent match the given Strings are, giving up as soon as the result
+	 * cannot reach minScore
+	 * @param itemX compare this with the other String
+	 * @param itemY compare this with the other String
+	 * @param minScore the lowest score of interest
+	 * @return the same value as calculate(itemX, itemY) if that value is at least minScore, otherwise either that value
+	 *         or 0.0
+	 */
+	public abstract float calculate(CharSequence itemX, CharSequence itemY, float minScore);
+}
@@ -8,7 +8,15 @@ package org.vivoweb.harvester.score.algorithm;
 /**
  * @author Christopher Haines <hainesc@ufl.edu>
  */
-public class NameCompare implements Algorithm {
+public class NameCompare implements BoundedAlgorithm {
+	/**
+	 * Algorithm used when both names are longer than an initial
+	 */
+	private final NormalizedDamerauLevenshteinDifference nameDiff = new NormalizedDamerauLevenshteinDifference();
+	/**
+	 * Algorithm used when either name is an initial
+	 */
+	private final CaseInsensitiveInitialTest initialTest = new CaseInsensitiveInitialTest();
 	
 	@Override
 	public float calculate(CharSequence x, CharSequence y) {
@@ -19,9 +27,23 @@ public class NameCompare implements Algorithm {
 			throw new IllegalArgumentException("y cannot be null");
 		}
 		if(x.length() > 1 && y.length() > 1) {
-			return new NormalizedDamerauLevenshteinDifference().calculate(x, y);
+			return this.nameDiff.calculate(x, y);
 		}
-		return new CaseInsensitiveInitialTest().calculate(x, y);
+		return this.initialTest.calculate(x, y);
+	}
+	
+	@Override
+	public float calculate(CharSequence x, CharSequence y, float minScore) {
+		if(x == null) {
+			throw new IllegalArgumentException("x cannot be null");
+		}
+		if(y == null) {
+			throw new IllegalArgumentException("y cannot be null");
+		}
+		if(x.length() > 1 && y.length() > 1) {
+			return this.nameDiff.calculate(x, y, minScore);
+		}
+		return this.initialTest.calculate(x, y);
 	}
 
 	@Override
@@ -9,6 +9,14 @@ package org.vivoweb.harvester.score.algorithm;
  * @author Eliza Chan <elc2013@med.cornell.edu>
  */
 public class NameExtraCompare implements Algorithm {
+	/**
+	 * Algorithm used when both names are longer than an initial
+	 */
+	private final NormalizedDamerauLevenshteinDifference nameDiff = new NormalizedDamerauLevenshteinDifference();
+	/**
+	 * Algorithm used when either name is an initial
+	 */
+	private final CaseInsensitiveInitialTest initialTest = new CaseInsensitiveInitialTest();
 	
 	@Override
 	public float calculate(CharSequence x, CharSequence y) {
@@ -19,11 +27,11 @@ public class NameExtraCompare implements Algorithm {
 			throw new IllegalArgumentException("y cannot be null");
 		}
 		if(x.length() > 1 && y.length() > 1) {
-			return new NormalizedDamerauLevenshteinDifference().calculate(x, y);
+			return this.nameDiff.calculate(x, y);
 		}
 		// initial vs initial or initial vs name are less reliable, hence subtract 0.1f
 		// e.g. B vs B or B vs Betty
-		float result  = new CaseInsensitiveInitialTest().calculate(x, y);
+		float result  = this.initialTest.calculate(x, y);
 		if (result - 0.1f >= 0) { return (result - 0.1f); }
 		return result;
 	}
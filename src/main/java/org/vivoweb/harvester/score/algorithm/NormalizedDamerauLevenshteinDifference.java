@@ -5,13 +5,19 @@
  ******************************************************************************/
 package org.vivoweb.harvester.score.algorithm;
 
-import org.vivoweb.harvester.util.MathAide;
-
 /**
  * Normalized Damerau-Levenshtein Difference Score Algorithm
  * @author Christopher Haines hainesc@ctrip.ufl.edu
  */
-public class NormalizedDamerauLevenshteinDifference implements Algorithm {
+public class NormalizedDamerauLevenshteinDifference implements BoundedAlgorithm {
+	/**
+	 * previous column of the distance matrix, reused between calls
+	 */
+	private int[] prevCol = new int[16];
+	/**
+	 * current column of the distance matrix, reused between calls
+	 */
+	private int[] currCol = new int[16];
 	
 	@Override
 	public float calculate(CharSequence itemX, CharSequence itemY) {
@@ -23,6 +29,29 @@ public class NormalizedDamerauLevenshteinDifference implements Algorithm {
 		return ((maxSize - diff) / maxSize);
 	}
 	
+	@Override
+	public float calculate(CharSequence itemX, CharSequence itemY, float minScore) {
+		float maxSize = Math.max(itemX.length(), itemY.length()) / 1f;
+		if(maxSize == 0f) {
+			return 0f;
+		}
+		int maxDist = ((minScore <= 0f) || !isBoundable()) ? Integer.MAX_VALUE : (int)Math.ceil(maxSize * (1f - minScore));
+		float diff = getDamerauLevenshtein(itemX, itemY, maxDist);
+		if(diff > maxDist) {
+			return 0f;
+		}
+		return ((maxSize - diff) / maxSize);
+	}
+	
+	/**
+	 * Can the distance calculation be abandoned early? Only true for this class itself by default, since subclasses may
+	 * use the augmentation hooks to reduce the final cost below the raw distance
+	 * @return true if the raw distance bounds the final cost from below
+	 */
+	protected boolean isBoundable() {
+		return getClass() == NormalizedDamerauLevenshteinDifference.class;
+	}
+	
 	/**
 	 * Damerau-Levenshtein Distance
 	 * @param x a string
@@ -30,6 +59,18 @@ public class NormalizedDamerauLevenshteinDifference implements Algorithm {
 	 * @return the distance
 	 */
 	protected float getDamerauLevenshtein(CharSequence x, CharSequence y) {
+		return getDamerauLevenshtein(x, y, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Damerau-Levenshtein Distance, abandoned as soon as every cell of a column exceeds maxDist
+	 * Only the previous and current columns of the distance matrix are kept, in buffers reused between calls
+	 * @param x a string
+	 * @param y another string
+	 * @param maxDist the largest distance of interest
+	 * @return the distance, or a value greater than maxDist if the distance exceeds maxDist
+	 */
+	protected float getDamerauLevenshtein(CharSequence x, CharSequence y, int maxDist) {
 		if(x == null) {
 			throw new IllegalArgumentException("x cannot be null");
 		}
@@ -37,6 +78,9 @@ public class NormalizedDamerauLevenshteinDifference implements Algorithm {
 			throw new IllegalArgumentException("y cannot be null");
 		}
 		
+		// instances are reused, so never rely on the augment left by a previous call
+		resetAugment();
+		
 		int sLen = x.length();
 		int tLen = y.length();
 		
@@ -47,77 +91,90 @@ public class NormalizedDamerauLevenshteinDifference implements Algorithm {
 			return sLen;
 		}
 		
-		char[] source;
-		char[] target;
+		CharSequence source;
+		CharSequence target;
 		if(tLen > sLen) {
 			int tempSize = tLen;
 			tLen = sLen;
 			sLen = tempSize;
-			source = y.toString().toCharArray();
-			target = x.toString().toCharArray();
+			source = y;
+			target = x;
 		} else {
-			source = x.toString().toCharArray();
-			target = y.toString().toCharArray();
+			source = x;
+			target = y;
 		}
 		
-		int sLenp1 = sLen + 1;
-		int tLenp1 = tLen + 1;
-		
-		int[] dist = new int[tLenp1 * sLenp1];
+		if((sLen - tLen) > maxDist) {
+			return maxDist + 1f;
+		}
 		
-		// initialize first row to 0..n
-		for(int col = 0; col < sLenp1; col++) {
-			dist[col] = col;
+		int tLenp1 = tLen + 1;
+		if(this.prevCol.length < tLenp1) {
+			this.prevCol = new int[tLenp1];
+			this.currCol = new int[tLenp1];
 		}
+		int[] prev = this.prevCol;
+		int[] curr = this.currCol;
 		
 		// initialize first column to 0..m
-		int row = sLenp1;
-		for(int inc = 1; inc < tLenp1; inc++) {
-			dist[row] = inc;
-			row += sLenp1;
+		for(int tIndex = 0; tIndex < tLenp1; tIndex++) {
+			prev[tIndex] = tIndex;
 		}
 		
-		// throughout these loops, sIm1 = sIndex-1
-		int sIm1 = 0;
-		for(int sIndex = 1; sIndex < sLenp1; sIndex++) {
-			row = sIndex;
-			
-			// throughout the for tIndex loop, tIm1 = tIndex-1
-			int tIm1 = 0;
+		// throughout these loops, sIm1 = sIndex-1 and tIm1 = tIndex-1
+		for(int sIndex = 1; sIndex <= sLen; sIndex++) {
+			int sIm1 = sIndex - 1;
+			char sChar = source.charAt(sIm1);
+			// first row is 0..n
+			curr[0] = sIndex;
+			int colMin = sIndex;
 			for(int tIndex = 1; tIndex < tLenp1; tIndex++) {
-				// hold position of previous row
-				int prev = row;
-				// increment row by sLenp1 to point to the new (this iteration's) row
-				row += sLenp1;
-
-				int sameChar = ((source[sIm1] == target[tIm1]) ? 0 : 1);
-				int[] editCosts = new int[3];
-				editCosts[0] = dist[prev] + 1; // addition
-				editCosts[1] = dist[row-1] + 1; // deletion
-				editCosts[2] = dist[prev - 1] + sameChar; // substitution
+				int tIm1 = tIndex - 1;
+				char tChar = target.charAt(tIm1);
+				int sameChar = ((sChar == tChar) ? 0 : 1);
+				int addition = curr[tIm1] + 1;
+				int deletion = prev[tIndex] + 1;
+				int substitution = prev[tIm1] + sameChar;
 				if(sameChar != 0) {
 					/* transposition */
 					if(sIndex < sLen && tIndex < tLen) {
-						if(source[sIndex] == target[tIm1] && source[sIm1] == target[tIndex]) {
-							int tr = dist[(prev) - 1];
-							if(tr < editCosts[0]) {
-								editCosts[0] = tr;
-								}
+						if(source.charAt(sIndex) == tChar && sChar == target.charAt(tIndex)) {
+							int tr = prev[tIm1];
+							if(tr < addition) {
+								addition = tr;
+							}
 						}
 					}
 				}
-				int editTypeIndex = MathAide.minIntIndex(editCosts);
-				distAugment(editTypeIndex, source[sIm1], target[tIm1]);
-				dist[row] = editCosts[editTypeIndex];
-				// tIm1 = tIndex := tIndex-1 for the next iteration
-				tIm1 = tIndex;
+				// lowest cost, preferring addition, then deletion, then substitution on ties
+				int editTypeIndex = 0;
+				int cost = addition;
+				if(deletion < cost) {
+					editTypeIndex = 1;
+					cost = deletion;
+				}
+				if(substitution < cost) {
+					editTypeIndex = 2;
+					cost = substitution;
+				}
+				distAugment(editTypeIndex, sChar, tChar);
+				curr[tIndex] = cost;
+				if(cost < colMin) {
+					colMin = cost;
+				}
+			}
+			// column minimums never decrease, so once a whole column is past the bound the distance is too
+			if(colMin > maxDist) {
+				resetAugment();
+				return maxDist + 1f;
 			}
-			// sIm1 = sIndex := tIndex-1 for the next iteration
-			sIm1 = sIndex;
+			int[] swap = prev;
+			prev = curr;
+			curr = swap;
 		}
 		float aug = getAugment();
 		resetAugment();
-		return dist[row] + aug;
+		return prev[tLen] + aug;
 	}
 	
 	/**
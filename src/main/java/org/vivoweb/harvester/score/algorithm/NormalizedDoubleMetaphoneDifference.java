@@ -12,16 +12,23 @@ import org.apache.commons.codec.language.DoubleMetaphone;
  * @author Christopher Haines hainesc@ctrip.ufl.edu
  */
 public class NormalizedDoubleMetaphoneDifference implements Algorithm {
+	/**
+	 * DoubleMetaphone encoder
+	 */
+	private final DoubleMetaphone dm = new DoubleMetaphone();
+	/**
+	 * Algorithm used to compare the encoded values
+	 */
+	private final NormalizedLevenshteinDifference encodedDiff = new NormalizedLevenshteinDifference();
 	
 	@Override
 	public float calculate(CharSequence itemX, CharSequence itemY) {
 		if(itemX.length() == 0 || itemY.length() == 0) {
 			return 0f;
 		}
-		DoubleMetaphone dm = new DoubleMetaphone();
-		String dmX = dm.encode(itemX.toString());
-		String dmY = dm.encode(itemY.toString());
-		return new NormalizedLevenshteinDifference().calculate(dmX, dmY);
+		String dmX = this.dm.encode(itemX.toString());
+		String dmY = this.dm.encode(itemY.toString());
+		return this.encodedDiff.calculate(dmX, dmY);
 	}
 
 	@Override
@@ -5,16 +5,27 @@
  ******************************************************************************/
 package org.vivoweb.harvester.score.algorithm;
 
-import org.apache.commons.lang.StringUtils;
-
 /**
  * Normalized Levenshtein Difference Score Algorithm
  * @author Christopher Haines hainesc@ctrip.ufl.edu
  */
-public class NormalizedLevenshteinDifference implements Algorithm {
+public class NormalizedLevenshteinDifference implements BoundedAlgorithm {
+	/**
+	 * previous row of the distance matrix, reused between calls
+	 */
+	private int[] prevRow = new int[16];
+	/**
+	 * current row of the distance matrix, reused between calls
+	 */
+	private int[] currRow = new int[16];
 	
 	@Override
 	public float calculate(CharSequence itemX, CharSequence itemY) {
+		return calculate(itemX, itemY, 0f);
+	}
+	
+	@Override
+	public float calculate(CharSequence itemX, CharSequence itemY, float minScore) {
 		if(itemX == null) {
 			throw new IllegalArgumentException("x cannot be null");
 		}
@@ -26,7 +37,63 @@ public class NormalizedLevenshteinDifference implements Algorithm {
 		if (maxSize == 0f) {
 			return 0f;
 		}
-		return ((maxSize - StringUtils.getLevenshteinDistance(itemX.toString(), itemY.toString())) / maxSize);
+		int maxDist = (minScore <= 0f) ? Integer.MAX_VALUE : (int)Math.ceil(maxSize * (1f - minScore));
+		int diff = getLevenshtein(itemX, itemY, maxDist);
+		if(diff > maxDist) {
+			return 0f;
+		}
+		return ((maxSize - diff) / maxSize);
+	}
+	
+	/**
+	 * Levenshtein Distance, abandoned as soon as every cell of a row exceeds maxDist
+	 * @param x a string
+	 * @param y another string
+	 * @param maxDist the largest distance of interest
+	 * @return the distance, or a value greater than maxDist if the distance exceeds maxDist
+	 */
+	protected int getLevenshtein(CharSequence x, CharSequence y, int maxDist) {
+		int xLen = x.length();
+		int yLen = y.length();
+		if(xLen == 0) {
+			return yLen;
+		}
+		if(yLen == 0) {
+			return xLen;
+		}
+		if(Math.abs(xLen - yLen) > maxDist) {
+			return maxDist + 1;
+		}
+		if(this.prevRow.length <= yLen) {
+			this.prevRow = new int[yLen + 1];
+			this.currRow = new int[yLen + 1];
+		}
+		int[] prev = this.prevRow;
+		int[] curr = this.currRow;
+		for(int j = 0; j <= yLen; j++) {
+			prev[j] = j;
+		}
+		for(int i = 1; i <= xLen; i++) {
+			char xc = x.charAt(i - 1);
+			curr[0] = i;
+			int rowMin = i;
+			for(int j = 1; j <= yLen; j++) {
+				int cost = (xc == y.charAt(j - 1)) ? 0 : 1;
+				int val = Math.min(Math.min(curr[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+				curr[j] = val;
+				if(val < rowMin) {
+					rowMin = val;
+				}
+			}
+			// row minimums never decrease, so once a whole row is past the bound the distance is too
+			if(rowMin > maxDist) {
+				return maxDist + 1;
+			}
+			int[] swap = prev;
+			prev = curr;
+			curr = swap;
+		}
+		return prev[yLen];
 	}
 
 	@Override
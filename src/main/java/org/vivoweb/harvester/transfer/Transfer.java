@@ -60,6 +60,10 @@ public class Transfer {
 	 * remove rather than add
 	 */
 	private boolean removeMode;
+	/**
+	 * number of statements added or removed per transaction when transferring records
+	 */
+	private int commitSize;
 	
 	/**
 	 * Constructor
@@ -102,6 +106,12 @@ public class Transfer {
 		// remove mode
 		this.removeMode = argList.has("m");
 		
+		// commit size
+		this.commitSize = Integer.parseInt(argList.get("commitSize"));
+		if(this.commitSize < 1) {
+			throw new IllegalArgumentException("commitSize must be at least 1");
+		}
+		
 		// Require output args
 		if(this.output == null && this.dumpFile == null) {
 			throw new IllegalArgumentException("Must provide an output {-o, -O, or -d}");
@@ -131,7 +141,7 @@ public class Transfer {
 				this.output.removeRdfFromFile(this.inRDF, this.namespace, this.inRDFlang);
 			}
 			if(this.inRH != null) {
-				int processed = this.output.removeRdfFromRH(this.inRH, this.namespace, this.inRDFlang);
+				int processed = this.output.removeRdfFromRH(this.inRH, this.namespace, this.inRDFlang, this.commitSize);
 				log.info(getParser().getAppName() + ": Records Removed: "+ processed);
 			}
 		} else {
@@ -145,7 +155,7 @@ public class Transfer {
 			if(this.inRH != null) {
 				log.debug(getParser().getAppName() + ": language: "+ this.inRDFlang);
 				log.debug(getParser().getAppName() + ": namespace: "+ this.namespace);
-				int processed = this.output.loadRdfFromRH(this.inRH, this.namespace, this.inRDFlang);
+				int processed = this.output.loadRdfFromRH(this.inRH, this.namespace, this.inRDFlang, this.commitSize);
 				log.info(getParser().getAppName() + ": Records loaded: "+ processed);				 
 			}
 		}
@@ -178,6 +188,7 @@ public class Transfer {
 		parser.addArgument(new ArgDef().setShortOption('S').setLongOpt("recordHandlerOverride").withParameterValueMap("RH_PARAM", "VALUE").setDescription("override the RH_PARAM of recordhandler using VALUE").setRequired(false));
 		parser.addArgument(new ArgDef().setShortOption('n').setLongOpt("namespace").withParameter(true, "URI_BASE").setDescription("use URI_BASE when importing relative uris").setRequired(false));
 		parser.addArgument(new ArgDef().setShortOption('m').setLongOpt("modeRemove").setDescription("remove from output model rather than add").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("commitSize").withParameter(true, "COMMIT_SIZE").setDescription("number of statements from the record handler added or removed per transaction - default " + JenaConnect.DEFAULT_COMMIT_SIZE + ", not used when bulk loading into tdb").setDefaultValue(String.valueOf(JenaConnect.DEFAULT_COMMIT_SIZE)).setRequired(false));
 		
 		// Outputs
 		parser.addArgument(new ArgDef().setShortOption('o').setLongOpt("output").withParameter(true, "CONFIG_FILE").setDescription("config file for output jena model").setRequired(false));
@@ -191,6 +191,8 @@ public class GlozeTranslator {
 			try {
 				// create a output stream for writing to the out store
 				ByteArrayOutputStream buff = new ByteArrayOutputStream();
+				this.inStore.loadMetaDataIndex();
+				this.outStore.loadMetaDataIndex();
 				// get from the in record and translate
 				for(Record r : this.inStore) {
 					if(r.needsProcessed(this.getClass())) {
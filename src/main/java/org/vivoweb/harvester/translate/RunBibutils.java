@@ -162,6 +162,10 @@ public class RunBibutils {
 		int translated = 0;
 		int skipped = 0;
 
+		if(!this.force) {
+			this.inStore.loadMetaDataIndex();
+		}
+		this.outStore.loadMetaDataIndex();
 		for(Record r : this.inStore) {
 			if(this.force || r.needsProcessed(this.getClass())) {
 				log.trace("Running bibutils on record " + r.getID());
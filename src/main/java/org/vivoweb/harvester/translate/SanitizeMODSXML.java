@@ -120,6 +120,10 @@ public class SanitizeMODSXML {
 		int sanitized = 0;
 		int skipped = 0;
 
+		if(!this.force) {
+			this.inStore.loadMetaDataIndex();
+		}
+		this.outStore.loadMetaDataIndex();
 		for(Record r : this.inStore) {
 			if(this.force || r.needsProcessed(this.getClass())) {
 				log.trace("Sanitizing record " + r.getID());
@@ -13,12 +13,25 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URLDecoder;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,9 +54,32 @@ public class XSLTranslator {
 	 */
 	private static Logger log = LoggerFactory.getLogger(XSLTranslator.class);
 	/**
-	 * The translation xsl is the map that will reconstruct our input stream's document into the appropriate format
+	 * maximum number of compiled stylesheets kept in templateCache
 	 */
-	private String translationString;
+	private static final int TEMPLATE_CACHE_SIZE = 16;
+	/**
+	 * compiled stylesheets, by md5 of the stylesheet, least recently used first
+	 */
+	private static final Map<String, Templates> templateCache = Collections.synchronizedMap(new LinkedHashMap<String, Templates>(TEMPLATE_CACHE_SIZE, 0.75f, true) {
+		/**
+		 * serialVersionUID
+		 */
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Templates> eldest) {
+			return size() > TEMPLATE_CACHE_SIZE;
+		}
+	});
+	/**
+	 * The translation xsl is the map that will reconstruct our input stream's document into the appropriate format,
+	 * compiled once and shared by every worker thread
+	 */
+	private Templates translation;
+	/**
+	 * a transformer for the translation per worker thread, transformers are not thread safe
+	 */
+	private final ThreadLocal<Transformer> transformers;
 	/**
 	 * record handler for incoming records
 	 */
@@ -61,6 +97,10 @@ public class XSLTranslator {
 	 * force decode input as UTF-8 to clean XML
 	 */
 	private boolean cleanXML;
+	/**
+	 * number of threads translating records
+	 */
+	private int threads;
 	
 	/**
 	 * Constructor
@@ -90,6 +130,7 @@ public class XSLTranslator {
 			argList.has("f"),
 			argList.has("c")
 		);
+		setThreads(argList.has("threads") ? Integer.parseInt(argList.get("threads")) : 1);
 	}
 	
 	/**
@@ -103,6 +144,8 @@ public class XSLTranslator {
 	 */
 	public XSLTranslator(RecordHandler inRecordHandler, RecordHandler outRecordHandler, InputStream translationStream, 
 							boolean force, boolean clXML) throws IOException {
+		this.transformers = new ThreadLocal<Transformer>();
+		this.threads = 1;
 		// set Translation file
 		setTranslation(translationStream);
 		
@@ -125,10 +168,8 @@ public class XSLTranslator {
 	 * @throws IOException error reading from stream
 	 */
 	public void setTranslation(InputStream transFileStream) throws IOException {
-		// copy xsl into memory for faster translations
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		IOUtils.copy(transFileStream, baos);
-		this.translationString = baos.toString();
+		this.translation = compileTranslation(transFileStream);
+		this.transformers.remove();
 	}
 	
 	/**
@@ -140,6 +181,14 @@ public class XSLTranslator {
 		setTranslation(new FileInputStream(transFile));
 	}
 	
+	/**
+	 * Set the number of threads translating records, translated records are still written in input order
+	 * @param threads the number of threads (less than 1 uses the number of available processors)
+	 */
+	public void setThreads(int threads) {
+		this.threads = (threads < 1) ? Runtime.getRuntime().availableProcessors() : threads;
+	}
+	
 	/**
 	 * checks again for the necessary file and makes sure that they exist
 	 * @throws IOException error processing
@@ -148,27 +197,104 @@ public class XSLTranslator {
 		// get from the in record and translate
 		int translated = 0;
 		int passed = 0;
-		String recordData;
 		
-		for(Record r : this.inStore) {
-			if(this.force || r.needsProcessed(this.getClass())) {
-				log.trace("Translating Record " + r.getID());
-				ByteArrayOutputStream baos = new ByteArrayOutputStream();
-				recordData = (this.cleanXML) ? URLDecoder.decode(r.getData(), "UTF-8") : r.getData();
-				xmlTranslate(new ByteArrayInputStream(recordData.getBytes("UTF-8")), baos, new ByteArrayInputStream(this.translationString.getBytes()));
-				this.outStore.addRecord(r.getID(), baos.toString(), this.getClass());
-				r.setProcessed(this.getClass());
-				baos.close();
-				translated++;
-			} else {
-				log.trace("No Translation Needed: " + r.getID());
-				passed++;
+		// answer the skip-unchanged checks from memory rather than per record metadata lookups
+		if(!this.force) {
+			this.inStore.loadMetaDataIndex();
+		}
+		this.outStore.loadMetaDataIndex();
+		ExecutorService pool = (this.threads > 1) ? Executors.newFixedThreadPool(this.threads) : null;
+		try {
+			// keep a bounded window of records in flight so results are written in order without holding all of them
+			Deque<PendingRecord> window = new ArrayDeque<PendingRecord>();
+			int windowSize = this.threads * 4;
+			for(Record r : this.inStore) {
+				if(this.force || r.needsProcessed(this.getClass())) {
+					log.trace("Translating Record " + r.getID());
+					String recordData = (this.cleanXML) ? URLDecoder.decode(r.getData(), "UTF-8") : r.getData();
+					if(pool == null) {
+						writeRecord(r, translate(recordData));
+					} else {
+						window.addLast(new PendingRecord(r, pool.submit(new TranslateTask(recordData))));
+						if(window.size() >= windowSize) {
+							window.removeFirst().write();
+						}
+					}
+					translated++;
+				} else {
+					log.trace("No Translation Needed: " + r.getID());
+					passed++;
+				}
+			}
+			while(!window.isEmpty()) {
+				window.removeFirst().write();
+			}
+		} finally {
+			if(pool != null) {
+				pool.shutdownNow();
 			}
 		}
 		log.info(Integer.toString(translated) + " records translated.");
 		log.info(Integer.toString(passed) + " records did not need translation");
 	}
 	
+	/**
+	 * Translate a record's data using this thread's transformer
+	 * @param recordData the record data
+	 * @return the translated data
+	 * @throws IOException error translating
+	 */
+	protected String translate(String recordData) throws IOException {
+		Transformer transformer = this.transformers.get();
+		if(transformer == null) {
+			try {
+				transformer = this.translation.newTransformer();
+			} catch(TransformerConfigurationException e) {
+				throw new IOException(e);
+			}
+			this.transformers.set(transformer);
+		}
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		xmlTranslate(new ByteArrayInputStream(recordData.getBytes("UTF-8")), baos, transformer);
+		return baos.toString();
+	}
+	
+	/**
+	 * Write a translated record to the output record handler and mark the input record processed
+	 * @param r the input record
+	 * @param data the translated data
+	 * @throws IOException error writing record
+	 */
+	protected void writeRecord(Record r, String data) throws IOException {
+		this.outStore.addRecord(r.getID(), data, this.getClass());
+		r.setProcessed(this.getClass());
+	}
+	
+	/**
+	 * Compile a stylesheet, reusing the compiled form of a stylesheet with the same content if one is cached
+	 * @param translationStream the stream for the xsl
+	 * @return the compiled stylesheet
+	 * @throws IOException error reading or compiling the xsl
+	 */
+	public static Templates compileTranslation(InputStream translationStream) throws IOException {
+		// copy xsl into memory so it can be hashed and compiled
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		IOUtils.copy(translationStream, baos);
+		byte[] xsl = baos.toByteArray();
+		String key = DigestUtils.md5Hex(xsl);
+		Templates templates = templateCache.get(key);
+		if(templates == null) {
+			try {
+				// the factory pattern supports different XSLT processors
+				templates = TransformerFactory.newInstance("net.sf.saxon.TransformerFactoryImpl", null).newTemplates(new StreamSource(new ByteArrayInputStream(xsl)));
+			} catch(TransformerConfigurationException e) {
+				throw new IOException(e);
+			}
+			templateCache.put(key, templates);
+		}
+		return templates;
+	}
+	
 	/**
 	 * using the javax xml transform factory this method uses the xsl to translate XML into the desired format
 	 * designated in the xsl.
@@ -178,22 +304,102 @@ public class XSLTranslator {
 	 * @throws IOException error translating
 	 */
 	public static void xmlTranslate(InputStream inStream, OutputStream outStream, InputStream translationStream) throws IOException {
+		try {
+			xmlTranslate(inStream, outStream, compileTranslation(translationStream).newTransformer());
+		} catch(TransformerConfigurationException e) {
+			throw new IOException(e);
+		}
+	}
+	
+	/**
+	 * Translate XML into the format designated by a stylesheet using a transformer compiled from it
+	 * @param inStream the input stream
+	 * @param outStream the output stream
+	 * @param transformer the transformer, which must not be in use by another thread
+	 * @throws IOException error translating
+	 */
+	public static void xmlTranslate(InputStream inStream, OutputStream outStream, Transformer transformer) throws IOException {
 		StreamResult outputResult = new StreamResult(outStream);
 		// JAXP reads data using the Source interface
 		Source xmlSource = new StreamSource(inStream);
-		Source xslSource = new StreamSource(translationStream);
 		try {
-			// the factory pattern supports different XSLT processors
 			// this outputs to outStream (through outputResult)
-			TransformerFactory.newInstance("net.sf.saxon.TransformerFactoryImpl", null).newTransformer(xslSource).transform(xmlSource, outputResult);
-		} catch(TransformerConfigurationException e) {
-			throw new IOException(e);
+			transformer.transform(xmlSource, outputResult);
 		} catch(TransformerException e) {
 			throw new IOException(e);
+		} finally {
+			transformer.reset();
 		}
 		outStream.flush();
 	}
 	
+	/**
+	 * Translates one record's data on a worker thread
+	 */
+	private class TranslateTask implements Callable<String> {
+		/**
+		 * the record data
+		 */
+		private final String recordData;
+		
+		/**
+		 * Constructor
+		 * @param recordData the record data
+		 */
+		protected TranslateTask(String recordData) {
+			this.recordData = recordData;
+		}
+		
+		@Override
+		public String call() throws IOException {
+			return translate(this.recordData);
+		}
+	}
+	
+	/**
+	 * A record whose translation was submitted to the pool
+	 */
+	private class PendingRecord {
+		/**
+		 * the input record
+		 */
+		private final Record record;
+		/**
+		 * the translated data
+		 */
+		private final Future<String> result;
+		
+		/**
+		 * Constructor
+		 * @param record the input record
+		 * @param result the translated data
+		 */
+		protected PendingRecord(Record record, Future<String> result) {
+			this.record = record;
+			this.result = result;
+		}
+		
+		/**
+		 * Wait for the translation and write it
+		 * @throws IOException error translating or writing record
+		 */
+		protected void write() throws IOException {
+			String data;
+			try {
+				data = this.result.get();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted translating record " + this.record.getID(), e);
+			} catch(ExecutionException e) {
+				if(e.getCause() instanceof IOException) {
+					throw (IOException)e.getCause();
+				}
+				throw new IOException("Error translating record " + this.record.getID(), e.getCause());
+			}
+			writeRecord(this.record, data);
+		}
+	}
+	
 	/**
 	 * Get the ArgParser for this task
 	 * @return the ArgParser
@@ -207,6 +413,7 @@ public class XSLTranslator {
 		parser.addArgument(new ArgDef().setShortOption('x').setLongOpt("xslFile").withParameter(true, "XSL_FILE").setDescription("xsl file").setRequired(true));
 		parser.addArgument(new ArgDef().setShortOption('f').setLongOpt("force").setDescription("force translation of all input records, even if previously processed").setRequired(false));
 		parser.addArgument(new ArgDef().setShortOption('c').setLongOpt("cleanXML").setDescription("Decode and sanitize XML").setRequired(false));
+		parser.addArgument(new ArgDef().setLongOpt("threads").withParameter(true, "THREADS").setDescription("number of threads translating records, 0 for the number of processors - default 1").setRequired(false));
 		return parser;
 	}
 	
@@ -10,6 +10,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -52,6 +53,10 @@ public class CSVtoJDBC {
 	private List<String> fieldNames;
 	
 	private String append;
+	/**
+	 * number of rows inserted in each batch
+	 */
+	private int batchSize = 1000;
 	
 	/**
      * Library style initialyzer
@@ -123,6 +128,9 @@ public class CSVtoJDBC {
 	 */
 	private CSVtoJDBC(ArgList argList) throws IOException {
 		this(argList.get("i"), argList.get("d"), argList.get("c"), argList.get("u"), argList.get("p"), argList.get("t"));
+		if(argList.has("batchSize")) {
+			setBatchSize(Integer.parseInt(argList.get("batchSize")));
+		}
 	}
 	
 	/**
@@ -146,78 +154,96 @@ public class CSVtoJDBC {
 	}
 	
 	/**
-     * Move CSV data into a recordHandler
-     * @throws IOException error reading from database or file
-     */
-    public void execute() throws IOException {
-    	String data = new String();
-    	StringBuilder insertCommand = null;
-        try {
-            Csv csv = Csv.getInstance();
-            ResultSet rs = csv.read(new InputStreamReader(this.csvStream), null);
-            ResultSetMetaData meta = rs.getMetaData();
-            Statement cursor = this.output.createStatement();
-            
-            
-            int rowID = 0;
+	 * Set the number of rows inserted and committed in each batch
+	 * @param batchSize the number of rows
+	 */
+	public void setBatchSize(int batchSize) {
+		if(batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be at least 1");
+		}
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * Move CSV data into a database table, reading one row at a time and inserting the rows in batches
+	 * @throws IOException error reading from database or file
+	 */
+	public void execute() throws IOException {
+		try {
+			Csv csv = Csv.getInstance();
+			ResultSet rs = csv.read(new InputStreamReader(this.csvStream), null);
+			try {
+				ResultSetMetaData meta = rs.getMetaData();
+				int columnCount = meta.getColumnCount();
             
-            StringBuilder createTable = new StringBuilder("CREATE TABLE ");
-            createTable.append(this.tableName);
-            createTable.append("( ROWID int NOT NULL, ");
-            this.fieldNames.add("ROWID");
-            StringBuilder columnNames = new StringBuilder("( ROWID, ");
-            for(int i = 0; i < meta.getColumnCount(); i++) {
-                String colLbl = meta.getColumnLabel(i + 1).replace(' ','_');
-                colLbl = colLbl.replace('-','_'); // replace invalid - char
-                createTable.append("\n");
-                createTable.append( colLbl);
-                this.fieldNames.add( colLbl);
-                createTable.append((i == (meta.getColumnCount() - 1)) ? " TEXT )" : " TEXT ,");
+				StringBuilder createTable = new StringBuilder("CREATE TABLE ");
+				createTable.append(this.tableName);
+				createTable.append("( ROWID int NOT NULL, ");
+				this.fieldNames.add("ROWID");
+				StringBuilder columnNames = new StringBuilder("( ROWID, ");
+				StringBuilder values = new StringBuilder("VALUES (?");
+				for(int i = 0; i < columnCount; i++) {
+					String colLbl = meta.getColumnLabel(i + 1).replace(' ','_');
+					colLbl = colLbl.replace('-','_'); // replace invalid - char
+					createTable.append("\n");
+					createTable.append(colLbl);
+					this.fieldNames.add(colLbl);
+					createTable.append((i == (columnCount - 1)) ? " TEXT )" : " TEXT ,");
 
-                columnNames.append(colLbl);
-                columnNames.append((i == (meta.getColumnCount() - 1)) ? " )" : ", ");
-            }
+					columnNames.append(colLbl);
+					columnNames.append((i == (columnCount - 1)) ? " )" : ", ");
+					values.append(", ?");
+				}
+				values.append(")");
 	            
-	        //if (this.append.equals("false")) {    
-	            log.trace("Create table command: \n" + createTable.toString());
-	            cursor.execute(createTable.toString());
-	            cursor.execute("ALTER TABLE "+this.tableName+" ADD PRIMARY KEY (ROWID)");
-            //}
+				Statement cursor = this.output.createStatement();
+				try {
+					//if (this.append.equals("false")) {    
+					log.trace("Create table command: \n" + createTable.toString());
+					cursor.execute(createTable.toString());
+					cursor.execute("ALTER TABLE "+this.tableName+" ADD PRIMARY KEY (ROWID)");
+					//}
+				} finally {
+					cursor.close();
+				}
             
-            while(rs.next()) {
-
-                insertCommand = new StringBuilder("INSERT INTO ");
-                insertCommand.append(this.tableName);
-                insertCommand.append(" ");
-                insertCommand.append(columnNames.toString());
-                insertCommand.append("\nVALUES (");
-                insertCommand.append(rowID);
-                insertCommand.append(", '");
-                for(int i = 0; i < meta.getColumnCount(); i++) {
-                    data = rs.getString(i + 1);
-                    if (data != null) {
-                       insertCommand.append(data.replaceAll("'", "''"));
-                    } else {
-                    	insertCommand.append("");	
-                    }
-                    insertCommand.append((i == (meta.getColumnCount() - 1)) ? "')" : "', '");
-                }
-                log.trace("Insert command: \n" + insertCommand.toString());
-                cursor.executeUpdate(insertCommand.toString());
-                rowID++;
-            }
-            log.info("Records imported: "+ rowID);
-        } catch(FileSystemException e) {
-            throw new IOException(e);
-        } catch(SQLException e) {        	 
-            throw new IOException(e);
-        } catch (NullPointerException e) {
-        	System.err.println("NPE execption reading data");
-        	System.err.println("Insert Command: "+ insertCommand.toString());
-        	 
-        }
-    } 
-
+				String insertCommand = "INSERT INTO " + this.tableName + " " + columnNames.toString() + "\n" + values.toString();
+				log.trace("Insert command: \n" + insertCommand);
+				boolean autoCommit = this.output.getAutoCommit();
+				this.output.setAutoCommit(false);
+				PreparedStatement insert = this.output.prepareStatement(insertCommand);
+				int rowID = 0;
+				try {
+					while(rs.next()) {
+						insert.setInt(1, rowID);
+						for(int i = 1; i <= columnCount; i++) {
+							String data = rs.getString(i);
+							insert.setString(i + 1, (data != null) ? data : "");
+						}
+						insert.addBatch();
+						rowID++;
+						if((rowID % this.batchSize) == 0) {
+							insert.executeBatch();
+							this.output.commit();
+							log.debug("Records imported: " + rowID);
+						}
+					}
+					insert.executeBatch();
+					this.output.commit();
+				} finally {
+					insert.close();
+					this.output.setAutoCommit(autoCommit);
+				}
+				log.info("Records imported: "+ rowID);
+			} finally {
+				rs.close();
+			}
+		} catch(FileSystemException e) {
+			throw new IOException(e);
+		} catch(SQLException e) {
+			throw new IOException(e);
+		}
+	}
 	
 	/**
 	 * Returns the list of fields from the recent CSV
@@ -240,6 +266,7 @@ public class CSVtoJDBC {
 		parser.addArgument(new ArgDef().setShortOption('u').setLongOpt("username").withParameter(true, "USERNAME").setDescription("database username for output database").setRequired(true));
 		parser.addArgument(new ArgDef().setShortOption('p').setLongOpt("password").withParameter(true, "PASSWORD").setDescription("database password for output database").setRequired(true));
 		parser.addArgument(new ArgDef().setShortOption('t').setLongOpt("tableName").withParameter(true, "TABLE_NAME").setDescription("a single database table name").setRequired(true));
+		parser.addArgument(new ArgDef().setLongOpt("batchSize").withParameter(true, "ROWS").setDescription("insert ROWS rows in each batch, committing after each batch (default 1000)").setRequired(false));
 		
 		return parser;
 	}
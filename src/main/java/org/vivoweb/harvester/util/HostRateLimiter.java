@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.util;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Spaces out requests to each host so no host receives more than a set number of requests per second, no matter how
+ * many threads are making requests
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class HostRateLimiter {
+	/**
+	 * minimum time between the start of two requests to the same host in nanoseconds
+	 */
+	private final long intervalNanos;
+	/**
+	 * earliest time the next request to each host may start, in System.nanoTime() units
+	 */
+	private final Map<String, Long> nextSlots;
+	
+	/**
+	 * Constructor
+	 * @param requestsPerSecond maximum requests per second to each host (0 or less for no limit)
+	 */
+	public HostRateLimiter(double requestsPerSecond) {
+		this.intervalNanos = (requestsPerSecond > 0) ? (long)(1000000000L / requestsPerSecond) : 0;
+		this.nextSlots = new HashMap<String, Long>();
+	}
+	
+	/**
+	 * Wait until a request to the host of the given url may start
+	 * @param url the url about to be requested
+	 * @throws InterruptedException interrupted while waiting
+	 */
+	public void acquire(String url) throws InterruptedException {
+		if(this.intervalNanos == 0) {
+			return;
+		}
+		String host = getHost(url);
+		long now = System.nanoTime();
+		long slot;
+		synchronized(this.nextSlots) {
+			Long next = this.nextSlots.get(host);
+			slot = ((next == null) || (next.longValue() < now)) ? now : next.longValue();
+			this.nextSlots.put(host, Long.valueOf(slot + this.intervalNanos));
+		}
+		long wait = slot - now;
+		if(wait > 0) {
+			Thread.sleep(wait / 1000000L, (int)(wait % 1000000L));
+		}
+	}
+	
+	/**
+	 * Get the host of a url
+	 * @param url the url
+	 * @return the host, or the url itself if it has none
+	 */
+	private static String getHost(String url) {
+		try {
+			String host = URI.create(url).getHost();
+			return (host == null) ? url : host.toLowerCase();
+		} catch(IllegalArgumentException e) {
+			return url;
+		}
+	}
+}
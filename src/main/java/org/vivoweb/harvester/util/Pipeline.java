@@ -0,0 +1,380 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.util;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vivoweb.harvester.util.args.ArgDef;
+import org.vivoweb.harvester.util.args.ArgList;
+import org.vivoweb.harvester.util.args.ArgParser;
+import org.vivoweb.harvester.util.args.UsageException;
+import org.vivoweb.harvester.util.repo.JenaConnect;
+import org.vivoweb.harvester.util.repo.RecordHandler;
+
+/**
+ * Runs the steps of a harvest one after another in a single jvm. Each step is a tool followed by its arguments, just as
+ * it would be given to the harvester-* scripts, such as "Score -X score-people.config.xml". The jena models and record
+ * handlers opened from config files are shared between steps rather than reopened by each one, any other named memory
+ * model a step opened is dropped when it finishes, and the time each step takes is logged. Tools are stopped from
+ * exiting the jvm while a step runs: a step whose tool exits with status 0 is finished, and a step whose tool exits
+ * with any other status or throws fails the run.
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class Pipeline {
+	/**
+	 * SLF4J Logger
+	 */
+	private static Logger log = LoggerFactory.getLogger(Pipeline.class);
+	/**
+	 * packages searched for tools given by class name alone
+	 */
+	private static final String[] toolPackages = {
+		"org.vivoweb.harvester.fetch",
+		"org.vivoweb.harvester.fetch.nih",
+		"org.vivoweb.harvester.fetch.linkeddata",
+		"org.vivoweb.harvester.translate",
+		"org.vivoweb.harvester.transfer",
+		"org.vivoweb.harvester.score",
+		"org.vivoweb.harvester.qualify",
+		"org.vivoweb.harvester.diff",
+		"org.vivoweb.harvester.services",
+		"org.vivoweb.harvester.util",
+		"org.vivoweb.harvester.util.repo"
+	};
+	/**
+	 * the steps to run, each a tool followed by its arguments
+	 */
+	private List<String> steps;
+	
+	/**
+	 * Constructor
+	 * @param steps the steps to run, each a tool followed by its arguments
+	 */
+	public Pipeline(List<String> steps) {
+		if((steps == null) || steps.isEmpty()) {
+			throw new IllegalArgumentException("Must provide at least one step");
+		}
+		this.steps = steps;
+	}
+	
+	/**
+	 * Constructor
+	 * @param args commandline arguments
+	 * @throws IOException error parsing options
+	 * @throws UsageException user requested usage message
+	 */
+	private Pipeline(String... args) throws IOException, UsageException {
+		this(getParser().parse(args));
+	}
+	
+	/**
+	 * Constructor
+	 * @param argList parsed argument list
+	 */
+	private Pipeline(ArgList argList) {
+		this(argList.getAll("s"));
+	}
+	
+	/**
+	 * Get the ArgParser for this task
+	 * @return the ArgParser
+	 */
+	private static ArgParser getParser() {
+		ArgParser parser = new ArgParser("Pipeline");
+		parser.addArgument(new ArgDef().setShortOption('s').setLongOpt("step").withParameters(true, "STEP").setDescription("run STEP, a tool name or class followed by its arguments, such as \"Score -X score-people.config.xml\"; steps are run in the order given").setRequired(true));
+		return parser;
+	}
+	
+	/**
+	 * Find the main method of a tool
+	 * @param tool the tool class, either fully qualified or the name of a class in one of the harvester packages
+	 * @return the main method
+	 */
+	private static Method findTool(String tool) {
+		List<String> classNames = new ArrayList<String>();
+		if(tool.indexOf('.') != -1) {
+			classNames.add(tool);
+		} else {
+			for(String pkg : toolPackages) {
+				classNames.add(pkg + "." + tool);
+			}
+		}
+		for(String className : classNames) {
+			Class<?> toolClass;
+			try {
+				toolClass = Class.forName(className);
+			} catch(ClassNotFoundException e) {
+				continue;
+			}
+			try {
+				Method main = toolClass.getMethod("main", String[].class);
+				if(Modifier.isStatic(main.getModifiers())) {
+					return main;
+				}
+			} catch(NoSuchMethodException e) {
+				// fall through
+			}
+			throw new IllegalArgumentException("Tool has no main method: " + className);
+		}
+		throw new IllegalArgumentException("Unknown tool: " + tool);
+	}
+	
+	/**
+	 * Split a step into the tool and its arguments on whitespace, keeping quoted text together
+	 * @param step the step
+	 * @return the tool followed by its arguments
+	 */
+	private static List<String> splitStep(String step) {
+		List<String> parts = new ArrayList<String>();
+		StringBuilder part = null;
+		char quote = 0;
+		for(int x = 0; x < step.length(); x++) {
+			char c = step.charAt(x);
+			if(quote != 0) {
+				if(c == quote) {
+					quote = 0;
+				} else {
+					part.append(c);
+				}
+			} else if(Character.isWhitespace(c)) {
+				if(part != null) {
+					parts.add(part.toString());
+					part = null;
+				}
+			} else {
+				if(part == null) {
+					part = new StringBuilder();
+				}
+				if((c == '"') || (c == '\'')) {
+					quote = c;
+				} else {
+					part.append(c);
+				}
+			}
+		}
+		if(quote != 0) {
+			throw new IllegalArgumentException("Unbalanced quotes in step: " + step);
+		}
+		if(part != null) {
+			parts.add(part.toString());
+		}
+		if(parts.isEmpty()) {
+			throw new IllegalArgumentException("Empty step");
+		}
+		return parts;
+	}
+	
+	/**
+	 * Thrown in place of exiting the jvm while a step runs
+	 */
+	private static class StepExit extends SecurityException {
+		/**
+		 * Constructor
+		 * @param status the exit status the tool gave
+		 */
+		protected StepExit(int status) {
+			super("Tool exited with status " + status);
+		}
+	}
+	
+	/**
+	 * Stops the tools run by the steps from exiting the jvm, recording the exit status instead
+	 */
+	private static class ExitTrap extends SecurityManager {
+		/**
+		 * the security manager in place before this one, null if none
+		 */
+		protected final SecurityManager previous;
+		/**
+		 * the status of the first exit attempted during the current step, null if none
+		 */
+		private Integer status;
+		
+		/**
+		 * Constructor
+		 * @param previous the security manager in place before this one, null if none
+		 */
+		protected ExitTrap(SecurityManager previous) {
+			this.previous = previous;
+		}
+		
+		/**
+		 * Forget the exit of the previous step
+		 */
+		protected synchronized void reset() {
+			this.status = null;
+		}
+		
+		/**
+		 * Get the status of the first exit attempted during the current step
+		 * @return the status, null if no exit was attempted
+		 */
+		protected synchronized Integer getStatus() {
+			return this.status;
+		}
+		
+		@Override
+		public synchronized void checkExit(int exitStatus) {
+			// a tool that catches the first exit may try again with another status, the first one is its result
+			if(this.status == null) {
+				this.status = Integer.valueOf(exitStatus);
+			}
+			throw new StepExit(exitStatus);
+		}
+		
+		@Override
+		public void checkPermission(Permission perm) {
+			if(this.previous != null) {
+				this.previous.checkPermission(perm);
+			}
+		}
+		
+		@Override
+		public void checkPermission(Permission perm, Object context) {
+			if(this.previous != null) {
+				this.previous.checkPermission(perm, context);
+			}
+		}
+	}
+	
+	/**
+	 * Stop the tools from exiting the jvm
+	 * @return the trap, null if the jvm does not allow it
+	 */
+	private static ExitTrap setExitTrap() {
+		ExitTrap trap = new ExitTrap(System.getSecurityManager());
+		try {
+			System.setSecurityManager(trap);
+		} catch(UnsupportedOperationException e) {
+			log.warn("Unable to stop tools from exiting, a tool that exits will end the run: " + e.getMessage());
+			return null;
+		} catch(SecurityException e) {
+			log.warn("Unable to stop tools from exiting, a tool that exits will end the run: " + e.getMessage());
+			return null;
+		}
+		return trap;
+	}
+	
+	/**
+	 * Run each step in order
+	 * @throws IOException error running a step
+	 */
+	public void execute() throws IOException {
+		// resolve every tool up front so a typo in the last step is found before the first one runs
+		List<Method> tools = new ArrayList<Method>();
+		List<String[]> toolArgs = new ArrayList<String[]>();
+		for(String step : this.steps) {
+			List<String> parts = splitStep(step);
+			tools.add(findTool(parts.get(0)));
+			toolArgs.add(parts.subList(1, parts.size()).toArray(new String[parts.size() - 1]));
+		}
+		int count = this.steps.size();
+		long[] times = new long[count];
+		String processTask = System.getProperty("process-task");
+		JenaConnect.setShareInstances(true);
+		RecordHandler.setShareInstances(true);
+		ExitTrap trap = setExitTrap();
+		try {
+			for(int x = 0; x < count; x++) {
+				Method main = tools.get(x);
+				log.info("Step " + (x + 1) + "/" + count + ": " + this.steps.get(x));
+				System.setProperty("process-task", main.getDeclaringClass().getSimpleName());
+				long start = System.currentTimeMillis();
+				if(trap != null) {
+					trap.reset();
+				}
+				Throwable error = null;
+				try {
+					main.invoke(null, (Object)toolArgs.get(x));
+				} catch(IllegalAccessException e) {
+					throw new IOException("Unable to run step: " + this.steps.get(x), e);
+				} catch(InvocationTargetException e) {
+					error = e.getCause();
+				}
+				Integer status = (trap != null) ? trap.getStatus() : null;
+				if(status != null) {
+					if(status.intValue() != 0) {
+						throw new IOException("Step failed with exit status " + status + ": " + this.steps.get(x));
+					}
+				} else if(error != null) {
+					throw new IOException("Step failed: " + this.steps.get(x), error);
+				}
+				// drop the named memory models the step left open, other than the ones opened from a config
+				JenaConnect.releaseUnsharedModels();
+				times[x] = System.currentTimeMillis() - start;
+				log.info("Step " + (x + 1) + "/" + count + " finished in " + formatTime(times[x]));
+			}
+		} finally {
+			if(trap != null) {
+				System.setSecurityManager(trap.previous);
+			}
+			if(processTask != null) {
+				System.setProperty("process-task", processTask);
+			} else {
+				System.clearProperty("process-task");
+			}
+			JenaConnect.closeSharedInstances();
+			RecordHandler.closeSharedInstances();
+		}
+		long total = 0;
+		for(long time : times) {
+			total += time;
+		}
+		log.info("Step timings:");
+		for(int x = 0; x < count; x++) {
+			float percent = (total == 0) ? 0f : (Math.round(10000f * times[x] / total) / 100f);
+			log.info("  " + formatTime(times[x]) + " (" + percent + "%): " + this.steps.get(x));
+		}
+		log.info("Total: " + formatTime(total));
+	}
+	
+	/**
+	 * Format a duration for the log
+	 * @param millis the duration in milliseconds
+	 * @return the formatted duration
+	 */
+	private static String formatTime(long millis) {
+		return (millis / 1000) + "." + String.format("%03d", Long.valueOf(millis % 1000)) + "s";
+	}
+	
+	/**
+	 * Main method
+	 * @param args commandline arguments
+	 */
+	public static void main(String... args) {
+		Exception error = null;
+		try {
+			InitLog.initLogger(args, getParser());
+			log.info(getParser().getAppName() + ": Start");
+			new Pipeline(args).execute();
+		} catch(IllegalArgumentException e) {
+			log.error(e.getMessage());
+			log.debug("Stacktrace:",e);
+			System.out.println(getParser().getUsage());
+			error = e;
+		} catch(UsageException e) {
+			log.info("Printing Usage:");
+			System.out.println(getParser().getUsage());
+			error = e;
+		} catch(Exception e) {
+			log.error(e.getMessage());
+			log.debug("Stacktrace:",e);
+			error = e;
+		} finally {
+			log.info(getParser().getAppName() + ": End");
+			if(error != null) {
+				System.exit(1);
+			}
+		}
+	}
+}
@@ -5,14 +5,12 @@
  ******************************************************************************/
 package org.vivoweb.harvester.util;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * @author Christopher Haines (hainesc@ctrip.ufl.edu)
@@ -38,12 +36,36 @@ public class SpecialEntities {
 	 * list of accepted characters
 	 */
 	private static List<Character> acceptedChars = null;
+	/**
+	 * accepted characters by character code
+	 */
+	private static final boolean[] acceptedTable = buildAcceptedTable();
+	/**
+	 * html entity by character code
+	 */
+	private static final String[] htmlEntityTable = buildEntityTable(getHtmlEncode());
+	/**
+	 * xml entity by character code
+	 */
+	private static final String[] xmlEntityTable = buildEntityTable(getXmlEncode());
+	/**
+	 * decoded text of each html entity
+	 */
+	private static final Map<String, String> htmlDecodeTable = buildDecodeTable(getHtmlDecode());
+	/**
+	 * decoded text of each xml entity
+	 */
+	private static final Map<String, String> xmlDecodeTable = buildDecodeTable(getXmlDecode());
+	/**
+	 * length of the longest entity that can be decoded
+	 */
+	private static final int maxEntityLength = buildMaxEntityLength();
 	
 	/**
 	 * Gets the html encode mapping
 	 * @return html encode mapping
 	 */
-	private static Map<String, String> getHtmlEncode() {
+	private static synchronized Map<String, String> getHtmlEncode() {
 		if(htmlEncode == null) {
 			htmlEncode = new HashMap<String, String>();
 			htmlEncode.put("&#32;", "&nbsp;");
@@ -308,7 +330,7 @@ public class SpecialEntities {
 	 * Gets the html decode mapping
 	 * @return html decode mapping
 	 */
-	private static Map<String, String> getHtmlDecode() {
+	private static synchronized Map<String, String> getHtmlDecode() {
 		if(htmlDecode == null) {
 			htmlDecode = new HashMap<String, String>();
 			for(String ch : getHtmlEncode().keySet()) {
@@ -322,7 +344,7 @@ public class SpecialEntities {
 	 * Gets the xml encode mapping
 	 * @return xml encode mapping
 	 */
-	private static Map<String, String> getXmlEncode() {
+	private static synchronized Map<String, String> getXmlEncode() {
 		if(xmlEncode == null) {
 			xmlEncode = new HashMap<String, String>();
 			xmlEncode.put("&#32;", "&nbsp;");
@@ -339,7 +361,7 @@ public class SpecialEntities {
 	 * Gets the xml decode mapping
 	 * @return xml decode mapping
 	 */
-	private static Map<String, String> getXmlDecode() {
+	private static synchronized Map<String, String> getXmlDecode() {
 		if(xmlDecode == null) {
 			xmlDecode = new HashMap<String, String>();
 			for(String ch : getXmlEncode().keySet()) {
@@ -353,7 +375,7 @@ public class SpecialEntities {
 	 * Gets the list of accepted characters
 	 * @return the character list
 	 */
-	private static List<Character> getAcceptedChars() {
+	private static synchronized List<Character> getAcceptedChars() {
 		if(acceptedChars == null) {
 			acceptedChars = new LinkedList<Character>();
 			acceptedChars.add(Character.valueOf('a'));
@@ -454,6 +476,73 @@ public class SpecialEntities {
 		return acceptedChars;
 	}
 	
+	/**
+	 * Build the table of accepted characters
+	 * @return true at the code of each accepted character
+	 */
+	private static boolean[] buildAcceptedTable() {
+		boolean[] table = new boolean[128];
+		for(Character ch : getAcceptedChars()) {
+			table[ch.charValue()] = true;
+		}
+		return table;
+	}
+	
+	/**
+	 * Build the table of named entities from an encode mapping
+	 * @param encodeMap the encode mapping
+	 * @return the entity at the code of each character that has one
+	 */
+	private static String[] buildEntityTable(Map<String, String> encodeMap) {
+		int max = 0;
+		for(String code : encodeMap.keySet()) {
+			max = Math.max(max, parseCharCode(code));
+		}
+		String[] table = new String[max + 1];
+		for(Map.Entry<String, String> entity : encodeMap.entrySet()) {
+			table[parseCharCode(entity.getKey())] = entity.getValue();
+		}
+		return table;
+	}
+	
+	/**
+	 * Build the mapping of named entity to decoded text from a decode mapping
+	 * @param decodeMap the decode mapping
+	 * @return the decoded text of each named entity
+	 */
+	private static Map<String, String> buildDecodeTable(Map<String, String> decodeMap) {
+		Map<String, String> table = new HashMap<String, String>();
+		for(Map.Entry<String, String> entity : decodeMap.entrySet()) {
+			table.put(entity.getKey(), new String(Character.toChars(parseCharCode(entity.getValue()))));
+		}
+		return table;
+	}
+	
+	/**
+	 * Get the character code of a numeric entity
+	 * @param code the entity, such as &amp;#38;
+	 * @return the character code
+	 */
+	private static int parseCharCode(String code) {
+		return Integer.parseInt(code.substring(2, code.length() - 1));
+	}
+	
+	/**
+	 * Get the length of the longest entity that can be decoded
+	 * @return the length, including the &amp; and ;
+	 */
+	private static int buildMaxEntityLength() {
+		// &#1114111; is the longest numeric entity
+		int max = 10;
+		for(String entity : getHtmlDecode().keySet()) {
+			max = Math.max(max, entity.length());
+		}
+		for(String entity : getXmlDecode().keySet()) {
+			max = Math.max(max, entity.length());
+		}
+		return max;
+	}
+	
 	/**
 	 * Converts all special characters to HTML-entities
 	 * @param s input string
@@ -464,6 +553,19 @@ public class SpecialEntities {
 		return encode(s, "html", exceptions);
 	}
 	
+	/**
+	 * Converts all special characters to HTML-entities, writing the result to a writer
+	 * @param s input string
+	 * @param out the writer
+	 * @param exceptions force these characters to be encoded
+	 * @throws IOException error writing
+	 */
+	public static void htmlEncode(String s, Writer out, char... exceptions) throws IOException {
+		if(s != null) {
+			encode(s, 0, getEntityTable("html"), exceptions, out);
+		}
+	}
+	
 	/**
 	 * Converts all HTML-special-character-entities to special characters
 	 * @param s input string
@@ -483,6 +585,19 @@ public class SpecialEntities {
 		return encode(s, "xml", exceptions);
 	}
 	
+	/**
+	 * Converts all special characters to XML-entities, writing the result to a writer
+	 * @param s input string
+	 * @param out the writer
+	 * @param exceptions force these characters to be encoded
+	 * @throws IOException error writing
+	 */
+	public static void xmlEncode(String s, Writer out, char... exceptions) throws IOException {
+		if(s != null) {
+			encode(s, 0, getEntityTable("xml"), exceptions, out);
+		}
+	}
+	
 	/**
 	 * Converts all XML-special-character-entities to special characters
 	 * @param s input string
@@ -492,6 +607,38 @@ public class SpecialEntities {
 		return decode(s, "xml");
 	}
 	
+	/**
+	 * Get the entity table for a type of encoding
+	 * @param encodeType the type of encoding
+	 * @return the entity table
+	 */
+	private static String[] getEntityTable(String encodeType) {
+		if(encodeType.equalsIgnoreCase("html")) {
+			return htmlEntityTable;
+		} else if(encodeType.equalsIgnoreCase("xml")) {
+			return xmlEntityTable;
+		}
+		throw new IllegalArgumentException("encodeType must be xml or html only");
+	}
+	
+	/**
+	 * Is a character passed through unencoded
+	 * @param ch the character
+	 * @param exceptions force these characters to be encoded
+	 * @return true if the character is accepted and not an exception
+	 */
+	private static boolean isAccepted(char ch, char[] exceptions) {
+		if((ch >= acceptedTable.length) || !acceptedTable[ch]) {
+			return false;
+		}
+		for(char c : exceptions) {
+			if(c == ch) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
 	/**
 	 * Converts all special characters to encoded-entities
 	 * @param s input string
@@ -500,51 +647,71 @@ public class SpecialEntities {
 	 * @return encoded string
 	 */
 	private static String encode(String s, String encodeType, char... exceptions) {
+		String[] entities = getEntityTable(encodeType);
 		if(s == null){
 			return null;
 		}
-		Map<String, String> encodeMap;
-		List<Character> accept = new LinkedList<Character>(getAcceptedChars());
-		for(char c : exceptions) {
-			accept.remove(Character.valueOf(c));
+		int first = 0;
+		while((first < s.length()) && isAccepted(s.charAt(first), exceptions)) {
+			first++;
 		}
-		if(encodeType.equalsIgnoreCase("html")) {
-			encodeMap = getHtmlEncode();
-		} else if(encodeType.equalsIgnoreCase("xml")) {
-			encodeMap = getXmlEncode();
-		} else {
-			throw new IllegalArgumentException("encodeType must be xml or html only");
+		if(first == s.length()) {
+			return s;
 		}
-		StringBuilder b = new StringBuilder(s.length());
-		for(int i = 0; i < s.length(); i++) {
+		StringBuilder b = new StringBuilder(s.length() + 16);
+		b.append(s, 0, first);
+		try {
+			encode(s, first, entities, exceptions, b);
+		} catch(IOException e) {
+			// StringBuilder does not throw IOException
+			throw new IllegalStateException(e);
+		}
+		return b.toString();
+	}
+	
+	/**
+	 * Converts all special characters to encoded-entities
+	 * @param s input string
+	 * @param start the index to start at
+	 * @param entities the entity table
+	 * @param exceptions force these characters to be encoded
+	 * @param out receives the encoded string
+	 * @throws IOException error writing
+	 */
+	private static void encode(String s, int start, String[] entities, char[] exceptions, Appendable out) throws IOException {
+		for(int i = start; i < s.length(); i++) {
 			char ch = s.charAt(i);
-			if(accept.contains(Character.valueOf(ch))) {
-				b.append(ch);
-			} else {
-				StringBuilder b2 = new StringBuilder();
-				if(Character.isISOControl(ch)) {
-					// ignore
-				} else if(Character.isWhitespace(ch)) {
-					b2.append("&#").append((int)ch).append(";");
-				} else if(Character.isHighSurrogate(ch)) {
-					int codePoint;
-					if((i + 1 < s.length()) && Character.isSurrogatePair(ch, s.charAt(i + 1)) && Character.isDefined(codePoint = (Character.toCodePoint(ch, s.charAt(i + 1))))) {
-						b2.append("&#").append(codePoint).append(";");
-					}
-					i++;
-				} else if(Character.isLowSurrogate(ch)) {
-					i++;
-				} else if(Character.isDefined(ch)) {
-					b2.append("&#").append((int)ch).append(";");
-				}
-				if(encodeMap.containsKey(b2.toString())) {
-					b.append(encodeMap.get(b2.toString()));
-				} else {
-					b.append(b2.toString());
+			if(isAccepted(ch, exceptions)) {
+				out.append(ch);
+			} else if(Character.isISOControl(ch)) {
+				// ignore
+			} else if(Character.isHighSurrogate(ch)) {
+				int codePoint;
+				if((i + 1 < s.length()) && Character.isSurrogatePair(ch, s.charAt(i + 1)) && Character.isDefined(codePoint = (Character.toCodePoint(ch, s.charAt(i + 1))))) {
+					appendEntity(codePoint, entities, out);
 				}
+				i++;
+			} else if(Character.isLowSurrogate(ch)) {
+				i++;
+			} else if(Character.isWhitespace(ch) || Character.isDefined(ch)) {
+				appendEntity(ch, entities, out);
 			}
 		}
-		return b.toString();
+	}
+	
+	/**
+	 * Write the entity for a character, named if it has one and numeric otherwise
+	 * @param codePoint the character
+	 * @param entities the entity table
+	 * @param out receives the entity
+	 * @throws IOException error writing
+	 */
+	private static void appendEntity(int codePoint, String[] entities, Appendable out) throws IOException {
+		if((codePoint < entities.length) && (entities[codePoint] != null)) {
+			out.append(entities[codePoint]);
+		} else {
+			out.append("&#").append(Integer.toString(codePoint)).append(';');
+		}
 	}
 	
 	/**
@@ -556,33 +723,73 @@ public class SpecialEntities {
 	private static String decode(String s, String decodeType) {
 		Map<String, String> decodeMap;
 		if(decodeType.equalsIgnoreCase("html")) {
-			decodeMap = getHtmlDecode();
+			decodeMap = htmlDecodeTable;
 		} else if(decodeType.equalsIgnoreCase("xml")) {
-			decodeMap = getXmlDecode();
+			decodeMap = xmlDecodeTable;
 		} else {
 			throw new IllegalArgumentException("decodeType must be xml or html only");
 		}
-		String str = s;
-		for(String htmlEntity : decodeMap.keySet()) {
-			str = str.replaceAll(htmlEntity, decodeMap.get(htmlEntity));
+		if((s == null) || (s.indexOf('&') < 0)) {
+			return s;
 		}
-		Matcher m = Pattern.compile("&#(.*?);").matcher(str);
-		Set<String> charCodes = new HashSet<String>();
-		while(m.find()) {
-			charCodes.add(m.group(1));
+		StringBuilder b = new StringBuilder(s.length());
+		int copied = 0;
+		int amp = s.indexOf('&');
+		while(amp >= 0) {
+			String decoded = null;
+			int end = Math.min(s.length(), amp + maxEntityLength);
+			int semi = amp + 1;
+			while((semi < end) && (s.charAt(semi) != ';') && (s.charAt(semi) != '&')) {
+				semi++;
+			}
+			if((semi < end) && (s.charAt(semi) == ';')) {
+				decoded = decodeEntity(s, amp, semi, decodeMap);
+			}
+			if(decoded != null) {
+				b.append(s, copied, amp);
+				b.append(decoded);
+				copied = semi + 1;
+				amp = s.indexOf('&', copied);
+			} else {
+				amp = s.indexOf('&', amp + 1);
+			}
 		}
-		for(String ch : charCodes) {
-			int charCode = Integer.parseInt(ch);
-			if(Character.isDefined((char)charCode)) {
-				str = str.replaceAll("&#" + ch + ";", "" + (char)charCode);
-			} else if(Character.isDefined(charCode)) {
-				StringBuilder b2 = new StringBuilder();
-				for(char c : Character.toChars(charCode)) {
-					b2.append(c);
-				}
-				str = str.replaceAll("&#" + ch + ";", b2.toString());
+		b.append(s, copied, s.length());
+		return b.toString();
+	}
+	
+	/**
+	 * Decode one entity
+	 * @param s input string
+	 * @param amp the index of the entity's &amp;
+	 * @param semi the index of the entity's ;
+	 * @param decodeMap the decoded text of each named entity
+	 * @return the decoded text, or null if this is not an entity that can be decoded
+	 */
+	private static String decodeEntity(String s, int amp, int semi, Map<String, String> decodeMap) {
+		if((semi - amp < 3) || (s.charAt(amp + 1) != '#')) {
+			return decodeMap.get(s.substring(amp, semi + 1));
+		}
+		int radix = 10;
+		int start = amp + 2;
+		if((s.charAt(start) == 'x') || (s.charAt(start) == 'X')) {
+			radix = 16;
+			start++;
+		}
+		if(start == semi) {
+			return null;
+		}
+		int codePoint = 0;
+		for(int x = start; x < semi; x++) {
+			int digit = Character.digit(s.charAt(x), radix);
+			if(digit < 0) {
+				return null;
 			}
+			codePoint = (codePoint * radix) + digit;
+		}
+		if((codePoint > Character.MAX_CODE_POINT) || !Character.isDefined(codePoint)) {
+			return null;
 		}
-		return str;
+		return new String(Character.toChars(codePoint));
 	}
 }
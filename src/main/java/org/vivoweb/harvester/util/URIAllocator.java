@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.rdf.model.RDFNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vivoweb.harvester.util.repo.JenaConnect;
+
+/**
+ * Hands out unused uris of the form namespace + "n" + number, the same form ChangeNamespace.getUnusedURI makes. The
+ * numbers already in use are loaded once into a sorted array, so each uri is checked in memory rather than with a
+ * query against every model.
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class URIAllocator {
+	/**
+	 * SLF4J Logger
+	 */
+	private static Logger log = LoggerFactory.getLogger(URIAllocator.class);
+	/**
+	 * the namespace followed by "n"
+	 */
+	private final String prefix;
+	/**
+	 * numbers in use, sorted and unique up to sortedCount
+	 */
+	private int[] used;
+	/**
+	 * number of entries in used
+	 */
+	private int usedCount;
+	/**
+	 * number of entries at the start of used that are sorted and unique
+	 */
+	private int sortedCount;
+	/**
+	 * numbers handed out by this allocator
+	 */
+	private final Set<Integer> allocated;
+	/**
+	 * picks candidate numbers
+	 */
+	private final Random random;
+	
+	/**
+	 * Constructor
+	 * @param namespace the namespace to hand out uris in
+	 */
+	public URIAllocator(String namespace) {
+		if((namespace == null) || namespace.equals("")) {
+			throw new IllegalArgumentException("namespace cannot be empty");
+		}
+		this.prefix = namespace + "n";
+		this.used = new int[1024];
+		this.usedCount = 0;
+		this.sortedCount = 0;
+		this.allocated = new HashSet<Integer>();
+		this.random = new Random();
+	}
+	
+	/**
+	 * Note a uri as in use, if it is of the form this allocator hands out
+	 * @param uri the uri
+	 */
+	public void addUsedURI(String uri) {
+		if(!uri.startsWith(this.prefix)) {
+			return;
+		}
+		int length = uri.length() - this.prefix.length();
+		if((length == 0) || (length > 10)) {
+			return;
+		}
+		long number = 0;
+		for(int x = this.prefix.length(); x < uri.length(); x++) {
+			char ch = uri.charAt(x);
+			if((ch < '0') || (ch > '9')) {
+				return;
+			}
+			number = (number * 10) + (ch - '0');
+		}
+		if(number >= Integer.MAX_VALUE) {
+			return;
+		}
+		if(this.usedCount == this.used.length) {
+			this.used = Arrays.copyOf(this.used, this.used.length * 2);
+		}
+		this.used[this.usedCount] = (int)number;
+		this.usedCount++;
+	}
+	
+	/**
+	 * Note every subject uri of a model that is of the form this allocator hands out as in use
+	 * @param model the model
+	 * @throws IOException error connecting
+	 */
+	public void addUsedURIs(JenaConnect model) throws IOException {
+		String query = "" +
+			"SELECT DISTINCT ?s \n" +
+			"WHERE {\n" +
+			"\t" + "?s ?p ?o . \n" +
+			"\t" + "FILTER(STRSTARTS(STR(?s), \"" + this.prefix.replace("\\", "\\\\").replace("\"", "\\\"") + "\")) \n" +
+			"}";
+		log.debug("Used URI Query:\n" + query);
+		int before = this.usedCount;
+		ResultSet results = model.executeSelectQuery(query);
+		for(QuerySolution solution : IterableAdaptor.adapt(results)) {
+			RDFNode s = solution.get("s");
+			if(s.isURIResource()) {
+				addUsedURI(s.asResource().getURI());
+			}
+		}
+		log.debug("Loaded " + (this.usedCount - before) + " used URIs from model <" + model.getModelName() + ">");
+	}
+	
+	/**
+	 * Sort the numbers in use and drop duplicates
+	 */
+	private void sortUsed() {
+		Arrays.sort(this.used, 0, this.usedCount);
+		int unique = 0;
+		for(int x = 0; x < this.usedCount; x++) {
+			if((unique == 0) || (this.used[x] != this.used[unique - 1])) {
+				this.used[unique] = this.used[x];
+				unique++;
+			}
+		}
+		this.usedCount = unique;
+		this.sortedCount = unique;
+	}
+	
+	/**
+	 * Get an unused uri. The uri is not in use in any model loaded into this allocator and has not been handed out by
+	 * this allocator before.
+	 * @return the uri
+	 */
+	public String allocate() {
+		if(this.sortedCount != this.usedCount) {
+			sortUsed();
+		}
+		while(true) {
+			int number = this.random.nextInt(Integer.MAX_VALUE);
+			if((Arrays.binarySearch(this.used, 0, this.usedCount, number) < 0) && this.allocated.add(Integer.valueOf(number))) {
+				String uri = this.prefix + number;
+				log.trace("Using new URI: <" + uri + ">");
+				return uri;
+			}
+		}
+	}
+}
@@ -70,6 +70,11 @@ public abstract class DBJenaConnect extends JenaConnect {
 		this.dbClass = original.dbClass;
 	}
 	
+	@Override
+	protected String getStoreKey() {
+		return "db:" + this.dbUrl;
+	}
+	
 	/**
 	 * Get the dbType for Jena
 	 * @return the dbType
@@ -12,9 +12,12 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -277,6 +280,107 @@ public class JDBCRecordHandler extends RecordHandler {
 		return true;
 	}
 	
+	@Override
+	public int addRecords(Map<String, String> recs, Class<?> creator) throws IOException {
+		List<Record> changed = new ArrayList<Record>(recs.size());
+		for(Map.Entry<String, String> entry : recs.entrySet()) {
+			Record rec = new Record(entry.getKey(), entry.getValue(), this);
+			if(needsUpdated(rec)) {
+				changed.add(rec);
+			}
+		}
+		if(changed.isEmpty()) {
+			return 0;
+		}
+		List<RecordMetaData> rmds = new ArrayList<RecordMetaData>(changed.size());
+		try {
+			Set<String> existing = findExisting(changed);
+			if(!existing.isEmpty() && !isOverwriteDefault()) {
+				throw new IOException("Unable to add record: " + existing.iterator().next());
+			}
+			boolean autoCommit = this.db.getAutoCommit();
+			this.db.setAutoCommit(false);
+			PreparedStatement insert = this.db.prepareStatement("insert into " + this.table + "(" + recordIdField + ", " + this.dataField + ") values (?, ?)");
+			PreparedStatement update = this.db.prepareStatement("update " + this.table + " set " + this.dataField + " = ? where " + recordIdField + " = ?");
+			PreparedStatement meta = this.db.prepareStatement("insert into " + this.table + "_rmd (" + rmdRelField + ", " + rmdCalField + ", " + rmdOperationField + ", " + rmdOperatorField + ", " + rmdMD5Field + ") values (?, ?, ?, ?, ?)");
+			try {
+				for(Record rec : changed) {
+					if(existing.contains(rec.getID())) {
+						update.setBytes(1, rec.getData().getBytes());
+						update.setString(2, rec.getID());
+						update.addBatch();
+					} else {
+						insert.setString(1, rec.getID());
+						insert.setBytes(2, rec.getData().getBytes());
+						insert.addBatch();
+					}
+					RecordMetaData rmd = new RecordMetaData(creator, RecordMetaDataType.written, RecordMetaData.md5hex(rec.getData()));
+					meta.setString(1, rec.getID());
+					meta.setString(2, String.valueOf(rmd.getDate().getTimeInMillis()));
+					meta.setString(3, rmd.getOperation().toString());
+					meta.setString(4, rmd.getOperator().getName());
+					meta.setString(5, rmd.getMD5());
+					meta.addBatch();
+					rmds.add(rmd);
+				}
+				if(existing.size() < changed.size()) {
+					insert.executeBatch();
+				}
+				if(!existing.isEmpty()) {
+					update.executeBatch();
+				}
+				meta.executeBatch();
+				this.db.commit();
+			} catch(SQLException e) {
+				this.db.rollback();
+				throw e;
+			} finally {
+				insert.close();
+				update.close();
+				meta.close();
+				this.db.setAutoCommit(autoCommit);
+			}
+		} catch(SQLException e) {
+			throw new IOException("Unable to add batch of " + changed.size() + " records", e);
+		}
+		for(int x = 0; x < changed.size(); x++) {
+			metaDataAdded(changed.get(x).getID(), rmds.get(x));
+		}
+		return changed.size();
+	}
+	
+	/**
+	 * Find which of the given records are already stored, a few hundred ids per query
+	 * @param recs the records
+	 * @return the ids of the records already in the record table
+	 * @throws SQLException error querying
+	 */
+	private Set<String> findExisting(List<Record> recs) throws SQLException {
+		Set<String> existing = new HashSet<String>();
+		int chunkSize = 500;
+		for(int start = 0; start < recs.size(); start += chunkSize) {
+			int end = Math.min(start + chunkSize, recs.size());
+			StringBuilder query = new StringBuilder("select " + recordIdField + " from " + this.table + " where " + recordIdField + " in (");
+			for(int x = start; x < end; x++) {
+				query.append((x == start) ? "?" : ", ?");
+			}
+			query.append(")");
+			PreparedStatement ps = this.db.prepareStatement(query.toString());
+			try {
+				for(int x = start; x < end; x++) {
+					ps.setString((x - start) + 1, recs.get(x).getID());
+				}
+				ResultSet rs = ps.executeQuery();
+				while(rs.next()) {
+					existing.add(rs.getString(1));
+				}
+			} finally {
+				ps.close();
+			}
+		}
+		return existing;
+	}
+	
 	@Override
 	public void delRecord(String recID) throws IOException {
 		delMetaData(recID);
@@ -390,6 +494,31 @@ public class JDBCRecordHandler extends RecordHandler {
 		} catch(SQLException e) {
 			throw new IOException(e);
 		}
+		metaDataDeleted(recID);
+	}
+	
+	@Override
+	public RecordMetaDataIndex getMetaDataIndex(Collection<String> recIDs) throws IOException {
+		// one scan of the metadata table instead of a query per record
+		Set<String> wanted = (recIDs == null) ? null : new HashSet<String>(recIDs);
+		RecordMetaDataIndex index = new RecordMetaDataIndex();
+		try {
+			Statement st = this.db.createStatement();
+			try {
+				ResultSet rs = st.executeQuery("select " + rmdRelField + ", " + rmdCalField + ", " + rmdOperationField + ", " + rmdOperatorField + ", " + rmdMD5Field + " from " + this.table + "_rmd");
+				while(rs.next()) {
+					String recID = rs.getString(1);
+					if((wanted == null) || wanted.contains(recID)) {
+						index.add(recID, Long.parseLong(rs.getString(2)), RecordMetaDataType.valueOf(rs.getString(3)), rs.getString(4), rs.getString(5));
+					}
+				}
+			} finally {
+				st.close();
+			}
+		} catch(SQLException e) {
+			throw new IOException(e);
+		}
+		return index;
 	}
 	
 	@Override
@@ -426,6 +555,15 @@ public class JDBCRecordHandler extends RecordHandler {
 		}
 	}
 	
+	@Override
+	public boolean isClosed() {
+		try {
+			return this.db.isClosed();
+		} catch(SQLException e) {
+			return true;
+		}
+	}
+	
 	@Override
 	public Set<String> find(String idText) throws IOException {
 		Set<String> retVal = new HashSet<String>();
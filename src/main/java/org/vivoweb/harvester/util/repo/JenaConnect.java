@@ -12,8 +12,15 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -28,7 +35,11 @@ import org.vivoweb.harvester.util.args.UsageException;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
+import org.apache.jena.graph.Graph;
 import org.apache.jena.graph.GraphEvents;
+import org.apache.jena.graph.GraphListener;
+import org.apache.jena.graph.GraphUtil;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryExecution;
@@ -46,7 +57,13 @@ import org.apache.jena.rdf.model.Property;
 import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.RDFWriter;
 import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
 import org.apache.jena.shared.Lock;
+import org.apache.jena.sparql.core.Quad;
  
 import org.apache.jena.update.UpdateAction; 
 import org.apache.jena.update.UpdateFactory;
@@ -68,6 +85,34 @@ public abstract class JenaConnect {
 	 * The modelname
 	 */
 	private String modelName;
+	/**
+	 * Instances built by parseConfig, by their parameters, when sharing (null if not sharing)
+	 */
+	private static Map<String, JenaConnect> sharedInstances = null;
+	/**
+	 * default number of statements added or removed per transaction when loading records
+	 */
+	public static final int DEFAULT_COMMIT_SIZE = 10000;
+	/**
+	 * identifies this process in result cache keys of models it has changed
+	 */
+	private static final String PROCESS_ID = UUID.randomUUID().toString();
+	/**
+	 * Change counters shared by the instances connected to the same store, by store key
+	 */
+	private static final Map<String, ChangeCounter> storeChangeCounters = new HashMap<String, ChangeCounter>();
+	/**
+	 * counts the changes made to the store through any instance in this process connected to it
+	 */
+	private ChangeCounter changeCounter = new ChangeCounter();
+	/**
+	 * cache for select query results (null to not cache)
+	 */
+	private SelectResultCache resultCache;
+	/**
+	 * label for the content of the model used in result cache keys
+	 */
+	private String resultCacheVersion;
 	
 	/**
 	 * Factory (connects to the same jena triple store as another jena connect, but uses a different named model)
@@ -96,7 +141,75 @@ public abstract class JenaConnect {
 				log.trace("'" + param + "' - '" + paramList.get(param) + "'");
 			}
 		}
-		return build(paramList);
+		return buildShared(paramList);
+	}
+	
+	/**
+	 * Share the instances built by parseConfig, so a config with the same parameters as an earlier one gets the
+	 * already open instance rather than connecting again. Lets several tools run in one jvm without each reopening
+	 * the same models.
+	 * @param share share instances from now on if true, stop sharing (without closing) if false
+	 */
+	public static synchronized void setShareInstances(boolean share) {
+		if(!share) {
+			sharedInstances = null;
+			MemJenaConnect.trackDatasets(false);
+		} else if(sharedInstances == null) {
+			sharedInstances = new HashMap<String, JenaConnect>();
+			MemJenaConnect.trackDatasets(true);
+		}
+	}
+	
+	/**
+	 * Drop the named memory models opened since sharing started that no shared instance uses, so the next tool
+	 * starts from empty models of those names rather than the data an earlier tool left in them
+	 */
+	public static synchronized void releaseUnsharedModels() {
+		if(sharedInstances == null) {
+			return;
+		}
+		MemJenaConnect.releaseTrackedDatasets(sharedInstances.values());
+	}
+	
+	/**
+	 * Close every shared instance, drop the named memory models opened since sharing started and stop sharing
+	 */
+	public static synchronized void closeSharedInstances() {
+		if(sharedInstances == null) {
+			return;
+		}
+		for(JenaConnect jc : sharedInstances.values()) {
+			if(!jc.isClosed()) {
+				jc.close();
+			}
+		}
+		MemJenaConnect.releaseTrackedDatasets(new ArrayList<JenaConnect>());
+		MemJenaConnect.trackDatasets(false);
+		sharedInstances = null;
+	}
+	
+	/**
+	 * Get the shared instance for the given parameter set, building it if there is none
+	 * @param params the value map
+	 * @return the JenaConnect
+	 * @throws IOException error connecting to jena model
+	 */
+	private static synchronized JenaConnect buildShared(Map<String, String> params) throws IOException {
+		// an unnamed memory model is a new, empty model each time
+		if((sharedInstances == null) || (params == null) || ("mem".equalsIgnoreCase(params.get("type")) && (params.get("modelName") == null))) {
+			return build(params);
+		}
+		String key = new TreeMap<String, String>(params).toString();
+		JenaConnect jc = sharedInstances.get(key);
+		if((jc == null) || jc.isClosed()) {
+			jc = build(params);
+			if(jc != null) {
+				sharedInstances.put(key, jc);
+			}
+		} else {
+			log.debug("Using shared " + params.get("type") + " model: " + jc.getModelName());
+		}
+		return jc;
 	}
 	
 	/**
@@ -144,12 +257,20 @@ public abstract class JenaConnect {
 		} else if(type.equalsIgnoreCase("sdb")) {
 			jc = new SDBJenaConnect(params.get("dbUrl"), params.get("dbUser"), params.get("dbPass"), params.get("dbType"), params.get("dbClass"), params.get("dbLayout"), params.get("modelName"));
 		} else if(type.equalsIgnoreCase("tdb")) {
+			// without a dbDir this is a temporary on-disk model, for data too large for a 'mem' model
 			jc = new TDBJenaConnect(params.get("dbDir"), params.get("modelName"));			 
 		} else if(type.equalsIgnoreCase("file")) {
 			jc = new FileJenaConnect(params.get("file"), params.get("rdfLang"));
 		} else {
 			throw new IllegalArgumentException("unknown type: " + type);
 		}
+		if(params.containsKey("queryCacheDir")) {
+			if(!params.containsKey("queryCacheVersion")) {
+				throw new IllegalArgumentException("queryCacheDir requires queryCacheVersion, a label changed whenever the model is changed by another process");
+			}
+			int cacheSize = params.containsKey("queryCacheSizeMB") ? Integer.parseInt(params.get("queryCacheSizeMB")) : SelectResultCache.DEFAULT_MAX_SIZE_MB;
+			jc.setResultCache(new SelectResultCache(params.get("queryCacheDir"), cacheSize), params.get("queryCacheVersion"));
+		}
 		if((params.containsKey("checkEmpty") && (params.get("checkEmpty").toLowerCase() == "true")) && jc.isEmpty()) {
 			StringBuilder emptyWarn = new StringBuilder("jena model empty! ");
 			emptyWarn.append(type);
@@ -365,7 +486,9 @@ public abstract class JenaConnect {
 	 *        "RDF/XML"
 	 */
 	public void removeRdfFromStream(InputStream in, String namespace, String language) {
-		removeRdfFromJC(new MemJenaConnect(in, namespace, language));
+		BatchSink sink = new BatchSink(getJenaModel(), DEFAULT_COMMIT_SIZE, true);
+		RDFDataMgr.parse(sink, in, namespace, getLang(language));
+		sink.flush();
 	}
 	
 	/**
@@ -387,23 +510,27 @@ public abstract class JenaConnect {
 	 * @param namespace the base uri to use for imported uris
 	 * @param language the rdf syntax language (RDF/XML, N3, TTL, etc). null = RDF/XML
 	 * @return number of records removed
+	 * @throws IOException error reading records
 	 */
-	public int removeRdfFromRH(RecordHandler rh, String namespace, String language) {
-		int processCount = 0;
-		for(Record r : rh) {
-			log.trace("removing record: " + r.getID());
-			if(namespace != null) {
-				// log.trace("using namespace '"+namespace+"'");
-			}
-			ByteArrayInputStream bais = new ByteArrayInputStream(r.getData().getBytes());
-			getJenaModel().remove(new MemJenaConnect(bais, namespace, language).getJenaModel());
-			try {
-				bais.close();
-			} catch(IOException e) {
-				// ignore
-			}
-			processCount++;
-		}
+	public int removeRdfFromRH(RecordHandler rh, String namespace, String language) throws IOException {
+		return removeRdfFromRH(rh, namespace, language, DEFAULT_COMMIT_SIZE);
+	}
+	
+	/**
+	 * Removes all records in a RecordHandler from the model. The statements of every record are streamed into batches
+	 * that are each removed in one transaction.
+	 * @param rh the RecordHandler to pull records from
+	 * @param namespace the base uri to use for imported uris
+	 * @param language the rdf syntax language (RDF/XML, N3, TTL, etc). null = RDF/XML
+	 * @param commitSize number of statements to remove per transaction
+	 * @return number of records removed
+	 * @throws IOException error reading records
+	 */
+	public int removeRdfFromRH(RecordHandler rh, String namespace, String language, int commitSize) throws IOException {
+		BatchSink sink = new BatchSink(getJenaModel(), commitSize, true);
+		int processCount = parseRecords(rh, namespace, language, sink);
+		sink.flush();
+		log.debug("Removed " + sink.getCount() + " statements from " + processCount + " records");
 		return processCount;
 	}
 	
@@ -413,31 +540,126 @@ public abstract class JenaConnect {
 	 * @param namespace the base uri to use for imported uris
 	 * @param language the rdf syntax language (RDF/XML, N3, TTL, etc).  null = RDF/XML
 	 * @return number of records added
+	 * @throws IOException error reading records
 	 */
-	public int loadRdfFromRH(RecordHandler rh, String namespace, String language) {
+	public int loadRdfFromRH(RecordHandler rh, String namespace, String language) throws IOException {
+		return loadRdfFromRH(rh, namespace, language, DEFAULT_COMMIT_SIZE);
+	}
+	
+	/**
+	 * Adds all records in a RecordHandler to the model. The statements of every record are streamed into batches that
+	 * are each added in one transaction.
+	 * @param rh the RecordHandler to pull records from
+	 * @param namespace the base uri to use for imported uris
+	 * @param language the rdf syntax language (RDF/XML, N3, TTL, etc).  null = RDF/XML
+	 * @param commitSize number of statements to add per transaction
+	 * @return number of records added
+	 * @throws IOException error reading records
+	 */
+	public int loadRdfFromRH(RecordHandler rh, String namespace, String language, int commitSize) throws IOException {
+		BatchSink sink = new BatchSink(getJenaModel(), commitSize, false);
+		int processCount = parseRecords(rh, namespace, language, sink);
+		sink.flush();
+		log.debug("Added " + sink.getCount() + " statements from " + processCount + " records");
+		return processCount;
+	}
+	
+	/**
+	 * Parse every record in a RecordHandler into one sink
+	 * @param rh the RecordHandler to pull records from
+	 * @param namespace the base uri to use for imported uris
+	 * @param language the rdf syntax language (RDF/XML, N3, TTL, etc).  null = RDF/XML
+	 * @param sink receives the triples of every record
+	 * @return number of records parsed
+	 */
+	protected static int parseRecords(RecordHandler rh, String namespace, String language, StreamRDF sink) {
+		Lang lang = getLang(language);
+		if(namespace != null) {
+			log.trace("using namespace '" + namespace + "'");
+		}
 		int processCount = 0;
 		for(Record r : rh) {
-			log.trace("loading record: " + r.getID());
-			if (namespace != null) {
-				log.trace("using namespace '"+namespace+"'");
-			}
-			ByteArrayInputStream bais = new ByteArrayInputStream(r.getData().getBytes());
-			getJenaModel().read(bais, namespace, language);
-			try {
-				bais.close();
-			} catch(IOException e) {
-				// ignore
-			}
+			log.trace("parsing record: " + r.getID());
+			RDFDataMgr.parse(sink, new ByteArrayInputStream(r.getData().getBytes(StandardCharsets.UTF_8)), namespace, lang);
 			processCount++;
 		}
 		return processCount;
 	}
 	
+	/**
+	 * Get the parser language for an rdf syntax language name
+	 * @param language the rdf syntax language (RDF/XML, N3, TTL, etc).  null = RDF/XML
+	 * @return the parser language
+	 */
+	protected static Lang getLang(String language) {
+		if(language == null) {
+			return Lang.RDFXML;
+		}
+		Lang lang = RDFLanguages.nameToLang(language);
+		if(lang == null) {
+			throw new IllegalArgumentException("Unknown rdf language: " + language);
+		}
+		return lang;
+	}
+	
 	/**
 	 * Closes the model
 	 */
 	public void close() {
 		sync();
+		if(this.resultCache != null) {
+			log.info("Model " + getModelName() + " " + this.resultCache);
+		}
+	}
+	
+	/**
+	 * Has this instance been closed
+	 * @return true if the model is closed
+	 */
+	public boolean isClosed() {
+		return getJenaModel().isClosed();
+	}
+	
+	/**
+	 * Cache the results of select queries run through this instance. A result is reused while the version is unchanged.
+	 * Once the store is changed through any instance in this process connected to it, only results cached by this
+	 * process since are reused. The version must be changed whenever the store is changed by another process.
+	 * @param cache the cache (null to stop caching)
+	 * @param version label for the content of the model, such as the date of the snapshot it was loaded from
+	 */
+	public void setResultCache(SelectResultCache cache, String version) {
+		if((cache != null) && (version == null)) {
+			throw new IllegalArgumentException("a query cache version is required to cache query results");
+		}
+		this.resultCache = cache;
+		this.resultCacheVersion = version;
+	}
+	
+	/**
+	 * Get a key identifying the store this model is held in, instances with the same key see each other's changes
+	 * @return the key (null if no other instance shares the store)
+	 */
+	protected String getStoreKey() {
+		return null;
+	}
+	
+	/**
+	 * Get the result cache key for a select query
+	 * @param queryString the query
+	 * @param datasetMode execute against dataset
+	 * @return the key (null if the result should not be cached)
+	 */
+	private String getResultCacheKey(String queryString, boolean datasetMode) {
+		if(this.resultCache == null) {
+			return null;
+		}
+		String version = this.resultCacheVersion;
+		long changes = this.changeCounter.getChanges();
+		if(changes != 0) {
+			// the store has changed since it was given its version, so only this process can use these results
+			version = version + "|" + PROCESS_ID + "|" + this.changeCounter.getId() + "|" + changes;
+		}
+		return getClass().getName() + "\n" + getModelName() + "\n" + version + "\n" + datasetMode + "\n" + queryString;
 	}
 	
 	/**
@@ -492,9 +714,33 @@ public abstract class JenaConnect {
 	 * @throws IOException error connecting
 	 */
 	public ResultSet executeSelectQuery(String queryString, boolean copyResultSet, boolean datasetMode) throws IOException {
+		String cacheKey = getResultCacheKey(queryString, datasetMode);
+		Model source = null;
+		if(cacheKey != null) {
+			source = datasetMode ? getDataset().getDefaultModel() : getJenaModel();
+			ResultSet cached = this.resultCache.get(cacheKey, source);
+			if(cached != null) {
+				return cached;
+			}
+		}
 		QueryExecution qexec = buildQueryExec(queryString, datasetMode);
 		ResultSet rs = qexec.execSelect();
-		if(copyResultSet) {
+		ResultSet cached = null;
+		if(cacheKey != null) {
+			boolean closeExec = true;
+			try {
+				cached = this.resultCache.put(cacheKey, rs, source);
+				// when the cache file could not be created the results were not read, they are returned uncached
+				closeExec = (cached != null);
+			} finally {
+				if(closeExec) {
+					qexec.close();
+				}
+			}
+		}
+		if(cached != null) {
+			rs = cached;
+		} else if(copyResultSet) {
 			rs = ResultSetFactory.copyResults(rs);
 			qexec.close();
 		}
@@ -742,6 +988,18 @@ public abstract class JenaConnect {
 	 */
 	protected void setJenaModel(Model jena) {
 		this.jenaModel = jena;
+		String storeKey = getStoreKey();
+		if(storeKey != null) {
+			synchronized(storeChangeCounters) {
+				ChangeCounter counter = storeChangeCounters.get(storeKey);
+				if(counter == null) {
+					counter = new ChangeCounter();
+					storeChangeCounters.put(storeKey, counter);
+				}
+				this.changeCounter = counter;
+			}
+		}
+		jena.getGraph().getEventManager().register(this.changeCounter);
 	}
 	
 	/**
@@ -951,4 +1209,188 @@ public abstract class JenaConnect {
 			}
 		}
 	}
+	
+	/**
+	 * Adds or removes the triples it is given in batches, each batch in one transaction if the model supports them
+	 */
+	private static class BatchSink extends StreamRDFBase {
+		/**
+		 * the model to change
+		 */
+		private final Model model;
+		/**
+		 * number of triples per batch
+		 */
+		private final int commitSize;
+		/**
+		 * remove rather than add
+		 */
+		private final boolean remove;
+		/**
+		 * the triples since the last flush
+		 */
+		private final List<Triple> batch;
+		/**
+		 * number of triples flushed
+		 */
+		private long count;
+		
+		/**
+		 * Constructor
+		 * @param model the model to change
+		 * @param commitSize number of triples per batch
+		 * @param remove remove rather than add
+		 */
+		protected BatchSink(Model model, int commitSize, boolean remove) {
+			if(commitSize < 1) {
+				throw new IllegalArgumentException("commit size must be at least 1");
+			}
+			this.model = model;
+			this.commitSize = commitSize;
+			this.remove = remove;
+			this.batch = new ArrayList<Triple>(Math.min(commitSize, 100000));
+			this.count = 0;
+		}
+		
+		@Override
+		public void triple(Triple triple) {
+			this.batch.add(triple);
+			if(this.batch.size() >= this.commitSize) {
+				flush();
+			}
+		}
+		
+		@Override
+		public void quad(Quad quad) {
+			triple(quad.asTriple());
+		}
+		
+		/**
+		 * Add or remove the triples since the last flush
+		 */
+		protected void flush() {
+			if(this.batch.isEmpty()) {
+				return;
+			}
+			log.trace((this.remove ? "Removing " : "Adding ") + this.batch.size() + " statements");
+			if(this.model.supportsTransactions()) {
+				this.model.begin();
+			}
+			try {
+				if(this.remove) {
+					GraphUtil.delete(this.model.getGraph(), this.batch);
+				} else {
+					GraphUtil.add(this.model.getGraph(), this.batch);
+				}
+				if(this.model.supportsTransactions()) {
+					this.model.commit();
+				}
+			} catch(RuntimeException e) {
+				if(this.model.supportsTransactions()) {
+					this.model.abort();
+				}
+				throw e;
+			}
+			this.count += this.batch.size();
+			this.batch.clear();
+		}
+		
+		/**
+		 * Get the number of triples added or removed so far
+		 * @return the number of triples
+		 */
+		protected long getCount() {
+			return this.count;
+		}
+	}
+	
+	/**
+	 * Counts the changes made to the graphs it listens to, so cached query results are not reused once the store has
+	 * changed
+	 */
+	private static class ChangeCounter implements GraphListener {
+		/**
+		 * the number of counters created
+		 */
+		private static final AtomicLong created = new AtomicLong();
+		/**
+		 * identifies this counter within the process
+		 */
+		private final long id = created.incrementAndGet();
+		/**
+		 * the number of changes
+		 */
+		private volatile long changes = 0;
+		
+		/**
+		 * Get the id of this counter
+		 * @return the id
+		 */
+		protected long getId() {
+			return this.id;
+		}
+		
+		/**
+		 * Get the number of changes
+		 * @return the number of changes
+		 */
+		protected long getChanges() {
+			return this.changes;
+		}
+		
+		@Override
+		public void notifyAddTriple(Graph g, Triple t) {
+			this.changes++;
+		}
+		
+		@Override
+		public void notifyAddArray(Graph g, Triple[] triples) {
+			this.changes++;
+		}
+		
+		@Override
+		public void notifyAddList(Graph g, List<Triple> triples) {
+			this.changes++;
+		}
+		
+		@Override
+		public void notifyAddIterator(Graph g, Iterator<Triple> it) {
+			this.changes++;
+		}
+		
+		@Override
+		public void notifyAddGraph(Graph g, Graph added) {
+			this.changes++;
+		}
+		
+		@Override
+		public void notifyDeleteTriple(Graph g, Triple t) {
+			this.changes++;
+		}
+		
+		@Override
+		public void notifyDeleteList(Graph g, List<Triple> L) {
+			this.changes++;
+		}
+		
+		@Override
+		public void notifyDeleteArray(Graph g, Triple[] triples) {
+			this.changes++;
+		}
+		
+		@Override
+		public void notifyDeleteIterator(Graph g, Iterator<Triple> it) {
+			this.changes++;
+		}
+		
+		@Override
+		public void notifyDeleteGraph(Graph g, Graph removed) {
+			this.changes++;
+		}
+		
+		@Override
+		public void notifyEvent(Graph source, Object value) {
+			this.changes++;
+		}
+	}
 }
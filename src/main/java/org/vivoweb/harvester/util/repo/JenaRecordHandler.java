@@ -7,6 +7,7 @@ package org.vivoweb.harvester.util.repo;
 
 import java.io.IOException;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -302,6 +303,32 @@ public class JenaRecordHandler extends RecordHandler {
 		for(Resource metaRes : list) {
 			metaRes.removeProperties();
 		}
+		metaDataDeleted(recID);
+	}
+	
+	@Override
+	public RecordMetaDataIndex getMetaDataIndex(Collection<String> recIDs) throws IOException {
+		// one query for all metadata instead of a lookup per record
+		Set<String> wanted = (recIDs == null) ? null : new HashSet<String>(recIDs);
+		RecordMetaDataIndex index = new RecordMetaDataIndex();
+		String query = "" +
+			"PREFIX rhns: <" + JenaRecordHandler.rhNameSpace + "> \n" +
+			"SELECT ?idField ?cal ?operation ?operator ?md5 \n" +
+			"WHERE { \n" +
+			"  ?meta rhns:" + this.metaRel.getLocalName() + " ?record . \n" +
+			"  ?record rhns:" + this.idType.getLocalName() + " ?idField . \n" +
+			"  ?meta rhns:" + this.metaCal.getLocalName() + " ?cal . \n" +
+			"  ?meta rhns:" + this.metaOperation.getLocalName() + " ?operation . \n" +
+			"  ?meta rhns:" + this.metaOperator.getLocalName() + " ?operator . \n" +
+			"  ?meta rhns:" + this.metaMD5.getLocalName() + " ?md5 . \n" +
+			"}";
+		for(QuerySolution rmd : IterableAdaptor.adapt(this.model.executeSelectQuery(query))) {
+			String recID = rmd.getLiteral("idField").getString();
+			if((wanted == null) || wanted.contains(recID)) {
+				index.add(recID, Long.parseLong(rmd.getLiteral("cal").getString()), RecordMetaDataType.valueOf(rmd.getLiteral("operation").getString()), rmd.getLiteral("operator").getString(), rmd.getLiteral("md5").getString());
+			}
+		}
+		return index;
 	}
 	
 	@Override
@@ -345,6 +372,11 @@ public class JenaRecordHandler extends RecordHandler {
 		this.model.close();
 	}
 	
+	@Override
+	public boolean isClosed() {
+		return this.model.getJenaModel().isClosed();
+	}
+	
 	@Override
 	public Set<String> find(String idText) throws IOException {
 		Set<String> retVal = new HashSet<String>();
@@ -6,6 +6,7 @@
 package org.vivoweb.harvester.util.repo;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -119,6 +120,21 @@ public class MapRecordHandler extends RecordHandler {
 	@Override
 	protected void delMetaData(String recID) throws IOException {
 		this.metaDataMap.remove(recID);
+		metaDataDeleted(recID);
+	}
+	
+	@Override
+	public RecordMetaDataIndex getMetaDataIndex(Collection<String> recIDs) {
+		RecordMetaDataIndex index = new RecordMetaDataIndex();
+		for(String recID : (recIDs == null) ? this.metaDataMap.keySet() : recIDs) {
+			SortedSet<RecordMetaData> rmds = this.metaDataMap.get(recID);
+			if(rmds != null) {
+				for(RecordMetaData rmd : rmds) {
+					index.add(recID, rmd);
+				}
+			}
+		}
+		return index;
 	}
 	
 	@Override
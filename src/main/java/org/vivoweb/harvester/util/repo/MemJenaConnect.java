@@ -5,29 +5,57 @@
  ******************************************************************************/
 package org.vivoweb.harvester.util.repo;
 
-import java.io.File;
-import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.Random;
+import java.util.HashSet;
+import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.vivoweb.harvester.util.FileAide;
-import org.vivoweb.harvester.util.SpecialEntities;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
 
 /**
  * Connection Helper for Memory Based Jena Models
+ * Models are held on the heap, so a model costs memory in proportion to its size for as long as it is open. Named
+ * models with the same name share one in-memory dataset while any of them is open, once the last one is closed the
+ * dataset is dropped and the name starts again empty. Unnamed models each get their own dataset and are freed with
+ * the instance. Use a TDBJenaConnect without a directory for a temporary model that is too large for the heap.
  * @author Christopher Haines (hainesc@ctrip.ufl.edu)
  */
-public class MemJenaConnect extends TDBJenaConnect {
+public class MemJenaConnect extends JenaConnect {
 	/**
 	 * SLF4J Logger
 	 */
 	private static Logger log = LoggerFactory.getLogger(MemJenaConnect.class);
 	/**
-	 * Map of already used memory model names to directories
+	 * Map of memory model names to their datasets
 	 */
-	private static HashMap<String, String> usedModelNames = new HashMap<String, String>();
+	private static HashMap<String, Dataset> namedDatasets = new HashMap<String, Dataset>();
+	/**
+	 * Map of memory model names to the number of open instances opened by that name
+	 */
+	private static HashMap<String, Integer> namedHandles = new HashMap<String, Integer>();
+	/**
+	 * Names of the memory datasets created since tracking started (null if not tracking)
+	 */
+	private static Set<String> trackedNames = null;
+	/**
+	 * The dataset holding this model
+	 */
+	private final Dataset dataset;
+	/**
+	 * The name this model's dataset is registered under (null if not registered)
+	 */
+	private final String datasetName;
+	/**
+	 * Does this instance hold one of its named dataset's handles, released when it is closed
+	 */
+	private boolean holdsHandle;
+	/**
+	 * has this instance been closed
+	 */
+	private boolean closed;
 	
 	/**
 	 * Constructor (Memory Default Model)
@@ -41,7 +69,8 @@ public class MemJenaConnect extends TDBJenaConnect {
 	 * @param modelName the model name to use
 	 */
 	public MemJenaConnect(String modelName) {
-		super(getDir(modelName), modelName);
+		this(openDataset(modelName), modelName, modelName);
+		this.holdsHandle = (modelName != null);
 	}
 	
 	/**
@@ -58,42 +87,149 @@ public class MemJenaConnect extends TDBJenaConnect {
 	}
 	
 	/**
-	 * Get the directory in which the model named is held
-	 * @param modelName the model name
-	 * @return the directory path
-	 */
-	private static String getDir(String modelName) {
-		String mod = (modelName != null) ? modelName : generateUnusedModelName();
-		mod = SpecialEntities.xmlEncode(mod, '/', ':');
-		if(!usedModelNames.containsKey(mod)) {
-			log.trace("attempting to create temp file for: " + mod);
-			File f;
-			try {
-				f = FileAide.createTempFile(mod, ".tdb");
-			} catch(IOException e) {
-				throw new IllegalArgumentException(e);
+	 * Constructor (Model in a Memory Dataset)
+	 * @param dataset the dataset holding the model
+	 * @param datasetName the name the dataset is registered under (null if not registered)
+	 * @param modelName the model name to use (null for the default model)
+	 */
+	private MemJenaConnect(Dataset dataset, String datasetName, String modelName) {
+		this.dataset = dataset;
+		this.datasetName = datasetName;
+		if(modelName != null) {
+			setModelName(modelName);
+			setJenaModel(dataset.getNamedModel(modelName));
+		} else {
+			setJenaModel(dataset.getDefaultModel());
+		}
+	}
+	
+	/**
+	 * Get the dataset for a memory model name and take a handle on it, creating it if no instance has it open
+	 * @param modelName the model name (null for a new unregistered dataset)
+	 * @return the dataset
+	 */
+	private static synchronized Dataset openDataset(String modelName) {
+		if(modelName == null) {
+			return DatasetFactory.createGeneral();
+		}
+		Dataset ds = namedDatasets.get(modelName);
+		if(ds == null) {
+			log.trace("creating memory dataset for: " + modelName);
+			ds = DatasetFactory.createGeneral();
+			namedDatasets.put(modelName, ds);
+			namedHandles.put(modelName, Integer.valueOf(0));
+			if(trackedNames != null) {
+				trackedNames.add(modelName);
 			}
-			log.trace("created: " + f.getAbsolutePath());
-			f.delete();
-			f.mkdir();
-			usedModelNames.put(mod, f.getAbsolutePath());
 		}
-		return usedModelNames.get(mod);
+		namedHandles.put(modelName, Integer.valueOf(namedHandles.get(modelName).intValue() + 1));
+		return ds;
+	}
+	
+	/**
+	 * Release a handle on the dataset for a memory model name, dropping the dataset when it was the last one
+	 * @param modelName the model name
+	 * @param ds the dataset the handle was taken on
+	 */
+	private static synchronized void releaseDataset(String modelName, Dataset ds) {
+		if(namedDatasets.get(modelName) != ds) {
+			// already dropped by releaseTrackedDatasets
+			return;
+		}
+		int handles = namedHandles.get(modelName).intValue() - 1;
+		if(handles > 0) {
+			namedHandles.put(modelName, Integer.valueOf(handles));
+			return;
+		}
+		log.trace("dropping memory dataset for: " + modelName);
+		namedHandles.remove(modelName);
+		namedDatasets.remove(modelName).close();
 	}
 	
 	/**
-	 * Get an unused memory model name
-	 * @return the name
+	 * Start or stop tracking the named memory datasets created from now on
+	 * @param track start tracking if true, stop (without dropping anything) if false
 	 */
-	private static String generateUnusedModelName() {
-		Random random = new Random();
-		String name = null;
-		while(name == null) {
-			name = "DEFAULT" + random.nextInt(Integer.MAX_VALUE);
-			if(usedModelNames.containsKey(name)) {
-				name = null;
+	static synchronized void trackDatasets(boolean track) {
+		trackedNames = track ? new HashSet<String>() : null;
+	}
+	
+	/**
+	 * Drop the named memory datasets created since tracking started that none of the given instances use, even if
+	 * instances opened by their names were never closed. The dropped names start again empty.
+	 * @param keep the instances whose datasets are kept, and still tracked
+	 */
+	static synchronized void releaseTrackedDatasets(Collection<JenaConnect> keep) {
+		if(trackedNames == null) {
+			return;
+		}
+		Set<String> kept = new HashSet<String>();
+		for(JenaConnect jc : keep) {
+			if((jc instanceof MemJenaConnect) && !jc.isClosed()) {
+				MemJenaConnect mjc = (MemJenaConnect)jc;
+				if((mjc.datasetName != null) && (namedDatasets.get(mjc.datasetName) == mjc.dataset)) {
+					kept.add(mjc.datasetName);
+				}
 			}
 		}
-		return name;
+		for(String name : trackedNames) {
+			if(!kept.contains(name) && namedDatasets.containsKey(name)) {
+				log.debug("dropping memory dataset left open: " + name);
+				namedHandles.remove(name);
+				namedDatasets.remove(name).close();
+			}
+		}
+		trackedNames.retainAll(kept);
+	}
+	
+	@Override
+	public Dataset getDataset() {
+		return this.dataset;
+	}
+	
+	@Override
+	protected String getStoreKey() {
+		return (this.datasetName != null) ? "mem:" + this.datasetName : null;
+	}
+	
+	@Override
+	public JenaConnect neighborConnectClone(String modelName) {
+		return new MemJenaConnect(this.dataset, this.datasetName, modelName);
+	}
+	
+	/**
+	 * Closes the model. A model in a named dataset is left open while other instances opened by the same name are, so
+	 * they still see its data, and the dataset is dropped when the last of them is closed. Neighbor clones of a named
+	 * model do not hold the dataset open.
+	 */
+	@Override
+	public void close() {
+		if(this.closed) {
+			return;
+		}
+		super.close();
+		this.closed = true;
+		if(this.datasetName == null) {
+			getJenaModel().close();
+		} else if(this.holdsHandle) {
+			this.holdsHandle = false;
+			releaseDataset(this.datasetName, this.dataset);
+		}
+	}
+	
+	@Override
+	public boolean isClosed() {
+		return this.closed || super.isClosed();
+	}
+	
+	@Override
+	public void printParameters() {
+		super.printParameters();
+		log.trace("type: 'mem'");
+	}
+	
+	@Override
+	public void sync() {
+		// Do Nothing
 	}
 }
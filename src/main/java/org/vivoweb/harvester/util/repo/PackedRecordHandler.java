@@ -0,0 +1,893 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.util.repo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vivoweb.harvester.util.FileAide;
+import org.vivoweb.harvester.util.repo.RecordMetaData.RecordMetaDataType;
+
+/**
+ * Record Handler that packs records into append-only segment files in a local directory
+ * Each write appends the record data to the current segment and an entry (id, segment, offset, length and md5) to a
+ * binary record index, and each metadata event is appended to a binary metadata log. Both logs are read into memory
+ * when the directory is opened, so a lookup costs one positional read of the record data and nothing is ever parsed
+ * or rewritten in place. Space held by overwritten or deleted records is reclaimed by compact(), which close() runs
+ * once more than half of the segment data is dead.
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class PackedRecordHandler extends RecordHandler {
+	/**
+	 * SLF4J Logger
+	 */
+	protected static Logger log = LoggerFactory.getLogger(PackedRecordHandler.class);
+	/**
+	 * identifies a record index file
+	 */
+	static final int INDEX_MAGIC = 0x56485249;
+	/**
+	 * identifies a metadata log file
+	 */
+	static final int META_MAGIC = 0x5648524d;
+	/**
+	 * format version of the index and metadata log
+	 */
+	static final int VERSION = 1;
+	/**
+	 * entry for written data: utf id, int segment, long offset, int length, 16 byte md5 (index) or long date, byte
+	 * operation, utf operator, utf md5 (metadata log)
+	 */
+	static final byte WRITE_ENTRY = 'W';
+	/**
+	 * entry for a deleted record: utf id
+	 */
+	static final byte DELETE_ENTRY = 'D';
+	/**
+	 * name of the record index file
+	 */
+	private static final String INDEX_FILE = "records.idx";
+	/**
+	 * name of the metadata log file
+	 */
+	private static final String META_FILE = "metadata.log";
+	/**
+	 * default size in megabytes at which a new segment is started
+	 */
+	private static final int DEFAULT_SEGMENT_SIZE = 64;
+	/**
+	 * charset record data is stored in
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/**
+	 * The directory to store segments, index and metadata log in
+	 */
+	private File dir;
+	/**
+	 * size in bytes at which a new segment is started
+	 */
+	private long segmentSize;
+	/**
+	 * location of the data for each record id
+	 */
+	private Map<String, IndexEntry> index;
+	/**
+	 * metadata for each record id
+	 */
+	private Map<String, SortedSet<RecordMetaData>> metaData;
+	/**
+	 * open channel for each segment number
+	 */
+	private Map<Integer, FileChannel> segments;
+	/**
+	 * operator classes already resolved by name
+	 */
+	private Map<String, Class<?>> operators;
+	/**
+	 * number of the segment being appended to
+	 */
+	private int currentSegment;
+	/**
+	 * next write position in the current segment
+	 */
+	private long writePosition;
+	/**
+	 * total bytes of all segments
+	 */
+	private long totalBytes;
+	/**
+	 * bytes of all segments still referenced by the index
+	 */
+	private long liveBytes;
+	/**
+	 * record index output
+	 */
+	private DataOutputStream indexOut;
+	/**
+	 * metadata log output
+	 */
+	private DataOutputStream metaOut;
+	
+	/**
+	 * Default Constructor
+	 */
+	protected PackedRecordHandler() {
+		// Nothing to do here
+		// Used by config construction
+		// Should only be used in conjuction with setParams()
+	}
+	
+	/**
+	 * Constructor
+	 * @param fileDir directory to store records in
+	 * @throws IOException error accessing directory
+	 */
+	public PackedRecordHandler(String fileDir) throws IOException {
+		this(fileDir, DEFAULT_SEGMENT_SIZE);
+	}
+	
+	/**
+	 * Constructor
+	 * @param fileDir directory to store records in
+	 * @param segmentSize size in megabytes at which a new segment is started
+	 * @throws IOException error accessing directory
+	 */
+	public PackedRecordHandler(String fileDir, int segmentSize) throws IOException {
+		open(fileDir, segmentSize);
+	}
+	
+	@Override
+	public void setParams(Map<String, String> params) throws IllegalArgumentException, IOException {
+		String fileDir = getParam(params, "fileDir", true);
+		String size = getParam(params, "segmentSize", false);
+		int segSize = DEFAULT_SEGMENT_SIZE;
+		if(size != null) {
+			try {
+				segSize = Integer.parseInt(size.trim());
+			} catch(NumberFormatException e) {
+				throw new IllegalArgumentException("segmentSize must be a number of megabytes: " + size, e);
+			}
+		}
+		open(fileDir, segSize);
+	}
+	
+	/**
+	 * Open the directory, reading the record index and metadata log into memory
+	 * @param fileDir the directory path String
+	 * @param segSize size in megabytes at which a new segment is started
+	 * @throws IOException error reading directory
+	 */
+	private void open(String fileDir, int segSize) throws IOException {
+		if(segSize <= 0) {
+			throw new IllegalArgumentException("segmentSize must be greater than 0");
+		}
+		if(!FileAide.exists(fileDir)) {
+			log.debug("Directory '" + fileDir + "' Does Not Exist, attempting to create");
+			FileAide.createFolder(fileDir);
+		}
+		this.dir = new File(fileDir);
+		if(!this.dir.isDirectory()) {
+			throw new IllegalArgumentException("fileDir must be a local directory: " + fileDir);
+		}
+		this.segmentSize = segSize * 1024L * 1024L;
+		this.index = new HashMap<String, IndexEntry>();
+		this.metaData = new HashMap<String, SortedSet<RecordMetaData>>();
+		this.segments = new HashMap<Integer, FileChannel>();
+		this.operators = new HashMap<String, Class<?>>();
+		readIndex();
+		readMetaData();
+		
+		// segments nothing refers to are left over from an interrupted compact
+		Set<Integer> referenced = new HashSet<Integer>();
+		this.liveBytes = 0;
+		for(IndexEntry entry : this.index.values()) {
+			referenced.add(Integer.valueOf(entry.segment));
+			this.liveBytes += entry.length;
+		}
+		int maxSegment = -1;
+		for(Integer seg : listSegments()) {
+			maxSegment = Math.max(maxSegment, seg.intValue());
+		}
+		this.totalBytes = 0;
+		for(Integer seg : listSegments()) {
+			File f = segmentFile(seg.intValue());
+			if(!referenced.contains(seg) && (seg.intValue() != maxSegment)) {
+				log.debug("Removing unreferenced segment " + f.getName());
+				if(!f.delete()) {
+					throw new IOException("Failed to delete unreferenced segment " + f);
+				}
+			} else {
+				this.totalBytes += f.length();
+			}
+		}
+		this.currentSegment = Math.max(maxSegment, 0);
+		this.writePosition = getSegment(this.currentSegment).size();
+		this.indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(this.dir, INDEX_FILE), true), 65536));
+		this.metaOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(this.dir, META_FILE), true), 65536));
+		log.debug("Opened " + this.index.size() + " records in " + fileDir);
+	}
+	
+	/**
+	 * Read the record index, creating it if it does not exist and dropping an entry left incomplete by a crash
+	 * @throws IOException error reading index
+	 */
+	private void readIndex() throws IOException {
+		File f = new File(this.dir, INDEX_FILE);
+		if(!f.exists() || (f.length() == 0)) {
+			writeHeader(f, INDEX_MAGIC);
+			return;
+		}
+		CountingInputStream cis = new CountingInputStream(new FileInputStream(f));
+		DataInputStream in = new DataInputStream(cis);
+		long good = 0;
+		try {
+			checkHeader(in, INDEX_MAGIC, f);
+			good = cis.getCount();
+			while(true) {
+				int type = in.read();
+				if(type == -1) {
+					break;
+				}
+				String id = in.readUTF();
+				if(type == WRITE_ENTRY) {
+					IndexEntry entry = new IndexEntry();
+					entry.segment = in.readInt();
+					entry.offset = in.readLong();
+					entry.length = in.readInt();
+					entry.md5 = new byte[16];
+					in.readFully(entry.md5);
+					this.index.put(id, entry);
+				} else if(type == DELETE_ENTRY) {
+					this.index.remove(id);
+				} else {
+					throw new IOException("Corrupt record index " + f + " at byte " + good);
+				}
+				good = cis.getCount();
+			}
+		} catch(EOFException e) {
+			log.warn("Record index " + f + " ends with an incomplete entry, truncating to " + good + " bytes");
+			truncate(f, good);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Read the metadata log, creating it if it does not exist and dropping an entry left incomplete by a crash
+	 * @throws IOException error reading metadata log
+	 */
+	private void readMetaData() throws IOException {
+		File f = new File(this.dir, META_FILE);
+		if(!f.exists() || (f.length() == 0)) {
+			writeHeader(f, META_MAGIC);
+			return;
+		}
+		CountingInputStream cis = new CountingInputStream(new FileInputStream(f));
+		DataInputStream in = new DataInputStream(cis);
+		long good = 0;
+		RecordMetaDataType[] types = RecordMetaDataType.values();
+		try {
+			checkHeader(in, META_MAGIC, f);
+			good = cis.getCount();
+			while(true) {
+				int type = in.read();
+				if(type == -1) {
+					break;
+				}
+				String id = in.readUTF();
+				if(type == WRITE_ENTRY) {
+					long date = in.readLong();
+					int operation = in.readByte();
+					String operatorName = in.readUTF();
+					String md5 = in.readUTF();
+					Class<?> operator = getOperator(operatorName);
+					if((operator != null) && (operation >= 0) && (operation < types.length)) {
+						Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"), Locale.US);
+						cal.setTimeInMillis(date);
+						putMetaData(id, new RecordMetaData(cal, operator, types[operation], md5));
+					}
+				} else if(type == DELETE_ENTRY) {
+					this.metaData.remove(id);
+				} else {
+					throw new IOException("Corrupt metadata log " + f + " at byte " + good);
+				}
+				good = cis.getCount();
+			}
+		} catch(EOFException e) {
+			log.warn("Metadata log " + f + " ends with an incomplete entry, truncating to " + good + " bytes");
+			truncate(f, good);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Resolve an operator class by name
+	 * @param name the class name
+	 * @return the class, or null if it is not on the classpath
+	 */
+	private Class<?> getOperator(String name) {
+		if(this.operators.containsKey(name)) {
+			return this.operators.get(name);
+		}
+		Class<?> operator;
+		try {
+			operator = Class.forName(name);
+		} catch(ClassNotFoundException e) {
+			log.debug("Ignoring metadata from unknown operator " + name);
+			operator = null;
+		}
+		this.operators.put(name, operator);
+		return operator;
+	}
+	
+	/**
+	 * Write a new file containing only a header
+	 * @param f the file
+	 * @param magic the magic number identifying the file type
+	 * @throws IOException error writing
+	 */
+	private static void writeHeader(File f, int magic) throws IOException {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(f));
+		try {
+			out.writeInt(magic);
+			out.writeInt(VERSION);
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Check the header of a file
+	 * @param in the file input
+	 * @param magic the magic number expected
+	 * @param f the file (for error messages)
+	 * @throws IOException header does not match
+	 */
+	private static void checkHeader(DataInputStream in, int magic, File f) throws IOException {
+		if(in.readInt() != magic) {
+			throw new IOException(f + " is not a packed record handler file");
+		}
+		int version = in.readInt();
+		if(version != VERSION) {
+			throw new IOException(f + " has unsupported version " + version);
+		}
+	}
+	
+	/**
+	 * Truncate a file
+	 * @param f the file
+	 * @param length the new length
+	 * @throws IOException error truncating
+	 */
+	private static void truncate(File f, long length) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			raf.setLength(length);
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * List the segment numbers present in the directory
+	 * @return the segment numbers in ascending order
+	 */
+	private SortedSet<Integer> listSegments() {
+		SortedSet<Integer> segs = new TreeSet<Integer>();
+		String[] names = this.dir.list();
+		if(names != null) {
+			for(String name : names) {
+				if(name.startsWith("segment-") && name.endsWith(".dat")) {
+					try {
+						segs.add(Integer.valueOf(name.substring(8, name.length() - 4)));
+					} catch(NumberFormatException e) {
+						// not a segment
+					}
+				}
+			}
+		}
+		return segs;
+	}
+	
+	/**
+	 * Get the file for a segment number
+	 * @param seg the segment number
+	 * @return the file
+	 */
+	private File segmentFile(int seg) {
+		return new File(this.dir, String.format("segment-%05d.dat", Integer.valueOf(seg)));
+	}
+	
+	/**
+	 * Get the open channel for a segment, opening it if needed
+	 * @param seg the segment number
+	 * @return the channel
+	 * @throws IOException error opening segment
+	 */
+	private FileChannel getSegment(int seg) throws IOException {
+		Integer key = Integer.valueOf(seg);
+		FileChannel ch = this.segments.get(key);
+		if(ch == null) {
+			ch = new RandomAccessFile(segmentFile(seg), "rw").getChannel();
+			this.segments.put(key, ch);
+		}
+		return ch;
+	}
+	
+	/**
+	 * Append data to the current segment, starting a new segment if it is full
+	 * @param data the data
+	 * @return the index entry for the data (md5 not set)
+	 * @throws IOException error writing
+	 */
+	private IndexEntry append(byte[] data) throws IOException {
+		if((this.writePosition > 0) && ((this.writePosition + data.length) > this.segmentSize)) {
+			this.currentSegment++;
+			this.writePosition = 0;
+		}
+		FileChannel ch = getSegment(this.currentSegment);
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		long pos = this.writePosition;
+		while(buf.hasRemaining()) {
+			pos += ch.write(buf, pos);
+		}
+		IndexEntry entry = new IndexEntry();
+		entry.segment = this.currentSegment;
+		entry.offset = this.writePosition;
+		entry.length = data.length;
+		this.writePosition = pos;
+		this.totalBytes += data.length;
+		return entry;
+	}
+	
+	/**
+	 * Read the data an index entry points to
+	 * @param entry the index entry
+	 * @return the data
+	 * @throws IOException error reading
+	 */
+	private String read(IndexEntry entry) throws IOException {
+		FileChannel ch = getSegment(entry.segment);
+		ByteBuffer buf = ByteBuffer.allocate(entry.length);
+		long pos = entry.offset;
+		while(buf.hasRemaining()) {
+			int n = ch.read(buf, pos);
+			if(n < 0) {
+				throw new IOException("Segment " + segmentFile(entry.segment) + " is shorter than its index");
+			}
+			pos += n;
+		}
+		buf.flip();
+		return UTF8.decode(buf).toString();
+	}
+	
+	/**
+	 * Write an index entry
+	 * @param id the record id
+	 * @param entry the entry (null for a delete)
+	 * @param out the index output
+	 * @throws IOException error writing
+	 */
+	private static void writeIndexEntry(String id, IndexEntry entry, DataOutputStream out) throws IOException {
+		if(entry == null) {
+			out.writeByte(DELETE_ENTRY);
+			out.writeUTF(id);
+			return;
+		}
+		out.writeByte(WRITE_ENTRY);
+		out.writeUTF(id);
+		out.writeInt(entry.segment);
+		out.writeLong(entry.offset);
+		out.writeInt(entry.length);
+		out.write(entry.md5);
+	}
+	
+	/**
+	 * Write a metadata log entry
+	 * @param id the record id
+	 * @param rmd the metadata (null for a delete of all metadata)
+	 * @param out the metadata log output
+	 * @throws IOException error writing
+	 */
+	private static void writeMetaEntry(String id, RecordMetaData rmd, DataOutputStream out) throws IOException {
+		if(rmd == null) {
+			out.writeByte(DELETE_ENTRY);
+			out.writeUTF(id);
+			return;
+		}
+		out.writeByte(WRITE_ENTRY);
+		out.writeUTF(id);
+		out.writeLong(rmd.getDate().getTimeInMillis());
+		out.writeByte(rmd.getOperation().ordinal());
+		out.writeUTF(rmd.getOperator().getName());
+		out.writeUTF(rmd.getMD5());
+	}
+	
+	/**
+	 * Add metadata to the in memory metadata
+	 * @param id the record id
+	 * @param rmd the metadata
+	 */
+	private void putMetaData(String id, RecordMetaData rmd) {
+		SortedSet<RecordMetaData> set = this.metaData.get(id);
+		if(set == null) {
+			set = new TreeSet<RecordMetaData>();
+			this.metaData.put(id, set);
+		}
+		set.add(rmd);
+	}
+	
+	/**
+	 * Make a md5 hash of record data, matching RecordMetaData.md5hex
+	 * @param text the data
+	 * @return the md5 hash
+	 */
+	private static byte[] md5(String text) {
+		return DigestUtils.md5(text.trim());
+	}
+	
+	@Override
+	protected synchronized boolean needsUpdated(Record rec) {
+		IndexEntry entry = this.index.get(rec.getID());
+		return (entry == null) || !Arrays.equals(entry.md5, md5(rec.getData()));
+	}
+	
+	@Override
+	public synchronized boolean addRecord(Record rec, Class<?> creator, boolean overwrite) throws IOException {
+		if(!needsUpdated(rec)) {
+			return false;
+		}
+		if(!overwrite && this.index.containsKey(rec.getID())) {
+			throw new IOException("Record already exists!");
+		}
+		IndexEntry entry = append(rec.getData().getBytes(UTF8));
+		entry.md5 = md5(rec.getData());
+		writeIndexEntry(rec.getID(), entry, this.indexOut);
+		IndexEntry old = this.index.put(rec.getID(), entry);
+		if(old != null) {
+			this.liveBytes -= old.length;
+		}
+		this.liveBytes += entry.length;
+		this.indexOut.flush();
+		setWritten(rec, creator);
+		return true;
+	}
+	
+	@Override
+	public synchronized void delRecord(String recID) throws IOException {
+		IndexEntry old = this.index.remove(recID);
+		if(old == null) {
+			log.warn("Attempted to delete record " + recID + ", but it did not exist.");
+		} else {
+			this.liveBytes -= old.length;
+			writeIndexEntry(recID, null, this.indexOut);
+			this.indexOut.flush();
+		}
+		delMetaData(recID);
+	}
+	
+	@Override
+	public synchronized String getRecordData(String recID) throws IllegalArgumentException, IOException {
+		IndexEntry entry = this.index.get(recID);
+		if(entry == null) {
+			throw new IllegalArgumentException("Record " + recID + " does not exist!");
+		}
+		return read(entry);
+	}
+	
+	@Override
+	protected synchronized void addMetaData(Record rec, RecordMetaData rmd) throws IOException {
+		putMetaData(rec.getID(), rmd);
+		writeMetaEntry(rec.getID(), rmd, this.metaOut);
+		this.metaOut.flush();
+	}
+	
+	@Override
+	protected synchronized void delMetaData(String recID) throws IOException {
+		if(this.metaData.remove(recID) != null) {
+			writeMetaEntry(recID, null, this.metaOut);
+			this.metaOut.flush();
+		}
+		metaDataDeleted(recID);
+	}
+	
+	@Override
+	public synchronized RecordMetaDataIndex getMetaDataIndex(Collection<String> recIDs) {
+		RecordMetaDataIndex rmdIndex = new RecordMetaDataIndex();
+		for(String recID : (recIDs == null) ? this.metaData.keySet() : recIDs) {
+			SortedSet<RecordMetaData> rmds = this.metaData.get(recID);
+			if(rmds != null) {
+				for(RecordMetaData rmd : rmds) {
+					rmdIndex.add(recID, rmd);
+				}
+			}
+		}
+		return rmdIndex;
+	}
+	
+	@Override
+	protected synchronized SortedSet<RecordMetaData> getRecordMetaData(String recID) throws IOException {
+		SortedSet<RecordMetaData> x = this.metaData.get(recID);
+		if((x == null) || x.isEmpty()) {
+			throw new IOException("No Matching MetaData Found");
+		}
+		return x;
+	}
+	
+	/**
+	 * Rewrite the live records into new segments and write a fresh index and metadata log, then remove the old
+	 * segments. The new index replaces the old one in a single rename, so an interrupted compact leaves either the old
+	 * or the new records in place and the unreferenced segments are removed the next time the directory is opened.
+	 * @throws IOException error compacting
+	 */
+	public synchronized void compact() throws IOException {
+		log.debug("Compacting " + this.dir + ": " + this.liveBytes + " of " + this.totalBytes + " bytes live");
+		this.indexOut.flush();
+		this.metaOut.flush();
+		Set<Integer> oldSegments = new HashSet<Integer>(listSegments());
+		this.currentSegment++;
+		this.writePosition = 0;
+		this.totalBytes = 0;
+		Map<String, IndexEntry> newIndex = new HashMap<String, IndexEntry>();
+		File indexTmp = new File(this.dir, INDEX_FILE + ".tmp");
+		File metaTmp = new File(this.dir, META_FILE + ".tmp");
+		DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexTmp), 65536));
+		DataOutputStream meta = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(metaTmp), 65536));
+		try {
+			idx.writeInt(INDEX_MAGIC);
+			idx.writeInt(VERSION);
+			meta.writeInt(META_MAGIC);
+			meta.writeInt(VERSION);
+			// copy in segment order so the old segments are read sequentially
+			Map<IndexEntry, String> byLocation = new TreeMap<IndexEntry, String>();
+			for(String id : this.index.keySet()) {
+				byLocation.put(this.index.get(id), id);
+			}
+			for(IndexEntry old : byLocation.keySet()) {
+				String id = byLocation.get(old);
+				IndexEntry entry = append(read(old).getBytes(UTF8));
+				entry.md5 = old.md5;
+				writeIndexEntry(id, entry, idx);
+				newIndex.put(id, entry);
+			}
+			for(String id : this.metaData.keySet()) {
+				// the set iterates newest first, so write it in reverse to keep the log in time order
+				RecordMetaData[] rmds = this.metaData.get(id).toArray(new RecordMetaData[0]);
+				for(int x = rmds.length - 1; x >= 0; x--) {
+					writeMetaEntry(id, rmds[x], meta);
+				}
+			}
+		} finally {
+			idx.close();
+			meta.close();
+		}
+		for(FileChannel ch : this.segments.values()) {
+			ch.force(true);
+		}
+		this.indexOut.close();
+		this.metaOut.close();
+		Files.move(indexTmp.toPath(), new File(this.dir, INDEX_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		Files.move(metaTmp.toPath(), new File(this.dir, META_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		this.index = newIndex;
+		for(Integer seg : oldSegments) {
+			if(seg.intValue() < this.currentSegment) {
+				FileChannel ch = this.segments.remove(seg);
+				if(ch != null) {
+					ch.close();
+				}
+				if(!segmentFile(seg.intValue()).delete()) {
+					log.warn("Failed to delete old segment " + segmentFile(seg.intValue()));
+				}
+			}
+		}
+		this.liveBytes = this.totalBytes;
+		this.indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(this.dir, INDEX_FILE), true), 65536));
+		this.metaOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(this.dir, META_FILE), true), 65536));
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		if(this.indexOut == null) {
+			return;
+		}
+		if((this.totalBytes > 0) && ((this.liveBytes * 2) < this.totalBytes)) {
+			compact();
+		}
+		this.indexOut.close();
+		this.metaOut.close();
+		this.indexOut = null;
+		this.metaOut = null;
+		for(FileChannel ch : this.segments.values()) {
+			ch.close();
+		}
+		this.segments.clear();
+	}
+	
+	@Override
+	public synchronized boolean isClosed() {
+		return this.indexOut == null;
+	}
+	
+	@Override
+	public synchronized Set<String> find(String idText) {
+		Set<String> retVal = new TreeSet<String>();
+		for(String id : this.index.keySet()) {
+			if(id.contains(idText)) {
+				retVal.add(id);
+			}
+		}
+		return retVal;
+	}
+	
+	@Override
+	public synchronized Iterator<Record> iterator() {
+		return new PackedRecordIterator(new TreeSet<String>(this.index.keySet()));
+	}
+	
+	/**
+	 * Iterator for PackedRecordHandler
+	 * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+	 */
+	private class PackedRecordIterator implements Iterator<Record> {
+		/**
+		 * Iterator for the record ids
+		 */
+		private Iterator<String> keyIter;
+		
+		/**
+		 * Constructor
+		 * @param ids the record ids to iterate
+		 */
+		protected PackedRecordIterator(Set<String> ids) {
+			this.keyIter = ids.iterator();
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return this.keyIter.hasNext();
+		}
+		
+		@Override
+		public Record next() {
+			try {
+				return getRecord(this.keyIter.next());
+			} catch(IOException e) {
+				throw new NoSuchElementException(e.getMessage());
+			}
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+	/**
+	 * Location of a record's data
+	 * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+	 */
+	private static class IndexEntry implements Comparable<IndexEntry> {
+		/**
+		 * segment number
+		 */
+		int segment;
+		/**
+		 * offset in the segment
+		 */
+		long offset;
+		/**
+		 * length in bytes
+		 */
+		int length;
+		/**
+		 * md5 hash of the data
+		 */
+		byte[] md5;
+		
+		/**
+		 * Default Constructor
+		 */
+		protected IndexEntry() {
+			// fields are set by the handler
+		}
+		
+		@Override
+		public int compareTo(IndexEntry o) {
+			if(this.segment != o.segment) {
+				return (this.segment < o.segment) ? -1 : 1;
+			}
+			if(this.offset != o.offset) {
+				return (this.offset < o.offset) ? -1 : 1;
+			}
+			return 0;
+		}
+	}
+	
+	/**
+	 * InputStream that counts the bytes read through it
+	 * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		/**
+		 * number of bytes read
+		 */
+		private long count;
+		
+		/**
+		 * Constructor
+		 * @param in the stream to read
+		 */
+		protected CountingInputStream(InputStream in) {
+			super(new BufferedInputStream(in, 65536));
+			this.count = 0;
+		}
+		
+		/**
+		 * Get the number of bytes read
+		 * @return the count
+		 */
+		protected long getCount() {
+			return this.count;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b >= 0) {
+				this.count++;
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if(n > 0) {
+				this.count += n;
+			}
+			return n;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long s = super.skip(n);
+			this.count += s;
+			return s;
+		}
+	}
+}
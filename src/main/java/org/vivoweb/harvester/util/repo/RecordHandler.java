@@ -9,10 +9,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -42,6 +44,14 @@ public abstract class RecordHandler implements Iterable<Record> {
 	 * Do we overwrite existing records by default
 	 */
 	private boolean overwriteDefault = true;
+	/**
+	 * Metadata summary for every record, used by needsUpdated and needsProcessed once loaded (null if not loaded)
+	 */
+	private RecordMetaDataIndex metaDataIndex;
+	/**
+	 * Instances built by parseConfig, by their parameters, when sharing (null if not sharing)
+	 */
+	private static Map<String, RecordHandler> sharedInstances = null;
 	
 	/**
 	 * Sets parameters from param list
@@ -99,6 +109,25 @@ public abstract class RecordHandler implements Iterable<Record> {
 		return addRecord(new Record(recID, recData, this), creator);
 	}
 	
+	/**
+	 * Adds a batch of records to the RecordHandler If overwriteDefault is set to true, will automatically overwrite
+	 * existing records
+	 * RecordHandlers that can write many records at once should override this
+	 * @param recs mapping of record id to record data, added in iteration order
+	 * @param creator the creator
+	 * @return the number of records added (records already existing with the same data are not counted)
+	 * @throws IOException error adding
+	 */
+	public int addRecords(Map<String, String> recs, Class<?> creator) throws IOException {
+		int count = 0;
+		for(Map.Entry<String, String> rec : recs.entrySet()) {
+			if(addRecord(rec.getKey(), rec.getValue(), creator)) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
 	/**
 	 * Get a record
 	 * @param recID record id to get
@@ -172,7 +201,22 @@ public abstract class RecordHandler implements Iterable<Record> {
 	 * @throws IOException error adding meta data
 	 */
 	protected void addMetaData(Record rec, Class<?> operator, RecordMetaDataType type) throws IOException {
-		addMetaData(rec, new RecordMetaData(operator, type, RecordMetaData.md5hex(rec.getData())));
+		RecordMetaData rmd = new RecordMetaData(operator, type, RecordMetaData.md5hex(rec.getData()));
+		addMetaData(rec, rmd);
+		metaDataAdded(rec.getID(), rmd);
+	}
+	
+	/**
+	 * Add a record's new metadata to the loaded metadata index, to be called by implementations that store metadata
+	 * without addMetaData
+	 * @param recID record id the metadata was added for
+	 * @param rmd the metadata record
+	 */
+	protected void metaDataAdded(String recID, RecordMetaData rmd) {
+		RecordMetaDataIndex index = this.metaDataIndex;
+		if(index != null) {
+			index.add(recID, rmd);
+		}
 	}
 	
 	/**
@@ -190,6 +234,53 @@ public abstract class RecordHandler implements Iterable<Record> {
 	 */
 	protected abstract void delMetaData(String recID) throws IOException;
 	
+	/**
+	 * Drop a record from the loaded metadata index, to be called by delMetaData implementations
+	 * @param recID record id whose metadata was deleted
+	 */
+	protected void metaDataDeleted(String recID) {
+		RecordMetaDataIndex index = this.metaDataIndex;
+		if(index != null) {
+			index.remove(recID);
+		}
+	}
+	
+	/**
+	 * Get the metadata summary for many records at once
+	 * RecordHandlers that can read all their metadata in one pass should override this
+	 * @param recIDs the record ids to summarize (null for every record)
+	 * @return the metadata summary
+	 * @throws IOException error retrieving record metadata
+	 */
+	public RecordMetaDataIndex getMetaDataIndex(Collection<String> recIDs) throws IOException {
+		RecordMetaDataIndex index = new RecordMetaDataIndex();
+		for(String recID : (recIDs == null) ? find("") : recIDs) {
+			SortedSet<RecordMetaData> rmds;
+			try {
+				rmds = getRecordMetaData(recID);
+			} catch(IOException e) {
+				// no metadata for this record
+				continue;
+			}
+			for(RecordMetaData rmd : rmds) {
+				index.add(recID, rmd);
+			}
+		}
+		return index;
+	}
+	
+	/**
+	 * Load the metadata summary of every record into memory, so that needsUpdated and needsProcessed are answered from
+	 * memory for the rest of the run instead of reading each record's metadata. Metadata added or deleted through this
+	 * RecordHandler afterwards keeps the summary up to date.
+	 * @throws IOException error retrieving record metadata
+	 */
+	public void loadMetaDataIndex() throws IOException {
+		long start = System.currentTimeMillis();
+		this.metaDataIndex = getMetaDataIndex(null);
+		log.debug("Loaded metadata for " + this.metaDataIndex.size() + " records in " + (System.currentTimeMillis() - start) + "ms");
+	}
+	
 	/**
 	 * Delete the specified Record
 	 * @param recID id of record to delete
@@ -234,7 +325,62 @@ public abstract class RecordHandler implements Iterable<Record> {
 				log.debug("'" + param + "' - '" + paramList.get(param) + "'");
 			}
 		}
-		return build(paramList);
+		return buildShared(paramList);
+	}
+	
+	/**
+	 * Share the instances built by parseConfig, so a config with the same parameters as an earlier one gets the
+	 * already open instance rather than opening it again
+	 * @param share share instances from now on if true, stop sharing (without closing) if false
+	 */
+	public static synchronized void setShareInstances(boolean share) {
+		if(!share) {
+			sharedInstances = null;
+		} else if(sharedInstances == null) {
+			sharedInstances = new HashMap<String, RecordHandler>();
+		}
+	}
+	
+	/**
+	 * Close every shared instance and stop sharing
+	 */
+	public static synchronized void closeSharedInstances() {
+		if(sharedInstances == null) {
+			return;
+		}
+		for(RecordHandler rh : sharedInstances.values()) {
+			try {
+				rh.close();
+			} catch(IOException e) {
+				log.warn("Unable to close record handler: " + e.getMessage());
+				log.debug("Stacktrace:", e);
+			}
+		}
+		sharedInstances = null;
+	}
+	
+	/**
+	 * Get the shared instance for the given parameter set, building it if there is none
+	 * @param params the value map
+	 * @return the RecordHandler
+	 * @throws IOException error configuring
+	 */
+	private static synchronized RecordHandler buildShared(Map<String, String> params) throws IOException {
+		if((sharedInstances == null) || (params == null)) {
+			return build(params);
+		}
+		// build consumes the parameters, so take the key first
+		String key = new TreeMap<String, String>(params).toString();
+		RecordHandler rh = sharedInstances.get(key);
+		if((rh == null) || rh.isClosed()) {
+			rh = build(params);
+			if(rh != null) {
+				sharedInstances.put(key, rh);
+			}
+		} else {
+			log.debug("Using shared record handler: " + rh.getClass().getSimpleName());
+		}
+		return rh;
 	}
 	
 	/**
@@ -319,6 +465,14 @@ public abstract class RecordHandler implements Iterable<Record> {
 	 */
 	public abstract void close() throws IOException;
 	
+	/**
+	 * Has the recordhandler been closed, so it can no longer be used
+	 * @return true if closed, false for recordhandlers that remain usable after close
+	 */
+	public boolean isClosed() {
+		return false;
+	}
+	
 	/**
 	 * Config Parser for RecordHandlers
 	 * @author Christopher Haines (hainesc@ctrip.ufl.edu)
@@ -402,6 +556,10 @@ public abstract class RecordHandler implements Iterable<Record> {
 	 * @return true if written since last processed by operator or if never been processed by operator
 	 */
 	public boolean needsProcessed(String id, Class<?> operator) {
+		RecordMetaDataIndex index = this.metaDataIndex;
+		if(index != null) {
+			return index.needsProcessed(id, operator);
+		}
 		try {
 			RecordMetaData rmdWrite = getLastMetaData(id, RecordMetaDataType.written, null);
 			Calendar write = rmdWrite.getDate();
@@ -427,6 +585,10 @@ public abstract class RecordHandler implements Iterable<Record> {
 	 */
 	protected boolean needsUpdated(Record rec) {
 		// log.debug("Checking if Record "+rec.getID()+" needs updated");
+		RecordMetaDataIndex index = this.metaDataIndex;
+		if(index != null) {
+			return index.needsUpdated(rec.getID(), RecordMetaData.md5hex(rec.getData()));
+		}
 		try {
 			RecordMetaData rmd = getLastMetaData(rec.getID(), RecordMetaDataType.written, null);
 			// Check if previous written record meta data exists
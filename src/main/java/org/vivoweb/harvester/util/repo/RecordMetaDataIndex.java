@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.util.repo;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.vivoweb.harvester.util.repo.RecordMetaData.RecordMetaDataType;
+
+/**
+ * In memory summary of record metadata: the md5 and time of the last write and the time each operator last processed
+ * each record. This is all needsUpdated and needsProcessed look at, so once a RecordHandler has loaded its index those
+ * checks no longer have to fetch and sort every metadata entry of the record.
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class RecordMetaDataIndex {
+	/**
+	 * summary for each record id
+	 */
+	private final Map<String, Summary> summaries;
+	
+	/**
+	 * Default Constructor
+	 */
+	public RecordMetaDataIndex() {
+		this.summaries = new HashMap<String, Summary>();
+	}
+	
+	/**
+	 * Add a metadata entry
+	 * @param recID the record id
+	 * @param rmd the metadata
+	 */
+	public void add(String recID, RecordMetaData rmd) {
+		add(recID, rmd.getDate().getTimeInMillis(), rmd.getOperation(), rmd.getOperator().getName(), rmd.getMD5());
+	}
+	
+	/**
+	 * Add a metadata entry
+	 * @param recID the record id
+	 * @param date the time the operation was performed in milliseconds
+	 * @param operation the operation performed
+	 * @param operator the name of the class that performed the operation
+	 * @param md5 md5 hash of the data
+	 */
+	public synchronized void add(String recID, long date, RecordMetaDataType operation, String operator, String md5) {
+		Summary s = this.summaries.get(recID);
+		if(s == null) {
+			s = new Summary();
+			this.summaries.put(recID, s);
+		}
+		if(operation == RecordMetaDataType.written) {
+			if(date >= s.written) {
+				s.written = date;
+				s.md5 = md5;
+			}
+		} else if(operation == RecordMetaDataType.processed) {
+			if(s.processed == null) {
+				s.processed = new HashMap<String, Long>(4);
+			}
+			Long last = s.processed.get(operator);
+			if((last == null) || (date > last.longValue())) {
+				s.processed.put(operator, Long.valueOf(date));
+			}
+		}
+	}
+	
+	/**
+	 * Remove all metadata for a record
+	 * @param recID the record id
+	 */
+	public synchronized void remove(String recID) {
+		this.summaries.remove(recID);
+	}
+	
+	/**
+	 * Get the number of records with metadata
+	 * @return the number of records
+	 */
+	public synchronized int size() {
+		return this.summaries.size();
+	}
+	
+	/**
+	 * Get the md5 of the last write of a record
+	 * @param recID the record id
+	 * @return the md5, or null if the record has never been written
+	 */
+	public synchronized String getLastWrittenMD5(String recID) {
+		Summary s = this.summaries.get(recID);
+		return (s == null) ? null : s.md5;
+	}
+	
+	/**
+	 * Get the time of the last write of a record
+	 * @param recID the record id
+	 * @return the time in milliseconds, or -1 if the record has never been written
+	 */
+	public synchronized long getLastWritten(String recID) {
+		Summary s = this.summaries.get(recID);
+		return ((s == null) || (s.md5 == null)) ? -1 : s.written;
+	}
+	
+	/**
+	 * Get the time an operator last processed a record
+	 * @param recID the record id
+	 * @param operator the class to check for
+	 * @return the time in milliseconds, or -1 if the operator has never processed the record
+	 */
+	public synchronized long getLastProcessed(String recID, Class<?> operator) {
+		Summary s = this.summaries.get(recID);
+		if((s == null) || (s.processed == null)) {
+			return -1;
+		}
+		Long last = s.processed.get(operator.getName());
+		return (last == null) ? -1 : last.longValue();
+	}
+	
+	/**
+	 * Does the given data differ from the last write of a record
+	 * @param recID the record id
+	 * @param md5 md5 hash of the new data
+	 * @return true if the md5 differs or the record has never been written
+	 */
+	public boolean needsUpdated(String recID, String md5) {
+		return !md5.equals(getLastWrittenMD5(recID));
+	}
+	
+	/**
+	 * Has the given record been written since last processed by operator?
+	 * @param recID the record id
+	 * @param operator the class to check for
+	 * @return true if written since last processed by operator or if never been processed by operator
+	 */
+	public synchronized boolean needsProcessed(String recID, Class<?> operator) {
+		long processed = getLastProcessed(recID, operator);
+		return (processed < 0) || (processed < getLastWritten(recID));
+	}
+	
+	/**
+	 * Metadata summary for one record
+	 */
+	private static class Summary {
+		/**
+		 * time of the last write
+		 */
+		long written = -1;
+		/**
+		 * md5 of the last write (null if never written)
+		 */
+		String md5;
+		/**
+		 * time each operator last processed the record, by operator class name (null if never processed)
+		 */
+		Map<String, Long> processed;
+		
+		/**
+		 * Default Constructor
+		 */
+		protected Summary() {
+			// fields are set by the index
+		}
+	}
+}
@@ -0,0 +1,557 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.harvester.util.repo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ResultSetStream;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+
+/**
+ * Keeps the results of select queries in files in a local directory, so a query repeated against an unchanged model,
+ * in this run or a later one, is answered without being executed again. Each result is written in a compact binary
+ * form in which every distinct node is written once and then referred to by number. Results are streamed to and from
+ * the files a row at a time, so they are never held in memory whole. When the files grow past the size limit the least
+ * recently used are removed.
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class SelectResultCache {
+	/**
+	 * SLF4J Logger
+	 */
+	private static Logger log = LoggerFactory.getLogger(SelectResultCache.class);
+	/**
+	 * default size limit in megabytes
+	 */
+	public static final int DEFAULT_MAX_SIZE_MB = 512;
+	/**
+	 * marks the start of a result file
+	 */
+	private static final int MAGIC = 0x56525331;
+	/**
+	 * suffix of result files
+	 */
+	private static final String SUFFIX = ".rs";
+	/**
+	 * tag of a uri node
+	 */
+	private static final byte NODE_URI = 'U';
+	/**
+	 * tag of a blank node
+	 */
+	private static final byte NODE_BLANK = 'B';
+	/**
+	 * tag of a literal node
+	 */
+	private static final byte NODE_LITERAL = 'L';
+	/**
+	 * marks the end of the rows
+	 */
+	private static final byte END = 0;
+	/**
+	 * marks a row
+	 */
+	private static final byte ROW = 1;
+	/**
+	 * marks a row before which the node table is emptied
+	 */
+	private static final byte ROW_RESET = 2;
+	/**
+	 * number of nodes numbered before the node table is emptied, bounding the memory used to write and read a result
+	 */
+	private static final int MAX_NODE_TABLE = 100000;
+	/**
+	 * the cache directory
+	 */
+	private final File dir;
+	/**
+	 * size limit of the cache directory in bytes
+	 */
+	private final long maxBytes;
+	/**
+	 * number of queries answered from the cache
+	 */
+	private long hits;
+	/**
+	 * number of queries not found in the cache
+	 */
+	private long misses;
+	
+	/**
+	 * Constructor
+	 * @param dir the cache directory, created if needed
+	 * @param maxSizeMB size limit of the cache directory in megabytes
+	 */
+	public SelectResultCache(String dir, int maxSizeMB) {
+		if(maxSizeMB < 1) {
+			throw new IllegalArgumentException("query cache size must be at least 1 MB");
+		}
+		this.dir = new File(dir);
+		if(!this.dir.isDirectory() && !this.dir.mkdirs()) {
+			throw new IllegalArgumentException("Unable to create query cache directory: " + dir);
+		}
+		this.maxBytes = maxSizeMB * 1024L * 1024L;
+		this.hits = 0;
+		this.misses = 0;
+	}
+	
+	/**
+	 * Get the cached results for a key. The rows are read from the cache file as they are used, the file is closed once
+	 * the last row is read.
+	 * @param key identifies the query and the model version it ran against
+	 * @param model the model the query ran against, that the results' resources belong to
+	 * @return the results, or null if not cached
+	 */
+	public synchronized ResultSet get(String key, Model model) {
+		File file = getFile(key);
+		if(file.isFile()) {
+			try {
+				ResultSet rs = read(file, key, model);
+				if(rs != null) {
+					file.setLastModified(System.currentTimeMillis());
+					this.hits++;
+					log.debug("Query cache hit: " + file.getName());
+					return rs;
+				}
+			} catch(IOException e) {
+				log.warn("Unable to read query cache file " + file.getName() + ": " + e.getMessage());
+				log.debug("Stacktrace:", e);
+			}
+		}
+		this.misses++;
+		log.debug("Query cache miss: " + file.getName());
+		return null;
+	}
+	
+	/**
+	 * Cache the results for a key. The results are streamed into the cache file, so the query execution they came from
+	 * can be closed once this returns, and the returned results are read back from the file as they are used.
+	 * @param key identifies the query and the model version it ran against
+	 * @param results the results
+	 * @param model the model the query ran against, that the results' resources belong to
+	 * @return the results read back from the cache, or null if the cache file could not be created, in which case the
+	 *         given results have not been read
+	 * @throws IOException error writing the cache file after the results were partly read
+	 */
+	public synchronized ResultSet put(String key, ResultSet results, Model model) throws IOException {
+		File file = getFile(key);
+		File temp = new File(this.dir, file.getName() + ".tmp");
+		DataOutputStream out;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		} catch(IOException e) {
+			log.warn("Unable to create query cache file " + temp.getName() + ": " + e.getMessage());
+			log.debug("Stacktrace:", e);
+			return null;
+		}
+		try {
+			try {
+				write(out, key, results);
+			} finally {
+				out.close();
+			}
+			if(!temp.renameTo(file)) {
+				file.delete();
+				if(!temp.renameTo(file)) {
+					throw new IOException("Unable to rename " + temp.getName());
+				}
+			}
+			// open the results before evicting, which may remove a result larger than the size limit
+			ResultSet rs = read(file, key, model);
+			evict();
+			return rs;
+		} catch(IOException e) {
+			temp.delete();
+			throw new IOException("Unable to write query cache file " + file.getName(), e);
+		}
+	}
+	
+	/**
+	 * Get the number of queries answered from the cache
+	 * @return the number of hits
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+	
+	/**
+	 * Get the number of queries not found in the cache
+	 * @return the number of misses
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return "query cache " + this.dir.getPath() + ": " + this.hits + " hits, " + this.misses + " misses";
+	}
+	
+	/**
+	 * Get the file holding the results for a key
+	 * @param key the key
+	 * @return the file
+	 */
+	private File getFile(String key) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] digest = md.digest(key.getBytes(StandardCharsets.UTF_8));
+		StringBuilder name = new StringBuilder(digest.length * 2 + SUFFIX.length());
+		for(byte b : digest) {
+			name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return new File(this.dir, name.append(SUFFIX).toString());
+	}
+	
+	/**
+	 * Remove the least recently used result files until the directory is within the size limit
+	 */
+	private void evict() {
+		File[] files = this.dir.listFiles();
+		if(files == null) {
+			return;
+		}
+		long total = 0;
+		List<File> results = new ArrayList<File>();
+		final Map<File, Long> lastUsed = new HashMap<File, Long>();
+		for(File file : files) {
+			if(file.getName().endsWith(SUFFIX)) {
+				results.add(file);
+				lastUsed.put(file, Long.valueOf(file.lastModified()));
+				total += file.length();
+			}
+		}
+		if(total <= this.maxBytes) {
+			return;
+		}
+		File[] byAge = results.toArray(new File[results.size()]);
+		Arrays.sort(byAge, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return lastUsed.get(o1).compareTo(lastUsed.get(o2));
+			}
+		});
+		for(int x = 0; (x < byAge.length) && (total > this.maxBytes); x++) {
+			long length = byAge[x].length();
+			if(byAge[x].delete()) {
+				total -= length;
+				log.debug("Evicted query cache file " + byAge[x].getName());
+			}
+		}
+	}
+	
+	/**
+	 * Write results to a cache file
+	 * @param out the cache file output
+	 * @param key the key, stored to guard against hash collisions
+	 * @param rs the results
+	 * @throws IOException error writing
+	 */
+	private static void write(DataOutputStream out, String key, ResultSet rs) throws IOException {
+		out.writeInt(MAGIC);
+		writeString(out, key);
+		List<String> varNames = rs.getResultVars();
+		Var[] vars = new Var[varNames.size()];
+		writeInt(out, vars.length);
+		for(int x = 0; x < vars.length; x++) {
+			writeString(out, varNames.get(x));
+			vars[x] = Var.alloc(varNames.get(x));
+		}
+		Map<Node, Integer> nodeIds = new HashMap<Node, Integer>();
+		while(rs.hasNext()) {
+			Binding binding = rs.nextBinding();
+			if(nodeIds.size() >= MAX_NODE_TABLE) {
+				nodeIds.clear();
+				out.writeByte(ROW_RESET);
+			} else {
+				out.writeByte(ROW);
+			}
+			for(Var var : vars) {
+				Node node = binding.get(var);
+				if(node == null) {
+					writeInt(out, 0);
+					continue;
+				}
+				Integer id = nodeIds.get(node);
+				if(id != null) {
+					writeInt(out, id.intValue());
+					continue;
+				}
+				// a new node is written in full the first time and is numbered in the order it first appears
+				id = Integer.valueOf(nodeIds.size() + 1);
+				nodeIds.put(node, id);
+				writeInt(out, id.intValue());
+				writeNode(out, node);
+			}
+		}
+		out.writeByte(END);
+	}
+	
+	/**
+	 * Open results in a file, the rows are read as they are used
+	 * @param file the file
+	 * @param key the expected key
+	 * @param model the model the results' resources belong to
+	 * @return the results, or null if the file holds results for a different key
+	 * @throws IOException error reading
+	 */
+	private static ResultSet read(File file, String key, Model model) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		boolean opened = false;
+		try {
+			if((in.readInt() != MAGIC) || !readString(in).equals(key)) {
+				return null;
+			}
+			int varCount = readInt(in);
+			List<String> varNames = new ArrayList<String>(varCount);
+			Var[] vars = new Var[varCount];
+			for(int x = 0; x < varCount; x++) {
+				varNames.add(readString(in));
+				vars[x] = Var.alloc(varNames.get(x));
+			}
+			ResultSet rs = new ResultSetStream(varNames, model, new BindingReader(in, vars));
+			opened = true;
+			return rs;
+		} finally {
+			if(!opened) {
+				in.close();
+			}
+		}
+	}
+	
+	/**
+	 * Reads the rows of a cache file one at a time, closing the file after the last
+	 */
+	private static class BindingReader implements Iterator<Binding> {
+		/**
+		 * the cache file input, positioned at the next row (null once closed)
+		 */
+		private DataInputStream in;
+		/**
+		 * the result variables
+		 */
+		private final Var[] vars;
+		/**
+		 * the nodes numbered so far
+		 */
+		private final List<Node> nodes;
+		/**
+		 * the next row (null if not read yet)
+		 */
+		private Binding next;
+		
+		/**
+		 * Constructor
+		 * @param in the cache file input, positioned at the first row
+		 * @param vars the result variables
+		 */
+		protected BindingReader(DataInputStream in, Var[] vars) {
+			this.in = in;
+			this.vars = vars;
+			this.nodes = new ArrayList<Node>();
+			this.next = null;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			if(this.next != null) {
+				return true;
+			}
+			if(this.in == null) {
+				return false;
+			}
+			try {
+				byte marker = this.in.readByte();
+				if(marker == END) {
+					this.in.close();
+					this.in = null;
+					return false;
+				}
+				if(marker == ROW_RESET) {
+					this.nodes.clear();
+				}
+				BindingMap binding = BindingFactory.create();
+				for(Var var : this.vars) {
+					int id = readInt(this.in);
+					if(id == 0) {
+						continue;
+					}
+					if(id > this.nodes.size()) {
+						this.nodes.add(readNode(this.in));
+					}
+					binding.add(var, this.nodes.get(id - 1));
+				}
+				this.next = binding;
+				return true;
+			} catch(IOException e) {
+				try {
+					this.in.close();
+				} catch(IOException e2) {
+					log.debug("Unable to close query cache file", e2);
+				}
+				this.in = null;
+				throw new UncheckedIOException("Unable to read query cache file", e);
+			}
+		}
+		
+		@Override
+		public Binding next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Binding binding = this.next;
+			this.next = null;
+			return binding;
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+	/**
+	 * Write a node
+	 * @param out the output
+	 * @param node the node
+	 * @throws IOException error writing
+	 */
+	private static void writeNode(DataOutputStream out, Node node) throws IOException {
+		if(node.isURI()) {
+			out.writeByte(NODE_URI);
+			writeString(out, node.getURI());
+		} else if(node.isBlank()) {
+			out.writeByte(NODE_BLANK);
+			writeString(out, node.getBlankNodeLabel());
+		} else if(node.isLiteral()) {
+			out.writeByte(NODE_LITERAL);
+			writeString(out, node.getLiteralLexicalForm());
+			writeString(out, node.getLiteralLanguage());
+			String datatype = node.getLiteralDatatypeURI();
+			writeString(out, (datatype != null) ? datatype : "");
+		} else {
+			throw new IOException("Unable to cache node: " + node);
+		}
+	}
+	
+	/**
+	 * Read a node
+	 * @param in the input
+	 * @return the node
+	 * @throws IOException error reading
+	 */
+	private static Node readNode(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		if(type == NODE_URI) {
+			return NodeFactory.createURI(readString(in));
+		}
+		if(type == NODE_BLANK) {
+			return NodeFactory.createBlankNode(readString(in));
+		}
+		if(type == NODE_LITERAL) {
+			String lex = readString(in);
+			String lang = readString(in);
+			String datatype = readString(in);
+			if(!lang.isEmpty()) {
+				return NodeFactory.createLiteral(lex, lang);
+			}
+			if(datatype.isEmpty()) {
+				return NodeFactory.createLiteral(lex);
+			}
+			return NodeFactory.createLiteral(lex, TypeMapper.getInstance().getSafeTypeByName(datatype));
+		}
+		throw new IOException("Corrupt query cache file, unknown node type: " + type);
+	}
+	
+	/**
+	 * Write a non-negative int in as few bytes as it needs, seven bits per byte
+	 * @param out the output
+	 * @param value the value
+	 * @throws IOException error writing
+	 */
+	private static void writeInt(DataOutputStream out, int value) throws IOException {
+		int v = value;
+		while((v & ~0x7F) != 0) {
+			out.writeByte((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+	
+	/**
+	 * Read an int written by writeInt
+	 * @param in the input
+	 * @return the value
+	 * @throws IOException error reading
+	 */
+	private static int readInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for(int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Corrupt query cache file, bad number");
+	}
+	
+	/**
+	 * Write a string of any length as its length followed by its UTF-8 bytes
+	 * @param out the output
+	 * @param value the string
+	 * @throws IOException error writing
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeInt(out, bytes.length);
+		out.write(bytes);
+	}
+	
+	/**
+	 * Read a string written by writeString
+	 * @param in the input
+	 * @return the string
+	 * @throws IOException error reading
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[readInt(in)];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -5,16 +5,23 @@
  ******************************************************************************/
 package org.vivoweb.harvester.util.repo;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Iterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vivoweb.harvester.util.FileAide;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphEvents;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.system.StreamRDFLib;
 import org.apache.jena.tdb.TDB;
 import org.apache.jena.tdb.TDBFactory;
+import org.apache.jena.tdb.TDBLoader;
+import org.apache.jena.tdb.store.GraphTDB;
 
 /**
  * Connection Helper for TDB Jena Models
@@ -33,6 +40,10 @@ public class TDBJenaConnect extends JenaConnect {
 	 * the TDB directory name
 	 */
 	private final String dbDir;
+	/**
+	 * was the TDB directory created by this instance as a temporary directory, removed when it is closed
+	 */
+	private final boolean tempDir;
 	
 	/**
 	 * Clone Constructor
@@ -53,11 +64,12 @@ public class TDBJenaConnect extends JenaConnect {
 	
 	/**
 	 * Constructor (TDB Named Model)
-	 * @param dbDir tdb directory name
+	 * @param dbDir tdb directory name (null for a temporary directory removed when this instance is closed, or on exit)
 	 * @param modelName the model to connect to
 	 */
 	public TDBJenaConnect(String dbDir, String modelName) {
-		this.dbDir = dbDir;
+		this.tempDir = (dbDir == null);
+		this.dbDir = this.tempDir ? createTempDir() : dbDir;
 		try {
 			FileAide.createFolder(this.dbDir);
 		} catch(IOException e) {
@@ -84,6 +96,23 @@ public class TDBJenaConnect extends JenaConnect {
 		sync(); 
 	}
 	
+	/**
+	 * Create a temporary directory to hold a tdb dataset, it is removed on exit
+	 * @return the directory path
+	 */
+	private static String createTempDir() {
+		File f;
+		try {
+			f = FileAide.createTempFile("tempJena", ".tdb");
+		} catch(IOException e) {
+			throw new IllegalArgumentException(e);
+		}
+		f.delete();
+		f.mkdir();
+		log.trace("created temp tdb directory: " + f.getAbsolutePath());
+		return f.getAbsolutePath();
+	}
+	
 	@Override
 	public Dataset getDataset() {
 		if(!dirDatasets.containsKey(this.dbDir)) {
@@ -101,6 +130,55 @@ public class TDBJenaConnect extends JenaConnect {
 	public void close() {
 		super.close();
 		getJenaModel().close();		 
+		if(this.tempDir) {
+			// neighbor clones share the temporary directory, they are unusable once it is removed
+			Dataset ds = dirDatasets.remove(this.dbDir);
+			if(ds != null) {
+				TDBFactory.release(ds);
+			}
+			try {
+				FileAide.delete(this.dbDir);
+			} catch(IOException e) {
+				log.warn("Unable to remove temporary tdb directory " + this.dbDir + ": " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Adds all records in a RecordHandler to the model using the TDB bulk loader. The records are streamed into one
+	 * N-Triples file which is then loaded in a single pass that builds each index in turn, so commitSize is not used.
+	 * Models that are not held in TDB graphs are loaded in batches as usual.
+	 */
+	@Override
+	public int loadRdfFromRH(RecordHandler rh, String namespace, String language, int commitSize) throws IOException {
+		Graph graph = getJenaModel().getGraph();
+		if(!(graph instanceof GraphTDB)) {
+			return super.loadRdfFromRH(rh, namespace, language, commitSize);
+		}
+		File nt = FileAide.createTempFile("tdbBulkLoad", ".nt");
+		try {
+			int processCount;
+			OutputStream out = FileAide.getOutputStream(nt.getAbsolutePath());
+			try {
+				processCount = parseRecords(rh, namespace, language, StreamRDFLib.writer(out));
+			} finally {
+				out.close();
+			}
+			log.debug("Bulk loading " + processCount + " records into tdb model");
+			// the bulk loader bypasses graph listeners, so announce the load like any other bulk change
+			getJenaModel().notifyEvent(GraphEvents.startRead);
+			TDBLoader.load((GraphTDB)graph, nt.getAbsolutePath(), false);
+			getJenaModel().notifyEvent(GraphEvents.finishRead);
+			sync();
+			return processCount;
+		} finally {
+			FileAide.delete(nt.getAbsolutePath());
+		}
+	}
+	
+	@Override
+	protected String getStoreKey() {
+		return "tdb:" + new File(this.dbDir).getAbsolutePath();
 	}
 	
 	@Override
@@ -14,6 +14,7 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
@@ -135,12 +136,41 @@ public class TextFileRecordHandler extends RecordHandler {
 		return true;
 	}
 	
+	@Override
+	public int addRecords(Map<String, String> recs, Class<?> creator) throws IOException {
+		int count = 0;
+		for(Map.Entry<String, String> entry : recs.entrySet()) {
+			String newID = sanitizeID(entry.getKey());
+			Record cleanRec = new Record((newID == null) ? entry.getKey() : newID, entry.getValue(), this);
+			if(!needsUpdated(cleanRec)) {
+				continue;
+			}
+			FileAide.setTextContent(this.fileDir+"/"+cleanRec.getID(), cleanRec.getData(), isOverwriteDefault());
+			// the metadata file is written once with its written entry, rather than created empty then parsed and rewritten
+			RecordMetaData rmd = new RecordMetaData(creator, RecordMetaDataType.written, RecordMetaData.md5hex(cleanRec.getData()));
+			createMetaDataFile(cleanRec.getID(), rmd);
+			metaDataAdded(cleanRec.getID(), rmd);
+			count++;
+		}
+		return count;
+	}
+	
 	/**
 	 * Creates the metadata file for a given record
 	 * @param recID the record id
 	 * @throws IOException error writing metadata file
 	 */
 	private void createMetaDataFile(String recID) throws IOException {
+		createMetaDataFile(recID, null);
+	}
+	
+	/**
+	 * Creates the metadata file for a given record
+	 * @param recID the record id
+	 * @param rmd the first metadata record of the file (null for none)
+	 * @throws IOException error writing metadata file
+	 */
+	private void createMetaDataFile(String recID, RecordMetaData rmd) throws IOException {
 		String fmo = null;
 		BufferedWriter bw = null;
 		try {
@@ -149,6 +179,15 @@ public class TextFileRecordHandler extends RecordHandler {
 			
 			bw = new BufferedWriter(new OutputStreamWriter(FileAide.getOutputStream(fmo)));
 			bw.append("<MetaDataRecordList>\n");
+			if(rmd != null) {
+				bw.append("  <MetaDataRecord>\n");
+				bw.append("    <Date>"+rmd.getDate().getTimeInMillis()+"</Date>\n");
+				bw.append("    <DateReadable>"+new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.S").format(rmd.getDate().getTime())+"</DateReadable>\n");
+				bw.append("    <Operation>"+rmd.getOperation()+"</Operation>\n");
+				bw.append("    <Operator>"+rmd.getOperator().getName()+"</Operator>\n");
+				bw.append("    <MD5>"+rmd.getMD5()+"</MD5>\n");
+				bw.append("  </MetaDataRecord>\n");
+			}
 			// bw.append("  <Date>"+rmd.getDate().getTimeInMillis()+"</Date>\n");
 			// bw.append("  <Operation>"+rmd.getOperation()+"</Operation>\n");
 			// bw.append("  <Operator>"+rmd.getOperator().getName()+"</Operator>\n");
@@ -238,6 +277,13 @@ public class TextFileRecordHandler extends RecordHandler {
 		} else if(!FileAide.delete(fmo)) {
 			throw new IOException("Failed to delete record " + recID + " metadata from file " + fmo);
 		}
+		metaDataDeleted(recID);
+	}
+	
+	@Override
+	public RecordMetaDataIndex getMetaDataIndex(Collection<String> recIDs) throws IOException {
+		// list the metadata files rather than iterating (and reading) every record
+		return super.getMetaDataIndex((recIDs == null) ? FileAide.getNonHiddenChildren(this.metaDir) : recIDs);
 	}
 	
 	@Override
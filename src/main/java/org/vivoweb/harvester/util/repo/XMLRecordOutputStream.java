@@ -5,7 +5,6 @@
  ******************************************************************************/
 package org.vivoweb.harvester.util.repo;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.regex.Matcher;
@@ -13,18 +12,24 @@ import java.util.regex.Pattern;
 
 /**
  * An Output Stream that breaks XML blobs into individual Records and writes to a RecordHandler
+ * Data is scanned once as it is written: every tag ends in '>', so the tags are only compared against the end of the
+ * buffer when a '>' arrives, and each record is handed on as soon as its closing tag is seen. Only the current record
+ * (or, between records, the last few bytes) is ever held in memory.
  * @author Christopher Haines (hainesc@ctrip.ufl.edu)
  */
 public class XMLRecordOutputStream extends OutputStream implements Cloneable {
 	/**
 	 * Buffer to hold data until a complete record is formed
 	 */
-	private ByteArrayOutputStream buf;
+	private byte[] buf;
+	/**
+	 * Number of bytes in buf
+	 */
+	private int bufLen;
 	/**
 	 * RecordStreamOrigin to give record back to
 	 */
 	private RecordStreamOrigin rso;
-
 	/**
 	 * the byte array that represent a closing record tag
 	 */
@@ -33,6 +38,10 @@ public class XMLRecordOutputStream extends OutputStream implements Cloneable {
 	 * the byte array that represent a opening record tag
 	 */
 	private byte[][] openTags;
+	/**
+	 * length of the longest opening tag, the most that has to be kept between records
+	 */
+	private int maxOpenTagLength;
 	/**
 	 * Regex to find the identifing data in the record data
 	 */
@@ -46,9 +55,9 @@ public class XMLRecordOutputStream extends OutputStream implements Cloneable {
 	 */
 	private String footer;
 	/**
-   * Store state of buffer comparison against tags to split on
-   */
-  private Boolean capturingRecord;
+	 * Is an opening tag found and a record being captured
+	 */
+	private boolean capturingRecord;
 
 	/**
 	 * Constructor
@@ -60,83 +69,169 @@ public class XMLRecordOutputStream extends OutputStream implements Cloneable {
 	 */
 	public XMLRecordOutputStream(String[] tagsToSplitOn, String headerInfo, String footerInfo, String idLocationRegex, RecordStreamOrigin rso) {
 		this.capturingRecord = false;
-    this.buf = new ByteArrayOutputStream();
+		this.buf = new byte[8192];
+		this.bufLen = 0;
 		this.rso = rso;
 		this.idRegex = Pattern.compile(idLocationRegex);
-		this.closeTags = new byte[tagsToSplitOn.length][];
-		this.openTags = new byte[tagsToSplitOn.length][];
+		byte[][] close = new byte[tagsToSplitOn.length][];
+		byte[][] open = new byte[tagsToSplitOn.length][];
 		for(int x = 0; x < tagsToSplitOn.length; x++) {
-			this.closeTags[x] = ("</" + tagsToSplitOn[x] + ">").getBytes();
-			this.openTags[x] = ("<" + tagsToSplitOn[x] + ">").getBytes();
+			close[x] = ("</" + tagsToSplitOn[x] + ">").getBytes();
+			open[x] = ("<" + tagsToSplitOn[x] + ">").getBytes();
 		}
+		setTags(open, close);
 		this.header = headerInfo;
 		this.footer = footerInfo;
 	}
 	
+	/**
+	 * Set the tags to split on
+	 * @param open the opening tags
+	 * @param close the closing tags
+	 */
+	private void setTags(byte[][] open, byte[][] close) {
+		this.openTags = open;
+		this.closeTags = close;
+		this.maxOpenTagLength = 0;
+		for(byte[] tag : open) {
+			this.maxOpenTagLength = Math.max(this.maxOpenTagLength, tag.length);
+		}
+	}
+	
 	@Override
 	public XMLRecordOutputStream clone() {
 		XMLRecordOutputStream template = new XMLRecordOutputStream(new String[]{}, this.header, this.footer, this.idRegex.pattern(), this.rso);
-		template.closeTags = this.closeTags;
-		template.openTags = this.openTags;
+		template.setTags(this.openTags, this.closeTags);
 		return template;
 	}
 	
 	@Override
 	public void write(int arg0) throws IOException {
+		ensureCapacity(1);
+		this.buf[this.bufLen++] = (byte)arg0;
+		if(arg0 == '>') {
+			checkTags();
+		}
+	}
 	
-    this.buf.write(arg0);
-    byte[] a = this.buf.toByteArray();
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if((off < 0) || (len < 0) || ((off + len) > b.length)) {
+			throw new IndexOutOfBoundsException();
+		}
+		int end = off + len;
+		int start = off;
+		for(int i = off; i < end; i++) {
+			if(b[i] == '>') {
+				append(b, start, (i + 1) - start);
+				start = i + 1;
+				checkTags();
+			}
+		}
+		append(b, start, end - start);
+	}
     
-    //store the state of when an opening tag is found
-    if (!this.capturingRecord){
-      for(int x = 0; x < this.openTags.length; x++) {
-        if(compareByteArrays(a, this.openTags[x])) {
-          this.capturingRecord = true;
-          this.buf.reset();
-          this.buf.write(this.openTags[x]);
-          //System.out.println("capturing record");
-        }
-      }
-    }
+	/**
+	 * Append bytes to the buffer, between records only the bytes that could begin an opening tag are kept
+	 * @param b the bytes
+	 * @param off offset of the first byte
+	 * @param len number of bytes
+	 */
+	private void append(byte[] b, int off, int len) {
+		if(len == 0) {
+			return;
+		}
+		int o = off;
+		int l = len;
+		if(!this.capturingRecord && (l > this.maxOpenTagLength)) {
+			// an opening tag ends with '>', so nothing before the last few bytes of this run can be part of one
+			this.bufLen = 0;
+			o = (off + len) - this.maxOpenTagLength;
+			l = this.maxOpenTagLength;
+		}
+		ensureCapacity(l);
+		System.arraycopy(b, o, this.buf, this.bufLen, l);
+		this.bufLen += l;
+	}
+	
+	/**
+	 * Make room in the buffer, dropping bytes that cannot be part of an opening tag when not capturing a record
+	 * @param len number of bytes about to be appended
+	 */
+	private void ensureCapacity(int len) {
+		if(!this.capturingRecord && (this.bufLen > this.maxOpenTagLength)) {
+			int keep = this.maxOpenTagLength;
+			System.arraycopy(this.buf, this.bufLen - keep, this.buf, 0, keep);
+			this.bufLen = keep;
+		}
+		if((this.bufLen + len) > this.buf.length) {
+			byte[] newBuf = new byte[Math.max(this.buf.length * 2, this.bufLen + len)];
+			System.arraycopy(this.buf, 0, newBuf, 0, this.bufLen);
+			this.buf = newBuf;
+		}
+	}
+	
+	/**
+	 * Check the end of the buffer for an opening tag (when not capturing a record) or a closing tag (when capturing)
+	 * @throws IOException error writing record
+	 */
+	private void checkTags() throws IOException {
+		if(!this.capturingRecord) {
+			for(int x = 0; x < this.openTags.length; x++) {
+				if(endsWith(this.openTags[x])) {
+					this.capturingRecord = true;
+					System.arraycopy(this.openTags[x], 0, this.buf, 0, this.openTags[x].length);
+					this.bufLen = this.openTags[x].length;
+					return;
+				}
+			}
+			return;
+		}
+		for(int x = 0; x < this.closeTags.length; x++) {
+			if(endsWith(this.closeTags[x])) {
+				writeRecord();
+				return;
+			}
+		}
+	}
 
-    //compare each closing tag - only if an opening tag has been found 
-    if (this.capturingRecord){
-      for(int x = 0; x < this.closeTags.length; x++) {
-        if(compareByteArrays(a, this.closeTags[x])) {
-          
-          //Create the record
-          String record = new String(a);
-          Matcher m = this.idRegex.matcher(record);
-          m.find();
-          String id = m.group(1);
+	/**
+	 * Hand the buffered record to the RecordStreamOrigin
+	 * @throws IOException error writing record
+	 */
+	private void writeRecord() throws IOException {
+		//Create the record
+		String record = new String(this.buf, 0, this.bufLen);
+		Matcher m = this.idRegex.matcher(record);
+		m.find();
+		String id = m.group(1);
           
-          //Write the record
-          if(this.rso == null) {
-            throw new IllegalArgumentException("Must provide a valid RecordStreamOrigin before writing!");
-          }
-          id = id.trim();
-          this.rso.writeRecord(id, this.header + record.trim() + this.footer);
-          this.buf.reset();
-          this.capturingRecord = false;
-        }
-      }
-    }
-
+		//Write the record
+		if(this.rso == null) {
+			throw new IllegalArgumentException("Must provide a valid RecordStreamOrigin before writing!");
+		}
+		id = id.trim();
+		this.rso.writeRecord(id, this.header + record.trim() + this.footer);
+		this.bufLen = 0;
+		this.capturingRecord = false;
+		if(this.buf.length > 65536) {
+			// do not hold on to the space needed by an unusually large record
+			this.buf = new byte[8192];
+		}
 	}
-	
+
 	/**
-	 * Compare two byte arrays
-	 * @param arrayOne first to compare
-	 * @param arrayTwo second to compare
-	 * @return true if the last bytes in arrayOne is equivalent to arrayTwo, false otherwise
+	 * Does the buffer end with the given bytes
+	 * @param tag the bytes to compare
+	 * @return true if the last bytes in the buffer are equivalent to tag, false otherwise
 	 */
-	private boolean compareByteArrays(byte[] arrayOne, byte[] arrayTwo) {
-		if(arrayOne.length < arrayTwo.length) {
+	private boolean endsWith(byte[] tag) {
+		if(this.bufLen < tag.length) {
 			return false;
 		}
-		int o = arrayOne.length - arrayTwo.length;
-		for(int i = 0; i < arrayTwo.length; i++) {
-			if(arrayOne[o + i] != arrayTwo[i]) {
+		int o = this.bufLen - tag.length;
+		for(int i = 0; i < tag.length; i++) {
+			if(this.buf[o + i] != tag[i]) {
 				return false;
 			}
 		}
@@ -5,6 +5,7 @@
  ******************************************************************************/
 package org.vivoweb.test.harvester.diff;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedList;
@@ -12,6 +13,7 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vivoweb.harvester.diff.Diff;
+import org.vivoweb.harvester.util.FileAide;
 import org.vivoweb.harvester.util.InitLog;
 import org.vivoweb.harvester.util.repo.JenaConnect;
 import org.vivoweb.harvester.util.repo.MemJenaConnect;
@@ -378,6 +380,76 @@ public class DiffTest extends TestCase {
 		log.info("END testDiffSame");
 	}
 	
+	/**
+	 * Test method for {@link org.vivoweb.harvester.diff.Diff#sortedDiff()}.
+	 * @throws IOException error
+	 */
+	public final void testSortedDiffSubs() throws IOException {
+		log.info("BEGIN testSortedDiffSubs");
+		Diff differ = new Diff(this.original, this.incoming, this.output, null, null, null, null);
+		differ.setExternalSort(true);
+		differ.setSortRunSize(2);
+		differ.execute();
+		assertFalse(this.output.isEmpty());
+		for(Statement sub : this.subStatements) {
+			assertTrue(this.output.getJenaModel().contains(sub));
+		}
+		for(Statement add : this.addStatements) {
+			assertFalse(this.output.getJenaModel().contains(add));
+		}
+		for(Statement shared : this.shareStatements) {
+			assertFalse(this.output.getJenaModel().contains(shared));
+		}
+		log.info("END testSortedDiffSubs");
+	}
+	
+	/**
+	 * Test that the additions are dumped to an N-Triples file with the external sort and rejected without it
+	 * @throws IOException error
+	 */
+	public final void testSortedDiffReverseDump() throws IOException {
+		log.info("BEGIN testSortedDiffReverseDump");
+		File reverseDump = FileAide.createTempFile("diffAdditions", ".nt");
+		try {
+			Diff differ = new Diff(this.original, this.incoming, this.output, null, null, null, null);
+			differ.setDumpReverseNTriple(reverseDump.getAbsolutePath());
+			try {
+				differ.execute();
+				fail("the reverse dump should be rejected without the external sort");
+			} catch(IllegalArgumentException e) {
+				// expected
+			}
+			differ.setExternalSort(true);
+			differ.execute();
+			String additions = FileAide.getTextContent(reverseDump.getAbsolutePath());
+			assertTrue(additions.contains("resApropDnew"));
+			assertTrue(additions.contains("resBpropAnew"));
+		} finally {
+			reverseDump.delete();
+		}
+		log.info("END testSortedDiffReverseDump");
+	}
+	
+	/**
+	 * Test method for {@link org.vivoweb.harvester.diff.Diff#sortedDiff()} with selective diff
+	 * @throws IOException error
+	 */
+	public final void testSortedDiffPrevHarvestSubtractionsIgnore() throws IOException {
+		log.info("BEGIN testSortedDiffPrevHarvestSubtractionsIgnore");
+		List<String> preserveTypes = new ArrayList<String>();
+		preserveTypes.add("http://xmlns.com/foaf/0.1/Person");
+		preserveTypes.add("http://vivoweb.org/ontology/core#Faculty");
+		
+		Diff differ = new Diff(this.prevHarvest, this.input, this.output, null, null, null, null, true, preserveTypes);
+		differ.setExternalSort(true);
+		differ.execute();
+		
+		assertFalse(this.output.isEmpty());
+		assertTrue(this.output.containsURI("http://vivo.ufl.edu/individual/n1836184267"));
+		assertFalse(this.output.containsURI("http://vivo.ufl.edu/individual/n78212990"));
+		log.info("END testSortedDiffPrevHarvestSubtractionsIgnore");
+	}
+	
 	/**
 	 * Testing Output to XML/RDF
 	 * @throws IOException JenaConnect
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.test.harvester.fetch;
+
+import java.io.File;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.vocabulary.RDF;
+import org.vivoweb.harvester.fetch.CSVFetch;
+import org.vivoweb.harvester.util.FileAide;
+import org.vivoweb.harvester.util.InitLog;
+import org.vivoweb.harvester.util.repo.JenaConnect;
+import org.vivoweb.harvester.util.repo.MemJenaConnect;
+
+/**
+ * Test CSVFetch
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class CSVFetchTest extends TestCase {
+	/**
+	 * namespace of the individuals and properties created
+	 */
+	private static final String NS = "http://example.org/";
+	/**
+	 * csv file to fetch
+	 */
+	private File csvFile;
+	/**
+	 * model to fetch into
+	 */
+	private JenaConnect output;
+	
+	@Override
+	protected void setUp() throws Exception {
+		InitLog.initLogger(null, null);
+		this.csvFile = FileAide.createTempFile("csvfetch", ".csv");
+		FileAide.setTextContent(this.csvFile.getAbsolutePath(), "id,name\n1,Alice\n2,Bob\n3,Carol\n");
+		this.output = new MemJenaConnect();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		if(this.output != null) {
+			this.output.close();
+		}
+		this.output = null;
+		if(this.csvFile != null) {
+			FileAide.delete(this.csvFile.getAbsolutePath());
+		}
+		this.csvFile = null;
+	}
+	
+	/**
+	 * Build a CSVFetch of the test file
+	 * @param uriField the column to draw the individual uris from
+	 * @return the CSVFetch
+	 * @throws Exception error
+	 */
+	private CSVFetch fetch(String uriField) throws Exception {
+		return new CSVFetch(this.csvFile.getAbsolutePath(), ",", NS, "Person", "person", "p_", uriField, this.output);
+	}
+	
+	/**
+	 * List the individuals of the Person class in the output model
+	 * @return the individuals
+	 */
+	private List<Resource> people() {
+		return this.output.getJenaModel().listSubjectsWithProperty(RDF.type, ResourceFactory.createResource(NS + "Person")).toList();
+	}
+	
+	/**
+	 * Test that the uri field is used to build each individual's uri
+	 * @throws Exception error
+	 */
+	public final void testUriField() throws Exception {
+		fetch("id").execute();
+		Model model = this.output.getJenaModel();
+		assertEquals(3, people().size());
+		Resource alice = ResourceFactory.createResource(NS + "person1");
+		assertTrue(model.contains(alice, ResourceFactory.createProperty(NS + "p_name"), "Alice"));
+		assertTrue(model.contains(ResourceFactory.createResource(NS + "person3"), RDF.type, ResourceFactory.createResource(NS + "Person")));
+	}
+	
+	/**
+	 * Test that new uris are allocated when the uri field is not a column of the file
+	 * @throws Exception error
+	 */
+	public final void testMissingUriField() throws Exception {
+		fetch("nope").execute();
+		List<Resource> people = people();
+		assertEquals(3, people.size());
+		for(Resource person : people) {
+			assertTrue(person.getURI().startsWith(NS + "/individual/n"));
+		}
+	}
+	
+	/**
+	 * Test that new uris are allocated when no uri field is given
+	 * @throws Exception error
+	 */
+	public final void testNoUriField() throws Exception {
+		fetch(null).execute();
+		assertEquals(3, people().size());
+	}
+	
+	/**
+	 * Test that every row is written when each row is its own batch
+	 * @throws Exception error
+	 */
+	public final void testBatchSize() throws Exception {
+		CSVFetch fetch = fetch("id");
+		fetch.setBatchSize(1);
+		fetch.execute();
+		Model model = this.output.getJenaModel();
+		assertEquals(3, people().size());
+		assertTrue(model.contains(ResourceFactory.createResource(NS + "person2"), ResourceFactory.createProperty(NS + "p_name"), "Bob"));
+		assertTrue(model.contains(ResourceFactory.createResource(NS + "person3"), ResourceFactory.createProperty(NS + "p_name"), "Carol"));
+		try {
+			fetch.setBatchSize(0);
+			fail("a batch size below 1 should be rejected");
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -9,10 +9,12 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.TreeSet;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -20,6 +22,7 @@ import junit.framework.TestCase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vivoweb.harvester.fetch.JDBCFetch;
+import org.vivoweb.harvester.util.FileAide;
 import org.vivoweb.harvester.util.InitLog;
 import org.vivoweb.harvester.util.repo.JDBCRecordHandler;
 import org.vivoweb.harvester.util.repo.Record;
@@ -122,6 +125,67 @@ public class JDBCFetchTest extends TestCase {
 		log.info("END testJDBCFetchConstRunQuery");
 	}
 	
+	/**
+	 * Test method for {@link org.vivoweb.harvester.fetch.JDBCFetch#setThreads(int) setThreads(int threads)}.
+	 * @throws IOException error
+	 * @throws ParserConfigurationException error
+	 * @throws SAXException error
+	 */
+	public final void testJDBCFetchConstRunDBThreaded() throws IOException, ParserConfigurationException, SAXException {
+		log.info("BEGIN testJDBCFetchConstRunDBThreaded");
+		this.rh = new JDBCRecordHandler("org.h2.Driver", "jdbc:h2:mem:TestJDBCFetchRHThreaded", "sa", "", "recordTable", "dataField");
+		JDBCFetch jdbcFetch = new JDBCFetch("org.h2.Driver", "jdbc:h2:mem:TestJDBCFetchDB", "sa", "", this.rh, "jdbc:h2:mem:TestJDBCFetchDB/");
+		jdbcFetch.setThreads(3);
+		jdbcFetch.setFetchSize(1);
+		jdbcFetch.setBatchSize(2);
+		runConstTest(jdbcFetch);
+		assertEquals(5, countRecords());
+		log.info("END testJDBCFetchConstRunDBThreaded");
+	}
+	
+	/**
+	 * Test method for {@link org.vivoweb.harvester.fetch.JDBCFetch#setChangeColumns(java.util.Map)
+	 * setChangeColumns(Map<String, String> changeColumns)}.
+	 * @throws IOException error
+	 * @throws SQLException error
+	 */
+	public final void testJDBCFetchIncremental() throws IOException, SQLException {
+		log.info("BEGIN testJDBCFetchIncremental");
+		this.rh = new JDBCRecordHandler("org.h2.Driver", "jdbc:h2:mem:TestJDBCFetchRHIncremental", "sa", "", "recordTable", "dataField");
+		String watermarkFile = FileAide.createTempFile("watermarks", ".properties").getAbsolutePath();
+		HashMap<String, String> changeColumns = new HashMap<String, String>();
+		changeColumns.put("faculty", "fac_id");
+		JDBCFetch jdbcFetch = new JDBCFetch(this.conn, this.rh, "jdbc:h2:mem:TestJDBCFetchDB/", null, null, new TreeSet<String>(Arrays.asList("faculty")), null, null, null, null, null, null);
+		jdbcFetch.setChangeColumns(changeColumns);
+		jdbcFetch.setPageSize(1);
+		jdbcFetch.setWatermarkFile(watermarkFile);
+		jdbcFetch.execute();
+		assertEquals(2, countRecords());
+		assertTrue(FileAide.getTextContent(watermarkFile).contains("FACULTY=2"));
+		
+		Statement cursor = this.conn.createStatement();
+		cursor.executeUpdate("INSERT INTO faculty (fac_id, badge_num, fname, mname, lname, jobtitle, salary, paygrade_id, dept_id) VALUES (3, 55555555, 'Jane', 'Q', 'Smith', 'Analyst', 60000, 2, 1);");
+		this.conn.commit();
+		jdbcFetch.execute();
+		assertEquals(3, countRecords());
+		assertTrue(FileAide.getTextContent(watermarkFile).contains("FACULTY=3"));
+		FileAide.delete(watermarkFile);
+		log.info("END testJDBCFetchIncremental");
+	}
+	
+	/**
+	 * Count the records in the record handler
+	 * @return the number of records
+	 */
+	private int countRecords() {
+		int count = 0;
+		for(Record r : this.rh) {
+			log.trace("Fetched '" + r.getID() + "'");
+			count++;
+		}
+		return count;
+	}
+	
 	/**
 	 * run the test
 	 * @param jdbcFetch the fetch to run
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.test.harvester.fetch.linkeddata;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+import org.apache.jena.rdf.model.Model;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vivoweb.harvester.fetch.linkeddata.LinkedDataFetch;
+import org.vivoweb.harvester.fetch.linkeddata.service.LinkedDataService;
+import org.vivoweb.harvester.util.InitLog;
+import org.vivoweb.harvester.util.repo.MapRecordHandler;
+import org.vivoweb.harvester.util.repo.Record;
+
+/**
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class LinkedDataFetchTest extends TestCase {
+	/**
+	 * SLF4J Logger
+	 */
+	private static Logger log = LoggerFactory.getLogger(LinkedDataFetchTest.class);
+	/**
+	 * number of documents fetched at once
+	 */
+	private static final int threads = 2;
+	/**
+	 * number of documents fetched but not yet written that LinkedDataFetch allows for this many threads
+	 */
+	private static final int queueSize = threads * 4;
+	/**
+	 * documents returned by the service and not yet written, shared by the service and the record handler
+	 */
+	private AtomicInteger outstanding;
+	/**
+	 * the most documents that were outstanding at once
+	 */
+	private AtomicInteger maxOutstanding;
+	
+	@Override
+	protected void setUp() throws Exception {
+		InitLog.initLogger(null, null);
+		this.outstanding = new AtomicInteger();
+		this.maxOutstanding = new AtomicInteger();
+	}
+	
+	/**
+	 * Returns a document naming the url it was asked for, failing for urls containing "fail"
+	 */
+	private class TestService implements LinkedDataService {
+		/**
+		 * number of requests made
+		 */
+		final AtomicInteger requests = new AtomicInteger();
+		
+		@Override
+		public void getLinkedData(String uri, Model m) throws Exception {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public String getLinkedData(String uri) throws Exception {
+			this.requests.incrementAndGet();
+			if(uri.contains("fail")) {
+				throw new IOException("unable to fetch " + uri);
+			}
+			int now = LinkedDataFetchTest.this.outstanding.incrementAndGet();
+			synchronized(LinkedDataFetchTest.this.maxOutstanding) {
+				LinkedDataFetchTest.this.maxOutstanding.set(Math.max(now, LinkedDataFetchTest.this.maxOutstanding.get()));
+			}
+			return "<rdf:RDF>" + uri + "</rdf:RDF>";
+		}
+	}
+	
+	/**
+	 * Writes records slower than they are fetched, counting each write and the threads that made them
+	 */
+	private class SlowRecordHandler extends MapRecordHandler {
+		/**
+		 * number of times each record was written
+		 */
+		final Map<String, Integer> writes = new HashMap<String, Integer>();
+		/**
+		 * threads that wrote records
+		 */
+		final List<Thread> writers = new ArrayList<Thread>();
+		
+		@Override
+		public boolean addRecord(Record rec, Class<?> creator, boolean overwrite) throws IOException {
+			synchronized(this.writes) {
+				Integer count = this.writes.get(rec.getID());
+				this.writes.put(rec.getID(), Integer.valueOf((count == null) ? 1 : (count.intValue() + 1)));
+				if(!this.writers.contains(Thread.currentThread())) {
+					this.writers.add(Thread.currentThread());
+				}
+			}
+			try {
+				Thread.sleep(2);
+			} catch(InterruptedException e) {
+				throw new IOException(e);
+			}
+			LinkedDataFetchTest.this.outstanding.decrementAndGet();
+			return super.addRecord(rec, creator, overwrite);
+		}
+	}
+	
+	/**
+	 * Test that with more uris than the queue holds every document is written once, on the calling thread, under its
+	 * own record id, with no more documents waiting than the queue holds, and that a failing uri is skipped
+	 * @throws IOException error
+	 */
+	public void testFetch() throws IOException {
+		log.info("BEGIN testFetch");
+		int count = queueSize * 6;
+		List<String> uris = new ArrayList<String>();
+		uris.add("http://example.org/individual/admin#admin");
+		for(int x = 0; x < count; x++) {
+			uris.add("http://example.org/individual/" + ((x == 5) ? "fail" : "n") + x);
+		}
+		SlowRecordHandler rh = new SlowRecordHandler();
+		TestService service = new TestService();
+		LinkedDataFetch fetch = new LinkedDataFetch("http://example.org/", Arrays.asList("http://example.org/Person"), rh, null, "rdfxml");
+		fetch.setThreads(threads);
+		fetch.setRetries(1);
+		fetch.setRetryDelay(0);
+		assertEquals(count - 1, fetch.fetch(uris, service));
+		
+		assertEquals(count + 1, service.requests.get());
+		assertEquals(count - 1, rh.writes.size());
+		for(Integer writes : rh.writes.values()) {
+			assertEquals(1, writes.intValue());
+		}
+		assertEquals(Arrays.asList(Thread.currentThread()), rh.writers);
+		assertEquals(0, this.outstanding.get());
+		assertTrue("at most " + queueSize + " documents should wait, not " + this.maxOutstanding.get(), this.maxOutstanding.get() <= queueSize);
+		
+		// record ids follow the order of the uris, whatever order the documents arrive in
+		for(int x = 0; x < count; x++) {
+			String id = "ID_" + x;
+			if(x == 5) {
+				assertFalse(rh.writes.containsKey(id));
+			} else {
+				assertEquals("<rdf:RDF>http://example.org/individual/n" + x + "/n" + x + ".rdf</rdf:RDF>", rh.getRecordData(id));
+			}
+		}
+		log.info("END testFetch");
+	}
+}
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.test.harvester.fetch.nih;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vivoweb.harvester.fetch.nih.PubmedArticleSetParser;
+import org.vivoweb.harvester.util.InitLog;
+import org.vivoweb.harvester.util.repo.RecordStreamOrigin;
+import org.vivoweb.harvester.util.repo.XMLRecordOutputStream;
+
+/**
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class PubmedArticleSetParserTest extends TestCase {
+	/**
+	 * SLF4J Logger
+	 */
+	private static Logger log = LoggerFactory.getLogger(PubmedArticleSetParserTest.class);
+	/**
+	 * prepended to each record
+	 */
+	private static final String header = "<?xml version=\"1.0\"?>\n<PubmedArticleSet>\n";
+	/**
+	 * appended to each record
+	 */
+	private static final String footer = "\n</PubmedArticleSet>";
+	/**
+	 * an EFetch response with several records, namespaces and entities
+	 */
+	private static final String response = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+		"<!DOCTYPE PubmedArticleSet PUBLIC \"-//NLM//DTD PubMedArticle, 1st January 2011//EN\" \"http://www.ncbi.nlm.nih.gov/entrez/query/DTD/pubmed_110101.dtd\">\n" +
+		"<PubmedArticleSet>\n" +
+		"<PubmedArticle>\n" +
+		"    <MedlineCitation Owner=\"NLM\" Status=\"MEDLINE\">\n" +
+		"        <PMID Version=\"1\"> 11111 </PMID>\n" +
+		"        <Article PubModel='Print'>\n" +
+		"            <ArticleTitle>Smith &amp; Jones on &lt;b&gt; caf&#233;</ArticleTitle>\n" +
+		"            <Abstract><AbstractText>Line one\n" +
+		"line two <![CDATA[x < y]]> <!-- a > b --></AbstractText></Abstract>\n" +
+		"        </Article>\n" +
+		"        <CommentsCorrectionsList><CommentsCorrections RefType=\"Cites\"><PMID Version=\"1\">99999</PMID></CommentsCorrections></CommentsCorrectionsList>\n" +
+		"    </MedlineCitation>\n" +
+		"    <PubmedData><ArticleIdList><ArticleId IdType=\"pubmed\">11111</ArticleId><ArticleId IdType=\"doi\">10.1000/a&amp;b</ArticleId></ArticleIdList></PubmedData>\n" +
+		"</PubmedArticle>\n" +
+		"<PubmedArticle xmlns=\"http://www.ncbi.nlm.nih.gov\">\n" +
+		"    <MedlineCitation><PMID Version=\"2\">22222</PMID><Article>" +
+		"<ArticleTitle xmlns=\"http://www.w3.org/1999/xhtml\">Namespaced <RemoveMe><i>title</i></RemoveMe></ArticleTitle>" +
+		"<Abstract><AbstractText><mml:math xmlns:mml=\"http://www.w3.org/1998/Math/MathML\"><mml:mi>x</mml:mi></mml:math></AbstractText></Abstract>" +
+		"</Article></MedlineCitation>\n" +
+		"</PubmedArticle>\n" +
+		"<PubmedBookArticle><BookDocument><PMID Version=\"1\">33333</PMID><Book><BookTitle>A &quot;Book&quot;</BookTitle></Book></BookDocument></PubmedBookArticle>\n" +
+		"</PubmedArticleSet>\n";
+	
+	@Override
+	protected void setUp() throws Exception {
+		InitLog.initLogger(null, null);
+	}
+	
+	/**
+	 * Collects the records it is given
+	 */
+	private static class RecordCollector implements RecordStreamOrigin {
+		/**
+		 * the ids of the records, in order
+		 */
+		final List<String> ids = new ArrayList<String>();
+		/**
+		 * the data of the records, in order
+		 */
+		final List<String> data = new ArrayList<String>();
+		
+		@Override
+		public void writeRecord(String id, String recordData) {
+			this.ids.add(id);
+			this.data.add(recordData);
+		}
+	}
+	
+	/**
+	 * Split a response the way PubmedHTTPFetch did before the parser: read it line by line into one string, strip the
+	 * namespaces and RemoveMe tags and the text between records, then write it through an XMLRecordOutputStream
+	 * @param doc the response
+	 * @return the records
+	 * @throws IOException error
+	 */
+	private static RecordCollector splitWithRecordOutputStream(String doc) throws IOException {
+		String s = doc.replaceAll("\r?\n", "");
+		s = s.replaceAll(" xmlns=\".*?\"", "");
+		s = s.replaceAll("</?RemoveMe>", "");
+		s = s.replaceAll("</PubmedArticle>.*?<PubmedArticle", "</PubmedArticle>\n<PubmedArticle");
+		s = s.replaceAll("</PubmedBookArticle>.*?<PubmedBookArticle", "</PubmedBookArticle>\n<PubmedBookArticle");
+		s = s.replaceAll("</PubmedArticle>.*?<PubmedBookArticle", "</PubmedArticle>\n<PubmedBookArticle");
+		s = s.replaceAll("</PubmedBookArticle>.*?<PubmedArticle", "</PubmedBookArticle>\n<PubmedArticle");
+		s = s.replaceAll("<\\?xml.*?PubmedArticleSet>", "");
+		s = s.replaceAll("</PubmedArticleSet>", "");
+		RecordCollector records = new RecordCollector();
+		XMLRecordOutputStream xros = new XMLRecordOutputStream(new String[]{"PubmedArticle", "PubmedBookArticle"}, header, footer, ".*?<[pP][mM][iI][dD].*?>(.*?)</[pP][mM][iI][dD]>.*?", records);
+		Writer out = new OutputStreamWriter(xros);
+		out.write(s);
+		out.write("\n");
+		out.close();
+		return records;
+	}
+	
+	/**
+	 * Parse a response
+	 * @param doc the response
+	 * @param records receives the records
+	 * @return the number of records
+	 * @throws IOException error
+	 */
+	private static int parse(String doc, RecordCollector records) throws IOException {
+		return new PubmedArticleSetParser(header, footer).parse(new ByteArrayInputStream(doc.getBytes("UTF-8")), records);
+	}
+	
+	/**
+	 * Test that the records are split out with the ids and text the XMLRecordOutputStream gave them, so refetched
+	 * records are not seen as changed
+	 * @throws IOException error
+	 */
+	public void testSameAsRecordOutputStream() throws IOException {
+		log.info("BEGIN testSameAsRecordOutputStream");
+		RecordCollector records = new RecordCollector();
+		assertEquals(3, parse(response, records));
+		assertEquals(Arrays.asList("11111", "22222", "33333"), records.ids);
+		RecordCollector expected = splitWithRecordOutputStream(response);
+		assertEquals(expected.ids, records.ids);
+		assertEquals(expected.data, records.data);
+		
+		assertTrue(records.data.get(0).startsWith(header + "<PubmedArticle>    <MedlineCitation Owner=\"NLM\" Status=\"MEDLINE\">"));
+		assertTrue(records.data.get(0).endsWith("</PubmedArticle>" + footer));
+		assertTrue(records.data.get(0).contains("Smith &amp; Jones on &lt;b&gt; caf&#233;"));
+		assertTrue(records.data.get(0).contains("Line oneline two <![CDATA[x < y]]> <!-- a > b -->"));
+		assertTrue(records.data.get(0).contains("<Article PubModel='Print'>"));
+		assertFalse(records.data.get(1).contains(" xmlns=\""));
+		assertFalse(records.data.get(1).contains("RemoveMe"));
+		assertTrue(records.data.get(1).contains("<mml:math xmlns:mml=\"http://www.w3.org/1998/Math/MathML\"><mml:mi>x</mml:mi></mml:math>"));
+		assertTrue(records.data.get(2).contains("A &quot;Book&quot;"));
+		log.info("END testSameAsRecordOutputStream");
+	}
+	
+	/**
+	 * Test that a response cut off inside a record, inside a tag or between records fails after writing the records
+	 * before the cut
+	 */
+	public void testTruncatedResponse() {
+		log.info("BEGIN testTruncatedResponse");
+		String[] cuts = {"<MedlineCitation><PMID Version=\"2\">222", "<ArticleTitle xmlns=\"http://www.w3.org/1999/xh", "</PubmedArticle>\n<PubmedArticle xmlns"};
+		for(String cut : cuts) {
+			RecordCollector records = new RecordCollector();
+			try {
+				parse(response.substring(0, response.indexOf(cut) + (cut.length() / 2)), records);
+				fail("truncated response should fail: " + cut);
+			} catch(IOException e) {
+				// expected
+			}
+			assertEquals(Arrays.asList("11111"), records.ids);
+		}
+		log.info("END testTruncatedResponse");
+	}
+	
+	/**
+	 * Test that a record without a PMID is rejected
+	 */
+	public void testMissingPmid() {
+		log.info("BEGIN testMissingPmid");
+		try {
+			parse("<PubmedArticleSet><PubmedArticle><MedlineCitation/></PubmedArticle></PubmedArticleSet>", new RecordCollector());
+			fail("record without a PMID should fail");
+		} catch(IOException e) {
+			// expected
+		}
+		log.info("END testMissingPmid");
+	}
+}
@@ -6,17 +6,25 @@
 package org.vivoweb.test.harvester.qualify;
 
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
 import junit.framework.TestCase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vivoweb.harvester.qualify.ChangeNamespace;
+import org.vivoweb.harvester.qualify.RenameResources;
 import org.vivoweb.harvester.util.InitLog;
 import org.vivoweb.harvester.util.repo.JenaConnect;
+import org.vivoweb.harvester.util.repo.MemJenaConnect;
 //import org.vivoweb.harvester.util.repo.RDBJenaConnect;
 import org.vivoweb.harvester.util.repo.SDBJenaConnect;
 import org.apache.jena.query.ResultSet;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.vocabulary.OWL;
 
 /** */
 public class ChangeNamespaceTest extends TestCase {
@@ -40,6 +48,7 @@ public class ChangeNamespaceTest extends TestCase {
 		this.newNamespace = "http://vivo.test.edu/individual/";
 		this.model = new SDBJenaConnect("jdbc:h2:mem:testChNSh2change", "sa", "", "H2", "org.h2.Driver", "layout2", "testChNSchange");
 		//this.vivo = new RDBJenaConnect("jdbc:h2:mem:testChNSh2vivo;MODE=HSQLDB", "sa", "", "HSQLDB", "org.h2.Driver", "testChNSvivo");
+		this.vivo = new MemJenaConnect();
 		String vivoData = "" +
 			"<rdf:RDF" +
 			"\n xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"" +
@@ -159,4 +168,62 @@ public class ChangeNamespaceTest extends TestCase {
 		System.out.println(this.model.exportRdfToString());
 		log.info("END testObjChangeNS");
 	}
+	
+	/**
+	 * Test that renaming every resource in one pass gives the same model as renaming them one at a time with
+	 * RenameResources.renameResource, as changeNS used to, including resources that are the objects of other renamed
+	 * resources' statements, of their own statements and of statements about unrenamed and blank nodes
+	 * @throws IOException error connecting
+	 */
+	public void testChangeNSSameAsPerResourceRename() throws IOException {
+		log.info("BEGIN testChangeNSSameAsPerResourceRename");
+		String core = "http://vivoweb.org/ontology/core#";
+		String data = "" +
+			"<" + this.namespace + "a1> <http://www.w3.org/2000/01/rdf-schema#label> \"First\" .\n" +
+			"<" + this.namespace + "a1> <" + core + "relatedBy> <" + this.namespace + "a2> .\n" +
+			"<" + this.namespace + "a2> <http://www.w3.org/2000/01/rdf-schema#label> \"Second\" .\n" +
+			"<" + this.namespace + "a2> <" + core + "relates> <" + this.namespace + "a1> .\n" +
+			"<" + this.namespace + "a2> <" + core + "relates> <" + this.namespace + "objectOnly> .\n" +
+			"<" + this.namespace + "a3> <" + core + "relates> <" + this.namespace + "a3> .\n" +
+			"<http://norename.blah.com/blah/other> <" + core + "relates> <" + this.namespace + "a1> .\n" +
+			"_:b1 <" + core + "relates> <" + this.namespace + "a2> .\n" +
+			"<" + this.namespace + "a1> <" + core + "relates> _:b1 .\n";
+		JenaConnect batch = new MemJenaConnect();
+		JenaConnect perResource = new MemJenaConnect();
+		try {
+			batch.loadRdfFromString(data, null, "N-TRIPLE");
+			perResource.loadRdfFromString(data, null, "N-TRIPLE");
+			ChangeNamespace.changeNS(batch, this.vivo, this.namespace, this.newNamespace, false, true);
+			
+			// the sameAs statements give the uri each resource was renamed to
+			Map<String, String> renames = new TreeMap<String, String>();
+			StmtIterator sameAs = batch.getJenaModel().listStatements(null, OWL.sameAs, (Resource)null);
+			try {
+				while(sameAs.hasNext()) {
+					Statement stmt = sameAs.next();
+					renames.put(stmt.getResource().getURI(), stmt.getSubject().getURI());
+				}
+			} finally {
+				sameAs.close();
+			}
+			assertEquals(3, renames.size());
+			assertEquals(3, new HashSet<String>(renames.values()).size());
+			for(String uri : renames.values()) {
+				assertTrue(uri.startsWith(this.newNamespace));
+				assertFalse(this.vivo.containsURI(uri));
+			}
+			assertFalse(renames.containsKey(this.namespace + "objectOnly"));
+			
+			for(Map.Entry<String, String> rename : renames.entrySet()) {
+				Resource res = perResource.getJenaModel().getResource(rename.getKey());
+				RenameResources.renameResource(res, rename.getValue());
+				perResource.getJenaModel().add(perResource.getJenaModel().getResource(rename.getValue()), OWL.sameAs, res);
+			}
+			assertTrue(batch.getJenaModel().isIsomorphicWith(perResource.getJenaModel()));
+		} finally {
+			batch.close();
+			perResource.close();
+		}
+		log.info("END testChangeNSSameAsPerResourceRename");
+	}
 }
@@ -8,15 +8,25 @@ package org.vivoweb.test.harvester.qualify;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import junit.framework.TestCase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vivoweb.harvester.qualify.Smush;
 import org.vivoweb.harvester.util.InitLog;
 import org.vivoweb.harvester.util.repo.JenaConnect;
+import org.vivoweb.harvester.util.repo.MemJenaConnect;
 //import org.vivoweb.harvester.util.repo.RDBJenaConnect;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.query.ResultSet;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
 
@@ -110,6 +120,7 @@ public class SmushTest extends TestCase {
 			"\n        <rdfs:label xml:lang=\"en-US\">Johnson, Rob</rdfs:label>" +
 			"\n    </rdf:Description>" +
 			"\n</rdf:RDF>";
+		this.inputModel = new MemJenaConnect();
 		this.inputModel.loadRdfFromStream(new ByteArrayInputStream(testData.getBytes()), null, null);
 		Resource test123 = ResourceFactory.createResource(this.namespace + "test123");
 		this.inputModel.getJenaModel().add(test123, ResourceFactory.createProperty("http://www.w3.org/2000/01/rdf-schema#", "label"), "Johnson, Robert");
@@ -224,4 +235,96 @@ public class SmushTest extends TestCase {
 		log.info("END testExecNotSmushResources");
 	}
 	
+	/**
+	 * Test that resources linked through different predicates end up in one group, including groups that were
+	 * already formed on an earlier predicate
+	 */
+	public void testSmushTargetsChained() {
+		log.info("BEGIN testSmushTargetsChained");
+		Model model = ModelFactory.createDefaultModel();
+		Property uniqueId = model.createProperty("http://vivo.test.edu/ontology/vivo-test/uniqueId");
+		Property email = model.createProperty("http://vivoweb.org/ontology/core#workEmail");
+		Property login = model.createProperty("http://vivo.test.edu/ontology/vivo-test/loginName");
+		// a-b on uniqueId, b-c on email, c-d on login
+		model.createResource(this.namespace + "a").addProperty(uniqueId, "1");
+		model.createResource(this.namespace + "b").addProperty(uniqueId, "1").addProperty(email, "b@test.edu");
+		model.createResource(this.namespace + "c").addProperty(email, "b@test.edu").addProperty(login, "cd");
+		model.createResource(this.namespace + "d").addProperty(login, "cd");
+		// p-q and r-s on uniqueId, then the two groups are joined by q-r on email
+		model.createResource(this.namespace + "p").addProperty(uniqueId, "2");
+		model.createResource(this.namespace + "q").addProperty(uniqueId, "2").addProperty(email, "q@test.edu");
+		model.createResource(this.namespace + "r").addProperty(uniqueId, "3").addProperty(email, "q@test.edu");
+		model.createResource(this.namespace + "s").addProperty(uniqueId, "3");
+		// same login as d, but outside the namespace
+		model.createResource("http://vivobad.test.edu/wrong/d").addProperty(login, "cd");
+		model.createResource(this.namespace + "x").addProperty(uniqueId, "4");
+		
+		List<String> predicates = new ArrayList<String>();
+		predicates.add(uniqueId.getURI());
+		predicates.add(email.getURI());
+		predicates.add(login.getURI());
+		Map<Node, Node> targets = Smush.findSmushTargets(model.getGraph(), predicates, this.namespace);
+		assertEquals(1, countGroups(targets, this.namespace, "a", "b", "c", "d"));
+		assertEquals(1, countGroups(targets, this.namespace, "p", "q", "r", "s"));
+		assertEquals(2, countGroups(targets, this.namespace, "a", "p"));
+		assertEquals(6, targets.size());
+		assertFalse(targets.containsKey(NodeFactory.createURI(this.namespace + "x")));
+		assertFalse(targets.containsKey(NodeFactory.createURI("http://vivobad.test.edu/wrong/d")));
+		for(Node root : targets.values()) {
+			assertFalse("a group root must not be smushed itself", targets.containsKey(root));
+		}
+		log.info("END testSmushTargetsChained");
+	}
+	
+	/**
+	 * Count the distinct resources the given resources are smushed into
+	 * @param targets map from each resource to be smushed to the resource it is smushed into
+	 * @param ns the namespace of the resources
+	 * @param names the local names of the resources
+	 * @return the number of groups
+	 */
+	private static int countGroups(Map<Node, Node> targets, String ns, String... names) {
+		Set<Node> roots = new HashSet<Node>();
+		for(String name : names) {
+			Node node = NodeFactory.createURI(ns + name);
+			roots.add(targets.containsKey(node) ? targets.get(node) : node);
+		}
+		return roots.size();
+	}
+	
+	/**
+	 * Test smushing into a separate output model, leaving the input model as it was
+	 * @throws IOException error
+	 */
+	public void testExecSmushToOutputModel() throws IOException {
+		log.info("BEGIN testExecSmushToOutputModel");
+		List<String> predicates = new ArrayList<String>();
+		predicates.add("http://vivo.test.edu/ontology/vivo-test/uniqueId");
+		Resource paper = ResourceFactory.createResource(this.namespace + "paper1");
+		Property author = ResourceFactory.createProperty("http://vivoweb.org/ontology/core#", "author");
+		this.inputModel.getJenaModel().add(paper, author, ResourceFactory.createResource(this.namespace + "n321456"));
+		long inputSize = this.inputModel.getJenaModel().size();
+		
+		JenaConnect output = new MemJenaConnect();
+		try {
+			new Smush(this.inputModel, output, predicates, this.namespace, false).execute();
+			assertEquals(inputSize, this.inputModel.getJenaModel().size());
+			assertTrue(this.inputModel.containsURI(this.namespace + "n321456"));
+			
+			ResultSet rs = output.executeSelectQuery("SELECT DISTINCT ?uri WHERE { ?uri <http://vivo.test.edu/ontology/vivo-test/uniqueId> \"2345678901\" . FILTER(STRSTARTS(STR(?uri), \"" + this.namespace + "\")) }");
+			assertTrue(rs.hasNext());
+			String bob = rs.next().getResource("uri").getURI();
+			assertFalse(rs.hasNext());
+			// references to a smushed resource point at the resource it was smushed into
+			assertTrue(output.getJenaModel().contains(paper, author, ResourceFactory.createResource(bob)));
+			assertEquals(1, output.getJenaModel().listStatements(paper, author, (RDFNode)null).toList().size());
+			// resources outside the namespace and unrelated resources are copied unchanged
+			assertTrue(output.containsURI("http://vivobad.test.edu/wrong/n987456"));
+			assertTrue(output.containsURI(this.namespace + "test321"));
+		} finally {
+			output.close();
+		}
+		log.info("END testExecSmushToOutputModel");
+	}
+	
 }
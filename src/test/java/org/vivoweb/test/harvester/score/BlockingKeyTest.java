@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.test.harvester.score;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import junit.framework.TestCase;
+import org.vivoweb.harvester.score.BlockingKey;
+
+/**
+ * Test BlockingKey
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class BlockingKeyTest extends TestCase {
+	
+	/**
+	 * Test method for {@link org.vivoweb.harvester.score.BlockingKey#buildKey(java.util.Map) buildKey(Map values)}
+	 */
+	public final void testBuildKey() {
+		Map<String, String> spec = new HashMap<String, String>();
+		spec.put("lName", "0");
+		spec.put("fName", "1");
+		BlockingKey key = BlockingKey.parse(spec);
+		
+		Map<String, String> a = new HashMap<String, String>();
+		a.put("lName", "O'Brien");
+		a.put("fName", "Michael");
+		Map<String, String> b = new HashMap<String, String>();
+		b.put("lName", "obrien ");
+		b.put("fName", "M.");
+		Map<String, String> c = new HashMap<String, String>();
+		c.put("lName", "O'Brien");
+		c.put("fName", "Sarah");
+		Map<String, String> d = new HashMap<String, String>();
+		d.put("lName", "O'Brien");
+		
+		assertEquals(key.buildKey(a), key.buildKey(b));
+		assertFalse(key.buildKey(a).equals(key.buildKey(c)));
+		assertNull(key.buildKey(d));
+	}
+	
+	/**
+	 * Test method for {@link org.vivoweb.harvester.score.BlockingKey#buildKeys(java.util.Map) buildKeys(Map values)}
+	 */
+	public final void testBuildKeys() {
+		Map<String, String> spec = new HashMap<String, String>();
+		spec.put("lName", "0");
+		spec.put("fName", "1");
+		BlockingKey key = BlockingKey.parse(spec);
+		
+		Map<String, List<String>> values = new HashMap<String, List<String>>();
+		values.put("lName", Arrays.asList("Smith", "Smith-Jones"));
+		values.put("fName", Arrays.asList("Mary", "M.", "Ann"));
+		Set<String> keys = key.buildKeys(values);
+		assertEquals(4, keys.size());
+		Map<String, String> single = new HashMap<String, String>();
+		single.put("lName", "smith jones");
+		single.put("fName", "a");
+		assertTrue(keys.contains(key.buildKey(single)));
+		
+		values.put("fName", Arrays.asList(" . "));
+		assertTrue(key.buildKeys(values).isEmpty());
+		values.remove("fName");
+		assertTrue(key.buildKeys(values).isEmpty());
+	}
+	
+	/**
+	 * Test method for {@link org.vivoweb.harvester.score.BlockingKey#normalize(java.lang.CharSequence) normalize(CharSequence value)}
+	 */
+	public final void testNormalize() {
+		assertEquals("munoz", BlockingKey.normalize("Muñoz"));
+		assertEquals("vanderberg", BlockingKey.normalize("Van der-Berg"));
+		assertEquals("", BlockingKey.normalize(" .,- "));
+	}
+	
+	/**
+	 * Test method for {@link org.vivoweb.harvester.score.BlockingKey#parse(java.util.Map) parse(Map spec)}
+	 */
+	public final void testParse() {
+		assertNull(BlockingKey.parse(new HashMap<String, String>()));
+		Map<String, String> spec = new HashMap<String, String>();
+		spec.put("lName", "x");
+		try {
+			BlockingKey.parse(spec);
+			fail("Expected IllegalArgumentException");
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
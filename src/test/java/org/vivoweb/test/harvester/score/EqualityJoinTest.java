@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.test.harvester.score;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import junit.framework.TestCase;
+import org.vivoweb.harvester.score.BlockingScoreEngine;
+import org.vivoweb.harvester.score.EqualityJoin;
+import org.vivoweb.harvester.score.ScoreGroup;
+import org.vivoweb.harvester.util.InitLog;
+import org.vivoweb.harvester.util.repo.JenaConnect;
+import org.vivoweb.harvester.util.repo.MemJenaConnect;
+
+/**
+ * Test EqualityJoin
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class EqualityJoinTest extends TestCase {
+	/**
+	 * input rdf
+	 */
+	private static final String INPUT_RDF = "" +
+		"@prefix ex: <http://example.org/ont#> .\n" +
+		"<http://example.org/input/a> ex:email \"a@example.org\" ; ex:id \"1\" .\n" +
+		"<http://example.org/input/b> ex:email \"B@Example.org\" ; ex:id \"2\" .\n" +
+		"<http://example.org/input/c> ex:email \"a@example.org\" ; ex:id \"9\" .\n" +
+		"<http://example.org/other/d> ex:email \"a@example.org\" ; ex:id \"1\" .\n";
+	/**
+	 * vivo rdf
+	 */
+	private static final String VIVO_RDF = "" +
+		"@prefix ex: <http://example.org/ont#> .\n" +
+		"<http://example.org/vivo/1> ex:mail \"a@example.org\" ; ex:ufid \"1\" .\n" +
+		"<http://example.org/vivo/2> ex:mail \"b@example.org\" ; ex:ufid \"2\" .\n" +
+		"<http://example.org/vivo/3> ex:mail \"a@example.org\" ; ex:ufid \"3\" .\n";
+	/**
+	 * model containing statements to be scored
+	 */
+	private JenaConnect input;
+	/**
+	 * model containing vivo statements
+	 */
+	private JenaConnect vivo;
+	/**
+	 * input predicate for each run
+	 */
+	private Map<String, String> inputPredicates;
+	/**
+	 * vivo predicate for each run
+	 */
+	private Map<String, String> vivoPredicates;
+	
+	@Override
+	protected void setUp() throws Exception {
+		InitLog.initLogger(null, null);
+		this.input = new MemJenaConnect();
+		this.input.loadRdfFromString(INPUT_RDF, null, "N3");
+		this.vivo = new MemJenaConnect();
+		this.vivo.loadRdfFromString(VIVO_RDF, null, "N3");
+		this.inputPredicates = new HashMap<String, String>();
+		this.inputPredicates.put("email", "http://example.org/ont#email");
+		this.inputPredicates.put("id", "http://example.org/ont#id");
+		this.vivoPredicates = new HashMap<String, String>();
+		this.vivoPredicates.put("email", "http://example.org/ont#mail");
+		this.vivoPredicates.put("id", "http://example.org/ont#ufid");
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		if(this.input != null) {
+			this.input.close();
+		}
+		this.input = null;
+		if(this.vivo != null) {
+			this.vivo.close();
+		}
+		this.vivo = null;
+	}
+	
+	/**
+	 * Collects the pairs found by a join
+	 */
+	private static class PairCollector implements BlockingScoreEngine.ScoredPairHandler {
+		/**
+		 * the pairs found, as input and vivo URI separated by a space
+		 */
+		final Set<String> pairs = new HashSet<String>();
+		
+		@Override
+		public void handle(String sInputURI, String sVivoURI, float[] scores) {
+			for(float score : scores) {
+				assertEquals(1f, score, 0f);
+			}
+			this.pairs.add(sInputURI + " " + sVivoURI);
+		}
+	}
+	
+	/**
+	 * Test that pairs must be equal on every run and the input namespace is a prefix
+	 * @throws IOException error
+	 */
+	public final void testExecute() throws IOException {
+		EqualityJoin join = new EqualityJoin(this.input, this.vivo, this.inputPredicates, this.vivoPredicates, "http://example.org/input/");
+		PairCollector pairs = new PairCollector();
+		assertEquals(1, join.execute(pairs));
+		assertEquals(Collections.singleton("http://example.org/input/a http://example.org/vivo/1"), pairs.pairs);
+	}
+	
+	/**
+	 * Test that values are compared as exact strings, as the equality query compares them
+	 * @throws IOException error
+	 */
+	public final void testCaseSensitive() throws IOException {
+		this.inputPredicates.remove("id");
+		this.vivoPredicates.remove("id");
+		EqualityJoin join = new EqualityJoin(this.input, this.vivo, this.inputPredicates, this.vivoPredicates, "http://example.org/input/b");
+		PairCollector pairs = new PairCollector();
+		assertEquals(0, join.execute(pairs));
+	}
+	
+	/**
+	 * Test that only pairs with a changed resource are joined
+	 * @throws IOException error
+	 */
+	public final void testChangedResources() throws IOException {
+		this.inputPredicates.remove("id");
+		this.vivoPredicates.remove("id");
+		EqualityJoin join = new EqualityJoin(this.input, this.vivo, this.inputPredicates, this.vivoPredicates, "http://example.org/input/");
+		join.setChangedResources(Collections.singleton("http://example.org/input/c"), Collections.singleton("http://example.org/vivo/3"));
+		PairCollector pairs = new PairCollector();
+		join.execute(pairs);
+		assertEquals(new HashSet<String>(Arrays.asList("http://example.org/input/a http://example.org/vivo/3", "http://example.org/input/c http://example.org/vivo/1", "http://example.org/input/c http://example.org/vivo/3")), pairs.pairs);
+	}
+	
+	/**
+	 * Test that each group is joined on its own runs and namespace
+	 * @throws IOException error
+	 */
+	public final void testGroups() throws IOException {
+		EqualityJoin join = new EqualityJoin(this.input, this.vivo, this.inputPredicates, this.vivoPredicates, null);
+		List<ScoreGroup> groups = new ArrayList<ScoreGroup>();
+		groups.add(new ScoreGroup("byEmail", "http://example.org/input/", Arrays.asList("email")));
+		groups.add(new ScoreGroup("byId", "http://example.org/other/", Arrays.asList("id")));
+		PairCollector byEmail = new PairCollector();
+		PairCollector byId = new PairCollector();
+		List<BlockingScoreEngine.ScoredPairHandler> handlers = new ArrayList<BlockingScoreEngine.ScoredPairHandler>();
+		handlers.add(byEmail);
+		handlers.add(byId);
+		assertEquals(5, join.execute(groups, handlers));
+		assertEquals(4, byEmail.pairs.size());
+		assertTrue(byEmail.pairs.contains("http://example.org/input/c http://example.org/vivo/3"));
+		assertEquals(Collections.singleton("http://example.org/other/d http://example.org/vivo/1"), byId.pairs);
+	}
+}
@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.test.harvester.score;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import junit.framework.TestCase;
+import org.vivoweb.harvester.score.NTriplesScoreWriter;
+
+/**
+ * Test NTriplesScoreWriter
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class NTriplesScoreWriterTest extends TestCase {
+	
+	/**
+	 * Test that URIs and literals are escaped so the output is valid N-Triples
+	 * @throws IOException error
+	 */
+	public final void testEscaping() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		NTriplesScoreWriter writer = new NTriplesScoreWriter(out);
+		writer.startPair("http://example.org/in/a>b\\c", "http://example.org/vivo/Muñoz");
+		writer.writeScoreValue("http://example.org/p", "http://example.org/p", "Equality \"exact\"\né", 1f, Float.valueOf(0.5f), 0.5);
+		writer.close();
+		String nt = out.toString("US-ASCII");
+		
+		assertTrue(nt.contains("<http://example.org/in/a\\u003Eb\\u005Cc>"));
+		assertTrue(nt.contains("<http://example.org/vivo/Mu\\u00F1oz>"));
+		assertTrue(nt.contains("\"Equality \\\"exact\\\"\\n\\u00E9\""));
+		for(int i = 0; i < nt.length(); i++) {
+			char c = nt.charAt(i);
+			assertTrue("non-ascii output", ((c >= ' ') && (c <= '~')) || (c == '\n'));
+		}
+	}
+}
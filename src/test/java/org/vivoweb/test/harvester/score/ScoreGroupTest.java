@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.test.harvester.score;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.vivoweb.harvester.score.ScoreGroup;
+
+/**
+ * Test ScoreGroup
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class ScoreGroupTest extends TestCase {
+	
+	/**
+	 * Test method for {@link org.vivoweb.harvester.score.ScoreGroup#parse(java.util.Map, java.util.Map, java.util.Collection) parse(Map namespaces, Map groupRuns, Collection allRunNames)}
+	 */
+	public final void testParse() {
+		List<String> allRunNames = Arrays.asList("title", "number", "dept");
+		assertNull(ScoreGroup.parse(new HashMap<String, String>(), new HashMap<String, String>(), allRunNames));
+		
+		Map<String, String> namespaces = new HashMap<String, String>();
+		namespaces.put("sections", "http://vivo.example.edu/section/");
+		namespaces.put("courses", "http://vivo.example.edu/course/");
+		namespaces.put("all", "");
+		Map<String, String> groupRuns = new HashMap<String, String>();
+		groupRuns.put("courses", "number, title");
+		List<ScoreGroup> groups = ScoreGroup.parse(namespaces, groupRuns, allRunNames);
+		
+		assertEquals(3, groups.size());
+		assertEquals("all", groups.get(0).getName());
+		assertNull(groups.get(0).getNamespace());
+		assertEquals(Arrays.asList("dept", "number", "title"), groups.get(0).getRunNames());
+		assertEquals("courses", groups.get(1).getName());
+		assertEquals("http://vivo.example.edu/course/", groups.get(1).getNamespace());
+		assertEquals(Arrays.asList("number", "title"), groups.get(1).getRunNames());
+		assertEquals(Arrays.asList("dept", "number", "title"), groups.get(2).getRunNames());
+		
+		groupRuns.put("courses", "number,room");
+		try {
+			ScoreGroup.parse(namespaces, groupRuns, allRunNames);
+			fail("unknown run name should be rejected");
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+		groupRuns.clear();
+		groupRuns.put("people", "title");
+		try {
+			ScoreGroup.parse(namespaces, groupRuns, allRunNames);
+			fail("runs for an undefined group should be rejected");
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
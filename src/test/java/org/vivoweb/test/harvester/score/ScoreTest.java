@@ -5,17 +5,21 @@
  ******************************************************************************/
 package org.vivoweb.test.harvester.score;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import junit.framework.TestCase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.vivoweb.harvester.score.BinaryScoreStore;
+import org.vivoweb.harvester.score.JenaScoreWriter;
 import org.vivoweb.harvester.score.Match;
 import org.vivoweb.harvester.score.Score;
 import org.vivoweb.harvester.score.algorithm.Algorithm;
 import org.vivoweb.harvester.score.algorithm.CaseInsensitiveInitialTest;
 import org.vivoweb.harvester.score.algorithm.EqualityTest;
 import org.vivoweb.harvester.score.algorithm.NormalizedDoubleMetaphoneDifference;
+import org.vivoweb.harvester.util.FileAide;
 import org.vivoweb.harvester.util.InitLog;
 import org.vivoweb.harvester.util.repo.JenaConnect;
 import org.vivoweb.harvester.util.repo.SDBJenaConnect;
@@ -462,6 +466,269 @@ public class ScoreTest extends TestCase {
 		log.info("END testURIEqualityTest");
 	}
 	
+	/**
+	 * Test streaming scores to an N-Triples file
+	 * @throws IOException error
+	 */
+	public void testScoreOutputFile() throws IOException {
+		log.info("BEGIN testScoreOutputFile");
+		HashMap<String, Class<? extends Algorithm>> algorithms = new HashMap<String, Class<? extends Algorithm>>();
+		algorithms.put("deptid", EqualityTest.class);
+		HashMap<String, String> inputPredicates = new HashMap<String, String>();
+		inputPredicates.put("deptid", "http://vivo.mydomain.edu/ontology/vivo-local/deptid");
+		HashMap<String, String> vivoPredicates = new HashMap<String, String>();
+		vivoPredicates.put("deptid", "http://vivo.mydomain.edu/ontology/vivo-local/deptid");
+		HashMap<String, Float> weights = new HashMap<String, Float>();
+		weights.put("deptid", Float.valueOf(1f));
+		String namespace = "http://vivoweb.org/harvester/org/";
+		new Score(this.input, this.vivo, this.score, null, algorithms, inputPredicates, vivoPredicates, namespace, weights, null, 1, false, false).execute();
+		
+		File scoreFile = FileAide.createTempFile("scoreOutput", ".nt");
+		try {
+			Score fileScore = new Score(this.input, this.vivo, this.output, null, algorithms, inputPredicates, vivoPredicates, namespace, weights, null, 1, false, false);
+			fileScore.setScoreOutput(scoreFile.getAbsolutePath());
+			fileScore.execute();
+			assertTrue(this.output.isEmpty());
+			this.output.loadRdfFromFile(scoreFile.getAbsolutePath(), null, "N-TRIPLE");
+			assertFalse(this.score.isEmpty());
+			assertEquals(this.score.size(), this.output.size());
+		} finally {
+			scoreFile.delete();
+		}
+		log.info("END testScoreOutputFile");
+	}
+	
+	/**
+	 * Test scoring to and matching from a binary score store
+	 * @throws IOException error
+	 */
+	public void testBinaryScoreStore() throws IOException {
+		log.info("BEGIN testBinaryScoreStore");
+		HashMap<String, Class<? extends Algorithm>> algorithms = new HashMap<String, Class<? extends Algorithm>>();
+		algorithms.put("deptid", EqualityTest.class);
+		HashMap<String, String> inputPredicates = new HashMap<String, String>();
+		inputPredicates.put("deptid", "http://vivo.mydomain.edu/ontology/vivo-local/deptid");
+		HashMap<String, String> vivoPredicates = new HashMap<String, String>();
+		vivoPredicates.put("deptid", "http://vivo.mydomain.edu/ontology/vivo-local/deptid");
+		HashMap<String, Float> weights = new HashMap<String, Float>();
+		weights.put("deptid", Float.valueOf(1f));
+		String namespace = "http://vivoweb.org/harvester/org/";
+		new Score(this.input, this.vivo, this.score, null, algorithms, inputPredicates, vivoPredicates, namespace, weights, null, 1, false, false).execute();
+		
+		File storeFile = FileAide.createTempFile("scoreStore", ".bin");
+		try {
+			Score storeScore = new Score(this.input, this.vivo, this.output, null, algorithms, inputPredicates, vivoPredicates, namespace, weights, null, 1, false, false);
+			storeScore.setScoreStore(storeFile.getAbsolutePath());
+			storeScore.execute();
+			assertTrue(this.output.isEmpty());
+			
+			// the rdf export matches what Score writes to a score model
+			new BinaryScoreStore(storeFile.getAbsolutePath()).export(new JenaScoreWriter(this.output, 100));
+			assertFalse(this.score.isEmpty());
+			assertEquals(this.score.size(), this.output.size());
+			
+			new Match(this.input, storeFile.getAbsolutePath(), null, true, 1f, null, false, 500).execute();
+			assertFalse(this.input.executeAskQuery("ASK { <http://vivoweb.org/harvester/org/deptid019283> ?p ?o }"));
+			assertTrue(this.input.executeAskQuery("ASK { <http://vivo.mydomain.edu/individual/n821173458> ?p ?o }"));
+		} finally {
+			storeFile.delete();
+		}
+		log.info("END testBinaryScoreStore");
+	}
+	
+	/**
+	 * Test that several Score invocations append to one binary score store and Match sums their scores
+	 * @throws IOException error
+	 */
+	public void testBinaryScoreStoreAppend() throws IOException {
+		log.info("BEGIN testBinaryScoreStoreAppend");
+		String namespace = "http://vivoweb.org/pubmed/article/";
+		HashMap<String, Class<? extends Algorithm>> algorithms = new HashMap<String, Class<? extends Algorithm>>();
+		algorithms.put("wEmail", EqualityTest.class);
+		HashMap<String, String> inputPredicates = new HashMap<String, String>();
+		inputPredicates.put("wEmail", "http://vivoweb.org/ontology/score#workEmail");
+		HashMap<String, String> vivoPredicates = new HashMap<String, String>();
+		vivoPredicates.put("wEmail", "http://vivoweb.org/ontology/core#workEmail");
+		HashMap<String, Float> weights = new HashMap<String, Float>();
+		weights.put("wEmail", Float.valueOf(1 / 2f));
+		
+		File storeFile = FileAide.createTempFile("scoreStore", ".bin");
+		storeFile.delete();
+		try {
+			Score emailScore = new Score(this.input, this.vivo, this.score, null, algorithms, inputPredicates, vivoPredicates, namespace, weights, null, 50, false, false);
+			emailScore.setScoreStore(storeFile.getAbsolutePath());
+			emailScore.execute();
+			
+			algorithms.clear();
+			algorithms.put("lName", NormalizedDoubleMetaphoneDifference.class);
+			algorithms.put("fName", NormalizedDoubleMetaphoneDifference.class);
+			inputPredicates.clear();
+			inputPredicates.put("lName", "http://xmlns.com/foaf/0.1/lastName");
+			inputPredicates.put("fName", "http://vivoweb.org/ontology/score#foreName");
+			vivoPredicates.clear();
+			vivoPredicates.put("lName", "http://xmlns.com/foaf/0.1/lastName");
+			vivoPredicates.put("fName", "http://xmlns.com/foaf/0.1/firstName");
+			weights.clear();
+			weights.put("lName", Float.valueOf(1 / 3f));
+			weights.put("fName", Float.valueOf(1 / 6f));
+			Score nameScore = new Score(this.input, this.vivo, this.score, null, algorithms, inputPredicates, vivoPredicates, namespace, weights, null, 50, false, false);
+			nameScore.setScoreStore(storeFile.getAbsolutePath());
+			nameScore.execute();
+			assertTrue(this.score.isEmpty());
+			
+			// neither invocation alone reaches the threshold, their sum does
+			assertTrue(new BinaryScoreStore(storeFile.getAbsolutePath()).match(0.75f).size() > 0);
+			new Match(this.input, storeFile.getAbsolutePath(), this.output, true, 0.75f, null, true, 500).execute();
+			assertTrue(this.input.executeAskQuery("ASK { <http://vivo.mydomain.edu/individual/n3574> <http://vivoweb.org/ontology/core#authorInAuthorship> <http://vivoweb.org/pubmed/article/pmid23656776/authorship1> }"));
+			
+			try {
+				new Score(this.input, this.vivo, this.score, null, algorithms, inputPredicates, vivoPredicates, namespace, weights, Float.valueOf(0.5f), 50, false, false).setScoreStore(storeFile.getAbsolutePath());
+				fail("a match threshold should not be accepted with a score store");
+			} catch(IllegalArgumentException e) {
+				// expected
+			}
+		} finally {
+			storeFile.delete();
+		}
+		log.info("END testBinaryScoreStoreAppend");
+	}
+	
+	/**
+	 * Test incremental scoring with a fingerprint file
+	 * @throws IOException error
+	 */
+	public void testIncrementalScore() throws IOException {
+		log.info("BEGIN testIncrementalScore");
+		HashMap<String, Class<? extends Algorithm>> algorithms = new HashMap<String, Class<? extends Algorithm>>();
+		algorithms.put("deptid", EqualityTest.class);
+		HashMap<String, String> inputPredicates = new HashMap<String, String>();
+		inputPredicates.put("deptid", "http://vivo.mydomain.edu/ontology/vivo-local/deptid");
+		HashMap<String, String> vivoPredicates = new HashMap<String, String>();
+		vivoPredicates.put("deptid", "http://vivo.mydomain.edu/ontology/vivo-local/deptid");
+		HashMap<String, Float> weights = new HashMap<String, Float>();
+		weights.put("deptid", Float.valueOf(1f));
+		String namespace = "http://vivoweb.org/harvester/org/";
+		new Score(this.input, this.vivo, this.output, null, algorithms, inputPredicates, vivoPredicates, namespace, weights, null, 1, false, false).execute();
+		
+		File fingerprints = FileAide.createTempFile("scoreFingerprints", ".bin");
+		fingerprints.delete();
+		try {
+			// no fingerprints yet, so everything is scored
+			Score incremental = new Score(this.input, this.vivo, this.score, null, algorithms, inputPredicates, vivoPredicates, namespace, weights, null, 1, false, false);
+			incremental.setFingerprintFile(fingerprints.getAbsolutePath());
+			incremental.execute();
+			assertFalse(this.score.isEmpty());
+			assertEquals(this.output.size(), this.score.size());
+			
+			// nothing changed, so nothing is rescored
+			this.score.truncate();
+			incremental = new Score(this.input, this.vivo, this.score, null, algorithms, inputPredicates, vivoPredicates, namespace, weights, null, 1, false, false);
+			incremental.setFingerprintFile(fingerprints.getAbsolutePath());
+			incremental.execute();
+			assertTrue(this.score.isEmpty());
+		} finally {
+			fingerprints.delete();
+		}
+		log.info("END testIncrementalScore");
+	}
+	
+	/**
+	 * Test that incremental scoring only replaces the scores of its own configuration in a shared score model
+	 * @throws IOException error
+	 */
+	public void testIncrementalScoreSharedModel() throws IOException {
+		log.info("BEGIN testIncrementalScoreSharedModel");
+		String namespace = "http://vivoweb.org/pubmed/article/";
+		String author = "http://vivoweb.org/pubmed/article/pmid23656776/author1";
+		HashMap<String, Class<? extends Algorithm>> emailAlgorithms = new HashMap<String, Class<? extends Algorithm>>();
+		emailAlgorithms.put("wEmail", EqualityTest.class);
+		HashMap<String, String> emailInputPredicates = new HashMap<String, String>();
+		emailInputPredicates.put("wEmail", "http://vivoweb.org/ontology/score#workEmail");
+		HashMap<String, String> emailVivoPredicates = new HashMap<String, String>();
+		emailVivoPredicates.put("wEmail", "http://vivoweb.org/ontology/core#workEmail");
+		HashMap<String, Float> emailWeights = new HashMap<String, Float>();
+		emailWeights.put("wEmail", Float.valueOf(1 / 2f));
+		HashMap<String, Class<? extends Algorithm>> nameAlgorithms = new HashMap<String, Class<? extends Algorithm>>();
+		nameAlgorithms.put("lName", NormalizedDoubleMetaphoneDifference.class);
+		HashMap<String, String> nameInputPredicates = new HashMap<String, String>();
+		nameInputPredicates.put("lName", "http://xmlns.com/foaf/0.1/lastName");
+		HashMap<String, String> nameVivoPredicates = new HashMap<String, String>();
+		nameVivoPredicates.put("lName", "http://xmlns.com/foaf/0.1/lastName");
+		HashMap<String, Float> nameWeights = new HashMap<String, Float>();
+		nameWeights.put("lName", Float.valueOf(1 / 2f));
+		String emailValue = "PREFIX sv: <http://vivoweb.org/harvester/scoreValue/> ASK { ?pair sv:InputRes <" + author + "> ; sv:hasScoreValue ?value . ?value sv:Algorithm \"" + EqualityTest.class.getName() + "\" }";
+		String exactNameValue = "PREFIX sv: <http://vivoweb.org/harvester/scoreValue/> ASK { ?pair sv:InputRes <" + author + "> ; sv:hasScoreValue ?value . ?value sv:Algorithm \"" + NormalizedDoubleMetaphoneDifference.class.getName() + "\" ; sv:Score ?score . FILTER(?score >= 1) }";
+		String duplicateNameValue = "PREFIX sv: <http://vivoweb.org/harvester/scoreValue/> ASK { ?pair sv:InputRes <" + author + "> ; sv:hasScoreValue ?value1, ?value2 . ?value1 sv:Algorithm \"" + NormalizedDoubleMetaphoneDifference.class.getName() + "\" . ?value2 sv:Algorithm \"" + NormalizedDoubleMetaphoneDifference.class.getName() + "\" . FILTER(?value1 != ?value2) }";
+		
+		File emailFingerprints = FileAide.createTempFile("emailFingerprints", ".bin");
+		File nameFingerprints = FileAide.createTempFile("nameFingerprints", ".bin");
+		emailFingerprints.delete();
+		nameFingerprints.delete();
+		try {
+			Score emailScore = new Score(this.input, this.vivo, this.score, null, emailAlgorithms, emailInputPredicates, emailVivoPredicates, namespace, emailWeights, null, 50, false, false);
+			emailScore.setFingerprintFile(emailFingerprints.getAbsolutePath());
+			emailScore.execute();
+			Score nameScore = new Score(this.input, this.vivo, this.score, null, nameAlgorithms, nameInputPredicates, nameVivoPredicates, namespace, nameWeights, null, 50, false, false);
+			nameScore.setFingerprintFile(nameFingerprints.getAbsolutePath());
+			nameScore.execute();
+			assertTrue(this.score.executeAskQuery(emailValue));
+			assertTrue(this.score.executeAskQuery(exactNameValue));
+			
+			// the last name changes, so only the name configuration rescores the author
+			Resource authorRes = this.input.getJenaModel().getResource(author);
+			Property lastName = ResourceFactory.createProperty("http://xmlns.com/foaf/0.1/lastName");
+			this.input.getJenaModel().removeAll(authorRes, lastName, null);
+			this.input.getJenaModel().add(authorRes, lastName, "Smith");
+			nameScore = new Score(this.input, this.vivo, this.score, null, nameAlgorithms, nameInputPredicates, nameVivoPredicates, namespace, nameWeights, null, 50, false, false);
+			nameScore.setFingerprintFile(nameFingerprints.getAbsolutePath());
+			nameScore.execute();
+			assertTrue(this.score.executeAskQuery(emailValue));
+			assertFalse(this.score.executeAskQuery(exactNameValue));
+			assertFalse(this.score.executeAskQuery(duplicateNameValue));
+			
+			// a configuration without comparable fingerprints rescores everything, still only replacing its own scores
+			nameFingerprints.delete();
+			nameScore = new Score(this.input, this.vivo, this.score, null, nameAlgorithms, nameInputPredicates, nameVivoPredicates, namespace, nameWeights, null, 50, false, false);
+			nameScore.setFingerprintFile(nameFingerprints.getAbsolutePath());
+			nameScore.execute();
+			assertTrue(this.score.executeAskQuery(emailValue));
+			assertFalse(this.score.executeAskQuery(duplicateNameValue));
+		} finally {
+			emailFingerprints.delete();
+			nameFingerprints.delete();
+		}
+		log.info("END testIncrementalScoreSharedModel");
+	}
+	
+	/**
+	 * Test that a configuration with fuzzy algorithms keeps the legacy equality only scoring: a pair equal on one run
+	 * but not on the other is not scored, and every run that is scored scores 1
+	 * @throws IOException error
+	 */
+	public void testFuzzyConfigurationEqualityOnly() throws IOException {
+		log.info("BEGIN testFuzzyConfigurationEqualityOnly");
+		HashMap<String, Class<? extends Algorithm>> algorithms = new HashMap<String, Class<? extends Algorithm>>();
+		algorithms.put("lName", NormalizedDoubleMetaphoneDifference.class);
+		algorithms.put("fName", NormalizedDoubleMetaphoneDifference.class);
+		HashMap<String, String> inputPredicates = new HashMap<String, String>();
+		inputPredicates.put("lName", "http://xmlns.com/foaf/0.1/lastName");
+		inputPredicates.put("fName", "http://vivoweb.org/ontology/score#foreName");
+		HashMap<String, String> vivoPredicates = new HashMap<String, String>();
+		vivoPredicates.put("lName", "http://xmlns.com/foaf/0.1/lastName");
+		vivoPredicates.put("fName", "http://xmlns.com/foaf/0.1/firstName");
+		HashMap<String, Float> weights = new HashMap<String, Float>();
+		weights.put("lName", Float.valueOf(1 / 2f));
+		weights.put("fName", Float.valueOf(1 / 2f));
+		new Score(this.input, this.vivo, this.score, null, algorithms, inputPredicates, vivoPredicates, "http://vivoweb.org/pubmed/article/", weights, null, 50, false, false).execute();
+		
+		// author1 (Guy Fawkes) and n3573 (Girl Fawkes) only share a last name
+		String partialPair = "PREFIX sv: <http://vivoweb.org/harvester/scoreValue/> ASK { ?pair sv:InputRes <http://vivoweb.org/pubmed/article/pmid23656776/author1> ; sv:VivoRes <http://vivo.mydomain.edu/individual/n3573> }";
+		assertFalse(this.score.executeAskQuery(partialPair));
+		String partialScore = "PREFIX sv: <http://vivoweb.org/harvester/scoreValue/> ASK { ?value sv:Score ?score . FILTER(?score < 1) }";
+		assertFalse(this.score.executeAskQuery(partialScore));
+		log.info("END testFuzzyConfigurationEqualityOnly");
+	}
+	
 	/**
 	 * Test EqualityTest Algorithm
 	 * @throws IOException error
@@ -1,7 +1,10 @@
 package org.vivoweb.test.harvester.score.algorithm;
 
 import junit.framework.TestCase;
+import java.util.HashMap;
+import java.util.Map;
 import org.vivoweb.harvester.score.algorithm.Algorithm;
+import org.vivoweb.harvester.score.algorithm.AlgorithmRegistry;
 import org.vivoweb.harvester.score.algorithm.CaseInsensitiveInitialTest;
 import org.vivoweb.harvester.score.algorithm.EqualityExtraTest;
 import org.vivoweb.harvester.score.algorithm.EqualityTest;
@@ -245,4 +248,49 @@ public class AlgorithmsTest extends TestCase {
 		assertEquals(Float.valueOf(1f), Float.valueOf(calc.calculate("hello", "hallo")));
 	}
 
+	/**
+	 * Test method for {@link org.vivoweb.harvester.score.algorithm.AlgorithmRegistry#get(java.lang.String) get(String runName)}
+	 */
+	public final void testAlgorithmRegistryReuse() {
+		Map<String, Class<? extends Algorithm>> algs = new HashMap<String, Class<? extends Algorithm>>();
+		algs.put("typo", NormalizedTypoDifference.class);
+		algs.put("name", NameCompare.class);
+		AlgorithmRegistry registry = new AlgorithmRegistry(algs);
+		Algorithm typo = registry.get("typo");
+		assertSame(typo, registry.get("typo"));
+		// a reused instance must score exactly as a fresh one
+		for(int x = 0; x < 3; x++) {
+			assertEquals(Float.valueOf(new NormalizedTypoDifference().calculate("hallo", "ehlo")), Float.valueOf(typo.calculate("hallo", "ehlo")));
+			assertEquals(Float.valueOf(new NormalizedTypoDifference().calculate("frog", "frig")), Float.valueOf(typo.calculate("frog", "frig")));
+		}
+		assertEquals(Float.valueOf(3/4f), Float.valueOf(registry.get("name").calculate("frog", "fog")));
+	}
+
+	
+	/**
+	 * Test method for {@link org.vivoweb.harvester.score.algorithm.BoundedAlgorithm#calculate(java.lang.CharSequence, java.lang.CharSequence, float) calculate(CharSequence itemX, CharSequence itemY, float minScore)}
+	 */
+	public final void testBoundedCalculate() {
+		NormalizedLevenshteinDifference lev = new NormalizedLevenshteinDifference();
+		NormalizedDamerauLevenshteinDifference dl = new NormalizedDamerauLevenshteinDifference();
+		// scores at or above the minimum are exact
+		assertEquals(Float.valueOf(lev.calculate("frog", "fog")), Float.valueOf(lev.calculate("frog", "fog", 0.75f)));
+		assertEquals(Float.valueOf(dl.calculate("hallo", "ehlo")), Float.valueOf(dl.calculate("hallo", "ehlo", 0.2f)));
+		// scores below the minimum may be abandoned
+		assertEquals(Float.valueOf(0f), Float.valueOf(lev.calculate("abcdefgh", "zyxwvuts", 0.5f)));
+		assertEquals(Float.valueOf(0f), Float.valueOf(dl.calculate("abcdefgh", "zyxwvuts", 0.5f)));
+		// buffers reused after an abandoned calculation must not leak into the next one
+		assertEquals(Float.valueOf(new NormalizedDamerauLevenshteinDifference().calculate("hallo", "ehlo")), Float.valueOf(dl.calculate("hallo", "ehlo")));
+		
+		Map<String, Float> weights = new HashMap<String, Float>();
+		weights.put("a", Float.valueOf(0.5f));
+		weights.put("b", Float.valueOf(0.5f));
+		Map<String, Class<? extends Algorithm>> algs = new HashMap<String, Class<? extends Algorithm>>();
+		algs.put("a", NormalizedLevenshteinDifference.class);
+		algs.put("b", NormalizedLevenshteinDifference.class);
+		AlgorithmRegistry registry = new AlgorithmRegistry(algs);
+		registry.setMinimumScores(Float.valueOf(0.9f), weights, 1f);
+		assertEquals(Float.valueOf(0f), Float.valueOf(registry.calculate("a", "abcd", "abzz", null)));
+		assertEquals(Float.valueOf(0.8f), Float.valueOf(registry.calculate("b", "frogs", "frog", null)));
+	}
 }
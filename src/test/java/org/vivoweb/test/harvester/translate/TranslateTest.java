@@ -12,6 +12,7 @@ import org.slf4j.LoggerFactory;
 import org.vivoweb.harvester.translate.XSLTranslator;
 import org.vivoweb.harvester.util.FileAide;
 import org.vivoweb.harvester.util.InitLog;
+import org.vivoweb.harvester.util.repo.MapRecordHandler;
 import org.vivoweb.harvester.util.repo.Record;
 import org.vivoweb.harvester.util.repo.RecordHandler;
 import org.vivoweb.harvester.util.repo.TextFileRecordHandler;
@@ -623,6 +624,32 @@ public class TranslateTest extends TestCase {
 		log.info("END testPubMedXSLTArticleNoAffiliation");
 	}
 	
+	/**
+	 * Test method for {@link org.vivoweb.harvester.translate.XSLTranslator#setThreads(int) setThreads(int)}.
+	 * @throws IOException error
+	 */
+	public void testPubMedXSLTThreaded() throws IOException {
+		log.info("BEGIN testPubMedXSLTThreaded");
+		// add the same records to two record handlers
+		this.inRH.addRecord("Article", inputDataArticle, this.getClass());
+		this.inRH.addRecord("Book", inputDataBook, this.getClass());
+		this.inRH.addRecord("ArticleNoAffiliation", inputDataArticle.replaceAll("<Affiliation.*?/Affiliation>", ""), this.getClass());
+		RecordHandler serialRH = new MapRecordHandler();
+		
+		// translate on one thread and on several
+		new XSLTranslator(this.inRH, serialRH, FileAide.getInputStream(mapFilePath), true, false).execute();
+		XSLTranslator threaded = new XSLTranslator(this.inRH, this.outRH, FileAide.getInputStream(mapFilePath), true, false);
+		threaded.setThreads(3);
+		threaded.execute();
+		
+		// threaded output matches serial output
+		for(String id : new String[]{"Article", "Book", "ArticleNoAffiliation"}) {
+			assertEquals(serialRH.getRecordData(id), this.outRH.getRecordData(id));
+		}
+		serialRH.close();
+		log.info("END testPubMedXSLTThreaded");
+	}
+	
 	@Override
 	public void tearDown() {
 		try {
@@ -102,4 +102,22 @@ public class CSVtoJDBCTest extends TestCase {
 		log.info("END testExecute");
 	}
 	
+	/**
+	 * @throws IOException if the file is missing or not read properly
+	 * @throws SQLException error querying the table
+	 */
+	public void testExecuteBatched() throws IOException, SQLException {
+		log.info("BEGIN testExecuteBatched");
+		CSVtoJDBC subject = new CSVtoJDBC(this.sourceStream, this.conn, "Person");
+		subject.setBatchSize(3);
+		subject.execute();
+		assertFalse(this.conn.getAutoCommit());
+		Statement cursor = this.conn.createStatement();
+		ResultSet results = cursor.executeQuery("SELECT COUNT(*), MAX(ROWID) from Person");
+		assertTrue(results.next());
+		assertEquals(4, results.getInt(1));
+		assertEquals(3, results.getInt(2));
+		log.info("END testExecuteBatched");
+	}
+
 }
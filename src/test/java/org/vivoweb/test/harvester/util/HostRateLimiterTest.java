@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.test.harvester.util;
+
+import junit.framework.TestCase;
+import org.vivoweb.harvester.util.HostRateLimiter;
+
+/**
+ * Test HostRateLimiter
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class HostRateLimiterTest extends TestCase {
+	/**
+	 * nanoseconds per millisecond
+	 */
+	private static final long MILLIS = 1000000L;
+	
+	/**
+	 * Test that requests are not delayed without a limit
+	 * @throws InterruptedException interrupted
+	 */
+	public final void testNoLimit() throws InterruptedException {
+		HostRateLimiter limiter = new HostRateLimiter(0);
+		long start = System.nanoTime();
+		for(int x = 0; x < 100; x++) {
+			limiter.acquire("http://example.org/" + x);
+		}
+		assertTrue((System.nanoTime() - start) < (500 * MILLIS));
+	}
+	
+	/**
+	 * Test that requests to one host are spaced out, whatever the case of the host name
+	 * @throws InterruptedException interrupted
+	 */
+	public final void testSameHost() throws InterruptedException {
+		HostRateLimiter limiter = new HostRateLimiter(20);
+		long start = System.nanoTime();
+		limiter.acquire("http://example.org/a");
+		limiter.acquire("http://EXAMPLE.org/b");
+		limiter.acquire("http://example.org:80/c?d=e");
+		limiter.acquire("http://example.org/f");
+		// three 50ms intervals after the first request
+		assertTrue((System.nanoTime() - start) >= (149 * MILLIS));
+	}
+	
+	/**
+	 * Test that requests to different hosts do not wait for each other
+	 * @throws InterruptedException interrupted
+	 */
+	public final void testDifferentHosts() throws InterruptedException {
+		HostRateLimiter limiter = new HostRateLimiter(1);
+		long start = System.nanoTime();
+		limiter.acquire("http://a.example.org/");
+		limiter.acquire("http://b.example.org/");
+		limiter.acquire("http://c.example.org/");
+		limiter.acquire("not a url");
+		assertTrue((System.nanoTime() - start) < (500 * MILLIS));
+	}
+	
+	/**
+	 * Test that the limit holds for requests made from several threads
+	 * @throws InterruptedException interrupted
+	 */
+	public final void testThreads() throws InterruptedException {
+		final HostRateLimiter limiter = new HostRateLimiter(20);
+		Thread[] threads = new Thread[3];
+		long start = System.nanoTime();
+		for(int x = 0; x < threads.length; x++) {
+			threads[x] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						limiter.acquire("http://example.org/a");
+						limiter.acquire("http://example.org/b");
+					} catch(InterruptedException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			};
+			threads[x].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		// six requests, so five 50ms intervals after the first
+		assertTrue((System.nanoTime() - start) >= (249 * MILLIS));
+	}
+}
@@ -0,0 +1,332 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.test.harvester.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+import org.vivoweb.harvester.score.Score;
+import org.vivoweb.harvester.score.algorithm.EqualityTest;
+import org.vivoweb.harvester.util.FileAide;
+import org.vivoweb.harvester.util.InitLog;
+import org.vivoweb.harvester.util.Pipeline;
+import org.vivoweb.harvester.util.repo.JenaConnect;
+import org.vivoweb.harvester.util.repo.MemJenaConnect;
+import org.vivoweb.harvester.util.repo.RecordHandler;
+
+/**
+ * Test Pipeline
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class PipelineTest extends TestCase {
+	/**
+	 * the arguments each test tool was run with, in order
+	 */
+	static final List<List<String>> calls = new ArrayList<List<String>>();
+	/**
+	 * the models and record handlers opened by SharedTool, in order
+	 */
+	static final List<Object> instances = new ArrayList<Object>();
+	/**
+	 * jena model config file
+	 */
+	private File jenaConfig;
+	/**
+	 * record handler config file
+	 */
+	private File rhConfig;
+	
+	@Override
+	protected void setUp() throws Exception {
+		InitLog.initLogger(null, null);
+		calls.clear();
+		instances.clear();
+		this.jenaConfig = FileAide.createTempFile("pipelineModel", ".xml");
+		FileAide.setTextContent(this.jenaConfig.getAbsolutePath(), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Model>\n\t<Param name=\"type\">mem</Param>\n\t<Param name=\"modelName\">http://example.org/pipeline</Param>\n</Model>\n");
+		this.rhConfig = FileAide.createTempFile("pipelineRH", ".xml");
+		FileAide.setTextContent(this.rhConfig.getAbsolutePath(), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<RecordHandler>\n\t<Param name=\"rhClass\">org.vivoweb.harvester.util.repo.JDBCRecordHandler</Param>\n\t<Param name=\"dbClass\">org.h2.Driver</Param>\n\t<Param name=\"dbUrl\">jdbc:h2:mem:TestPipeline</Param>\n\t<Param name=\"dbUser\">sa</Param>\n\t<Param name=\"dbPass\"></Param>\n</RecordHandler>\n");
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		calls.clear();
+		instances.clear();
+		if(this.jenaConfig != null) {
+			FileAide.delete(this.jenaConfig.getAbsolutePath());
+		}
+		this.jenaConfig = null;
+		if(this.rhConfig != null) {
+			FileAide.delete(this.rhConfig.getAbsolutePath());
+		}
+		this.rhConfig = null;
+	}
+	
+	/**
+	 * Records the arguments it is run with
+	 */
+	public static class ArgsTool {
+		/**
+		 * Main method
+		 * @param args commandline arguments
+		 */
+		public static void main(String... args) {
+			calls.add(Arrays.asList(args));
+		}
+	}
+	
+	/**
+	 * Records the arguments it is run with, then exits with the status given as its first argument
+	 */
+	public static class ExitTool {
+		/**
+		 * Main method
+		 * @param args commandline arguments
+		 */
+		public static void main(String... args) {
+			calls.add(Arrays.asList(args));
+			try {
+				throw new IllegalStateException("failed");
+			} catch(Exception e) {
+				// like the harvester tools, exit from the finally block whether or not there was an error
+			} finally {
+				System.exit(Integer.parseInt(args[0]));
+			}
+		}
+	}
+	
+	/**
+	 * Fails without exiting
+	 */
+	public static class ThrowTool {
+		/**
+		 * Main method
+		 * @param args commandline arguments
+		 */
+		public static void main(String... args) {
+			calls.add(Arrays.asList(args));
+			throw new IllegalStateException("failed");
+		}
+	}
+	
+	/**
+	 * Opens the model and record handler configs given as its arguments, closing them if a third argument is given
+	 */
+	public static class SharedTool {
+		/**
+		 * Main method
+		 * @param args commandline arguments
+		 */
+		public static void main(String... args) {
+			calls.add(Arrays.asList(args));
+			try {
+				JenaConnect jc = JenaConnect.parseConfig(args[0]);
+				RecordHandler rh = RecordHandler.parseConfig(args[1]);
+				instances.add(jc);
+				instances.add(rh);
+				if(args.length > 2) {
+					jc.close();
+					rh.close();
+				}
+			} catch(IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+	
+	/**
+	 * Opens the named memory model given as its argument without closing it, recording its size then adding a statement
+	 */
+	public static class LeakTool {
+		/**
+		 * Main method
+		 * @param args commandline arguments
+		 */
+		public static void main(String... args) {
+			JenaConnect jc = new MemJenaConnect(args[0]);
+			calls.add(Arrays.asList(String.valueOf(jc.getJenaModel().size())));
+			jc.loadRdfFromString("<http://example.org/leak> <http://example.org/step> \"" + calls.size() + "\" .", null, "N-TRIPLE");
+		}
+	}
+	
+	/**
+	 * Build a step running a test tool
+	 * @param tool the test tool
+	 * @param args the rest of the step
+	 * @return the step
+	 */
+	private static String step(Class<?> tool, String args) {
+		return tool.getName() + " " + args;
+	}
+	
+	/**
+	 * Write a config file for a named memory model
+	 * @param modelName the model name
+	 * @return the config file
+	 * @throws IOException error writing the file
+	 */
+	private static File memConfig(String modelName) throws IOException {
+		File config = FileAide.createTempFile("pipelineMem", ".xml");
+		FileAide.setTextContent(config.getAbsolutePath(), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Model>\n\t<Param name=\"type\">mem</Param>\n\t<Param name=\"modelName\">" + modelName + "</Param>\n</Model>\n");
+		return config;
+	}
+	
+	/**
+	 * Can the pipeline stop the test tools from exiting the jvm
+	 * @return false if the jvm does not allow a security manager to be set
+	 */
+	private static boolean canTrapExit() {
+		try {
+			System.setSecurityManager(System.getSecurityManager());
+			return true;
+		} catch(UnsupportedOperationException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Test that steps are split on whitespace with quoted text kept together
+	 * @throws IOException error
+	 */
+	public final void testSplitStepQuoting() throws IOException {
+		new Pipeline(Arrays.asList(step(ArgsTool.class, " -a  \"two words\" 'it''s' x\"y z\"w ''"), step(ArgsTool.class, ""))).execute();
+		assertEquals(2, calls.size());
+		assertEquals(Arrays.asList("-a", "two words", "its", "xy zw", ""), calls.get(0));
+		assertEquals(0, calls.get(1).size());
+	}
+	
+	/**
+	 * Test that bad steps are rejected before any step runs
+	 * @throws IOException error
+	 */
+	public final void testBadSteps() throws IOException {
+		String[] badSteps = {"\"unbalanced", "   ", "NoSuchTool -x", PipelineTest.class.getName()};
+		for(String badStep : badSteps) {
+			try {
+				new Pipeline(Arrays.asList(step(ArgsTool.class, "first"), badStep)).execute();
+				fail("step should be rejected: " + badStep);
+			} catch(IllegalArgumentException e) {
+				// expected
+			}
+		}
+		assertEquals(0, calls.size());
+	}
+	
+	/**
+	 * Test that a tool exiting with status 0 finishes its step and the run goes on
+	 * @throws IOException error
+	 */
+	public final void testExitZero() throws IOException {
+		if(!canTrapExit()) {
+			return;
+		}
+		new Pipeline(Arrays.asList(step(ExitTool.class, "0"), step(ArgsTool.class, "after"))).execute();
+		assertEquals(2, calls.size());
+		assertEquals(Arrays.asList("after"), calls.get(1));
+		assertNull(System.getSecurityManager());
+	}
+	
+	/**
+	 * Test that a tool exiting with another status, or throwing, fails the run without running the later steps
+	 */
+	public final void testFailingSteps() {
+		Class<?>[] failingTools = canTrapExit() ? new Class<?>[]{ExitTool.class, ThrowTool.class} : new Class<?>[]{ThrowTool.class};
+		for(Class<?> tool : failingTools) {
+			calls.clear();
+			try {
+				new Pipeline(Arrays.asList(step(tool, "1"), step(ArgsTool.class, "after"))).execute();
+				fail("step should fail: " + tool.getSimpleName());
+			} catch(IOException e) {
+				// expected
+			}
+			assertEquals(1, calls.size());
+		}
+	}
+	
+	/**
+	 * Test that steps share the models and record handlers opened from the same config, and that an instance a step
+	 * closed is opened again for the next step
+	 * @throws IOException error
+	 */
+	public final void testSharedInstances() throws IOException {
+		String configs = "\"" + this.jenaConfig.getAbsolutePath() + "\" \"" + this.rhConfig.getAbsolutePath() + "\"";
+		new Pipeline(Arrays.asList(step(SharedTool.class, configs), step(SharedTool.class, configs + " close"), step(SharedTool.class, configs))).execute();
+		assertEquals(6, instances.size());
+		assertSame(instances.get(0), instances.get(2));
+		assertSame(instances.get(1), instances.get(3));
+		assertNotSame(instances.get(2), instances.get(4));
+		assertTrue(((JenaConnect)instances.get(2)).isClosed());
+		assertNotSame(instances.get(3), instances.get(5));
+		assertTrue(((RecordHandler)instances.get(5)).isClosed());
+		
+		instances.clear();
+		SharedTool.main(this.jenaConfig.getAbsolutePath(), this.rhConfig.getAbsolutePath(), "close");
+		SharedTool.main(this.jenaConfig.getAbsolutePath(), this.rhConfig.getAbsolutePath(), "close");
+		assertNotSame(instances.get(0), instances.get(2));
+		assertNotSame(instances.get(1), instances.get(3));
+	}
+	
+	/**
+	 * Test that a named memory model a step left open starts again empty in the next step
+	 * @throws IOException error
+	 */
+	public final void testLeftOpenModelsDropped() throws IOException {
+		String name = "http://example.org/pipeline/leak";
+		new Pipeline(Arrays.asList(step(LeakTool.class, name), step(LeakTool.class, name))).execute();
+		assertEquals(Arrays.asList("0"), calls.get(0));
+		assertEquals(Arrays.asList("0"), calls.get(1));
+		JenaConnect after = new MemJenaConnect(name);
+		assertTrue(after.isEmpty());
+		after.close();
+	}
+	
+	/**
+	 * Test that two Score steps without a temp model directory each score only their own input
+	 * @throws IOException error
+	 */
+	public final void testTwoScoreSteps() throws IOException {
+		String label = "<http://www.w3.org/2000/01/rdf-schema#label>";
+		String[] names = {"vivo", "inputA", "inputB", "scoreA", "scoreB"};
+		String[] rdf = {
+			"<http://vivo.example.org/individual/n1> " + label + " \"Smith\" .\n<http://vivo.example.org/individual/n2> " + label + " \"Jones\" .",
+			"<http://example.org/harvest/a1> " + label + " \"Smith\" .",
+			"<http://example.org/harvest/b1> " + label + " \"Jones\" .",
+			null,
+			null
+		};
+		List<JenaConnect> models = new ArrayList<JenaConnect>();
+		List<String> configs = new ArrayList<String>();
+		try {
+			for(int x = 0; x < names.length; x++) {
+				// opened before the pipeline runs, so these are kept for the whole run
+				JenaConnect jc = new MemJenaConnect("http://example.org/pipeline/score/" + names[x]);
+				if(rdf[x] != null) {
+					jc.loadRdfFromString(rdf[x], null, "N-TRIPLE");
+				}
+				models.add(jc);
+				configs.add(memConfig(jc.getModelName()).getAbsolutePath());
+			}
+			String params = " -Alabel=" + EqualityTest.class.getName() + " -Wlabel=1.0 -Flabel=http://www.w3.org/2000/01/rdf-schema#label -Plabel=http://www.w3.org/2000/01/rdf-schema#label -n http://example.org/harvest/";
+			String scoreA = "-i \"" + configs.get(1) + "\" -v \"" + configs.get(0) + "\" -s \"" + configs.get(3) + "\"" + params;
+			String scoreB = "-i \"" + configs.get(2) + "\" -v \"" + configs.get(0) + "\" -s \"" + configs.get(4) + "\"" + params;
+			new Pipeline(Arrays.asList(step(Score.class, scoreA), step(Score.class, scoreB))).execute();
+			String query = "PREFIX sv: <http://vivoweb.org/harvester/scoreValue/> ASK { ?pair sv:InputRes <http://example.org/harvest/%s> ; sv:VivoRes <http://vivo.example.org/individual/%s> }";
+			assertTrue(models.get(3).executeAskQuery(String.format(query, "a1", "n1")));
+			assertFalse(models.get(3).executeAskQuery(String.format(query, "b1", "n2")));
+			assertTrue(models.get(4).executeAskQuery(String.format(query, "b1", "n2")));
+			assertFalse(models.get(4).executeAskQuery(String.format(query, "a1", "n1")));
+		} finally {
+			for(JenaConnect jc : models) {
+				jc.close();
+			}
+			for(String config : configs) {
+				FileAide.delete(config);
+			}
+		}
+	}
+}
@@ -5,6 +5,8 @@
  ******************************************************************************/
 package org.vivoweb.test.harvester.util;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import junit.framework.TestCase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -141,4 +143,27 @@ public class SpecialEntitiesTest extends TestCase {
 		log.info("END testBiDirectionalXml");
 	}
 	
+	/**
+	 * Test method for {@link org.vivoweb.harvester.util.SpecialEntities#xmlEncode(java.lang.String, java.io.Writer, char...)
+	 * xmlEncode(String s, Writer out, char... exceptions)}.
+	 * @throws IOException error
+	 */
+	public final void testXmlEncodeWriter() throws IOException {
+		log.info("BEGIN testXmlEncodeWriter");
+		StringWriter out = new StringWriter();
+		SpecialEntities.xmlEncode(toBeXmlEnc, out);
+		assertEquals(toBeXmlDec, out.toString());
+		log.info("END testXmlEncodeWriter");
+	}
+
+	/**
+	 * Test method for decoding numeric entities
+	 */
+	public final void testNumericDecode() {
+		log.info("BEGIN testNumericDecode");
+		assertEquals("A\u00e9\ud83d\ude00 &#; &bogus;", SpecialEntities.xmlDecode("&#65;&#xe9;&#128512; &#; &bogus;"));
+		assertEquals("&#128512;", SpecialEntities.xmlEncode("\ud83d\ude00"));
+		log.info("END testNumericDecode");
+	}
+	
 }
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.test.harvester.util;
+
+import java.util.HashSet;
+import java.util.Set;
+import junit.framework.TestCase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vivoweb.harvester.util.InitLog;
+import org.vivoweb.harvester.util.URIAllocator;
+
+/**
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class URIAllocatorTest extends TestCase {
+	/**
+	 * SLF4J Logger
+	 */
+	private static Logger log = LoggerFactory.getLogger(URIAllocatorTest.class);
+	/** */
+	private static final String namespace = "http://vivo.test.edu/individual/";
+	
+	@Override
+	protected void setUp() throws Exception {
+		InitLog.initLogger(null, null);
+	}
+	
+	/**
+	 * Test method for {@link org.vivoweb.harvester.util.URIAllocator#allocate() allocate()}.
+	 */
+	public final void testAllocate() {
+		log.info("BEGIN testAllocate");
+		URIAllocator allocator = new URIAllocator(namespace);
+		Set<String> uris = new HashSet<String>();
+		for(int x = 0; x < 1000; x++) {
+			String uri = allocator.allocate();
+			assertTrue(uri.matches(namespace + "n[0-9]+"));
+			assertTrue("Allocated <" + uri + "> twice", uris.add(uri));
+		}
+		log.info("END testAllocate");
+	}
+	
+	/**
+	 * Test method for {@link org.vivoweb.harvester.util.URIAllocator#addUsedURI(java.lang.String)
+	 * addUsedURI(String uri)}.
+	 */
+	public final void testAddUsedURI() {
+		log.info("BEGIN testAddUsedURI");
+		URIAllocator allocator = new URIAllocator(namespace);
+		Set<String> used = new HashSet<String>();
+		for(int x = 0; x < 100000; x++) {
+			String uri = namespace + "n" + x;
+			allocator.addUsedURI(uri);
+			used.add(uri);
+		}
+		allocator.addUsedURI(namespace + "nbogus");
+		allocator.addUsedURI("http://other.test.edu/individual/n5");
+		for(int x = 0; x < 1000; x++) {
+			assertFalse(used.contains(allocator.allocate()));
+		}
+		log.info("END testAddUsedURI");
+	}
+}
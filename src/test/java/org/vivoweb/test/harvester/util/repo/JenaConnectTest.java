@@ -10,6 +10,8 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import junit.framework.TestCase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,8 +22,13 @@ import org.vivoweb.harvester.util.repo.JenaConnect;
 import org.vivoweb.harvester.util.repo.MemJenaConnect;
 import org.vivoweb.harvester.util.repo.RecordHandler;
 import org.vivoweb.harvester.util.repo.SDBJenaConnect;
+import org.vivoweb.harvester.util.repo.SelectResultCache;
+import org.vivoweb.harvester.util.repo.TDBJenaConnect;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
 import org.apache.jena.rdf.model.Property;
 import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
 import org.apache.jena.rdf.model.StmtIterator;
 
 /**
@@ -55,6 +62,10 @@ public class JenaConnectTest extends TestCase {
 	/** */
 	private static final String rdfIn = "" + "<?xml version=\"1.0\"?>\n" + "<rdf:RDF\n" + "    xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"\n" + "    xmlns:si=\"http://www.w3schools.com/rdf/\" > \n" + "  <rdf:Description rdf:about=\"http://www.w3schools.com\">\n" + "    <si:author>Jan Egil Refsnes</si:author>\n" + "    <si:title>W3Schools</si:title>\n" + "  </rdf:Description>\n" + "</rdf:RDF>\n";
 	/** */
+	private static final String ntRecord1 = "" + "<http://example.org/a> <http://example.org/p> \"1\" .\n" + "<http://example.org/a> <http://example.org/p> \"2\" .\n" + "<http://example.org/a> <http://example.org/p> \"3\" .\n";
+	/** */
+	private static final String ntRecord2 = "" + "<http://example.org/b> <http://example.org/p> \"4\" .\n" + "<http://example.org/b> <http://example.org/p> \"5\" .\n";
+	/** */
 	private JenaConnect jc;
 	/** */
 	private File configFile;
@@ -170,6 +181,86 @@ public class JenaConnectTest extends TestCase {
 		log.info("END testJenaConnectMemConstWithModelName");
 	}
 	
+	/**
+	 * Test that memory models with the same name share their data, and unnamed memory models do not
+	 */
+	public void testMemSharing() {
+		log.info("BEGIN testMemSharing");
+		String name = "http://harvester.vivoweb.org/test/repo/mem/sharing";
+		this.jc = new MemJenaConnect(name);
+		JenaConnect same = new MemJenaConnect(name);
+		runWriteTest();
+		assertEquals(1, same.getJenaModel().size());
+		JenaConnect unnamed1 = new MemJenaConnect();
+		JenaConnect unnamed2 = new MemJenaConnect();
+		unnamed1.loadRdfFromString(rdfIn, null, null);
+		assertEquals(2, unnamed1.getJenaModel().size());
+		assertTrue(unnamed2.getJenaModel().isEmpty());
+		unnamed1.close();
+		assertTrue(unnamed1.getJenaModel().isClosed());
+		assertFalse(unnamed2.getJenaModel().isClosed());
+		unnamed2.close();
+		same.truncate();
+		same.close();
+		log.info("END testMemSharing");
+	}
+	
+	/**
+	 * Test that a named memory model keeps its data while any instance opened by its name is open, and starts again
+	 * empty once the last one is closed
+	 */
+	public void testMemReopen() {
+		log.info("BEGIN testMemReopen");
+		String name = "http://harvester.vivoweb.org/test/repo/mem/reopen";
+		JenaConnect first = new MemJenaConnect(name);
+		first.loadRdfFromString(rdfIn, null, null);
+		JenaConnect second = new MemJenaConnect(name);
+		first.close();
+		first.close();
+		assertTrue(first.isClosed());
+		assertFalse(second.isClosed());
+		JenaConnect third = new MemJenaConnect(name);
+		assertEquals(2, third.getJenaModel().size());
+		assertTrue(third.containsURI("http://www.w3schools.com"));
+		second.close();
+		third.close();
+		this.jc = new MemJenaConnect(name);
+		assertTrue(this.jc.getJenaModel().isEmpty());
+		log.info("END testMemReopen");
+	}
+	
+	/**
+	 * Test method for {@link org.vivoweb.harvester.util.repo.MemJenaConnect#neighborConnectClone(java.lang.String)
+	 * neighborConnectClone(String modelName)}.
+	 * @throws IOException error
+	 */
+	public void testMemNeighborClone() throws IOException {
+		log.info("BEGIN testMemNeighborClone");
+		String name = "http://harvester.vivoweb.org/test/repo/mem/neighbors";
+		this.jc = new MemJenaConnect(name);
+		JenaConnect clone = this.jc.neighborConnectClone(modelName);
+		clone.loadRdfFromString(rdfIn, null, null);
+		assertTrue(this.jc.getJenaModel().isEmpty());
+		assertSame(this.jc.getDataset(), clone.getDataset());
+		assertEquals(2, this.jc.getDataset().getNamedModel(modelName).size());
+		clone.close();
+		JenaConnect second = new MemJenaConnect(name);
+		JenaConnect reopened = second.neighborConnectClone(modelName);
+		assertEquals(2, reopened.getJenaModel().size());
+		reopened.close();
+		second.close();
+		this.jc.close();
+		this.jc = new MemJenaConnect(name);
+		assertTrue(this.jc.neighborConnectClone(modelName).isEmpty());
+		
+		JenaConnect unnamed = new MemJenaConnect();
+		JenaConnect unnamedClone = unnamed.neighborConnectClone(modelName);
+		assertTrue(unnamedClone.isEmpty());
+		unnamedClone.close();
+		unnamed.close();
+		log.info("END testMemNeighborClone");
+	}
+	
 	/**
 	 * Test method for
 	 * {@link org.vivoweb.harvester.util.repo.JenaConnect#loadRdfFromStream(java.io.InputStream, java.lang.String, java.lang.String)
@@ -232,4 +323,215 @@ public class JenaConnectTest extends TestCase {
 		log.info("END testContainsURI");
 	}
 	
+	/**
+	 * Test method for
+	 * {@link org.vivoweb.harvester.util.repo.JenaConnect#setResultCache(org.vivoweb.harvester.util.repo.SelectResultCache, java.lang.String)
+	 * setResultCache(SelectResultCache cache, String version)}.
+	 * @throws IOException error
+	 */
+	public final void testResultCache() throws IOException {
+		log.info("BEGIN testResultCache");
+		File cacheDir = FileAide.createTempFile("jcQueryCache", ".dir");
+		cacheDir.delete();
+		SelectResultCache cache = new SelectResultCache(cacheDir.getAbsolutePath(), 1);
+		String query = "SELECT ?t WHERE { ?s <http://www.w3schools.com/rdf/title> ?t }";
+		JenaConnect loader = new MemJenaConnect(modelName2);
+		loader.loadRdfFromStream(new ByteArrayInputStream(rdfIn.getBytes()), null, null);
+		
+		this.jc = new MemJenaConnect(modelName2);
+		this.jc.setResultCache(cache, "snapshot-1");
+		assertEquals("W3Schools", this.jc.executeSelectQuery(query).next().getLiteral("t").getString());
+		assertEquals(0, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals("W3Schools", this.jc.executeSelectQuery(query).next().getLiteral("t").getString());
+		assertEquals(1, cache.getHits());
+		
+		this.jc.getJenaModel().removeAll();
+		assertFalse(this.jc.executeSelectQuery(query).hasNext());
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertFalse(this.jc.executeSelectQuery(query).hasNext());
+		assertEquals(2, cache.getHits());
+		loader.close();
+		log.info("END testResultCache");
+	}
+	
+	/**
+	 * Test that results cached by one connection are not served after another connection to the same store writes to
+	 * it, and that cached results are bound to the connection's model
+	 * @throws IOException error
+	 */
+	public final void testResultCacheSharedStore() throws IOException {
+		log.info("BEGIN testResultCacheSharedStore");
+		File cacheDir = FileAide.createTempFile("jcQueryCache", ".dir");
+		cacheDir.delete();
+		File tdbDir = FileAide.createTempFile("jcTDB", ".dir");
+		tdbDir.delete();
+		SelectResultCache cache = new SelectResultCache(cacheDir.getAbsolutePath(), 1);
+		String query = "SELECT ?s ?t WHERE { ?s <http://www.w3schools.com/rdf/title> ?t }";
+		JenaConnect writer = new TDBJenaConnect(tdbDir.getAbsolutePath());
+		writer.setResultCache(cache, "snapshot-1");
+		writer.loadRdfFromString(rdfIn, null, null);
+		
+		this.jc = new TDBJenaConnect(tdbDir.getAbsolutePath());
+		this.jc.setResultCache(cache, "snapshot-1");
+		assertEquals("W3Schools", this.jc.executeSelectQuery(query).next().getLiteral("t").getString());
+		assertEquals(1, cache.getMisses());
+		QuerySolution cached = this.jc.executeSelectQuery(query).next();
+		assertEquals(1, cache.getHits());
+		assertEquals("W3Schools", cached.getLiteral("t").getString());
+		assertTrue(cached.getResource("s").hasProperty(ResourceFactory.createProperty("http://www.w3schools.com/rdf/author")));
+		
+		writer.getJenaModel().add(ResourceFactory.createResource("http://example.org/page"), ResourceFactory.createProperty("http://www.w3schools.com/rdf/title"), "Example");
+		ResultSet results = this.jc.executeSelectQuery(query);
+		int rows = 0;
+		while(results.hasNext()) {
+			results.next();
+			rows++;
+		}
+		assertEquals(2, rows);
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		writer.close();
+		log.info("END testResultCacheSharedStore");
+	}
+	
+	/**
+	 * Test that a large result is streamed through the cache intact
+	 * @throws IOException error
+	 */
+	public final void testResultCacheLargeResult() throws IOException {
+		log.info("BEGIN testResultCacheLargeResult");
+		File cacheDir = FileAide.createTempFile("jcQueryCache", ".dir");
+		cacheDir.delete();
+		SelectResultCache cache = new SelectResultCache(cacheDir.getAbsolutePath(), 10);
+		this.jc = new MemJenaConnect();
+		this.jc.setResultCache(cache, "snapshot-1");
+		Property p = ResourceFactory.createProperty("http://example.org/p");
+		for(int x = 0; x < 5000; x++) {
+			this.jc.getJenaModel().add(ResourceFactory.createResource("http://example.org/s" + x), p, "value " + x);
+		}
+		String query = "SELECT ?s ?o WHERE { ?s <http://example.org/p> ?o } ORDER BY ?s";
+		List<String> fresh = listRows(this.jc.executeSelectQuery(query));
+		List<String> cached = listRows(this.jc.executeSelectQuery(query));
+		assertEquals(1, cache.getHits());
+		assertEquals(5000, fresh.size());
+		assertEquals(fresh, cached);
+		log.info("END testResultCacheLargeResult");
+	}
+	
+	/**
+	 * Test that a query cache is not accepted without a version
+	 * @throws IOException error
+	 */
+	public final void testResultCacheRequiresVersion() throws IOException {
+		log.info("BEGIN testResultCacheRequiresVersion");
+		File cacheDir = FileAide.createTempFile("jcQueryCache", ".dir");
+		cacheDir.delete();
+		this.jc = new MemJenaConnect();
+		try {
+			this.jc.setResultCache(new SelectResultCache(cacheDir.getAbsolutePath(), 1), null);
+			fail("a query cache without a version should be rejected");
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+		log.info("END testResultCacheRequiresVersion");
+	}
+	
+	/**
+	 * List the rows of a result set as text
+	 * @param results the result set
+	 * @return the rows
+	 */
+	private static List<String> listRows(ResultSet results) {
+		List<String> rows = new ArrayList<String>();
+		while(results.hasNext()) {
+			QuerySolution row = results.next();
+			rows.add(row.getResource("s").getURI() + " " + row.getLiteral("o").getString());
+		}
+		return rows;
+	}
+	
+	/**
+	 * Build a RecordHandler holding the two n-triples records
+	 * @param dbName name of the in-memory database to hold the records
+	 * @return the RecordHandler
+	 * @throws IOException error
+	 */
+	private static RecordHandler buildNTriplesRH(String dbName) throws IOException {
+		RecordHandler rh = new JDBCRecordHandler("org.h2.Driver", "jdbc:h2:mem:" + dbName, "sa", "", "recordTable", "dataField");
+		rh.addRecord("record1", ntRecord1, JenaConnectTest.class);
+		rh.addRecord("record2", ntRecord2, JenaConnectTest.class);
+		return rh;
+	}
+	
+	/**
+	 * Test method for
+	 * {@link org.vivoweb.harvester.util.repo.JenaConnect#loadRdfFromRH(org.vivoweb.harvester.util.repo.RecordHandler, java.lang.String, java.lang.String, int)
+	 * loadRdfFromRH(RecordHandler rh, String namespace, String language, int commitSize)}, with batches smaller than,
+	 * spanning and larger than a record.
+	 * @throws IOException error
+	 */
+	public final void testLoadRdfFromRHCommitSize() throws IOException {
+		log.info("BEGIN testLoadRdfFromRHCommitSize");
+		RecordHandler rh = buildNTriplesRH("TestJC-commitSize");
+		for(int commitSize : new int[]{1, 2, 4, 100}) {
+			JenaConnect model = new MemJenaConnect();
+			assertEquals(2, model.loadRdfFromRH(rh, null, "N-TRIPLE", commitSize));
+			assertEquals(5, model.getJenaModel().size());
+			model.close();
+		}
+		this.jc = new MemJenaConnect();
+		try {
+			this.jc.loadRdfFromRH(rh, null, "N-TRIPLE", 0);
+			fail("a commit size below 1 should be rejected");
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+		rh.close();
+		log.info("END testLoadRdfFromRHCommitSize");
+	}
+	
+	/**
+	 * Test method for
+	 * {@link org.vivoweb.harvester.util.repo.JenaConnect#removeRdfFromRH(org.vivoweb.harvester.util.repo.RecordHandler, java.lang.String, java.lang.String, int)
+	 * removeRdfFromRH(RecordHandler rh, String namespace, String language, int commitSize)}.
+	 * @throws IOException error
+	 */
+	public final void testRemoveRdfFromRH() throws IOException {
+		log.info("BEGIN testRemoveRdfFromRH");
+		RecordHandler rh = buildNTriplesRH("TestJC-remove");
+		this.jc = new MemJenaConnect();
+		this.jc.loadRdfFromRH(rh, null, "N-TRIPLE");
+		Resource other = this.jc.getJenaModel().createResource("http://example.org/c");
+		this.jc.getJenaModel().add(other, this.jc.getJenaModel().createProperty("http://example.org/p"), "6");
+		assertEquals(6, this.jc.getJenaModel().size());
+		assertEquals(2, this.jc.removeRdfFromRH(rh, null, "N-TRIPLE", 2));
+		assertEquals(1, this.jc.getJenaModel().size());
+		assertTrue(this.jc.containsURI("http://example.org/c"));
+		assertFalse(this.jc.containsURI("http://example.org/a"));
+		rh.close();
+		log.info("END testRemoveRdfFromRH");
+	}
+	
+	/**
+	 * Test method for
+	 * {@link org.vivoweb.harvester.util.repo.TDBJenaConnect#loadRdfFromRH(org.vivoweb.harvester.util.repo.RecordHandler, java.lang.String, java.lang.String, int)
+	 * TDBJenaConnect.loadRdfFromRH(RecordHandler rh, String namespace, String language, int commitSize)}, which bulk
+	 * loads the records, and the batched removal of them from a tdb model.
+	 * @throws IOException error
+	 */
+	public final void testTDBBulkLoad() throws IOException {
+		log.info("BEGIN testTDBBulkLoad");
+		RecordHandler rh = buildNTriplesRH("TestJC-tdb");
+		this.jc = new TDBJenaConnect(null);
+		assertEquals(2, this.jc.loadRdfFromRH(rh, null, "N-TRIPLE"));
+		assertEquals(5, this.jc.getJenaModel().size());
+		assertTrue(this.jc.containsURI("http://example.org/b"));
+		assertEquals(2, this.jc.removeRdfFromRH(rh, null, "N-TRIPLE", 2));
+		assertEquals(0, this.jc.getJenaModel().size());
+		rh.close();
+		log.info("END testTDBBulkLoad");
+	}
+	
 }
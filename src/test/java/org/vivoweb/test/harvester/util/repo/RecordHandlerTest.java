@@ -5,9 +5,11 @@
  ******************************************************************************/
 package org.vivoweb.test.harvester.util.repo;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import junit.framework.TestCase;
 import org.slf4j.Logger;
@@ -17,9 +19,11 @@ import org.vivoweb.harvester.util.FileAide;
 import org.vivoweb.harvester.util.repo.JDBCRecordHandler;
 import org.vivoweb.harvester.util.repo.JenaRecordHandler;
 import org.vivoweb.harvester.util.repo.MapRecordHandler;
+import org.vivoweb.harvester.util.repo.PackedRecordHandler;
 import org.vivoweb.harvester.util.repo.Record;
 import org.vivoweb.harvester.util.repo.RecordHandler;
 import org.vivoweb.harvester.util.repo.RecordMetaData;
+import org.vivoweb.harvester.util.repo.RecordMetaDataIndex;
 import org.vivoweb.harvester.util.repo.SDBJenaConnect;
 import org.vivoweb.harvester.util.repo.TextFileRecordHandler;
 
@@ -144,6 +148,18 @@ public class RecordHandlerTest extends TestCase {
 		log.info("END testJDBCAddRecord");
 	}
 	
+	/**
+	 * Test method for {@link org.vivoweb.harvester.util.repo.JDBCRecordHandler#addRecords(java.util.Map, java.lang.Class)
+	 * addRecords(Map recs, Class creator)}.
+	 * @throws IOException error
+	 */
+	public void testJDBCAddRecords() throws IOException {
+		log.info("BEGIN testJDBCAddRecords");
+		this.rh = new JDBCRecordHandler("org.h2.Driver", "jdbc:h2:mem:TestRH-JDBCBatch", "sa", "", "testdb", "data");
+		runAddRecords();
+		log.info("END testJDBCAddRecords");
+	}
+	
 	/**
 	 * Test method for
 	 * {@link org.vivoweb.harvester.util.repo.TextFileRecordHandler#TextFileRecordHandler(java.lang.String)
@@ -157,6 +173,19 @@ public class RecordHandlerTest extends TestCase {
 		log.info("END testTextFileAddRecord");
 	}
 	
+	/**
+	 * Test method for
+	 * {@link org.vivoweb.harvester.util.repo.TextFileRecordHandler#addRecords(java.util.Map, java.lang.Class)
+	 * addRecords(Map recs, Class creator)}.
+	 * @throws IOException error
+	 */
+	public void testTextFileAddRecords() throws IOException {
+		log.info("BEGIN testTextFileAddRecords");
+		this.rh = new TextFileRecordHandler("tmp://testTFRHBatch");
+		runAddRecords();
+		log.info("END testTextFileAddRecords");
+	}
+	
 	/**
 	 * Test method for {@link org.vivoweb.harvester.util.repo.TextFileRecordHandler#iterator()
 	 * iterator()}.
@@ -188,6 +217,81 @@ public class RecordHandlerTest extends TestCase {
 		log.info("END testMapAddRecord");
 	}
 	
+	/**
+	 * Test method for {@link org.vivoweb.harvester.util.repo.RecordHandler#loadMetaDataIndex() loadMetaDataIndex()}.
+	 * @throws IOException error
+	 */
+	public void testMetaDataIndex() throws IOException {
+		log.info("BEGIN testMetaDataIndex");
+		this.rh = new MapRecordHandler();
+		this.rh.addRecord("test123", "testing data for record 'test123'", RecordHandlerTest.class);
+		this.rh.addRecord("test456", "data test on record 'test456'", RecordHandlerTest.class);
+		this.rh.getRecord("test123").setProcessed(RecordHandlerTest.class);
+		this.rh.loadMetaDataIndex();
+		assertFalse(this.rh.needsProcessed("test123", RecordHandlerTest.class));
+		assertTrue(this.rh.needsProcessed("test456", RecordHandlerTest.class));
+		assertFalse(this.rh.addRecord("test456", "data test on record 'test456'", RecordHandlerTest.class));
+		this.rh.delRecord("test456");
+		assertTrue(this.rh.addRecord("test456", "data test on record 'test456'", RecordHandlerTest.class));
+		RecordMetaDataIndex index = this.rh.getMetaDataIndex(null);
+		assertEquals(RecordMetaData.md5hex("testing data for record 'test123'"), index.getLastWrittenMD5("test123"));
+		assertNull(index.getLastWrittenMD5("test789"));
+		log.info("END testMetaDataIndex");
+	}
+	
+	/**
+	 * Test method for
+	 * {@link org.vivoweb.harvester.util.repo.PackedRecordHandler#PackedRecordHandler(java.lang.String)
+	 * PackedRecordHandler(String fileDir)}.
+	 * @throws IOException error
+	 */
+	public void testPackedAddRecord() throws IOException {
+		log.info("BEGIN testPackedAddRecord");
+		this.rh = new PackedRecordHandler(newTempDir("testPRH"));
+		runBattery();
+		log.info("END testPackedAddRecord");
+	}
+	
+	/**
+	 * Test method for {@link org.vivoweb.harvester.util.repo.PackedRecordHandler#compact() compact()}.
+	 * @throws IOException error
+	 */
+	public void testPackedReopen() throws IOException {
+		log.info("BEGIN testPackedReopen");
+		String dir = newTempDir("testReopenPRH");
+		PackedRecordHandler prh = new PackedRecordHandler(dir);
+		prh.addRecord("test123", "testing data for record 'test123'", RecordHandlerTest.class);
+		prh.addRecord("test456", "data test on record 'test456'", RecordHandlerTest.class);
+		prh.addRecord("test456", "new data on record 'test456'", RecordHandlerTest.class);
+		prh.addRecord("funABC", "data in record 'funABC'", RecordHandlerTest.class);
+		prh.delRecord("funABC");
+		prh.getRecord("test123").setProcessed(RecordHandlerTest.class);
+		prh.compact();
+		prh.close();
+		this.rh = new PackedRecordHandler(dir);
+		assertEquals("testing data for record 'test123'", this.rh.getRecordData("test123"));
+		assertEquals("new data on record 'test456'", this.rh.getRecordData("test456"));
+		assertTrue(this.rh.find("fun").isEmpty());
+		assertTrue(this.rh.needsProcessed("test456", RecordHandlerTest.class));
+		assertFalse(this.rh.addRecord("test123", "testing data for record 'test123'", RecordHandlerTest.class));
+		log.info("END testPackedReopen");
+	}
+	
+	/**
+	 * Create an empty local directory for a test
+	 * @param prefix the directory name prefix
+	 * @return the directory path
+	 * @throws IOException error creating directory
+	 */
+	private static String newTempDir(String prefix) throws IOException {
+		File dir = File.createTempFile(prefix, "");
+		if(!dir.delete() || !dir.mkdir()) {
+			throw new IOException("Unable to create temp directory " + dir);
+		}
+		dir.deleteOnExit();
+		return dir.getAbsolutePath();
+	}
+	
 	/**
 	 * Test method for
 	 * {@link org.vivoweb.harvester.util.repo.JenaRecordHandler#JenaRecordHandler(org.vivoweb.harvester.util.repo.JenaConnect, java.lang.String)
@@ -250,6 +354,40 @@ public class RecordHandlerTest extends TestCase {
 		log.info("End mod test");
 	}
 	
+	/**
+	 * Add records a batch at a time: new records, unchanged records and a mix of changed and new records
+	 * @throws IOException error
+	 */
+	private void runAddRecords() throws IOException {
+		log.info("Start add records test");
+		Map<String, String> recs = new LinkedHashMap<String, String>();
+		recs.put("batch1", "first batch record");
+		recs.put("batch2", "second batch record");
+		recs.put("batch3", "third batch record");
+		assertEquals(3, this.rh.addRecords(recs, this.getClass()));
+		assertEquals("second batch record", this.rh.getRecord("batch2").getData().trim());
+		assertEquals(0, this.rh.addRecords(recs, this.getClass()));
+		
+		recs.put("batch2", "second batch record - changed");
+		recs.put("batch4", "fourth batch record");
+		assertEquals(2, this.rh.addRecords(recs, this.getClass()));
+		assertEquals("second batch record - changed", this.rh.getRecord("batch2").getData().trim());
+		assertEquals("fourth batch record", this.rh.getRecord("batch4").getData().trim());
+		RecordMetaDataIndex index = this.rh.getMetaDataIndex(null);
+		assertEquals(RecordMetaData.md5hex("first batch record"), index.getLastWrittenMD5("batch1"));
+		assertEquals(RecordMetaData.md5hex("fourth batch record"), index.getLastWrittenMD5("batch4"));
+		
+		// with the metadata index loaded, unchanged records are still skipped and new metadata is indexed
+		this.rh.loadMetaDataIndex();
+		recs.clear();
+		recs.put("batch1", "first batch record");
+		recs.put("batch4", "fourth batch record");
+		recs.put("batch5", "fifth batch record");
+		assertEquals(1, this.rh.addRecords(recs, this.getClass()));
+		assertFalse(this.rh.addRecord("batch5", "fifth batch record", this.getClass()));
+		log.info("End add records test");
+	}
+	
 	/**
 	 * @throws IOException error
 	 */
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2010-2011 VIVO Harvester Team. For full list of contributors, please see the AUTHORS file provided.
+ * All rights reserved.
+ * This program and the accompanying materials are made available under the terms of the new BSD license which accompanies this distribution, and is available at http://www.opensource.org/licenses/bsd-license.html
+ ******************************************************************************/
+package org.vivoweb.test.harvester.util.repo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.vivoweb.harvester.util.repo.RecordStreamOrigin;
+import org.vivoweb.harvester.util.repo.XMLRecordOutputStream;
+
+/**
+ * @author Christopher Haines (hainesc@ctrip.ufl.edu)
+ */
+public class XMLRecordOutputStreamTest extends TestCase implements RecordStreamOrigin {
+	/**
+	 * the ids written
+	 */
+	private List<String> ids;
+	/**
+	 * the records written
+	 */
+	private List<String> records;
+	
+	@Override
+	protected void setUp() throws Exception {
+		this.ids = new ArrayList<String>();
+		this.records = new ArrayList<String>();
+	}
+	
+	@Override
+	public void writeRecord(String id, String data) throws IOException {
+		this.ids.add(id);
+		this.records.add(data);
+	}
+	
+	/**
+	 * Test splitting records written in arbitrary chunks
+	 * @throws IOException error writing
+	 */
+	public void testSplitChunks() throws IOException {
+		String data = "<?xml version=\"1.0\"?>\n<root><rec><id> 1 </id><v>a&gt;b</v></rec>\n<other><id>x</id></other><rec><id>2</id></rec></root>";
+		byte[] bytes = data.getBytes();
+		XMLRecordOutputStream xros = new XMLRecordOutputStream(new String[]{"rec"}, "<h>", "</h>", "<id>(.*?)</id>", null).clone().setRso(this);
+		int pos = 0;
+		int chunk = 1;
+		while(pos < bytes.length) {
+			int len = Math.min(chunk, bytes.length - pos);
+			xros.write(bytes, pos, len);
+			pos += len;
+			chunk = (chunk % 7) + 1;
+		}
+		xros.close();
+		assertEquals(2, this.ids.size());
+		assertEquals("1", this.ids.get(0));
+		assertEquals("<h><rec><id> 1 </id><v>a&gt;b</v></rec></h>", this.records.get(0));
+		assertEquals("2", this.ids.get(1));
+		assertEquals("<h><rec><id>2</id></rec></h>", this.records.get(1));
+	}
+	
+	/**
+	 * Test that single byte writes give the same records
+	 * @throws IOException error writing
+	 */
+	public void testSplitBytes() throws IOException {
+		String data = "<a><b>1</b></a>junk<a><b>2</b></a>";
+		XMLRecordOutputStream xros = new XMLRecordOutputStream(new String[]{"a"}, "", "", "<b>(.*?)</b>", this);
+		for(byte b : data.getBytes()) {
+			xros.write(b);
+		}
+		assertEquals(2, this.records.size());
+		assertEquals("2", this.ids.get(1));
+		assertEquals("<a><b>2</b></a>", this.records.get(1));
+	}
+}